@@ -0,0 +1,283 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.Linker;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Diagnostic information about a native method which is {@linkplain Critical#adaptive() adaptively linked}.
+ * <p>
+ * An adaptively linked method is initially linked as a regular call, and the duration of each call is measured
+ * until the warm-up period is complete.
+ * If no more than one percent of the measured calls exceed the threshold duration, the method is relinked as a
+ * {@linkplain Linker.Option#critical(boolean) critical} call; otherwise, it is relinked as a regular call
+ * without measurement.
+ * While the method is linked as a critical call, the duration of randomly sampled calls continues to be measured,
+ * and the method is relinked as a regular call if too many of the sampled calls exceed the threshold duration.
+ * <p>
+ * The following system properties may be used to configure adaptive linkage:
+ * <ul>
+ * <li>{@code io.smallrye.ffm.adaptive.threshold-nanos} - the duration in nanoseconds above which a call is considered
+ * to be long (default {@code 5000})</li>
+ * <li>{@code io.smallrye.ffm.adaptive.warm-up-calls} - the number of calls to measure before making a linkage decision
+ * (default {@code 1000})</li>
+ * <li>{@code io.smallrye.ffm.adaptive.sample-interval} - the approximate number of critical calls per sampled call,
+ * rounded up to a power of two (default {@code 1024})</li>
+ * </ul>
+ */
+public final class AdaptiveLinkage {
+    private static final long thresholdNanos = Long.getLong("io.smallrye.ffm.adaptive.threshold-nanos", 5_000);
+    private static final int warmUpCalls = Math.max(1, Integer.getInteger("io.smallrye.ffm.adaptive.warm-up-calls", 1_000));
+    private static final int sampleMask = Integer.highestOneBit(
+            Math.max(1, Integer.getInteger("io.smallrye.ffm.adaptive.sample-interval", 1_024)) * 2 - 1) - 1;
+    private static final Set<WeakReference<AdaptiveLinkage>> all = ConcurrentHashMap.newKeySet();
+    private static final ReferenceQueue<AdaptiveLinkage> cleared = new ReferenceQueue<>();
+
+    private static final MethodHandle nanoTime;
+    private static final MethodHandle record;
+    private static final MethodHandle sample;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            nanoTime = lookup.findStatic(System.class, "nanoTime", MethodType.methodType(long.class));
+            record = lookup.findVirtual(AdaptiveLinkage.class, "record", MethodType.methodType(void.class, long.class));
+            sample = lookup.findStatic(AdaptiveLinkage.class, "sample", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Bootstraps.toError(e);
+        }
+    }
+
+    private final Class<?> callerClass;
+    private final String descriptor;
+    private final MethodHandle regularHandle;
+    private final MethodHandle criticalHandle;
+    private final LinkageCallSite callSite;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.PROFILING);
+    // the statistics are updated without locking, so they may be slightly out of step with each other
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder longCalls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    // the counters which trigger linkage decisions
+    private final AtomicLong profiledCalls = new AtomicLong();
+    private final AtomicLong criticalCalls = new AtomicLong();
+    private final AtomicLong longCriticalCalls = new AtomicLong();
+
+    private AdaptiveLinkage(final Class<?> callerClass, final String descriptor, final MethodHandle regularHandle,
+            final MethodHandle criticalHandle) {
+        this.callerClass = callerClass;
+        this.descriptor = descriptor;
+        this.regularHandle = regularHandle;
+        this.criticalHandle = criticalHandle;
+        callSite = new LinkageCallSite(this, measured(regularHandle));
+    }
+
+    static CallSite create(final Class<?> callerClass, final String descriptor, final MethodHandle regularHandle,
+            final MethodHandle criticalHandle) {
+        AdaptiveLinkage linkage = new AdaptiveLinkage(callerClass, descriptor, regularHandle, criticalHandle);
+        // only the entries of linkages which were collected are removed, so linking does not scan every entry
+        Reference<? extends AdaptiveLinkage> ref;
+        while ((ref = cleared.poll()) != null) {
+            all.remove(ref);
+        }
+        all.add(new WeakReference<>(linkage, cleared));
+        return linkage.callSite;
+    }
+
+    /**
+     * {@return a list of all of the adaptively linked methods which have been linked so far (not {@code null})}
+     */
+    public static List<AdaptiveLinkage> all() {
+        List<AdaptiveLinkage> list = new ArrayList<>();
+        for (WeakReference<AdaptiveLinkage> ref : all) {
+            AdaptiveLinkage linkage = ref.get();
+            if (linkage != null) {
+                list.add(linkage);
+            }
+        }
+        return List.copyOf(list);
+    }
+
+    /**
+     * {@return the adaptively linked methods of the given class which have been linked so far (not {@code null})}
+     *
+     * @param clazz the class containing the native methods (must not be {@code null})
+     */
+    public static List<AdaptiveLinkage> of(Class<?> clazz) {
+        return all().stream().filter(l -> l.callerClass == clazz).toList();
+    }
+
+    /**
+     * {@return the class containing the adaptively linked method (not {@code null})}
+     */
+    public Class<?> callerClass() {
+        return callerClass;
+    }
+
+    /**
+     * {@return the native descriptor of the linked method (not {@code null})}
+     *
+     * @see Bootstraps#downcall
+     */
+    public String descriptor() {
+        return descriptor;
+    }
+
+    /**
+     * {@return the current linkage state (not {@code null})}
+     */
+    public State state() {
+        return state.get();
+    }
+
+    /**
+     * {@return the number of calls which were measured}
+     */
+    public long measuredCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * {@return the number of measured calls which exceeded the threshold duration}
+     */
+    public long longCalls() {
+        return longCalls.sum();
+    }
+
+    /**
+     * {@return the mean duration in nanoseconds of the measured calls, or {@code 0} if no calls were measured}
+     */
+    public long meanNanos() {
+        long calls = this.calls.sum();
+        return calls == 0 ? 0 : totalNanos.sum() / calls;
+    }
+
+    /**
+     * {@return the maximum duration in nanoseconds of the measured calls}
+     */
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "adaptive linkage of " + descriptor + " in " + callerClass.getName() + " (" + state() + ", " + measuredCalls()
+                + " measured calls, " + longCalls() + " long calls, max " + maxNanos() + " ns)";
+    }
+
+    /**
+     * The linkage state of an adaptively linked method.
+     */
+    public enum State {
+        /**
+         * The method is linked as a regular call, and every call is measured.
+         */
+        PROFILING,
+        /**
+         * The method is linked as a critical call, and calls are sampled at random.
+         */
+        CRITICAL,
+        /**
+         * The method is linked as a regular call, and calls are no longer measured.
+         */
+        REGULAR,
+        ;
+    }
+
+    private MethodHandle measured(MethodHandle handle) {
+        MethodType type = handle.type();
+        Class<?> returnType = type.returnType();
+        // (long start, args...)ret
+        MethodHandle target = MethodHandles.dropArguments(handle, 0, long.class);
+        // (Throwable, [ret,] long start, args...)ret
+        MethodHandle cleanup;
+        if (returnType == void.class) {
+            cleanup = MethodHandles.dropArguments(record.bindTo(this), 0, Throwable.class);
+        } else {
+            cleanup = MethodHandles.foldArguments(
+                    MethodHandles.dropArguments(MethodHandles.identity(returnType), 1, long.class), 1, record.bindTo(this));
+            cleanup = MethodHandles.dropArguments(cleanup, 0, Throwable.class);
+        }
+        cleanup = MethodHandles.dropArguments(cleanup, cleanup.type().parameterCount(), type.parameterList());
+        return MethodHandles.foldArguments(MethodHandles.tryFinally(target, cleanup), nanoTime);
+    }
+
+    @SuppressWarnings("unused") // called via method handle
+    private static boolean sample() {
+        // a per-thread random decision, so that critical calls on different threads do not share a counter
+        return (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+    }
+
+    @SuppressWarnings("unused") // called via method handle
+    private void record(long start) {
+        long elapsed = System.nanoTime() - start;
+        boolean isLong = elapsed > thresholdNanos;
+        calls.increment();
+        totalNanos.add(elapsed);
+        if (elapsed > maxNanos.get()) {
+            maxNanos.accumulateAndGet(elapsed, Math::max);
+        }
+        if (isLong) {
+            longCalls.increment();
+        }
+        switch (state.get()) {
+            case PROFILING -> {
+                // exactly one call completes the warm-up period
+                if (profiledCalls.incrementAndGet() == warmUpCalls) {
+                    if (longCalls.sum() <= warmUpCalls / 100) {
+                        relink(State.PROFILING, State.CRITICAL,
+                                MethodHandles.guardWithTest(sample, measured(criticalHandle), criticalHandle));
+                    } else {
+                        relink(State.PROFILING, State.REGULAR, regularHandle);
+                    }
+                }
+            }
+            case CRITICAL -> {
+                long criticalCalls = this.criticalCalls.incrementAndGet();
+                long longCriticalCalls = isLong ? this.longCriticalCalls.incrementAndGet() : this.longCriticalCalls.get();
+                if (longCriticalCalls > 1 + criticalCalls / 100) {
+                    // the calls are not reliably short anymore
+                    relink(State.CRITICAL, State.REGULAR, regularHandle);
+                }
+            }
+            case REGULAR -> {
+                // a call which was already in progress when the linkage changed
+            }
+        }
+    }
+
+    // linkage changes are rare, so they are serialized to keep the call site target consistent with the state
+    private synchronized void relink(State expected, State newState, MethodHandle target) {
+        if (state.get() == expected) {
+            callSite.setTarget(target);
+            state.set(newState);
+        }
+    }
+
+    static final class LinkageCallSite extends MutableCallSite {
+        // keep the linkage information reachable for as long as the call site is
+        @SuppressWarnings("unused")
+        private final AdaptiveLinkage linkage;
+
+        LinkageCallSite(final AdaptiveLinkage linkage, final MethodHandle target) {
+            super(target);
+            this.linkage = linkage;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.nio.Buffer;
+
+/**
+ * Advance the position of the annotated {@link Buffer} parameter by the value returned from the native call.
+ * The return type of the method must be an integer type.
+ * If the returned value is negative (which conventionally indicates an error), the position is not changed.
+ */
+@Target(PARAMETER)
+@Retention(CLASS)
+public @interface Advance {
+    /**
+     * {@return {@code true} if the returned value is a count of buffer elements, or {@code false} if it is a count of
+     * bytes}
+     */
+    boolean elements() default false;
+}
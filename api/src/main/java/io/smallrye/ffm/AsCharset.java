@@ -12,8 +12,11 @@ import java.lang.annotation.Target;
  * The type must be one of:
  * <ul>
  * <li>{@code String}</li>
+ * <li>{@code CharSequence} (parameters only)</li>
  * <li>{@code char[]} (as a UTF-16 source/target)</li>
  * </ul>
+ * A {@code char[]} parameter which is annotated with this annotation is encoded as an input-only
+ * {@code NUL}-terminated string, rather than being passed as an array of 16-bit values.
  * The default character encoding is the platform native encoding.
  */
 @Retention(CLASS)
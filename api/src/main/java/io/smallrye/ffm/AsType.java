@@ -65,6 +65,8 @@ public enum AsType {
     /**
      * The type of C's {@code wchar_t} type on this platform.
      * This type may be 16 or 32 bits so care should be taken when creating or interpreting values of this type.
+     * When applied to a {@code String}, {@code CharSequence}, or {@code char[]} parameter, or to a {@code String}
+     * return value, the string is passed as a pointer to a {@code NUL}-terminated wide string.
      */
     stdc_wchar_t(Bootstraps.stdc_wchar_is_signed ? Signedness.signed : Signedness.unsigned),
 
@@ -0,0 +1,47 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Indicate that the linked native function is called asynchronously.
+ * The method must return a {@link java.util.concurrent.CompletableFuture CompletableFuture}, whose type argument
+ * gives the Java type of the native result: {@link Void} for functions which return nothing,
+ * a primitive wrapper type such as {@link Integer}, or {@link java.lang.foreign.MemorySegment MemorySegment}
+ * for pointers.
+ * An {@link As @As} annotation on the method gives the native type of the result, as usual.
+ * <p>
+ * The arguments are converted on the calling thread, so that arrays, strings, and heap segments are copied
+ * to native memory before the method returns; the caller may then reuse them freely.
+ * The downcall itself is made on a bounded pool of platform threads, and the returned future is completed
+ * with its result.
+ * Because the call completes after the method returns, parameters cannot be {@link Out @Out} or
+ * {@link Advance @Advance}, and arrays are copied in only.
+ * Native segment arguments, and any {@link java.lang.foreign.Arena Arena} or
+ * {@link java.lang.foreign.SegmentAllocator SegmentAllocator} argument, must be usable from other threads
+ * until the future is completed; segments which are allocated from a
+ * {@linkplain java.lang.foreign.Arena#ofConfined() confined arena} are not.
+ * <p>
+ * An {@link ErrnoConsumer} argument is given the {@code errno} value of the call on the pool thread,
+ * before the future is completed, so that the value is visible to any thread which observes the completion.
+ * Other call state consumers and {@link Callback @Callback} parameters are not supported.
+ * Cancelling the future does not interrupt the native call.
+ * <p>
+ * For example:
+ *
+ * <pre>{@code
+ * @Link
+ * @Async
+ * @As(AsType.size_t)
+ * static native CompletableFuture<Long> strlen(String str);
+ * }</pre>
+ *
+ * The pool and its metrics are described by {@link AsyncCalls}.
+ */
+@Retention(CLASS)
+@Target(METHOD)
+public @interface Async {
+}
@@ -0,0 +1,123 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A call to an {@link Async @Async} native method, which is made on the {@linkplain AsyncCalls async call pool}.
+ * Instances are created by {@link Bootstraps#async}.
+ */
+final class AsyncCall {
+    private static final MethodHandle INVOKE;
+
+    static {
+        try {
+            INVOKE = MethodHandles.lookup().findVirtual(AsyncCall.class, "invoke",
+                    MethodType.methodType(CompletableFuture.class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Bootstraps.toError(e);
+        }
+    }
+
+    private final MethodHandle target;
+
+    private AsyncCall(final MethodHandle target) {
+        int cnt = target.type().parameterCount();
+        this.target = target.asSpreader(Object[].class, cnt).asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    /**
+     * {@return a method handle of the given type which makes asynchronous calls to the given target}
+     * The handle accepts the arguments of the target, followed by the arena which owns the converted arguments
+     * (or {@code null}), the call state segment (or {@code null}), and the {@code errno} consumer (or {@code null}).
+     *
+     * @param target the method handle which performs the downcall (must not be {@code null})
+     * @param type the type of the call (must not be {@code null})
+     */
+    static MethodHandle handle(final MethodHandle target, final MethodType type) {
+        return INVOKE.bindTo(new AsyncCall(target)).asCollector(Object[].class, type.parameterCount()).asType(type);
+    }
+
+    private CompletableFuture<Object> invoke(final Object[] args) {
+        int cnt = args.length - 3;
+        Task task = new Task(Arrays.copyOf(args, cnt), (Arena) args[cnt], (MemorySegment) args[cnt + 1],
+                (ErrnoConsumer) args[cnt + 2]);
+        try {
+            AsyncCalls.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            AsyncCalls.recordRejected();
+            task.closeArena(e);
+            task.future.completeExceptionally(e);
+        }
+        return task.future;
+    }
+
+    /**
+     * A call which runs on the pool.
+     */
+    final class Task implements Runnable {
+        private final Object[] args;
+        private final Arena arena;
+        private final MemorySegment capture;
+        private final ErrnoConsumer consumer;
+        private final long submitted = System.nanoTime();
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Task(final Object[] args, final Arena arena, final MemorySegment capture, final ErrnoConsumer consumer) {
+            this.args = args;
+            this.arena = arena;
+            this.capture = capture;
+            this.consumer = consumer;
+        }
+
+        public void run() {
+            long start = System.nanoTime();
+            Object result = null;
+            Errno errno = null;
+            Throwable problem = null;
+            try {
+                result = target.invokeExact(args);
+                if (consumer != null) {
+                    // read the call state before it is freed
+                    errno = Errno.fromCallState(capture);
+                }
+            } catch (Throwable t) {
+                problem = t;
+            }
+            problem = closeArena(problem);
+            AsyncCalls.recordCompleted(start - submitted, System.nanoTime() - start);
+            if (problem == null && consumer != null) {
+                try {
+                    consumer.accept(errno);
+                } catch (Throwable t) {
+                    problem = t;
+                }
+            }
+            if (problem == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(problem);
+            }
+        }
+
+        Throwable closeArena(final Throwable problem) {
+            if (arena != null) {
+                try {
+                    arena.close();
+                } catch (Throwable t) {
+                    if (problem == null) {
+                        return t;
+                    }
+                    problem.addSuppressed(t);
+                }
+            }
+            return problem;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.smallrye.ffm;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The pool of platform threads which make {@link Async @Async} native calls, and its metrics.
+ * <p>
+ * The following system properties may be used to configure the pool:
+ * <ul>
+ * <li>{@code io.smallrye.ffm.async.max-threads} - the maximum number of threads which make asynchronous calls
+ * (default is the number of available processors)</li>
+ * <li>{@code io.smallrye.ffm.async.max-queue} - the maximum number of calls which may wait for a thread;
+ * further calls are rejected, completing their futures exceptionally with a
+ * {@link java.util.concurrent.RejectedExecutionException RejectedExecutionException} (default {@code 1024})</li>
+ * </ul>
+ * The metrics are cumulative since the pool was created, and are updated once each call is complete.
+ */
+public final class AsyncCalls {
+    private static final int maxThreads = Math.max(1,
+            Integer.getInteger("io.smallrye.ffm.async.max-threads", Runtime.getRuntime().availableProcessors()));
+    private static final int maxQueue = Math.max(1, Integer.getInteger("io.smallrye.ffm.async.max-queue", 1024));
+
+    static final ThreadPoolExecutor executor;
+
+    private static final LongAdder completed = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+    private static final LongAdder totalQueueNanos = new LongAdder();
+    private static final LongAdder totalCallNanos = new LongAdder();
+    private static final AtomicLong maxQueueNanos = new AtomicLong();
+    private static final AtomicLong maxCallNanos = new AtomicLong();
+
+    static {
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueue),
+                Thread.ofPlatform().daemon().name("smallrye-ffm-async-", 1).factory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private AsyncCalls() {
+    }
+
+    /**
+     * {@return the number of calls which are waiting for a thread}
+     */
+    public static int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * {@return the approximate number of calls which are in progress}
+     */
+    public static int activeCalls() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * {@return the number of calls which have completed, successfully or not}
+     */
+    public static long completedCalls() {
+        return completed.sum();
+    }
+
+    /**
+     * {@return the number of calls which were rejected because the queue was full}
+     */
+    public static long rejectedCalls() {
+        return rejected.sum();
+    }
+
+    /**
+     * {@return the total time in nanoseconds that completed calls waited for a thread}
+     */
+    public static long totalQueueNanos() {
+        return totalQueueNanos.sum();
+    }
+
+    /**
+     * {@return the longest time in nanoseconds that a completed call waited for a thread}
+     */
+    public static long maxQueueNanos() {
+        return maxQueueNanos.get();
+    }
+
+    /**
+     * {@return the total time in nanoseconds taken by completed calls, not including time spent in the queue}
+     */
+    public static long totalCallNanos() {
+        return totalCallNanos.sum();
+    }
+
+    /**
+     * {@return the longest time in nanoseconds taken by a completed call, not including time spent in the queue}
+     */
+    public static long maxCallNanos() {
+        return maxCallNanos.get();
+    }
+
+    static void recordRejected() {
+        rejected.increment();
+    }
+
+    static void recordCompleted(final long queueNanos, final long callNanos) {
+        totalQueueNanos.add(queueNanos);
+        totalCallNanos.add(callNanos);
+        maxQueueNanos.accumulateAndGet(queueNanos, Math::max);
+        maxCallNanos.accumulateAndGet(callNanos, Math::max);
+        completed.increment();
+    }
+}
@@ -0,0 +1,43 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Indicate that the linked method calls the native function once for each element of its array arguments.
+ * <p>
+ * Each parameter of a batch method must be one of:
+ * <ul>
+ * <li>An array of primitive type, whose elements give the corresponding argument of each call;
+ * the parameter may be annotated with {@link As @As} to give the native type of the argument</li>
+ * <li>An array of primitive type annotated with {@link Out @Out} (max 1), which receives the result
+ * of each call</li>
+ * <li>{@code Errno[]} (max 1), which receives the value of {@code errno} after each call</li>
+ * </ul>
+ * The return type must be {@code void}, or an array of primitive type which receives the result of each call
+ * (in which case there may be no {@code @Out} parameter).
+ * The method may be annotated with {@link As @As} to give the native type of the result.
+ * For example:
+ *
+ * <pre>{@code
+ * @Link
+ * @Batch
+ * static native long[] labs(long[] values);
+ * }</pre>
+ *
+ * The number of calls is given by the length of the first array parameter;
+ * an {@link IndexOutOfBoundsException} is thrown before the first call if any other array parameter is shorter.
+ * Calls are made in order, reusing a single state capture buffer, so that the cost of each call is
+ * close to that of the native transition itself.
+ * An error which is reported by way of {@code errno} does not stop the batch;
+ * the errors of each call are reported at the corresponding index of the {@code Errno[]} parameter.
+ * As with {@link ErrnoConsumer}, {@code errno} is generally not cleared by libraries, so the result of each call
+ * should be checked to determine whether the corresponding {@code errno} value is meaningful.
+ */
+@Retention(CLASS)
+@Target(METHOD)
+public @interface Batch {
+}
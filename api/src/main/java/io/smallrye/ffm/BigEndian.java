@@ -0,0 +1,20 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Pass the elements of the annotated primitive array parameter in big-endian (network) byte order,
+ * regardless of the native byte order of the platform.
+ * The elements are converted when they are copied to and from native memory.
+ * This annotation may be combined with {@link As @As} to also change the native element type.
+ *
+ * @see NativeArrays
+ */
+@Target(PARAMETER)
+@Retention(CLASS)
+public @interface BigEndian {
+}
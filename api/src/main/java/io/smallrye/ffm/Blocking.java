@@ -0,0 +1,41 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Indicate that the linked native function may block for a long time, for example waiting for I/O, a lock,
+ * or another process.
+ * <p>
+ * A virtual thread which makes a native call holds its carrier thread for the duration of the call,
+ * which may starve the virtual thread scheduler.
+ * When a blocking method is called from a virtual thread, the call is instead made on a separate pool
+ * of platform threads, and the virtual thread waits for its completion without holding its carrier.
+ * When a blocking method is called from a {@link java.util.concurrent.ForkJoinPool ForkJoinPool} worker thread,
+ * the call is made {@linkplain java.util.concurrent.ForkJoinPool#managedBlock managed}, so that the pool
+ * may compensate for the blocked worker.
+ * Calls from other threads are made directly.
+ * <p>
+ * The call can only be moved to another thread if each of its segment, buffer, and array of segment or buffer
+ * arguments is accessible from other threads; segments which are allocated from a
+ * {@linkplain java.lang.foreign.Arena#ofConfined() confined arena} are not.
+ * Such calls, as well as calls which are given an {@link java.lang.foreign.Arena Arena} or
+ * {@link java.lang.foreign.SegmentAllocator SegmentAllocator}, are always made directly.
+ * Calls which are moved to another thread cannot be interrupted; the interrupt status of the calling thread is
+ * restored once the call is complete.
+ * Any {@link ErrnoConsumer} or similar argument is called on the thread which makes the call.
+ * <p>
+ * The following system property may be used to configure the blocking call pool:
+ * <ul>
+ * <li>{@code io.smallrye.ffm.blocking.max-threads} - the maximum number of platform threads which make blocking calls
+ * for virtual threads; further calls wait for a thread to become available (default {@code 256})</li>
+ * </ul>
+ * Methods which are not annotated with {@code @Blocking} are always called directly, without any overhead.
+ */
+@Retention(CLASS)
+@Target(METHOD)
+public @interface Blocking {
+}
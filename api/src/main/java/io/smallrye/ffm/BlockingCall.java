@@ -0,0 +1,194 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.Buffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A call to a {@link Blocking @Blocking} native method.
+ * Instances are created by {@link Bootstraps#blocking}.
+ */
+final class BlockingCall {
+    private static final int maxThreads = Math.max(1, Integer.getInteger("io.smallrye.ffm.blocking.max-threads", 256));
+    private static final ThreadPoolExecutor executor;
+    /**
+     * A thread which is never started, used to determine whether segments are accessible from other threads.
+     */
+    private static final Thread otherThread = Thread.ofPlatform().unstarted(() -> {
+    });
+
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle MUST_COMPENSATE;
+
+    static {
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                Thread.ofPlatform().daemon().name("smallrye-ffm-blocking-", 1).factory());
+        executor.allowCoreThreadTimeOut(true);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            INVOKE = lookup.findVirtual(BlockingCall.class, "invoke", MethodType.methodType(Object.class, Object[].class));
+            MUST_COMPENSATE = lookup.findStatic(BlockingCall.class, "mustCompensate",
+                    MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Bootstraps.toError(e);
+        }
+    }
+
+    private final MethodHandle target;
+    private final boolean[] checked;
+    private final boolean direct;
+
+    private BlockingCall(final MethodHandle target) {
+        MethodType type = target.type();
+        int cnt = type.parameterCount();
+        this.target = target.asSpreader(Object[].class, cnt).asType(MethodType.methodType(Object.class, Object[].class));
+        checked = new boolean[cnt];
+        boolean direct = false;
+        for (int i = 0; i < cnt; i++) {
+            Class<?> paramType = type.parameterType(i);
+            checked[i] = paramType == MemorySegment.class || Buffer.class.isAssignableFrom(paramType)
+                    || paramType == MemorySegment[].class || paramType.isArray()
+                            && Buffer.class.isAssignableFrom(paramType.componentType());
+            // allocators may be confined, but cannot be checked
+            direct |= SegmentAllocator.class.isAssignableFrom(paramType);
+        }
+        this.direct = direct;
+    }
+
+    /**
+     * {@return a method handle which makes blocking calls to the given target}
+     * Calls from threads which do not need compensation invoke the target directly.
+     *
+     * @param target the method handle which performs the downcall (must not be {@code null})
+     */
+    static MethodHandle handle(final MethodHandle target) {
+        MethodType type = target.type();
+        MethodHandle blocking = INVOKE.bindTo(new BlockingCall(target))
+                .asCollector(Object[].class, type.parameterCount())
+                .asType(type);
+        return MethodHandles.guardWithTest(
+                MethodHandles.dropArguments(MUST_COMPENSATE, 0, type.parameterList()),
+                blocking,
+                target);
+    }
+
+    private static boolean mustCompensate() {
+        Thread thread = Thread.currentThread();
+        return thread.isVirtual() || thread instanceof ForkJoinWorkerThread;
+    }
+
+    private Object invoke(final Object[] args) throws Throwable {
+        if (Thread.currentThread().isVirtual()) {
+            if (direct || !accessibleFromOtherThreads(args)) {
+                return target.invokeExact(args);
+            }
+            return offload(args);
+        } else {
+            Blocker blocker = new Blocker(args);
+            ForkJoinPool.managedBlock(blocker);
+            return blocker.result();
+        }
+    }
+
+    private boolean accessibleFromOtherThreads(final Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (checked[i] && !accessibleFromOtherThreads(args[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean accessibleFromOtherThreads(final Object arg) {
+        return switch (arg) {
+            case null -> true;
+            case MemorySegment segment -> segment.isAccessibleBy(otherThread);
+            case Buffer buffer -> !buffer.isDirect() || MemorySegment.ofBuffer(buffer).isAccessibleBy(otherThread);
+            case Object[] array -> {
+                for (Object item : array) {
+                    if (!accessibleFromOtherThreads(item)) {
+                        yield false;
+                    }
+                }
+                yield true;
+            }
+            default -> true;
+        };
+    }
+
+    private Object offload(final Object[] args) throws Throwable {
+        FutureTask<Object> task = new FutureTask<>(() -> {
+            try {
+                return target.invokeExact(args);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            }
+        });
+        executor.execute(task);
+        // the native call cannot be interrupted, so wait for it regardless
+        boolean intr = false;
+        try {
+            for (;;) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    intr = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A managed blocker which makes the call on the current thread.
+     */
+    final class Blocker implements ForkJoinPool.ManagedBlocker {
+        private final Object[] args;
+        private Object result;
+        private Throwable problem;
+        private boolean done;
+
+        Blocker(final Object[] args) {
+            this.args = args;
+        }
+
+        public boolean block() {
+            try {
+                result = target.invokeExact(args);
+            } catch (Throwable t) {
+                problem = t;
+            }
+            done = true;
+            return true;
+        }
+
+        public boolean isReleasable() {
+            return done;
+        }
+
+        Object result() throws Throwable {
+            if (problem != null) {
+                throw problem;
+            }
+            return result;
+        }
+    }
+}
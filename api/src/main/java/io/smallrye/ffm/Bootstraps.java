@@ -22,6 +22,9 @@ import java.lang.invoke.MethodType;
 import java.lang.invoke.VarHandle;
 import java.lang.invoke.WrongMethodTypeException;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -29,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.smallrye.common.constraint.Assert;
@@ -43,6 +48,7 @@ public final class Bootstraps {
     }
 
     private static final Linker.Option[] NO_OPTIONS = new Linker.Option[0];
+    private static final MemoryLayout[] NO_LAYOUTS = new MemoryLayout[0];
 
     /* @formatter:off */
     /**
@@ -456,6 +462,19 @@ public final class Bootstraps {
         return new ConstantCallSite(mh);
     }
 
+    /**
+     * Invoke-dynamic bootstrap which invokes a downcall method handle which does not pass or return structures.
+     *
+     * @param lookup the caller lookup, provided by the JVM (must not be {@code null})
+     * @param descStr the native descriptor string (must not be {@code null})
+     * @param type the method type corresponding to the downcall handle, provided by the JVM (must not be {@code null})
+     * @return a call site which invokes the downcall (not {@code null})
+     * @see #downcall(MethodHandles.Lookup, String, MethodType, MemoryLayout...)
+     */
+    public static CallSite downcall(MethodHandles.Lookup lookup, String descStr, MethodType type) {
+        return downcall(lookup, descStr, type, NO_LAYOUTS);
+    }
+
     /* @formatter:off */
     /**
      * Invoke-dynamic bootstrap which invokes a downcall method handle.
@@ -473,7 +492,7 @@ public final class Bootstraps {
 
     flag := 'e' | 'E' | 'W' | 'r' | 'R'
 
-    type := 'u' intType | 's' intType | 'e' | 'c' | 'w' | '*' | 'F' | 'D' | 'Z'
+    type := 'u' intType | 's' intType | 'e' | 'c' | 'w' | '*' | 'F' | 'D' | 'Z' | '$'
 
     retType := type | 'V'
 
@@ -487,6 +506,8 @@ public final class Bootstraps {
      * <li>{@code r} - indicate that the call is {@linkplain Linker.Option#critical(boolean) critical}
      * <li>{@code R} - indicate that the call is {@linkplain Linker.Option#critical(boolean) critical} and may access the Java
      * heap directly
+     * <li>{@code a} - indicate that the call is linked {@linkplain AdaptiveLinkage adaptively}, becoming
+     * {@linkplain Linker.Option#critical(boolean) critical} if the calls are observed to be short
      * </ul>
      * The following descriptor type sequences are recognized:
      * <ul>
@@ -515,22 +536,31 @@ public final class Bootstraps {
      * <li>{@code F} - a 32-bit floating-point value (Java and C {@code float})</li>
      * <li>{@code D} - a 64-bit floating-point value (Java and C {@code double})</li>
      * <li>{@code Z} - a {@code boolean} (equivalent to C {@code _Bool/bool}</li>
+     * <li>{@code $} - a structure passed or returned by value, whose layout is the next of the given
+     * structure layouts (passed as a {@link MemorySegment})</li>
      * </ul>
+     * If the return type is a structure, then the returned method handle accepts a {@link SegmentAllocator}
+     * after the symbol address, which is used to allocate the returned structure.
+     * Structure return values cannot be combined with call state capture.
      *
      * @param lookup the caller lookup, provided by the JVM (must not be {@code null})
      * @param descStr the native descriptor string (must not be {@code null})
      * @param type the method type corresponding to the downcall handle, provided by the JVM (must not be {@code null})
+     * @param structs the layouts of the structures in the descriptor, in order (must not be {@code null})
      * @return a call site which invokes the downcall (not {@code null})
      */
     /* @formatter:on */
-    public static CallSite downcall(MethodHandles.Lookup lookup, String descStr, MethodType type) {
+    public static CallSite downcall(MethodHandles.Lookup lookup, String descStr, MethodType type, MemoryLayout... structs) {
         MethodHandle handle;
         // the descriptors for downcall handles are indy-hostile, so map them more nicely
         boolean critical = false;
         boolean criticalHeap = false;
+        boolean adaptive = false;
         boolean captureErrno = false;
         boolean captureLastError = false;
         boolean captureWSALastError = false;
+        boolean structReturn = false;
+        int structCnt = 0;
         int variadic = -1;
         int argStart = -1;
         // always accept the function pointer as the first argument
@@ -548,6 +578,10 @@ public final class Bootstraps {
                                 argCount++;
                             }
                             case 'c', '*', 'Z', 'F', 'D' -> argCount++;
+                            case '$' -> {
+                                argCount++;
+                                structCnt++;
+                            }
                             case '.' -> variadic = argCount;
                             case ')' -> {
                                 for (h++; h < nameLen; h++) {
@@ -555,6 +589,10 @@ public final class Bootstraps {
                                         case 'u', 's' -> h++;
                                         case 'c', '*', 'Z', 'V' -> {
                                         }
+                                        case '$' -> {
+                                            structReturn = true;
+                                            structCnt++;
+                                        }
                                     }
                                 }
                                 // OK
@@ -571,12 +609,16 @@ public final class Bootstraps {
                 case 'W' -> captureWSALastError = true;
                 case 'r' -> critical = true;
                 case 'R' -> criticalHeap = true;
+                case 'a' -> adaptive = true;
                 default -> throw invalidDesc(descStr);
             }
         }
-        if (argStart == -1) {
+        if (argStart == -1 || adaptive && (critical || criticalHeap)) {
             throw invalidDesc(descStr);
         }
+        if (structCnt != structs.length) {
+            throw new IllegalArgumentException("Expected " + structCnt + " structure layouts for " + descStr);
+        }
 
         int size = 0;
         if (critical || criticalHeap) {
@@ -590,6 +632,9 @@ public final class Bootstraps {
         if (captureWSALastError)
             capture++;
         if (capture != 0) {
+            if (structReturn) {
+                throw new IllegalArgumentException("Structure return values cannot be combined with call state capture");
+            }
             size++;
             argCount++;
         }
@@ -636,7 +681,13 @@ public final class Bootstraps {
             }
         }
         // next, segment allocator (if any)
-        // todo: (for structure support)
+        if (structReturn) {
+            convs.add(null);
+            if (type.parameterType(param++) != SegmentAllocator.class) {
+                throw new IllegalArgumentException("Structure return allocator argument type must be SegmentAllocator");
+            }
+        }
+        int structIdx = 0;
         // finally, actual parameters
         boolean hasParamConv = false;
         for (int k = argStart; k < nameLen;) {
@@ -658,6 +709,11 @@ public final class Bootstraps {
                             desc = FunctionDescriptor.ofVoid(layouts.toArray(MemoryLayout[]::new));
                             k++;
                         }
+                        case '$' -> {
+                            // returned as a segment allocated from the given allocator
+                            desc = FunctionDescriptor.of(structs[structIdx++], layouts.toArray(MemoryLayout[]::new));
+                            k++;
+                        }
                         default -> {
                             if (type.returnType() != void.class) {
                                 // convert the type
@@ -671,44 +727,25 @@ public final class Bootstraps {
                         // extra chars
                         throw invalidDesc(descStr);
                     }
-                    // call downcallHandle(...) on behalf of the caller, to satisfy security checks
-                    MethodHandle linkDowncallHandle;
-                    try {
-                        linkDowncallHandle = lookup.findVirtual(Linker.class, "downcallHandle",
-                                MethodType.methodType(MethodHandle.class, FunctionDescriptor.class, Linker.Option[].class));
-                    } catch (NoSuchMethodException | IllegalAccessException e) {
-                        throw toError(e);
-                    }
-                    try {
-                        handle = (MethodHandle) linkDowncallHandle.invokeExact(Linker.nativeLinker(), desc, options);
-                    } catch (RuntimeException | Error e) {
-                        throw e;
-                    } catch (Throwable e) {
-                        throw new UndeclaredThrowableException(e);
-                    }
-                    MethodType downcallType = handle.type();
-                    int cnt = downcallType.parameterCount();
-                    if (cnt != type.parameterCount()) {
-                        throw wrongType(type, downcallType);
-                    }
-                    // perform explicit cast to requested type (if needed)
-                    if (hasParamConv) {
-                        handle = MethodHandles.filterArguments(handle, 0, convs.toArray(MethodHandle[]::new));
-                    }
-                    if (returnConv != null) {
-                        handle = MethodHandles.filterReturnValue(handle, returnConv);
-                    }
-                    if (fillErrno && captureErrno) {
-                        // special case: add errno-resetting hook if needed
-                        handle = MethodHandles.collectArguments(handle, 1, staticMethod(Bootstraps.class, "fillErrno",
-                                "(Ljava/lang/foreign/MemorySegment;)Ljava/lang/foreign/MemorySegment;", false));
-                    }
-                    if (handle.type().equals(type)) {
-                        return new ConstantCallSite(handle);
-                    } else {
-                        throw new IllegalArgumentException(
-                                "Return type mismatch\n\t\tExpected: " + type + "\n\t\tWas: " + handle.type());
+                    MethodHandle[] convArray = hasParamConv ? convs.toArray(MethodHandle[]::new) : null;
+                    handle = linkDowncall(lookup, type, desc, options, convArray, returnConv, captureErrno);
+                    if (adaptive) {
+                        // also link a critical variant, to switch to if the calls are short
+                        Linker.Option[] criticalOptions = new Linker.Option[options.length + 1];
+                        criticalOptions[0] = Linker.Option.critical(false);
+                        System.arraycopy(options, 0, criticalOptions, 1, options.length);
+                        MethodHandle criticalHandle = linkDowncall(lookup, type, desc, criticalOptions, convArray,
+                                returnConv, captureErrno);
+                        return AdaptiveLinkage.create(lookup.lookupClass(), descStr, handle, criticalHandle);
                     }
+                    return new ConstantCallSite(handle);
+                }
+                case '$' -> {
+                    // passed as a segment
+                    layouts.add(structs[structIdx++]);
+                    convs.add(null);
+                    param++;
+                    k++;
                 }
                 default -> {
                     MemoryLayout layout = layoutOf(descStr, k, isVar);
@@ -726,6 +763,437 @@ public final class Bootstraps {
         throw invalidDesc(descStr);
     }
 
+    /**
+     * A constant bootstrap for the native element layout of an array whose elements are converted
+     * to the given type.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param name the name of the {@link AsType} constant of the native element type (must not be {@code null})
+     * @param type the type {@code ValueLayout.class} (must not be {@code null})
+     * @param bigEndian {@code 1} if the elements are big-endian, or {@code 0} if they have the native byte order
+     * @return the element layout (not {@code null})
+     * @throws IllegalArgumentException if the type cannot be used for array elements
+     * @see NativeArrays
+     */
+    public static ValueLayout arrayElementLayout(MethodHandles.Lookup lookup, String name, Class<ValueLayout> type,
+            int bigEndian) {
+        if (type != ValueLayout.class) {
+            throw wrongType();
+        }
+        ValueLayout layout = switch (AsType.valueOf(name)) {
+            case stdc_char, stdc_signed_char, stdc_unsigned_char, s8, u8 -> ValueLayout.JAVA_BYTE;
+            case stdc_short, stdc_unsigned_short, s16, u16 -> ValueLayout.JAVA_SHORT;
+            case stdc_int, stdc_unsigned_int, s32, u32 -> ValueLayout.JAVA_INT;
+            case stdc_long, stdc_unsigned_long -> stdc_long_layout;
+            case stdc_long_long, stdc_unsigned_long_long, s64, u64, off_t -> ValueLayout.JAVA_LONG;
+            case stdc_wchar_t -> stdc_wchar_layout;
+            case intptr, uintptr, ssize_t, size_t -> cpu_is_64bit ? ValueLayout.JAVA_LONG : ValueLayout.JAVA_INT;
+            case f32 -> ValueLayout.JAVA_FLOAT;
+            case f64 -> ValueLayout.JAVA_DOUBLE;
+            default -> throw new IllegalArgumentException("Invalid array element type " + name);
+        };
+        return bigEndian != 0 ? layout.withOrder(ByteOrder.BIG_ENDIAN) : layout;
+    }
+
+    /**
+     * A constant bootstrap for a method handle which reads a native scalar value from memory
+     * and converts it to a Java type.
+     * The returned method handle accepts the segment containing the value and the byte offset of the value.
+     * <p>
+     * This method is called from generated bytecode for the components of records which are returned from
+     * methods annotated with {@link Out @Out}.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param desc the native descriptor of the value type, as given to {@link #downcall} (must not be {@code null})
+     * @param type the type {@code MethodHandle.class} (must not be {@code null})
+     * @param handleType the type of the returned method handle, which must accept a {@link MemorySegment}
+     *        and a {@code long}, and return the Java type of the value (must not be {@code null})
+     * @return the method handle (not {@code null})
+     * @throws IllegalArgumentException if the descriptor is invalid or cannot be converted to the Java type
+     */
+    public static MethodHandle outValue(MethodHandles.Lookup lookup, String desc, Class<MethodHandle> type,
+            MethodType handleType) {
+        if (type != MethodHandle.class) {
+            throw wrongType();
+        }
+        if (desc.isEmpty() || charCount(desc, 0) != desc.length()) {
+            throw invalidDesc(desc);
+        }
+        ValueLayout memoryLayout = memoryLayoutOf(desc);
+        MethodHandle handle = memoryLayout.varHandle().toMethodHandle(VarHandle.AccessMode.GET);
+        MethodHandle conv = memoryConvOf(desc, 0, memoryLayout, handleType.returnType());
+        if (conv != null) {
+            handle = MethodHandles.filterReturnValue(handle, conv);
+        }
+        if (!handle.type().equals(handleType)) {
+            throw new IllegalArgumentException(
+                    "Type mismatch\n\t\tExpected: " + handleType + "\n\t\tWas: " + handle.type());
+        }
+        return handle;
+    }
+
+    /**
+     * {@return a method handle which converts a native value of the exact width of the given type
+     * to the given Java type, or {@code null} if no conversion is needed}
+     *
+     * @param desc the native descriptor (must not be {@code null})
+     * @param offs the offset of the type in the descriptor
+     * @param memoryLayout the exact-width layout of the type, as given by {@link #memoryLayoutOf} (must not be {@code null})
+     * @param type the Java type (must not be {@code null})
+     */
+    private static MethodHandle memoryConvOf(String desc, int offs, ValueLayout memoryLayout, Class<?> type) {
+        Class<?> carrier = memoryLayout.carrier();
+        MethodHandle handle = MethodHandles.identity(carrier);
+        boolean unsigned = switch (desc.charAt(offs)) {
+            case 'u' -> true;
+            case 'c' -> !stdc_char_is_signed;
+            case 'w' -> !stdc_wchar_is_signed;
+            default -> false;
+        };
+        if (unsigned) {
+            // zero-extend so that the value may be safely sign-extended by the conversion
+            MethodHandle ext = switch (carrier.descriptorString()) {
+                case "B" -> staticMethod(Byte.class, "toUnsignedInt", "(B)I", false);
+                case "S" -> staticMethod(Short.class, "toUnsignedInt", "(S)I", false);
+                case "I" -> staticMethod(Integer.class, "toUnsignedLong", "(I)J", false);
+                default -> null;
+            };
+            if (ext != null) {
+                handle = ext;
+            }
+        }
+        // the conversion accepts the carrier type of the downcall layout
+        MethodHandle conv = outputConvOf(desc, offs, type);
+        Class<?> convType = conv == null ? type : conv.type().parameterType(0);
+        if (handle.type().returnType() != convType && convType.isPrimitive()) {
+            handle = MethodHandles.explicitCastArguments(handle, handle.type().changeReturnType(convType));
+        }
+        if (conv != null) {
+            handle = MethodHandles.filterReturnValue(handle, conv);
+        }
+        return handle.type().equals(MethodType.methodType(type, type)) ? null : handle;
+    }
+
+    /**
+     * A constant bootstrap for a method handle which converts a Java value and writes it to memory
+     * as a native scalar value.
+     * The returned method handle accepts the segment to write to, the byte offset of the value, and the value.
+     * <p>
+     * This method is called from generated bytecode for the components of {@link Struct @Struct} records.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param desc the native descriptor of the value type, as given to {@link #downcall} (must not be {@code null})
+     * @param type the type {@code MethodHandle.class} (must not be {@code null})
+     * @param handleType the type of the returned method handle, which must accept a {@link MemorySegment},
+     *        a {@code long}, and the Java type of the value, and return {@code void} (must not be {@code null})
+     * @return the method handle (not {@code null})
+     * @throws IllegalArgumentException if the descriptor is invalid or cannot be converted from the Java type
+     */
+    public static MethodHandle inValue(MethodHandles.Lookup lookup, String desc, Class<MethodHandle> type,
+            MethodType handleType) {
+        if (type != MethodHandle.class) {
+            throw wrongType();
+        }
+        if (desc.isEmpty() || charCount(desc, 0) != desc.length() || handleType.parameterCount() != 3) {
+            throw invalidDesc(desc);
+        }
+        ValueLayout memoryLayout = memoryLayoutOf(desc);
+        MethodHandle handle = memoryLayout.varHandle().toMethodHandle(VarHandle.AccessMode.SET);
+        // the conversion produces the carrier type of the downcall layout, which is narrowed to the memory layout
+        Class<?> valueType = handleType.parameterType(2);
+        MethodHandle conv = inputConvOf(desc, 0, valueType, false);
+        Class<?> convType = conv == null ? valueType : conv.type().returnType();
+        if (memoryLayout.carrier() != convType && convType.isPrimitive()) {
+            handle = MethodHandles.explicitCastArguments(handle, handle.type().changeParameterType(2, convType));
+        }
+        if (conv != null) {
+            handle = MethodHandles.filterArguments(handle, 2, conv);
+        }
+        if (!handle.type().equals(handleType)) {
+            throw new IllegalArgumentException(
+                    "Type mismatch\n\t\tExpected: " + handleType + "\n\t\tWas: " + handle.type());
+        }
+        return handle;
+    }
+
+    /**
+     * A constant bootstrap for the layout of a native scalar value as it is stored in memory,
+     * for use as a member of a structure.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param name the member name (must not be {@code null})
+     * @param type the type {@code ValueLayout.class} (must not be {@code null})
+     * @param desc the native descriptor of the value type, as given to {@link #downcall} (must not be {@code null})
+     * @return the named value layout (not {@code null})
+     */
+    public static ValueLayout memberLayout(MethodHandles.Lookup lookup, String name, Class<ValueLayout> type,
+            String desc) {
+        if (type != ValueLayout.class) {
+            throw wrongType();
+        }
+        if (desc.isEmpty() || charCount(desc, 0) != desc.length()) {
+            throw invalidDesc(desc);
+        }
+        return memoryLayoutOf(desc).withName(name);
+    }
+
+    /**
+     * A constant bootstrap which produces a structure layout (with an optional name) whose members are
+     * aligned according to the platform C rules.
+     * Padding is inserted before each member as needed to align it, and after the last member to align the
+     * size of the structure to its alignment, which is the largest alignment of any of its members.
+     * If the name is omitted or is equal to {@code _}, then the structure layout will not be named.
+     * <p>
+     * This method is called from generated bytecode for {@link Struct @Struct} records.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param name the layout name
+     * @param type the type {@code StructLayout.class} (must not be {@code null})
+     * @param members the members of the structure, without padding (must not be {@code null})
+     * @return the structure layout (not {@code null})
+     */
+    public static StructLayout nativeStructLayout(MethodHandles.Lookup lookup, String name, Class<StructLayout> type,
+            MemoryLayout... members) {
+        if (type != StructLayout.class) {
+            throw wrongType();
+        }
+        List<MemoryLayout> elements = new ArrayList<>(members.length * 2);
+        long offset = 0;
+        long align = 1;
+        for (MemoryLayout member : members) {
+            long memberAlign = member.byteAlignment();
+            long padding = -offset & memberAlign - 1;
+            if (padding > 0) {
+                elements.add(MemoryLayout.paddingLayout(padding));
+            }
+            elements.add(member);
+            offset += padding + member.byteSize();
+            align = Math.max(align, memberAlign);
+        }
+        long padding = -offset & align - 1;
+        if (padding > 0) {
+            elements.add(MemoryLayout.paddingLayout(padding));
+        }
+        StructLayout base = MemoryLayout.structLayout(elements.toArray(MemoryLayout[]::new));
+        if (name != null && !name.isEmpty() && !name.equals("_")) {
+            base = base.withName(name);
+        }
+        return base;
+    }
+
+    /**
+     * A constant bootstrap for the byte offset of a member of a structure.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param name the member name (must not be {@code null})
+     * @param type the type {@code long.class} (must not be {@code null})
+     * @param layout the structure layout (must not be {@code null})
+     * @return the byte offset of the member
+     */
+    public static long memberOffset(MethodHandles.Lookup lookup, String name, Class<?> type, StructLayout layout) {
+        if (type != long.class) {
+            throw wrongType();
+        }
+        return layout.byteOffset(MemoryLayout.PathElement.groupElement(name));
+    }
+
+    /**
+     * A constant bootstrap for the byte size of a structure.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param name the constant name (ignored)
+     * @param type the type {@code long.class} (must not be {@code null})
+     * @param layout the structure layout (must not be {@code null})
+     * @return the byte size of the structure
+     */
+    public static long structSize(MethodHandles.Lookup lookup, String name, Class<?> type, StructLayout layout) {
+        if (type != long.class) {
+            throw wrongType();
+        }
+        return layout.byteSize();
+    }
+
+    /**
+     * A constant bootstrap for the upcall stub cache of a {@link Callback @Callback} interface method.
+     * The descriptor has the form {@code '(' type* ')' retType}, using the types given by {@link #downcall}.
+     * Each native argument is received with the exact width of its native type (as it is stored in memory)
+     * and converted to the type of the corresponding parameter of the method, zero-extending unsigned values;
+     * the value returned by the method is converted to the native return type.
+     *
+     * @param lookup the caller lookup (populated by the JDK) (must not be {@code null})
+     * @param descStr the native descriptor string of the callback (must not be {@code null})
+     * @param type the type {@code UpcallStubs.class} (must not be {@code null})
+     * @param target the method handle of the interface method (must not be {@code null})
+     * @return the upcall stub cache (not {@code null})
+     * @throws IllegalArgumentException if the descriptor is invalid or does not match the method
+     */
+    public static UpcallStubs upcallStubs(MethodHandles.Lookup lookup, String descStr, Class<UpcallStubs> type,
+            MethodHandle target) {
+        if (type != UpcallStubs.class) {
+            throw wrongType();
+        }
+        int len = descStr.length();
+        if (len < 3 || descStr.charAt(0) != '(') {
+            throw invalidDesc(descStr);
+        }
+        MethodHandle handle = target;
+        List<MemoryLayout> layouts = new ArrayList<>();
+        int param = 1;
+        int k = 1;
+        while (descStr.charAt(k) != ')') {
+            if (param >= target.type().parameterCount()) {
+                throw invalidDesc(descStr);
+            }
+            // native arguments are not widened by upcalls, so they are received with their exact width
+            ValueLayout layout = memoryLayoutOf(descStr.substring(k, k + charCount(descStr, k)));
+            layouts.add(layout);
+            // native to Java
+            Class<?> paramType = target.type().parameterType(param);
+            MethodHandle conv = memoryConvOf(descStr, k, layout, paramType);
+            if (conv != null) {
+                handle = MethodHandles.filterArguments(handle, param, conv);
+            }
+            k += charCount(descStr, k);
+            param++;
+            if (k >= len) {
+                throw invalidDesc(descStr);
+            }
+        }
+        if (param != target.type().parameterCount() || k + 1 >= len) {
+            throw invalidDesc(descStr);
+        }
+        k++;
+        FunctionDescriptor desc;
+        if (descStr.charAt(k) == 'V') {
+            desc = FunctionDescriptor.ofVoid(layouts.toArray(MemoryLayout[]::new));
+        } else {
+            // Java to native
+            MethodHandle conv = inputConvOf(descStr, k, target.type().returnType(), false);
+            if (conv != null) {
+                handle = MethodHandles.filterReturnValue(handle, conv);
+            }
+            desc = FunctionDescriptor.of(layoutOf(descStr, k, false), layouts.toArray(MemoryLayout[]::new));
+        }
+        // bridge any remaining primitive differences to the layout carriers
+        MethodType upcallType = desc.toMethodType().insertParameterTypes(0, target.type().parameterType(0));
+        return new UpcallStubs(MethodHandles.explicitCastArguments(handle, upcallType), desc);
+    }
+
+    /**
+     * Invoke-dynamic bootstrap for a {@link Chunked @Chunked} native method, which splits the input of the call
+     * into chunks that are processed concurrently.
+     * The call type is the type of the method, which may include a {@code ForkJoinPool} parameter;
+     * the {@code chunk} method accepts the same parameters without the pool, and performs the downcall
+     * for one chunk.
+     *
+     * @param lookup the caller lookup, provided by the JVM (must not be {@code null})
+     * @param name the method name (ignored)
+     * @param type the type of the call, provided by the JVM (must not be {@code null})
+     * @param chunk the method handle which processes one chunk (must not be {@code null})
+     * @param lengthIndex the index of the {@code int} or {@code long} length parameter of the chunk method
+     * @param slices the bit set of the indices of the {@code MemorySegment} parameters of the chunk method
+     *        which are sliced for each chunk
+     * @param threshold the minimum number of elements in each chunk
+     * @param elementSize the size in bytes of each element
+     * @param combiner the method handle which combines two chunk results (at most one)
+     * @return a call site which performs the call (not {@code null})
+     * @throws IllegalArgumentException if the types of the call and the chunk method are not compatible
+     */
+    public static CallSite chunked(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle chunk,
+            int lengthIndex, long slices, long threshold, long elementSize, MethodHandle... combiner) {
+        if (combiner.length > 1) {
+            throw new IllegalArgumentException("Multiple combiners given");
+        }
+        int poolIndex = type.parameterList().indexOf(ForkJoinPool.class);
+        MethodType chunkType = chunk.type();
+        MethodType expected = poolIndex == -1 ? type : type.dropParameterTypes(poolIndex, poolIndex + 1);
+        if (!chunkType.equals(expected)) {
+            throw wrongType();
+        }
+        Class<?> lengthType = lengthIndex < 0 || lengthIndex >= chunkType.parameterCount() ? void.class
+                : chunkType.parameterType(lengthIndex);
+        if (lengthType != int.class && lengthType != long.class) {
+            throw new IllegalArgumentException("Invalid length parameter index " + lengthIndex + " for " + chunkType);
+        }
+        if (slices == 0 || 64 - Long.numberOfLeadingZeros(slices) > chunkType.parameterCount()) {
+            throw new IllegalArgumentException(
+                    "Invalid sliced parameters " + Long.toBinaryString(slices) + " for " + chunkType);
+        }
+        for (int i = 0; i < chunkType.parameterCount(); i++) {
+            if ((slices & 1L << i) != 0 && chunkType.parameterType(i) != MemorySegment.class) {
+                throw new IllegalArgumentException("Invalid sliced parameter index " + i + " for " + chunkType);
+            }
+        }
+        ChunkedCall call = new ChunkedCall(chunk, combiner.length == 0 ? null : combiner[0], threshold, elementSize,
+                poolIndex, lengthIndex, slices);
+        return new ConstantCallSite(call.handle(type));
+    }
+
+    /**
+     * Invoke-dynamic bootstrap for a {@link Blocking @Blocking} native method, which compensates for the calling
+     * thread while the downcall blocks.
+     *
+     * @param lookup the caller lookup, provided by the JVM (must not be {@code null})
+     * @param name the method name (ignored)
+     * @param type the type of the call, provided by the JVM (must not be {@code null})
+     * @param target the method handle which performs the downcall, whose type must be the type of the call
+     *        (must not be {@code null})
+     * @return a call site which performs the call (not {@code null})
+     */
+    public static CallSite blocking(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle target) {
+        if (!target.type().equals(type)) {
+            throw wrongType();
+        }
+        return new ConstantCallSite(BlockingCall.handle(target));
+    }
+
+    /**
+     * Invoke-dynamic bootstrap for a {@link Pure @Pure} native method, which caches the results of the downcall.
+     *
+     * @param lookup the caller lookup, provided by the JVM (must not be {@code null})
+     * @param name the method name (ignored)
+     * @param type the type of the call, provided by the JVM (must not be {@code null})
+     * @param target the method handle which performs the downcall, whose type must be the type of the call
+     *        (must not be {@code null})
+     * @param maxSize the maximum number of results to cache
+     * @param ttl the time in milliseconds after which cached results expire, or {@code 0} if they never expire
+     * @return a call site which performs the call (not {@code null})
+     */
+    public static CallSite pure(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle target,
+            int maxSize, long ttl) {
+        if (!target.type().equals(type)) {
+            throw wrongType();
+        }
+        return PureCall.callSite(target, maxSize, ttl);
+    }
+
+    /**
+     * Invoke-dynamic bootstrap for an {@link Async @Async} native method, which makes the downcall on the
+     * {@linkplain AsyncCalls async call pool}.
+     * The call type accepts the arguments of the downcall, followed by the {@link Arena} which owns the converted
+     * arguments, the call state {@link MemorySegment}, and the {@link ErrnoConsumer}, any of which may be {@code null};
+     * it returns a {@link CompletableFuture} which is completed with the result of the downcall.
+     * The arena is closed once the call is complete.
+     *
+     * @param lookup the caller lookup, provided by the JVM (must not be {@code null})
+     * @param descStr the native descriptor string (must not be {@code null})
+     * @param type the type of the call, provided by the JVM (must not be {@code null})
+     * @param downcallType the method type corresponding to the downcall handle (must not be {@code null})
+     * @param structs the layouts of the structures in the descriptor, in order (must not be {@code null})
+     * @return a call site which performs the call (not {@code null})
+     * @see #downcall(MethodHandles.Lookup, String, MethodType, MemoryLayout...)
+     */
+    public static CallSite async(MethodHandles.Lookup lookup, String descStr, MethodType type, MethodType downcallType,
+            MemoryLayout... structs) {
+        MethodType expected = downcallType.changeReturnType(CompletableFuture.class)
+                .appendParameterTypes(Arena.class, MemorySegment.class, ErrnoConsumer.class);
+        if (!type.equals(expected)) {
+            throw wrongType();
+        }
+        MethodHandle target = downcall(lookup, descStr, downcallType, structs).dynamicInvoker();
+        return new ConstantCallSite(AsyncCall.handle(target, type));
+    }
+
     /**
      * A constant bootstrap which returns an {@linkplain Arena#ofAuto automatic arena}.
      * The arena is garbage-collected with the class containing it.
@@ -780,6 +1248,201 @@ public final class Bootstraps {
         }
     }
 
+    /**
+     * Describe the given segments in a newly allocated native array of {@code struct iovec}.
+     * Heap segments are described by a temporary native copy.
+     * <p>
+     * This method is called from generated bytecode for {@code MemorySegment[]} parameters
+     * annotated with {@link IoVec @IoVec}.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param array the segments to describe (must not be {@code null})
+     * @param in {@code true} to copy the content of heap segments into their temporary copies
+     * @return the native {@code iovec} array (not {@code null})
+     */
+    public static MemorySegment copyIoVecToNative(SegmentAllocator allocator, MemorySegment[] array, boolean in) {
+        MemorySegment iov = allocator.allocate(ValueLayout.ADDRESS, array.length * 2L);
+        for (int i = 0; i < array.length; i++) {
+            setIoVec(allocator, iov, i, array[i], in);
+        }
+        return iov;
+    }
+
+    /**
+     * Describe the remaining bytes of the given buffers in a newly allocated native array of {@code struct iovec}.
+     * Heap buffers are described by a temporary native copy.
+     * <p>
+     * This method is called from generated bytecode for {@code ByteBuffer[]} parameters
+     * annotated with {@link IoVec @IoVec}.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param array the buffers to describe (must not be {@code null})
+     * @param in {@code true} to copy the content of heap buffers into their temporary copies
+     * @return the native {@code iovec} array (not {@code null})
+     */
+    public static MemorySegment copyIoVecToNative(SegmentAllocator allocator, ByteBuffer[] array, boolean in) {
+        MemorySegment iov = allocator.allocate(ValueLayout.ADDRESS, array.length * 2L);
+        for (int i = 0; i < array.length; i++) {
+            setIoVec(allocator, iov, i, bufferSegment(array[i]), in);
+        }
+        return iov;
+    }
+
+    private static void setIoVec(SegmentAllocator allocator, MemorySegment iov, int idx, MemorySegment seg, boolean in) {
+        if (seg == null) {
+            seg = MemorySegment.NULL;
+        } else if (!seg.isNative()) {
+            MemorySegment temp = allocator.allocate(seg.byteSize());
+            if (in) {
+                MemorySegment.copy(seg, 0, temp, 0, seg.byteSize());
+            }
+            seg = temp;
+        }
+        iov.setAtIndex(ValueLayout.ADDRESS, idx * 2L, seg);
+        // iov_len is a size_t
+        if (cpu_is_64bit) {
+            iov.setAtIndex(ValueLayout.JAVA_LONG, idx * 2L + 1, seg.byteSize());
+        } else {
+            iov.setAtIndex(ValueLayout.JAVA_INT, idx * 2L + 1, (int) seg.byteSize());
+        }
+    }
+
+    /**
+     * Copy the content of the temporary copies of any heap segments described by the given {@code iovec} array
+     * back into the heap segments.
+     * <p>
+     * This method is called from generated bytecode for {@code MemorySegment[]} parameters
+     * annotated with {@link IoVec @IoVec} and {@link Out @Out}.
+     *
+     * @param iov the native {@code iovec} array (must not be {@code null})
+     * @param array the described segments (must not be {@code null})
+     */
+    public static void copyIoVecFromNative(MemorySegment iov, MemorySegment[] array) {
+        for (int i = 0; i < array.length; i++) {
+            getIoVec(iov, i, array[i]);
+        }
+    }
+
+    /**
+     * Copy the content of the temporary copies of any heap buffers described by the given {@code iovec} array
+     * back into the heap buffers.
+     * The positions of the buffers are not changed.
+     * <p>
+     * This method is called from generated bytecode for {@code ByteBuffer[]} parameters
+     * annotated with {@link IoVec @IoVec} and {@link Out @Out}.
+     *
+     * @param iov the native {@code iovec} array (must not be {@code null})
+     * @param array the described buffers (must not be {@code null})
+     */
+    public static void copyIoVecFromNative(MemorySegment iov, ByteBuffer[] array) {
+        for (int i = 0; i < array.length; i++) {
+            ByteBuffer buf = array[i];
+            if (buf != null && !buf.isDirect()) {
+                getIoVec(iov, i, MemorySegment.ofBuffer(buf));
+            }
+        }
+    }
+
+    private static void getIoVec(MemorySegment iov, int idx, MemorySegment seg) {
+        if (seg != null && !seg.isNative()) {
+            MemorySegment temp = iov.getAtIndex(ValueLayout.ADDRESS, idx * 2L);
+            MemorySegment.copy(temp.reinterpret(seg.byteSize()), 0, seg, 0, seg.byteSize());
+        }
+    }
+
+    /**
+     * Advance the positions of the given buffers by the given total count, if it is positive.
+     * Each buffer is advanced by up to its remaining byte count before the next buffer is advanced.
+     * <p>
+     * This method is called from generated bytecode for {@code ByteBuffer[]} parameters
+     * annotated with {@link IoVec @IoVec} and {@link Advance @Advance}.
+     *
+     * @param count the count returned by the native call
+     * @param array the buffers to advance (must not be {@code null})
+     */
+    public static void advanceBuffers(long count, ByteBuffer[] array) {
+        for (int i = 0; count > 0 && i < array.length; i++) {
+            ByteBuffer buf = array[i];
+            if (buf != null) {
+                int cnt = (int) Math.min(count, buf.remaining());
+                buf.position(buf.position() + cnt);
+                count -= cnt;
+            }
+        }
+    }
+
+    /**
+     * Get a memory segment which covers the remaining elements of the given buffer.
+     * The segment is native if the buffer is direct, or a heap segment otherwise.
+     * <p>
+     * This method is called from generated bytecode for {@link Buffer} parameters.
+     *
+     * @param buffer the buffer, or {@code null} for none
+     * @return the memory segment, or {@link MemorySegment#NULL} if the buffer is {@code null} (not {@code null})
+     */
+    public static MemorySegment bufferSegment(Buffer buffer) {
+        return buffer == null ? MemorySegment.NULL : MemorySegment.ofBuffer(buffer);
+    }
+
+    /**
+     * Advance the position of the given buffer by the given count, if it is positive.
+     * <p>
+     * This method is called from generated bytecode for {@link Buffer} parameters
+     * annotated with {@link Advance @Advance}.
+     *
+     * @param count the count returned by the native call
+     * @param buffer the buffer to advance, or {@code null} for none
+     * @param shift the number of bits to shift the count right by to get a count of buffer elements
+     */
+    public static void advanceBuffer(long count, Buffer buffer, int shift) {
+        if (count > 0 && buffer != null) {
+            buffer.position(buffer.position() + Math.toIntExact(count >> shift));
+        }
+    }
+
+    private static MethodHandle linkDowncall(MethodHandles.Lookup lookup, MethodType type, FunctionDescriptor desc,
+            Linker.Option[] options, MethodHandle[] convs, MethodHandle returnConv, boolean captureErrno) {
+        // call downcallHandle(...) on behalf of the caller, to satisfy security checks
+        MethodHandle linkDowncallHandle;
+        try {
+            linkDowncallHandle = lookup.findVirtual(Linker.class, "downcallHandle",
+                    MethodType.methodType(MethodHandle.class, FunctionDescriptor.class, Linker.Option[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw toError(e);
+        }
+        MethodHandle handle;
+        try {
+            handle = (MethodHandle) linkDowncallHandle.invokeExact(Linker.nativeLinker(), desc, options);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+        MethodType downcallType = handle.type();
+        int cnt = downcallType.parameterCount();
+        if (cnt != type.parameterCount()) {
+            throw wrongType(type, downcallType);
+        }
+        // perform explicit cast to requested type (if needed)
+        if (convs != null) {
+            handle = MethodHandles.filterArguments(handle, 0, convs);
+        }
+        if (returnConv != null) {
+            handle = MethodHandles.filterReturnValue(handle, returnConv);
+        }
+        if (fillErrno && captureErrno) {
+            // special case: add errno-resetting hook if needed
+            handle = MethodHandles.collectArguments(handle, 1, staticMethod(Bootstraps.class, "fillErrno",
+                    "(Ljava/lang/foreign/MemorySegment;)Ljava/lang/foreign/MemorySegment;", false));
+        }
+        if (handle.type().equals(type)) {
+            return handle;
+        } else {
+            throw new IllegalArgumentException(
+                    "Return type mismatch\n\t\tExpected: " + type + "\n\t\tWas: " + handle.type());
+        }
+    }
+
     private static IllegalArgumentException invalidDesc(final String name) {
         return new IllegalArgumentException("Invalid native descriptor: " + name);
     }
@@ -801,7 +1464,7 @@ public final class Bootstraps {
     private static final boolean cpu_is_64bit = CPU.host().pointerSizeBits() == 64;
     static final boolean stdc_char_is_signed;
     static final boolean stdc_wchar_is_signed;
-    private static final boolean stdc_wchar_is_32bit;
+    static final boolean stdc_wchar_is_32bit;
 
     static {
         Map<String, MemoryLayout> layouts = Linker.nativeLinker().canonicalLayouts();
@@ -863,6 +1526,34 @@ public final class Bootstraps {
         };
     }
 
+    /**
+     * {@return the layout of the given native type as it is stored in memory}
+     * Unlike {@link #layoutOf}, small unsigned types are not widened.
+     *
+     * @param desc the native descriptor (must not be {@code null})
+     */
+    private static ValueLayout memoryLayoutOf(String desc) {
+        return switch (desc.charAt(0)) {
+            case 'u', 's' -> switch (desc.charAt(1)) {
+                case 'B', 'c' -> ValueLayout.JAVA_BYTE;
+                case 'S', 's' -> ValueLayout.JAVA_SHORT;
+                case 'I', 'i' -> ValueLayout.JAVA_INT;
+                case 'l' -> stdc_long_layout;
+                case 'J' -> ValueLayout.JAVA_LONG;
+                case '*' -> intptr_layout;
+                default -> throw invalidDesc(desc);
+            };
+            case 'e' -> ValueLayout.JAVA_INT;
+            case 'c' -> ValueLayout.JAVA_BYTE;
+            case 'w' -> stdc_wchar_layout;
+            case '*' -> ValueLayout.ADDRESS;
+            case 'Z' -> ValueLayout.JAVA_BOOLEAN;
+            case 'F' -> ValueLayout.JAVA_FLOAT;
+            case 'D' -> ValueLayout.JAVA_DOUBLE;
+            default -> throw invalidDesc(desc);
+        };
+    }
+
     // Replaced at build time with an actual method handle constant (so don't delete isInterface)
     private static MethodHandle staticMethod(Class<?> owner, String name, String descriptor,
             @SuppressWarnings("unused") boolean isInterface) {
@@ -0,0 +1,98 @@
+package io.smallrye.ffm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * A concurrent cache which evicts its oldest entries once it grows beyond its maximum size.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class BoundedCache<K, V> {
+    private final int maxSize;
+    private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<K> order = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maxSize the maximum number of entries to retain
+     */
+    BoundedCache(final int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * Get the cached value for the given key, computing and caching it if it is not present.
+     * The value may be computed more than once if the key is concurrently requested by several threads,
+     * in which case only one of the computed values is cached and returned.
+     *
+     * @param key the key (must not be {@code null})
+     * @param function the function to compute the value (must not be {@code null})
+     * @return the value (not {@code null})
+     */
+    V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+        V value = map.get(key);
+        if (value != null) {
+            return value;
+        }
+        return putIfAbsent(key, function.apply(key));
+    }
+
+    /**
+     * {@return the cached value for the given key, or {@code null} if there is none}
+     *
+     * @param key the key (must not be {@code null})
+     */
+    V get(K key) {
+        return map.get(key);
+    }
+
+    /**
+     * Cache the given value if there is no value for the given key, evicting the oldest entries if needed.
+     *
+     * @param key the key (must not be {@code null})
+     * @param value the value (must not be {@code null})
+     * @return the cached value, which is the existing value if there was one (not {@code null})
+     */
+    V putIfAbsent(K key, V value) {
+        if (maxSize == 0) {
+            return value;
+        }
+        V existing = map.putIfAbsent(key, value);
+        if (existing != null) {
+            return existing;
+        }
+        order.add(key);
+        while (map.size() > maxSize) {
+            K oldest = order.poll();
+            if (oldest == null) {
+                break;
+            }
+            map.remove(oldest);
+        }
+        return value;
+    }
+
+    /**
+     * Replace the cached value for the given key if it is the given value.
+     * The key retains its position in the eviction order.
+     *
+     * @param key the key (must not be {@code null})
+     * @param oldValue the expected cached value (must not be {@code null})
+     * @param newValue the new value (must not be {@code null})
+     * @return {@code true} if the value was replaced, or {@code false} if the cached value was not {@code oldValue}
+     */
+    boolean replace(K key, V oldValue, V newValue) {
+        return map.replace(key, oldValue, newValue);
+    }
+
+    /**
+     * {@return the number of cached entries}
+     */
+    int size() {
+        return map.size();
+    }
+}
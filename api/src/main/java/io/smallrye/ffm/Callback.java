@@ -0,0 +1,44 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a functional interface as a native callback type.
+ * <p>
+ * A native method parameter whose type is a callback interface is passed to the native function as a pointer
+ * to an upcall stub which invokes the single abstract method of the interface.
+ * The parameters and return type of that method must each be a primitive type or
+ * {@link java.lang.foreign.MemorySegment MemorySegment}, and may be annotated with {@link As @As}
+ * (on the method itself for the return type) to specify the native type, using the same rules as
+ * native method parameters and return values.
+ * For example:
+ *
+ * <pre>{@code
+ * @Callback
+ * interface Comparator {
+ *     int compare(MemorySegment a, MemorySegment b);
+ * }
+ *
+ * @Link
+ * static native void qsort(MemorySegment base, @As(AsType.size_t) long count, @As(AsType.size_t) long size,
+ *         Comparator comparator);
+ * }</pre>
+ *
+ * Upcall stubs are cached for each callback object, so passing the same object (such as a method reference
+ * to a static method, or a long-lived instance) many times creates only one stub.
+ * The stub is released once the callback object is no longer reachable.
+ * The callback object is kept reachable for the duration of the native call; if the native library retains
+ * the callback pointer beyond the call, then the caller must keep the callback object reachable for as long
+ * as the pointer may be used.
+ * <p>
+ * Callbacks must not throw exceptions; an exception thrown from a callback terminates the JVM.
+ * The interface must be compiled together with the class containing the native method.
+ */
+@Target(TYPE)
+@Retention(CLASS)
+public @interface Callback {
+}
@@ -0,0 +1,82 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Indicate that the linked native function may be called concurrently on disjoint slices of its input,
+ * so that large inputs are split into chunks which are processed in parallel.
+ * <p>
+ * The method must have exactly one {@code int} or {@code long} parameter annotated with {@link Length @Length},
+ * which gives the length of the input in elements, and at least one
+ * {@link java.lang.foreign.MemorySegment MemorySegment} parameter annotated with {@link Slice @Slice}.
+ * For each chunk, every {@code @Slice} parameter is sliced to the elements of that chunk (so, for example, an input
+ * and an output segment are sliced identically), the length parameter is given the number of elements in
+ * the chunk, and all other arguments (including any other segments, such as context pointers) are passed unchanged.
+ * For example:
+ *
+ * <pre>{@code
+ * @Link
+ * @Chunked(threshold = 1 << 20, combiner = "sum")
+ * static native long count_set_bits(@Chunked.Slice MemorySegment buf, @Chunked.Length @As(AsType.size_t) long len);
+ *
+ * static long sum(long a, long b) {
+ *     return a + b;
+ * }
+ * }</pre>
+ *
+ * If the method has a parameter of type {@link java.util.concurrent.ForkJoinPool ForkJoinPool}, then the
+ * chunks are run on that pool (this parameter is not propagated to the native method);
+ * otherwise the {@linkplain java.util.concurrent.ForkJoinPool#commonPool() common pool} is used.
+ * The calling thread processes the first chunk itself, and waits for the remaining chunks to complete.
+ * Segment arguments must therefore be accessible from the threads of the pool (for example, they may be
+ * allocated from a {@linkplain java.lang.foreign.Arena#ofShared() shared} or global arena).
+ * <p>
+ * If the method returns a value, then a {@link #combiner()} must be given to reduce the results of the chunks
+ * to a single result; the results are combined in order, from left to right.
+ * The function must therefore be one whose result for the whole input is the combination of its results for
+ * each part (such as a count or a sum over the elements), regardless of how the input is split.
+ * A method which returns {@code void} may not give a combiner.
+ */
+@Retention(CLASS)
+@Target(METHOD)
+public @interface Chunked {
+    /**
+     * {@return the minimum number of elements in each chunk}
+     * Inputs which are no larger than this are processed inline, without splitting.
+     */
+    long threshold() default 1 << 20;
+
+    /**
+     * {@return the size in bytes of each element, which is used to slice the segment parameters}
+     */
+    long elementSize() default 1;
+
+    /**
+     * {@return the name of a {@code static} method of the same class which combines two chunk results
+     * into one, or an empty string for none}
+     * The method must accept two arguments of the return type of the native method, and return that type.
+     */
+    String combiner() default "";
+
+    /**
+     * Indicate the {@code int} or {@code long} parameter of a chunked method which gives the length of its input
+     * in elements.
+     */
+    @Target(PARAMETER)
+    @Retention(CLASS)
+    @interface Length {
+    }
+
+    /**
+     * Indicate a {@link java.lang.foreign.MemorySegment MemorySegment} parameter of a chunked method which is
+     * sliced to the elements of each chunk.
+     */
+    @Target(PARAMETER)
+    @Retention(CLASS)
+    @interface Slice {
+    }
+}
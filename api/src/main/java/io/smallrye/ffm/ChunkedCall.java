@@ -0,0 +1,170 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A call to a {@link Chunked @Chunked} native method, which splits its input among the threads of a pool.
+ * Instances are created by {@link Bootstraps#chunked}.
+ */
+final class ChunkedCall {
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle IS_SMALL;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            INVOKE = lookup.findVirtual(ChunkedCall.class, "invoke", MethodType.methodType(Object.class, Object[].class));
+            IS_SMALL = lookup.findStatic(ChunkedCall.class, "isSmall",
+                    MethodType.methodType(boolean.class, long.class, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Bootstraps.toError(e);
+        }
+    }
+
+    private final MethodHandle direct;
+    private final MethodHandle chunk;
+    private final MethodHandle combiner;
+    private final long threshold;
+    private final long elementSize;
+    private final int poolIndex;
+    private final int lengthIndex;
+    private final boolean[] segments;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param chunk the method handle which processes one chunk, accepting the arguments of the call
+     *        without the pool (must not be {@code null})
+     * @param combiner the method handle which combines two chunk results, or {@code null} for none
+     * @param threshold the minimum number of elements of each chunk
+     * @param elementSize the size in bytes of each element
+     * @param poolIndex the index of the pool argument of the call, or {@code -1} if there is none
+     * @param lengthIndex the index of the length argument of {@code chunk}
+     * @param slices the bit set of the indices of the segment arguments of {@code chunk} which are sliced
+     */
+    ChunkedCall(final MethodHandle chunk, final MethodHandle combiner, final long threshold, final long elementSize,
+            final int poolIndex, final int lengthIndex, final long slices) {
+        MethodType chunkType = chunk.type();
+        int cnt = chunkType.parameterCount();
+        direct = chunk;
+        this.chunk = chunk.asSpreader(Object[].class, cnt).asType(MethodType.methodType(Object.class, Object[].class));
+        this.combiner = combiner == null ? null : combiner.asType(MethodType.genericMethodType(2));
+        this.threshold = Math.max(1, threshold);
+        this.elementSize = elementSize;
+        this.poolIndex = poolIndex;
+        this.lengthIndex = lengthIndex;
+        segments = new boolean[cnt];
+        for (int i = 0; i < cnt; i++) {
+            segments[i] = (slices & 1L << i) != 0;
+        }
+    }
+
+    /**
+     * {@return a method handle of the given type which performs this call}
+     * Inputs which are no larger than the threshold are passed directly to the chunk method,
+     * without collecting the arguments.
+     *
+     * @param type the type of the call (must not be {@code null})
+     */
+    MethodHandle handle(final MethodType type) {
+        MethodHandle split = INVOKE.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type);
+        MethodHandle inline = poolIndex == -1 ? direct
+                : MethodHandles.dropArguments(direct, poolIndex, ForkJoinPool.class);
+        int callLengthIndex = poolIndex != -1 && poolIndex <= lengthIndex ? lengthIndex + 1 : lengthIndex;
+        MethodHandle test = MethodHandles.insertArguments(IS_SMALL, 1, threshold)
+                .asType(MethodType.methodType(boolean.class, type.parameterType(callLengthIndex)));
+        test = MethodHandles.dropArguments(test, 0, type.parameterList().subList(0, callLengthIndex));
+        return MethodHandles.guardWithTest(test, inline.asType(type), split);
+    }
+
+    private static boolean isSmall(final long length, final long threshold) {
+        return length <= threshold;
+    }
+
+    private Object invoke(final Object[] args) throws Throwable {
+        ForkJoinPool pool;
+        Object[] chunkArgs;
+        if (poolIndex == -1) {
+            pool = ForkJoinPool.commonPool();
+            chunkArgs = args;
+        } else {
+            pool = (ForkJoinPool) args[poolIndex];
+            chunkArgs = new Object[args.length - 1];
+            System.arraycopy(args, 0, chunkArgs, 0, poolIndex);
+            System.arraycopy(args, poolIndex + 1, chunkArgs, poolIndex, chunkArgs.length - poolIndex);
+        }
+        long length = ((Number) chunkArgs[lengthIndex]).longValue();
+        if (length <= threshold || pool == null) {
+            // small enough to run inline
+            return chunk.invokeExact(chunkArgs);
+        }
+        long chunkLength = Math.max(threshold, (length + pool.getParallelism() - 1) / pool.getParallelism());
+        int chunkCount = (int) ((length + chunkLength - 1) / chunkLength);
+        // slice every chunk before starting any, so that bounds errors are reported without side effects
+        Object[] firstArgs = slice(chunkArgs, 0, chunkLength);
+        Chunk[] chunks = new Chunk[chunkCount];
+        for (int i = 1; i < chunkCount; i++) {
+            long offset = i * chunkLength;
+            chunks[i] = new Chunk(slice(chunkArgs, offset, Math.min(chunkLength, length - offset)));
+        }
+        for (int i = 1; i < chunkCount; i++) {
+            pool.execute(chunks[i]);
+        }
+        // the caller processes the first chunk
+        Object result;
+        try {
+            result = chunk.invokeExact(firstArgs);
+        } catch (Throwable t) {
+            for (int i = 1; i < chunkCount; i++) {
+                chunks[i].cancel(false);
+            }
+            throw t;
+        }
+        for (int i = 1; i < chunkCount; i++) {
+            Object next = chunks[i].join();
+            if (combiner != null) {
+                result = combiner.invokeExact(result, next);
+            }
+        }
+        return result;
+    }
+
+    private Object[] slice(final Object[] args, final long offset, final long count) {
+        Object[] sliced = args.clone();
+        for (int i = 0; i < sliced.length; i++) {
+            if (segments[i]) {
+                sliced[i] = ((MemorySegment) sliced[i]).asSlice(offset * elementSize, count * elementSize);
+            }
+        }
+        sliced[lengthIndex] = sliced[lengthIndex] instanceof Integer ? (Object) Integer.valueOf((int) count)
+                : (Object) Long.valueOf(count);
+        return sliced;
+    }
+
+    /**
+     * A chunk of a call which runs on the pool.
+     */
+    final class Chunk extends RecursiveTask<Object> {
+        private final Object[] args;
+
+        Chunk(final Object[] args) {
+            this.args = args;
+        }
+
+        protected Object compute() {
+            try {
+                return chunk.invokeExact(args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            }
+        }
+    }
+}
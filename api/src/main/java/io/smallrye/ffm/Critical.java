@@ -8,12 +8,43 @@ import java.lang.annotation.Target;
 
 /**
  * Indicate that the method is critical.
+ * <p>
+ * If this annotation is present on a type, then it must be {@linkplain #adaptive() adaptive}, and every
+ * {@link Link @Link} method of the type which is eligible for critical linkage is adaptively linked,
+ * unless it has its own {@code @Critical} annotation.
+ * Methods which are {@link Blocking @Blocking} or {@link Async @Async}, or which have
+ * {@link Callback @Callback} parameters (which are called back from native code), are not eligible.
+ * This annotation is not inherited to nested types nor is it inherited through the type hierarchy.
  */
 @Retention(CLASS)
-@Target(METHOD)
+@Target({ TYPE, METHOD })
 public @interface Critical {
     /**
      * {@return {@code true} if the heap should be accessible from this native call, or {@code false} otherwise}
      */
     boolean heap() default false;
+
+    /**
+     * {@return the maximum size in bytes of a heap array or segment argument which may be passed directly to the
+     * native call, or {@code -1} for no maximum}
+     * This value is only used when {@link #heap()} is {@code true}.
+     * The method is linked both as a critical heap-accessing call and as a regular call;
+     * if any array or segment argument is larger than this size, the regular call is used,
+     * copying the arguments through native memory instead of holding up garbage collection for the
+     * duration of the call.
+     */
+    long heapThreshold() default -1;
+
+    /**
+     * {@return {@code true} if the method should be linked as critical only once it has been observed to be short-running,
+     * or {@code false} to always link it as critical}
+     * An adaptively linked method is initially linked as a regular call, and the duration of calls is sampled
+     * for a warm-up period.
+     * If the calls are reliably short, the method is relinked as a critical call which does not access the heap;
+     * calls continue to be sampled periodically, and the method is relinked as a regular call if they are found
+     * to be running long.
+     * The current state of adaptively linked methods is available from {@link AdaptiveLinkage}.
+     * Adaptive linkage cannot be combined with {@link #heap()}.
+     */
+    boolean adaptive() default false;
 }
@@ -0,0 +1,24 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a subclass of {@link StructCursor} as a cursor over a native array of structures,
+ * whose {@code native} accessor methods are implemented at build time.
+ * <p>
+ * The record class must be compiled together with the cursor class.
+ *
+ * @see StructCursor
+ */
+@Target(TYPE)
+@Retention(CLASS)
+public @interface Cursor {
+    /**
+     * {@return the record type annotated with {@link Struct @Struct} which gives the layout of each element}
+     */
+    Class<?> value();
+}
@@ -0,0 +1,31 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Intern the native copy of the annotated {@code String} parameter, or the decoded {@code String} return value
+ * of the annotated method.
+ * <h2>Parameters</h2>
+ * Rather than encoding the string into temporary native memory on every call,
+ * the encoded native copy is retrieved from a bounded cache of read-only native strings,
+ * keyed by the string content and character set.
+ * This is useful for parameters which are usually given one of a small set of values,
+ * such as configuration keys or file paths.
+ * The native function must not modify the string or retain it after the call returns.
+ * <h2>Return values</h2>
+ * Rather than decoding a new string on every call, the decoded string is retrieved from a bounded cache
+ * which is keyed by the native address and content of the returned string.
+ * This is useful for functions which return one of a small set of static strings,
+ * such as {@code strerror} or {@code getenv}.
+ *
+ * @see NativeStrings#intern(String, java.nio.charset.Charset)
+ * @see NativeStrings#getInternedString(java.lang.foreign.MemorySegment, java.nio.charset.Charset)
+ */
+@Target({ PARAMETER, METHOD })
+@Retention(CLASS)
+public @interface Intern {
+}
@@ -0,0 +1,29 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+
+/**
+ * Pass the annotated {@link MemorySegment MemorySegment[]} or {@link ByteBuffer ByteBuffer[]} parameter
+ * as a native array of POSIX {@code struct iovec}, as used by functions such as {@code readv} and {@code writev}.
+ * <p>
+ * Each array element is described by the address and size of the segment, or the address and remaining size
+ * of the buffer starting from its position.
+ * Native segments and direct buffers are referenced without copying,
+ * while heap segments and heap buffers are copied through temporary native memory
+ * according to the {@link In @In} and {@link Out @Out} annotations.
+ * A {@code null} element is described as a {@code NULL} pointer with a size of zero.
+ * <p>
+ * The number of elements must be passed to the native function separately.
+ * A buffer array parameter may additionally be annotated with {@link Advance @Advance}, in which case the
+ * byte count returned by the native call is distributed across the buffers in order.
+ */
+@Target(PARAMETER)
+@Retention(CLASS)
+public @interface IoVec {
+}
@@ -3,11 +3,19 @@ package io.smallrye.ffm;
 import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.RetentionPolicy.*;
 
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SegmentAllocator;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * Link the annotated native method with the given configuration.
@@ -20,12 +28,21 @@ import java.lang.foreign.SegmentAllocator;
  * <li>A primitive type</li>
  * <li>An array of primitive type</li>
  * <li>{@link MemorySegment}</li>
- * <li>{@link String}</li>
+ * <li>{@link ByteBuffer}, {@link CharBuffer}, {@link ShortBuffer}, {@link IntBuffer}, {@link LongBuffer},
+ * {@link FloatBuffer}, or {@link DoubleBuffer}</li>
+ * <li>An array of {@link MemorySegment} or {@link ByteBuffer} annotated with {@link IoVec @IoVec}</li>
+ * <li>{@link String} or {@link CharSequence}</li>
+ * <li>{@code String[]} (passed as a {@code NULL}-terminated array of pointers to strings)</li>
  * <li>{@link Errno}</li>
  * <li>{@link ErrnoConsumer}</li>
  * <li>{@link LastErrorConsumer}</li>
  * <li>{@link WSALastErrorConsumer}</li>
  * <li>{@link Arena} or {@link SegmentAllocator} (max 1)</li>
+ * <li>A record annotated with {@link Struct @Struct} (passed by value)</li>
+ * <li>{@link MemorySegment} annotated with {@link Return @Return} (max 1)</li>
+ * <li>An interface annotated with {@link Callback @Callback} (passed as a pointer to an upcall stub)</li>
+ * <li>{@link java.util.concurrent.ForkJoinPool ForkJoinPool}, if the method is annotated with
+ * {@link Chunked @Chunked} (max 1)</li>
  * </ul>
  * Additionally, a method parameter may be annotated using the {@link As @As} annotation,
  * which is used to modify the native type and/or copying behavior of the parameter.
@@ -37,12 +54,60 @@ import java.lang.foreign.SegmentAllocator;
  * <li>An array of primitive type</li>
  * <li>{@link MemorySegment}</li>
  * <li>{@link String}</li>
+ * <li>{@code String[]} (decoded from a {@code NULL}-terminated array of pointers to strings)</li>
+ * <li>{@link NativeString} (decoded lazily; see the lifetime rules of that class)</li>
+ * <li>{@link Reader} (decoded incrementally as it is read)</li>
  * <li>{@link Errno}</li>
+ * <li>A record whose components are output values, if the method is annotated with {@link Out @Out}</li>
+ * <li>A record annotated with {@link Struct @Struct} (returned by value)</li>
  * </ul>
  * <h2>Custom arena</h2>
  * If a parameter is given whose type is {@code Arena}, then that arena will be used
  * for any temporary allocations which may be needed to copy input or output values.
  * This parameter is not propagated to the native method.
+ * Otherwise, temporary allocations are made from the current {@link NativeScope}, if there is one,
+ * or from a new arena which is closed when the method returns.
+ * <h2>Arrays</h2>
+ * A primitive array parameter is copied into temporary native memory before the call
+ * and/or back into the array after the call, according to the {@link In @In} and {@link Out @Out} annotations.
+ * If the parameter is annotated with {@link As @As}, then each element is converted to and from the given
+ * native type (for example, an {@code int[]} may be passed as an array of {@code uint16_t});
+ * integer arrays may be converted to any integer type, and floating-point arrays to any floating-point type.
+ * If the parameter is annotated with {@link BigEndian @BigEndian}, then the elements are passed in
+ * big-endian byte order.
+ * <h2>Buffers</h2>
+ * A buffer parameter is passed as a pointer to the remaining elements of the buffer
+ * (from its position to its limit).
+ * Direct buffers are passed without copying.
+ * The remaining elements of heap buffers are copied into temporary native memory before the call
+ * and/or back into the buffer after the call, according to the {@link In @In} and {@link Out @Out} annotations;
+ * read-only heap buffers should be annotated with {@code @In}.
+ * If the parameter is annotated with {@link Advance @Advance}, then the position of the buffer
+ * is advanced by the value returned from the native call.
+ * <h2>Strings</h2>
+ * A {@code String} parameter is encoded into temporary native memory as a {@code NUL}-terminated string.
+ * If the parameter is annotated with {@link Intern @Intern}, then a cached read-only copy is used instead.
+ * {@code CharSequence} parameters, and {@code char[]} parameters annotated with {@link AsCharset @AsCharset},
+ * are encoded directly into temporary native memory without first being copied into a {@code String}.
+ * String parameters and return values which are annotated with {@code @As(AsType.stdc_wchar_t)}
+ * are passed as {@code NUL}-terminated wide ({@code wchar_t}) strings.
+ * A {@code String} return value is decoded immediately (or retrieved from a cache if the method is
+ * annotated with {@link Intern @Intern}), whereas a {@link NativeString} return value
+ * refers to the returned memory and is only decoded when needed.
+ * A {@link Reader} return value decodes the returned memory one chunk at a time as it is read,
+ * which is useful for very large strings; the memory must remain valid for as long as the reader is used.
+ * <h2>String arrays</h2>
+ * A {@code String[]} parameter is encoded into a single block of native memory, consisting of a
+ * {@code NULL}-terminated array of pointers followed by the {@code NUL}-terminated strings.
+ * String array parameters are input-only by default.
+ * If the parameter is annotated with {@link Out @Out}, then the strings pointed to by the native
+ * array are decoded back into the Java array after the call.
+ * <h2>Structures</h2>
+ * A record parameter annotated with {@link Struct @Struct} is written into temporary native memory
+ * and passed to the native function by value.
+ * A returned structure is copied into temporary native memory and read back into a new record.
+ * Alternatively, the returned structure may be written into a caller-supplied segment
+ * given by a parameter annotated with {@link Return @Return}.
  * <h2>{@code errno} handling</h2>
  * If a parameter is given whose type is {@code ErrnoConsumer}, then the value
  * of {@code errno} will be propagated to that consumer before the method returns.
@@ -50,6 +115,18 @@ import java.lang.foreign.SegmentAllocator;
  * Note that {@code errno} is generally not cleared by libraries, so checking {@code errno}
  * alone is insufficient to determine whether an error has occurred (it may retain a value
  * from a previous call).
+ * <h2>Bulk calls</h2>
+ * A method annotated with {@link Batch @Batch} calls the native function once for each element of its
+ * primitive array arguments, collecting the results and {@code errno} values of each call into arrays.
+ * A method annotated with {@link Chunked @Chunked} splits large segment arguments into chunks which are
+ * processed concurrently on a {@link java.util.concurrent.ForkJoinPool ForkJoinPool}.
+ * <h2>Blocking calls</h2>
+ * A method annotated with {@link Blocking @Blocking} does not hold the carrier of a calling virtual thread
+ * for the duration of the call.
+ * A method annotated with {@link Async @Async} returns a {@link java.util.concurrent.CompletableFuture CompletableFuture}
+ * immediately, and makes the call on a separate pool of platform threads.
+ * <h2>Cached calls</h2>
+ * The results of a method annotated with {@link Pure @Pure} are cached, keyed by its arguments.
  *
  */
 @Retention(CLASS)
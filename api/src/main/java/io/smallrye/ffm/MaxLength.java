@@ -0,0 +1,22 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Specify the maximum length in bytes of the native string returned by the annotated method,
+ * not including the {@code NUL} terminator.
+ * If no terminator is found within the maximum length, the string is truncated to the maximum length.
+ * By default, native strings are not limited in length.
+ */
+@Retention(CLASS)
+@Target(METHOD)
+public @interface MaxLength {
+    /**
+     * {@return the maximum length in bytes}
+     */
+    long value();
+}
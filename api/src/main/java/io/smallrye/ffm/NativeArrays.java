@@ -0,0 +1,598 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.ValueLayout;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * Utilities for transferring primitive arrays to and from native arrays whose elements have a different
+ * type or byte order than the Java elements.
+ * Integer arrays may be converted to and from native arrays of any integer layout, and floating-point arrays
+ * may be converted to and from native arrays of any floating-point layout.
+ * Elements of the same type are copied in bulk (swapping bytes if needed); otherwise,
+ * elements are converted in a simple counted loop which may be vectorized by the JIT compiler.
+ * These methods are called from generated bytecode, but may also be used directly.
+ */
+public final class NativeArrays {
+    private NativeArrays() {
+    }
+
+    /**
+     * Copy the given array into newly allocated native memory, converting each element to the given layout.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy (must not be {@code null})
+     * @return the native array (not {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, ValueLayout layout, boolean signed, byte[] array) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        MemorySegment seg = allocator.allocate(layout, len);
+        if (layout.carrier() == byte.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(array, 0, seg, layout, 0, len);
+            return seg;
+        }
+        switch (layout) {
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (short) (signed ? array[i] : array[i] & 0xff));
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (char) (signed ? array[i] : array[i] & 0xff));
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (int) (signed ? array[i] : array[i] & 0xff));
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (long) (signed ? array[i] : array[i] & 0xff));
+                }
+            }
+            default -> throw cannotConvert(layout, byte[].class);
+        }
+        return seg;
+    }
+
+    /**
+     * Copy the given native array into the given array, converting each element from the given layout.
+     *
+     * @param seg the native array (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy into (must not be {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static void copyToArray(MemorySegment seg, ValueLayout layout, boolean signed, byte[] array) {
+        Assert.checkNotNullParam("seg", seg);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        if (layout.carrier() == byte.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(seg, layout, 0, array, 0, len);
+            return;
+        }
+        switch (layout) {
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (byte) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (byte) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (byte) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (byte) seg.getAtIndex(l, i);
+                }
+            }
+            default -> throw cannotConvert(layout, byte[].class);
+        }
+    }
+
+    /**
+     * Copy the given array into newly allocated native memory, converting each element to the given layout.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy (must not be {@code null})
+     * @return the native array (not {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, ValueLayout layout, boolean signed, short[] array) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        MemorySegment seg = allocator.allocate(layout, len);
+        if (layout.carrier() == short.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(array, 0, seg, layout, 0, len);
+            return seg;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (byte) array[i]);
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (char) array[i]);
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (int) (signed ? array[i] : array[i] & 0xffff));
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (long) (signed ? array[i] : array[i] & 0xffff));
+                }
+            }
+            default -> throw cannotConvert(layout, short[].class);
+        }
+        return seg;
+    }
+
+    /**
+     * Copy the given native array into the given array, converting each element from the given layout.
+     *
+     * @param seg the native array (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy into (must not be {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static void copyToArray(MemorySegment seg, ValueLayout layout, boolean signed, short[] array) {
+        Assert.checkNotNullParam("seg", seg);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        if (layout.carrier() == short.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(seg, layout, 0, array, 0, len);
+            return;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (short) (signed ? seg.getAtIndex(l, i) : seg.getAtIndex(l, i) & 0xff);
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (short) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (short) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (short) seg.getAtIndex(l, i);
+                }
+            }
+            default -> throw cannotConvert(layout, short[].class);
+        }
+    }
+
+    /**
+     * Copy the given array into newly allocated native memory, converting each element to the given layout.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy (must not be {@code null})
+     * @return the native array (not {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, ValueLayout layout, boolean signed, char[] array) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        MemorySegment seg = allocator.allocate(layout, len);
+        if (layout.carrier() == char.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(array, 0, seg, layout, 0, len);
+            return seg;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (byte) array[i]);
+                }
+            }
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (short) array[i]);
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (int) array[i]);
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (long) array[i]);
+                }
+            }
+            default -> throw cannotConvert(layout, char[].class);
+        }
+        return seg;
+    }
+
+    /**
+     * Copy the given native array into the given array, converting each element from the given layout.
+     *
+     * @param seg the native array (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy into (must not be {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static void copyToArray(MemorySegment seg, ValueLayout layout, boolean signed, char[] array) {
+        Assert.checkNotNullParam("seg", seg);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        if (layout.carrier() == char.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(seg, layout, 0, array, 0, len);
+            return;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (char) (signed ? seg.getAtIndex(l, i) : seg.getAtIndex(l, i) & 0xff);
+                }
+            }
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (char) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (char) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (char) seg.getAtIndex(l, i);
+                }
+            }
+            default -> throw cannotConvert(layout, char[].class);
+        }
+    }
+
+    /**
+     * Copy the given array into newly allocated native memory, converting each element to the given layout.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy (must not be {@code null})
+     * @return the native array (not {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, ValueLayout layout, boolean signed, int[] array) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        MemorySegment seg = allocator.allocate(layout, len);
+        if (layout.carrier() == int.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(array, 0, seg, layout, 0, len);
+            return seg;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (byte) array[i]);
+                }
+            }
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (short) array[i]);
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (char) array[i]);
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, signed ? array[i] : array[i] & 0xffff_ffffL);
+                }
+            }
+            default -> throw cannotConvert(layout, int[].class);
+        }
+        return seg;
+    }
+
+    /**
+     * Copy the given native array into the given array, converting each element from the given layout.
+     *
+     * @param seg the native array (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy into (must not be {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static void copyToArray(MemorySegment seg, ValueLayout layout, boolean signed, int[] array) {
+        Assert.checkNotNullParam("seg", seg);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        if (layout.carrier() == int.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(seg, layout, 0, array, 0, len);
+            return;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (int) (signed ? seg.getAtIndex(l, i) : seg.getAtIndex(l, i) & 0xff);
+                }
+            }
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (int) (signed ? seg.getAtIndex(l, i) : seg.getAtIndex(l, i) & 0xffff);
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (int) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfLong l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (int) seg.getAtIndex(l, i);
+                }
+            }
+            default -> throw cannotConvert(layout, int[].class);
+        }
+    }
+
+    /**
+     * Copy the given array into newly allocated native memory, converting each element to the given layout.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy (must not be {@code null})
+     * @return the native array (not {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, ValueLayout layout, boolean signed, long[] array) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        MemorySegment seg = allocator.allocate(layout, len);
+        if (layout.carrier() == long.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(array, 0, seg, layout, 0, len);
+            return seg;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (byte) array[i]);
+                }
+            }
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (short) array[i]);
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (char) array[i]);
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (int) array[i]);
+                }
+            }
+            default -> throw cannotConvert(layout, long[].class);
+        }
+        return seg;
+    }
+
+    /**
+     * Copy the given native array into the given array, converting each element from the given layout.
+     *
+     * @param seg the native array (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param signed {@code true} to sign-extend elements which are widened, or {@code false} to zero-extend them
+     * @param array the array to copy into (must not be {@code null})
+     * @throws IllegalArgumentException if the layout is not an integer layout
+     */
+    public static void copyToArray(MemorySegment seg, ValueLayout layout, boolean signed, long[] array) {
+        Assert.checkNotNullParam("seg", seg);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        if (layout.carrier() == long.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(seg, layout, 0, array, 0, len);
+            return;
+        }
+        switch (layout) {
+            case ValueLayout.OfByte l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (long) (signed ? seg.getAtIndex(l, i) : seg.getAtIndex(l, i) & 0xff);
+                }
+            }
+            case ValueLayout.OfShort l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (long) (signed ? seg.getAtIndex(l, i) : seg.getAtIndex(l, i) & 0xffff);
+                }
+            }
+            case ValueLayout.OfChar l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (long) seg.getAtIndex(l, i);
+                }
+            }
+            case ValueLayout.OfInt l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = signed ? seg.getAtIndex(l, i) : seg.getAtIndex(l, i) & 0xffff_ffffL;
+                }
+            }
+            default -> throw cannotConvert(layout, long[].class);
+        }
+    }
+
+    /**
+     * Copy the given array into newly allocated native memory, converting each element to the given layout.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param array the array to copy (must not be {@code null})
+     * @return the native array (not {@code null})
+     * @throws IllegalArgumentException if the layout is not a floating-point layout
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, ValueLayout layout, float[] array) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        MemorySegment seg = allocator.allocate(layout, len);
+        if (layout.carrier() == float.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(array, 0, seg, layout, 0, len);
+            return seg;
+        }
+        switch (layout) {
+            case ValueLayout.OfDouble l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (double) array[i]);
+                }
+            }
+            default -> throw cannotConvert(layout, float[].class);
+        }
+        return seg;
+    }
+
+    /**
+     * Copy the given native array into the given array, converting each element from the given layout.
+     *
+     * @param seg the native array (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param array the array to copy into (must not be {@code null})
+     * @throws IllegalArgumentException if the layout is not a floating-point layout
+     */
+    public static void copyToArray(MemorySegment seg, ValueLayout layout, float[] array) {
+        Assert.checkNotNullParam("seg", seg);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        if (layout.carrier() == float.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(seg, layout, 0, array, 0, len);
+            return;
+        }
+        switch (layout) {
+            case ValueLayout.OfDouble l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (float) seg.getAtIndex(l, i);
+                }
+            }
+            default -> throw cannotConvert(layout, float[].class);
+        }
+    }
+
+    /**
+     * Copy the given array into newly allocated native memory, converting each element to the given layout.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param array the array to copy (must not be {@code null})
+     * @return the native array (not {@code null})
+     * @throws IllegalArgumentException if the layout is not a floating-point layout
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, ValueLayout layout, double[] array) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        MemorySegment seg = allocator.allocate(layout, len);
+        if (layout.carrier() == double.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(array, 0, seg, layout, 0, len);
+            return seg;
+        }
+        switch (layout) {
+            case ValueLayout.OfFloat l -> {
+                for (int i = 0; i < len; i++) {
+                    seg.setAtIndex(l, i, (float) array[i]);
+                }
+            }
+            default -> throw cannotConvert(layout, double[].class);
+        }
+        return seg;
+    }
+
+    /**
+     * Copy the given native array into the given array, converting each element from the given layout.
+     *
+     * @param seg the native array (must not be {@code null})
+     * @param layout the native element layout (must not be {@code null})
+     * @param array the array to copy into (must not be {@code null})
+     * @throws IllegalArgumentException if the layout is not a floating-point layout
+     */
+    public static void copyToArray(MemorySegment seg, ValueLayout layout, double[] array) {
+        Assert.checkNotNullParam("seg", seg);
+        Assert.checkNotNullParam("layout", layout);
+        Assert.checkNotNullParam("array", array);
+        int len = array.length;
+        if (layout.carrier() == double.class) {
+            // same type; bulk copy (swapping bytes if needed)
+            MemorySegment.copy(seg, layout, 0, array, 0, len);
+            return;
+        }
+        switch (layout) {
+            case ValueLayout.OfFloat l -> {
+                for (int i = 0; i < len; i++) {
+                    array[i] = (double) seg.getAtIndex(l, i);
+                }
+            }
+            default -> throw cannotConvert(layout, double[].class);
+        }
+    }
+
+    private static IllegalArgumentException cannotConvert(ValueLayout layout, Class<?> arrayType) {
+        return new IllegalArgumentException("Cannot convert " + arrayType.getSimpleName() + " to native layout " + layout);
+    }
+}
@@ -0,0 +1,203 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * A scope for the temporary native memory of a sequence of native calls.
+ * While a scope is {@linkplain #run(Runnable) bound}, linked methods which are not given an {@link Arena} or
+ * {@link SegmentAllocator} argument allocate their temporary memory from the scope instead of from a new arena
+ * for each call; the memory is released all at once when the scope ends.
+ * For example:
+ *
+ * <pre>{@code
+ * NativeScope.run(() -> {
+ *     // each of these calls allocates its strings from the same scope
+ *     for (String path : paths) {
+ *         access(path, R_OK);
+ *     }
+ * });
+ * }</pre>
+ *
+ * A scope allocates by bumping a pointer through blocks of native memory, which are taken from a global pool
+ * and returned to it, cleared, when the scope ends.
+ * The segments which are allocated from a scope belong to a {@linkplain Arena#ofConfined() confined arena}
+ * of the scope, which is closed when the scope ends, before its blocks are reused by another scope;
+ * accessing such a segment after the scope has ended throws an {@link IllegalStateException}.
+ * A scope is owned by the thread which opened it, and only that thread may allocate from it or access its segments.
+ * Scopes are bound using a {@link ScopedValue}, so they are inherited by the subtasks of a
+ * {@link java.util.concurrent.StructuredTaskScope StructuredTaskScope}; linked methods which are called by a
+ * subtask on another thread allocate their temporary memory for each call, as if no scope were bound.
+ * Calls to {@link Async @Async} methods never allocate from a scope, because they may complete after it ends.
+ * <p>
+ * The following system properties may be used to configure the block pool:
+ * <ul>
+ * <li>{@code io.smallrye.ffm.scope.block-size} - the size in bytes of each block (default {@code 65536});
+ * allocations larger than a quarter of a block are made separately</li>
+ * <li>{@code io.smallrye.ffm.scope.max-pooled} - the maximum number of free blocks to retain
+ * (default {@code 64})</li>
+ * </ul>
+ */
+public final class NativeScope implements SegmentAllocator {
+    private static final ScopedValue<NativeScope> CURRENT = ScopedValue.newInstance();
+    private static final long blockSize = Math.max(4096,
+            Long.getLong("io.smallrye.ffm.scope.block-size", 65536));
+    private static final ArrayBlockingQueue<MemorySegment> pool = new ArrayBlockingQueue<>(
+            Math.max(1, Integer.getInteger("io.smallrye.ffm.scope.max-pooled", 64)));
+
+    private final List<MemorySegment> blocks = new ArrayList<>();
+    private final Thread owner = Thread.currentThread();
+    private final Arena confined = Arena.ofConfined();
+    private final Arena arena = new ScopeArena();
+    // the current block, bound to the arena of this scope
+    private MemorySegment block;
+    private long offset;
+    private boolean ended;
+
+    private NativeScope() {
+    }
+
+    /**
+     * Run the given task with a new native scope, which ends when the task returns.
+     *
+     * @param task the task to run (must not be {@code null})
+     */
+    public static void run(Runnable task) {
+        Assert.checkNotNullParam("task", task);
+        NativeScope scope = new NativeScope();
+        try {
+            ScopedValue.where(CURRENT, scope).run(task);
+        } finally {
+            scope.end();
+        }
+    }
+
+    /**
+     * Call the given operation with a new native scope, which ends when the operation returns.
+     * The result of the operation must not be a segment which was allocated from the scope.
+     *
+     * @param op the operation to call (must not be {@code null})
+     * @return the result of the operation
+     * @param <R> the result type
+     * @param <X> the exception type
+     * @throws X if the operation throws an exception
+     */
+    public static <R, X extends Throwable> R call(ScopedValue.CallableOp<? extends R, X> op) throws X {
+        Assert.checkNotNullParam("op", op);
+        NativeScope scope = new NativeScope();
+        try {
+            return ScopedValue.where(CURRENT, scope).call(op);
+        } finally {
+            scope.end();
+        }
+    }
+
+    /**
+     * {@return the native scope which is bound to the current thread, or {@code null} if there is none}
+     */
+    public static NativeScope current() {
+        return CURRENT.orElse(null);
+    }
+
+    /**
+     * Open an arena for the temporary memory of a single native call.
+     * If a native scope which is owned by the current thread is bound, then the returned arena allocates from
+     * that scope, and closing it has no effect.
+     * Otherwise, a new {@linkplain Arena#ofConfined() confined arena} is returned.
+     * This method is called from generated bytecode, but may also be used directly.
+     *
+     * @return the arena (not {@code null})
+     */
+    public static Arena openArena() {
+        NativeScope scope = CURRENT.orElse(null);
+        return scope == null || scope.owner != Thread.currentThread() ? Arena.ofConfined() : scope.arena;
+    }
+
+    /**
+     * Allocate zero-filled memory from this scope.
+     *
+     * @param byteSize the size in bytes
+     * @param byteAlignment the alignment in bytes (must be a power of two)
+     * @return the allocated segment, which is valid until this scope ends (not {@code null})
+     * @throws IllegalStateException if this scope has ended
+     * @throws WrongThreadException if the current thread does not own this scope
+     */
+    public MemorySegment allocate(long byteSize, long byteAlignment) {
+        Assert.checkMinimumParameter("byteSize", 0, byteSize);
+        if (byteAlignment <= 0 || Long.bitCount(byteAlignment) != 1) {
+            throw new IllegalArgumentException("Invalid alignment " + byteAlignment);
+        }
+        if (Thread.currentThread() != owner) {
+            throw new WrongThreadException("Native scope is owned by another thread");
+        }
+        if (ended) {
+            throw new IllegalStateException("Native scope has ended");
+        }
+        if (byteSize > blockSize >> 2 || byteAlignment > blockSize >> 2) {
+            // too big to share a block; it is freed when the scope ends
+            return confined.allocate(byteSize, byteAlignment);
+        }
+        long start = block == null ? -1 : align(block, offset, byteAlignment);
+        if (start == -1 || start + byteSize > blockSize) {
+            MemorySegment newBlock = takeBlock();
+            blocks.add(newBlock);
+            // bind the whole block to this scope once, so that its slices are only accessible while the scope is alive
+            block = newBlock.reinterpret(confined, null);
+            start = align(block, 0, byteAlignment);
+        }
+        offset = start + byteSize;
+        // the block was zero-filled before it was pooled
+        return block.asSlice(start, byteSize);
+    }
+
+    private static long align(final MemorySegment block, final long offset, final long byteAlignment) {
+        long address = block.address() + offset;
+        return offset + ((byteAlignment - (address & byteAlignment - 1)) & byteAlignment - 1);
+    }
+
+    private static MemorySegment takeBlock() {
+        MemorySegment block = pool.poll();
+        // each block has its own automatic arena, so that blocks which are not pooled are eventually freed
+        return block != null ? block : Arena.ofAuto().allocate(blockSize, 16);
+    }
+
+    private void end() {
+        ended = true;
+        // invalidate every segment of this scope before its blocks can be reused
+        confined.close();
+        int last = blocks.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            MemorySegment block = blocks.get(i);
+            // clear the used memory once here, instead of on every allocation
+            block.asSlice(0, i == last ? offset : blockSize).fill((byte) 0);
+            if (!pool.offer(block)) {
+                break;
+            }
+        }
+        blocks.clear();
+        block = null;
+    }
+
+    /**
+     * An arena which allocates from this scope, and which is not closed until the scope ends.
+     */
+    final class ScopeArena implements Arena {
+        public MemorySegment allocate(final long byteSize, final long byteAlignment) {
+            return NativeScope.this.allocate(byteSize, byteAlignment);
+        }
+
+        public MemorySegment.Scope scope() {
+            return confined.scope();
+        }
+
+        public void close() {
+            // the memory is released when the scope ends
+        }
+    }
+}
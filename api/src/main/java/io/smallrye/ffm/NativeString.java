@@ -0,0 +1,241 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * A string which is stored in native memory, and which is only decoded when its characters are needed.
+ * <p>
+ * Native strings may be compared, hashed, and prefix-checked without decoding, by examining the encoded bytes directly.
+ * The decoded string is computed on first use (for example, by {@link #toString()}, {@link #length()},
+ * or {@link #charAt(int)}) and cached.
+ * <h2>Lifetime</h2>
+ * A native string which is returned from a native method generally <em>borrows</em> memory which is owned by
+ * the native library, and is only valid for as long as the library keeps that memory valid.
+ * For example, a string returned by {@code getenv} may be invalidated by a subsequent call to {@code setenv},
+ * and a string returned by {@code strerror} may be overwritten by a subsequent call to {@code strerror}.
+ * Accessing a native string after its memory is invalidated has undefined results, and may crash the JVM.
+ * To retain the string beyond its lifetime, either decode it using {@link #toString()},
+ * or copy it into memory with a known lifetime using {@link #copy(Arena)}.
+ * Once a native string is decoded, the decoded string may be retrieved at any time.
+ */
+public final class NativeString implements CharSequence {
+    private final MemorySegment segment;
+    private final Charset charset;
+    private int hashCode;
+    private String string;
+
+    private NativeString(final MemorySegment segment, final Charset charset) {
+        this.segment = segment;
+        this.charset = charset;
+    }
+
+    /**
+     * Get a native string for the {@code NUL}-terminated string at the given address.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the string (must not be {@code null})
+     * @return the native string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static NativeString of(MemorySegment ptr, Charset charset) {
+        return of(ptr, charset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get a native string for the {@code NUL}-terminated string at the given address, up to the given maximum length.
+     * If no terminator is found within the maximum length, then the string is truncated to the maximum length.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the string (must not be {@code null})
+     * @param maxLength the maximum length of the string in bytes, excluding the terminator (must not be negative)
+     * @return the native string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static NativeString of(MemorySegment ptr, Charset charset, long maxLength) {
+        Assert.checkNotNullParam("ptr", ptr);
+        Assert.checkNotNullParam("charset", charset);
+        Assert.checkMinimumParameter("maxLength", 0, maxLength);
+        if (ptr.address() == 0) {
+            return null;
+        }
+        MemorySegment seg = ptr.reinterpret(maxLength);
+        return new NativeString(seg.asSlice(0, NativeStrings.strlen(seg, NativeStrings.terminatorSize(charset), maxLength)),
+                charset);
+    }
+
+    /**
+     * {@return the segment containing the encoded string, not including the terminator (not {@code null})}
+     */
+    public MemorySegment segment() {
+        return segment;
+    }
+
+    /**
+     * {@return the character set of the encoded string (not {@code null})}
+     */
+    public Charset charset() {
+        return charset;
+    }
+
+    /**
+     * {@return the length of the encoded string in bytes, not including the terminator}
+     */
+    public long byteLength() {
+        return segment.byteSize();
+    }
+
+    /**
+     * {@return the length of the string in characters}
+     * If the character set of this string is {@code ISO-8859-1}, then the string is not decoded.
+     */
+    public int length() {
+        return isLatin1() ? (int) segment.byteSize() : toString().length();
+    }
+
+    /**
+     * {@return the character at the given index}
+     * If the character set of this string is {@code ISO-8859-1}, then the string is not decoded.
+     *
+     * @param index the index
+     */
+    public char charAt(final int index) {
+        if (isLatin1()) {
+            return (char) (segment.get(ValueLayout.JAVA_BYTE, Assert.checkArrayBounds(segment.byteSize(), index)) & 0xff);
+        }
+        return toString().charAt(index);
+    }
+
+    public CharSequence subSequence(final int start, final int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * {@return {@code true} if this string has the same content as the given character sequence}
+     * If the given sequence can be encoded with one byte per character in the character set of this string,
+     * then the comparison is performed without decoding this string.
+     *
+     * @param other the character sequence (must not be {@code null})
+     */
+    public boolean contentEquals(final CharSequence other) {
+        Assert.checkNotNullParam("other", other);
+        if (other instanceof NativeString ns && ns.charset.equals(charset)) {
+            return segment.mismatch(ns.segment) == -1;
+        }
+        String str = other.toString();
+        if (NativeStrings.isSingleByte(str, charset)) {
+            return str.length() == segment.byteSize() && matchesSingleByte(str);
+        }
+        return toString().equals(str);
+    }
+
+    /**
+     * {@return {@code true} if this string starts with the given prefix}
+     * If the given prefix can be encoded with one byte per character in the character set of this string,
+     * then the comparison is performed without decoding this string.
+     *
+     * @param prefix the prefix (must not be {@code null})
+     */
+    public boolean startsWith(final CharSequence prefix) {
+        Assert.checkNotNullParam("prefix", prefix);
+        if (prefix instanceof NativeString ns && ns.charset.equals(charset)) {
+            long len = ns.segment.byteSize();
+            return len <= segment.byteSize() && segment.asSlice(0, len).mismatch(ns.segment) == -1;
+        }
+        String str = prefix.toString();
+        if (NativeStrings.isSingleByte(str, charset)) {
+            return str.length() <= segment.byteSize() && matchesSingleByte(str);
+        }
+        return toString().startsWith(str);
+    }
+
+    private boolean matchesSingleByte(final String str) {
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+            if (segment.get(ValueLayout.JAVA_BYTE, i) != (byte) str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isLatin1() {
+        // every byte is a character, unlike US-ASCII, where bytes above 0x7f decode to a replacement character
+        return charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Copy this string into memory allocated from the given arena.
+     * The copy has the lifetime of the arena, and retains the decoded string if this string was already decoded.
+     *
+     * @param arena the arena to allocate from (must not be {@code null})
+     * @return the copied native string (not {@code null})
+     */
+    public NativeString copy(Arena arena) {
+        Assert.checkNotNullParam("arena", arena);
+        int termSize = NativeStrings.terminatorSize(charset);
+        long size = segment.byteSize();
+        MemorySegment copy = arena.allocate(size + termSize);
+        MemorySegment.copy(segment, 0, copy, 0, size);
+        NativeString ns = new NativeString(copy.asSlice(0, size), charset);
+        ns.hashCode = hashCode;
+        ns.string = string;
+        return ns;
+    }
+
+    /**
+     * {@return {@code true} if the given object is a native string with the same character set and content}
+     *
+     * @param obj the other object
+     */
+    public boolean equals(final Object obj) {
+        return obj instanceof NativeString ns && equals(ns);
+    }
+
+    /**
+     * {@return {@code true} if the given native string has the same character set and content}
+     *
+     * @param other the other native string
+     */
+    public boolean equals(final NativeString other) {
+        return this == other || other != null && charset.equals(other.charset) && segment.mismatch(other.segment) == -1;
+    }
+
+    /**
+     * {@return the hash code of this native string, which is computed from the encoded bytes}
+     * Note that this is not the same as the hash code of the decoded string.
+     */
+    public int hashCode() {
+        int hc = hashCode;
+        if (hc == 0) {
+            MemorySegment segment = this.segment;
+            long size = segment.byteSize();
+            for (long i = 0; i < size; i++) {
+                hc = hc * 31 + segment.get(ValueLayout.JAVA_BYTE, i);
+            }
+            hashCode = hc;
+        }
+        return hc;
+    }
+
+    /**
+     * {@return the decoded string}
+     * The decoded string is cached.
+     */
+    public String toString() {
+        String string = this.string;
+        if (string == null) {
+            long size = segment.byteSize();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Native string is too long");
+            }
+            byte[] bytes = new byte[(int) size];
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, 0, bytes, 0, bytes.length);
+            this.string = string = new String(bytes, charset);
+        }
+        return string;
+    }
+}
@@ -0,0 +1,131 @@
+package io.smallrye.ffm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A reader which incrementally decodes a {@code NUL}-terminated native string.
+ * The string is scanned for its terminator one chunk at a time, and each chunk is decoded
+ * directly from native memory, so the string is never decoded all at once.
+ */
+final class NativeStringReader extends Reader {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final CharsetDecoder decoder;
+    private final int termSize;
+    private final long maxLength;
+    /**
+     * Decoded characters which did not fit into the caller's buffer.
+     */
+    private final CharBuffer pending = CharBuffer.allocate(2).limit(0);
+    private MemorySegment segment;
+    /**
+     * The number of bytes which have been decoded.
+     */
+    private long pos;
+    /**
+     * The number of bytes which are known to precede the terminator.
+     */
+    private long scanned;
+    private boolean terminated;
+    private boolean flushing;
+    private boolean eof;
+
+    NativeStringReader(final MemorySegment segment, final Charset charset, final long maxLength) {
+        this.segment = segment;
+        this.maxLength = maxLength;
+        termSize = NativeStrings.terminatorSize(charset);
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        synchronized (lock) {
+            MemorySegment segment = this.segment;
+            if (segment == null) {
+                throw new IOException("Reader is closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            if (pending.hasRemaining()) {
+                transfer(pending, out);
+                if (!out.hasRemaining()) {
+                    return len;
+                }
+            }
+            if (eof) {
+                int cnt = out.position() - off;
+                return cnt == 0 ? -1 : cnt;
+            }
+            for (;;) {
+                if (flushing) {
+                    if (decoder.flush(out).isUnderflow()) {
+                        eof = true;
+                    }
+                    break;
+                }
+                ByteBuffer in = segment.asSlice(pos, scanned - pos).asByteBuffer();
+                CoderResult result = decoder.decode(in, out, terminated);
+                pos += in.position();
+                if (result.isOverflow()) {
+                    if (out.position() == off) {
+                        // no room for a surrogate pair; decode it into the pending buffer instead
+                        pending.clear();
+                        in = segment.asSlice(pos, scanned - pos).asByteBuffer();
+                        decoder.decode(in, pending, terminated);
+                        pos += in.position();
+                        transfer(pending.flip(), out);
+                    }
+                    break;
+                }
+                if (terminated) {
+                    flushing = true;
+                    continue;
+                }
+                if (out.position() > off) {
+                    // return what we have so far
+                    break;
+                }
+                // scan the next chunk
+                long limit = Math.min(CHUNK_SIZE, maxLength - scanned);
+                long cnt = NativeStrings.strlen(segment.asSlice(scanned, limit), termSize, limit);
+                scanned += cnt;
+                terminated = cnt < limit || scanned == maxLength;
+            }
+            int cnt = out.position() - off;
+            return cnt == 0 && eof ? -1 : cnt;
+        }
+    }
+
+    private static void transfer(final CharBuffer src, final CharBuffer dst) {
+        while (src.hasRemaining() && dst.hasRemaining()) {
+            dst.put(src.get());
+        }
+    }
+
+    public boolean ready() throws IOException {
+        synchronized (lock) {
+            if (segment == null) {
+                throw new IOException("Reader is closed");
+            }
+            // native memory can always be read without blocking
+            return true;
+        }
+    }
+
+    public void close() {
+        synchronized (lock) {
+            segment = null;
+        }
+    }
+}
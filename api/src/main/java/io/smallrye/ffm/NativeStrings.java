@@ -0,0 +1,826 @@
+package io.smallrye.ffm;
+
+import java.io.Reader;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * Utilities for transferring strings to and from native memory.
+ * These methods are called from generated bytecode, but may also be used directly.
+ */
+public final class NativeStrings {
+    private static final boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private static final BoundedCache<InternKey, MemorySegment> interned = new BoundedCache<>(
+            Integer.getInteger("io.smallrye.ffm.intern.max-size", 1024));
+    private static final ThreadLocal<CharsetEncoder> encoders = new ThreadLocal<>();
+    private static final int WIDE_BLOCK = 256;
+    private static final ThreadLocal<WideBuffers> wideBuffers = ThreadLocal.withInitial(WideBuffers::new);
+    private static final BoundedCache<DecodedKey, Decoded> decoded = new BoundedCache<>(
+            Integer.getInteger("io.smallrye.ffm.intern.max-size", 1024));
+    private static final ThreadLocal<DecodedKey> decodedProbes = ThreadLocal.withInitial(DecodedKey::new);
+
+    private NativeStrings() {
+    }
+
+    /**
+     * Get an interned, read-only, {@code NUL}-terminated native copy of the given string.
+     * Interned strings are retained in a bounded cache which is keyed by the string content and character set;
+     * its maximum size may be configured using the {@code io.smallrye.ffm.intern.max-size} system property
+     * (default {@code 1024}).
+     * The native memory of the returned segment remains valid for as long as the segment is reachable,
+     * even if it has been evicted from the cache.
+     *
+     * @param str the string to encode, or {@code null} for none
+     * @param charset the character set to encode the string with (must not be {@code null})
+     * @return the native string, or {@link MemorySegment#NULL} if {@code str} is {@code null} (not {@code null})
+     */
+    public static MemorySegment intern(String str, Charset charset) {
+        Assert.checkNotNullParam("charset", charset);
+        if (str == null) {
+            return MemorySegment.NULL;
+        }
+        return interned.computeIfAbsent(new InternKey(str, charset),
+                key -> allocateFrom(Arena.ofAuto(), key.str(), key.charset()).asReadOnly());
+    }
+
+    /**
+     * Encode the given string into a newly allocated {@code NUL}-terminated native string
+     * using {@link SegmentAllocator#allocateFrom(String, Charset)}, which copies the characters of strings
+     * that can be represented by a single byte each directly into the allocated segment, in bulk.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param str the string to encode, or {@code null} for none
+     * @param charset the character set to encode the string with (must not be {@code null})
+     * @return the native string, or {@link MemorySegment#NULL} if {@code str} is {@code null} (not {@code null})
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, String str, Charset charset) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("charset", charset);
+        if (str == null) {
+            return MemorySegment.NULL;
+        }
+        return allocator.allocateFrom(str, charset);
+    }
+
+    /**
+     * Encode the given character sequence into a newly allocated {@code NUL}-terminated native string.
+     * The characters are encoded directly into the allocated segment, without first copying them into a {@code String}.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param str the character sequence to encode, or {@code null} for none
+     * @param charset the character set to encode the string with (must not be {@code null})
+     * @return the native string, or {@link MemorySegment#NULL} if {@code str} is {@code null} (not {@code null})
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, CharSequence str, Charset charset) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("charset", charset);
+        if (str == null) {
+            return MemorySegment.NULL;
+        }
+        if (str instanceof String s) {
+            return allocateFrom(allocator, s, charset);
+        }
+        return encode(allocator, str, charset);
+    }
+
+    /**
+     * Encode the given characters into a newly allocated {@code NUL}-terminated native string.
+     * The characters are encoded directly into the allocated segment, without first copying them into a {@code String}.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param chars the characters to encode, or {@code null} for none
+     * @param charset the character set to encode the string with (must not be {@code null})
+     * @return the native string, or {@link MemorySegment#NULL} if {@code chars} is {@code null} (not {@code null})
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, char[] chars, Charset charset) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("charset", charset);
+        if (chars == null) {
+            return MemorySegment.NULL;
+        }
+        return encode(allocator, CharBuffer.wrap(chars), charset);
+    }
+
+    private static MemorySegment encode(SegmentAllocator allocator, CharSequence str, Charset charset) {
+        int len = str.length();
+        int limit = singleByteLimit(charset);
+        MemorySegment seg = null;
+        int start = 0;
+        if (limit != 0) {
+            // assume that every character is a single byte, and store each one directly as it is encoded
+            seg = allocator.allocate(len + 1L);
+            start = storeSingleBytes(str, limit, seg);
+            if (start == len) {
+                seg.set(ValueLayout.JAVA_BYTE, len, (byte) 0);
+                return seg;
+            }
+        }
+        // encode the remaining characters after the bytes which were already stored
+        CharsetEncoder encoder = encoder(charset);
+        int termSize = terminatorSize(charset);
+        MemorySegment dest = allocator.allocate(start + maxEncodedSize(encoder, len - start) + termSize);
+        if (start > 0) {
+            MemorySegment.copy(seg, 0, dest, 0, start);
+        }
+        int size = start + encode(encoder, str, start, dest.asSlice(start));
+        dest.asSlice(size, termSize).fill((byte) 0);
+        return dest.asSlice(0, size + termSize);
+    }
+
+    /**
+     * {@return the encoder of the current thread for the given character set}
+     *
+     * @param charset the character set (must not be {@code null})
+     */
+    private static CharsetEncoder encoder(Charset charset) {
+        CharsetEncoder encoder = encoders.get();
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoders.set(encoder);
+        }
+        return encoder;
+    }
+
+    private static long maxEncodedSize(CharsetEncoder encoder, int len) {
+        return (long) Math.ceil(len * (double) encoder.maxBytesPerChar());
+    }
+
+    /**
+     * Encode the given string directly into the given segment, which must be large enough for any encoding of it.
+     *
+     * @param encoder the encoder (must not be {@code null})
+     * @param str the string (must not be {@code null})
+     * @param start the index of the first character to encode
+     * @param seg the segment (must not be {@code null})
+     * @return the number of bytes written, not including any terminator
+     */
+    private static int encode(CharsetEncoder encoder, CharSequence str, int start, MemorySegment seg) {
+        encoder.reset();
+        ByteBuffer dst = seg.asByteBuffer();
+        CharBuffer src = str instanceof CharBuffer cb ? cb.duplicate().position(cb.position() + start)
+                : CharBuffer.wrap(str, start, str.length());
+        CoderResult result = encoder.encode(src, dst, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(dst);
+        }
+        if (!result.isUnderflow()) {
+            // not expected, because the segment is large enough for any input
+            throw new IllegalStateException("Failed to encode string: " + result);
+        }
+        return dst.position();
+    }
+
+    /**
+     * {@return {@code true} if every character of the string is encoded as a single byte of the same value
+     * in the given character set}
+     *
+     * @param str the string (must not be {@code null})
+     * @param charset the character set (must not be {@code null})
+     */
+    static boolean isSingleByte(CharSequence str, Charset charset) {
+        int limit = singleByteLimit(charset);
+        if (limit == 0) {
+            return false;
+        }
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(i) >= limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@return the limit below which characters are encoded as a single byte of the same value in the given
+     * character set, or {@code 0} if the character set is not known to be ASCII-compatible}
+     *
+     * @param charset the character set (must not be {@code null})
+     */
+    private static int singleByteLimit(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+            return 0x80;
+        } else if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            return 0x100;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Store the leading characters of a sequence which are encoded as a single byte of the same value directly
+     * into the given segment, stopping at the first character which is not.
+     * The characters of array-backed buffers are read directly from the array.
+     *
+     * @param str the character sequence (must not be {@code null})
+     * @param limit the limit below which characters are single bytes, as given by {@link #singleByteLimit}
+     * @param seg the segment, which must have room for every character (must not be {@code null})
+     * @return the number of characters stored
+     */
+    private static int storeSingleBytes(CharSequence str, int limit, MemorySegment seg) {
+        int len = str.length();
+        if (str instanceof CharBuffer cb && cb.hasArray()) {
+            char[] array = cb.array();
+            int offs = cb.arrayOffset() + cb.position();
+            for (int i = 0; i < len; i++) {
+                char c = array[offs + i];
+                if (c >= limit) {
+                    return i;
+                }
+                seg.set(ValueLayout.JAVA_BYTE, i, (byte) c);
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                char c = str.charAt(i);
+                if (c >= limit) {
+                    return i;
+                }
+                seg.set(ValueLayout.JAVA_BYTE, i, (byte) c);
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Encode the given strings into a single newly allocated native block in the form of a {@code NULL}-terminated
+     * array of pointers to {@code NUL}-terminated strings (such as the {@code argv} argument of {@code execve}).
+     * The pointer array is at the start of the block, followed by the encoded strings, which are encoded directly
+     * into the block.
+     * A {@code null} array element is encoded as a {@code NULL} pointer.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param strings the strings to encode, or {@code null} for none
+     * @param charset the character set to encode the strings with (must not be {@code null})
+     * @return the native pointer array, or {@link MemorySegment#NULL} if {@code strings} is {@code null} (not {@code null})
+     */
+    public static MemorySegment allocateFrom(SegmentAllocator allocator, String[] strings, Charset charset) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkNotNullParam("charset", charset);
+        if (strings == null) {
+            return MemorySegment.NULL;
+        }
+        int cnt = strings.length;
+        int termSize = terminatorSize(charset);
+        long ptrSize = ValueLayout.ADDRESS.byteSize();
+        CharsetEncoder encoder = null;
+        // strings which are not single-byte are given room for their longest possible encoding
+        boolean[] singleByte = new boolean[cnt];
+        long size = (cnt + 1) * ptrSize;
+        for (int i = 0; i < cnt; i++) {
+            String str = strings[i];
+            if (str != null) {
+                if (isSingleByte(str, charset)) {
+                    singleByte[i] = true;
+                    size += str.length() + termSize;
+                } else {
+                    if (encoder == null) {
+                        encoder = encoder(charset);
+                    }
+                    size += maxEncodedSize(encoder, str.length()) + termSize;
+                }
+            }
+        }
+        MemorySegment block = allocator.allocate(size, ValueLayout.ADDRESS.byteAlignment());
+        long offs = (cnt + 1) * ptrSize;
+        for (int i = 0; i < cnt; i++) {
+            String str = strings[i];
+            if (str == null) {
+                block.setAtIndex(ValueLayout.ADDRESS, i, MemorySegment.NULL);
+            } else {
+                block.setAtIndex(ValueLayout.ADDRESS, i, block.asSlice(offs));
+                if (singleByte[i]) {
+                    // copied in bulk, along with the terminator
+                    block.setString(offs, str, charset);
+                    offs += str.length();
+                } else {
+                    offs += encode(encoder, str, 0, block.asSlice(offs, maxEncodedSize(encoder, str.length())));
+                }
+                block.asSlice(offs, termSize).fill((byte) 0);
+                offs += termSize;
+            }
+        }
+        block.setAtIndex(ValueLayout.ADDRESS, cnt, MemorySegment.NULL);
+        return block;
+    }
+
+    /**
+     * Allocate a zero-filled native array of pointers with room for the given number of pointers,
+     * plus a terminating {@code NULL} pointer.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param count the number of pointers (must not be negative)
+     * @return the native pointer array (not {@code null})
+     */
+    public static MemorySegment allocatePointers(SegmentAllocator allocator, int count) {
+        Assert.checkNotNullParam("allocator", allocator);
+        Assert.checkMinimumParameter("count", 0, count);
+        return allocator.allocate(ValueLayout.ADDRESS, count + 1L).fill((byte) 0);
+    }
+
+    /**
+     * Decode the strings pointed to by the given native array of pointers into the given array.
+     * Each {@code NULL} pointer is decoded as {@code null}.
+     *
+     * @param pointers the native pointer array, which must have room for at least as many pointers
+     *        as {@code strings} has elements (must not be {@code null})
+     * @param strings the array to decode into (must not be {@code null})
+     * @param charset the character set of the native strings (must not be {@code null})
+     */
+    public static void copyFromNative(MemorySegment pointers, String[] strings, Charset charset) {
+        Assert.checkNotNullParam("pointers", pointers);
+        Assert.checkNotNullParam("strings", strings);
+        Assert.checkNotNullParam("charset", charset);
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = getString(pointers.getAtIndex(ValueLayout.ADDRESS, i), charset);
+        }
+    }
+
+    /**
+     * Decode the strings pointed to by the given {@code NULL}-terminated native array of pointers
+     * (such as the {@code environ} array).
+     *
+     * @param pointers the address of the native pointer array, or {@link MemorySegment#NULL} for none
+     *        (must not be {@code null})
+     * @param charset the character set of the native strings (must not be {@code null})
+     * @return the decoded strings, or {@code null} if {@code pointers} is {@link MemorySegment#NULL}
+     */
+    public static String[] getStringArray(MemorySegment pointers, Charset charset) {
+        Assert.checkNotNullParam("pointers", pointers);
+        Assert.checkNotNullParam("charset", charset);
+        if (pointers.equals(MemorySegment.NULL)) {
+            return null;
+        }
+        MemorySegment table = pointers.reinterpret(Long.MAX_VALUE);
+        int cnt = 0;
+        while (table.getAtIndex(ValueLayout.ADDRESS, cnt).address() != 0) {
+            cnt++;
+        }
+        String[] strings = new String[cnt];
+        for (int i = 0; i < cnt; i++) {
+            strings[i] = getString(table.getAtIndex(ValueLayout.ADDRESS, i), charset);
+        }
+        return strings;
+    }
+
+    /**
+     * Decode the {@code NUL}-terminated string at the given address.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the native string (must not be {@code null})
+     * @return the decoded string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static String getString(MemorySegment ptr, Charset charset) {
+        return getString(ptr, charset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Decode the {@code NUL}-terminated string at the given address, up to the given maximum length.
+     * If no terminator is found within the maximum length, then the string is truncated to the maximum length.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the native string (must not be {@code null})
+     * @param maxLength the maximum length of the string in bytes, excluding the terminator (must not be negative)
+     * @return the decoded string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static String getString(MemorySegment ptr, Charset charset, long maxLength) {
+        Assert.checkNotNullParam("ptr", ptr);
+        Assert.checkNotNullParam("charset", charset);
+        Assert.checkMinimumParameter("maxLength", 0, maxLength);
+        if (ptr.address() == 0) {
+            return null;
+        }
+        MemorySegment seg = ptr.reinterpret(maxLength);
+        long len = strlen(seg, terminatorSize(charset), maxLength);
+        if (len > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Native string is too long");
+        }
+        byte[] bytes = new byte[(int) len];
+        MemorySegment.copy(seg, ValueLayout.JAVA_BYTE, 0, bytes, 0, bytes.length);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Decode the {@code NUL}-terminated string at the given address, returning a cached string
+     * if the same content was previously decoded from the same address.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the native string (must not be {@code null})
+     * @return the decoded string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     * @see #getInternedString(MemorySegment, Charset, long)
+     */
+    public static String getInternedString(MemorySegment ptr, Charset charset) {
+        return getInternedString(ptr, charset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Decode the {@code NUL}-terminated string at the given address, up to the given maximum length,
+     * returning a cached string if the same content was previously decoded from the same address.
+     * Decoded strings are retained in a bounded cache which is keyed by the native address, a hash of the
+     * encoded content, and the character set; the cached content is compared with the native content
+     * on every lookup, so a changed string is never confused with a previously cached one.
+     * The maximum size of the cache may be configured using the {@code io.smallrye.ffm.intern.max-size}
+     * system property (default {@code 1024}).
+     * This is useful for functions which return one of a small set of static strings, such as {@code strerror}.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the native string (must not be {@code null})
+     * @param maxLength the maximum length of the string in bytes, excluding the terminator (must not be negative)
+     * @return the decoded string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static String getInternedString(MemorySegment ptr, Charset charset, long maxLength) {
+        Assert.checkNotNullParam("ptr", ptr);
+        Assert.checkNotNullParam("charset", charset);
+        Assert.checkMinimumParameter("maxLength", 0, maxLength);
+        if (ptr.address() == 0) {
+            return null;
+        }
+        MemorySegment seg = ptr.reinterpret(maxLength);
+        long len = strlen(seg, terminatorSize(charset), maxLength);
+        if (len > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Native string is too long");
+        }
+        int hash = hash(seg, len);
+        // look up with a reusable probe key, so that a cache hit does not allocate
+        Decoded cached = decoded.get(decodedProbes.get().set(ptr.address(), hash, charset));
+        if (cached != null && cached.bytes().length == len
+                && MemorySegment.mismatch(seg, 0, len, MemorySegment.ofArray(cached.bytes()), 0, len) == -1) {
+            return cached.str();
+        }
+        byte[] bytes = new byte[(int) len];
+        MemorySegment.copy(seg, ValueLayout.JAVA_BYTE, 0, bytes, 0, bytes.length);
+        String str = new String(bytes, charset);
+        if (cached == null) {
+            cached = decoded.putIfAbsent(new DecodedKey().set(ptr.address(), hash, charset), new Decoded(bytes, str));
+            if (Arrays.equals(cached.bytes(), bytes)) {
+                return cached.str();
+            }
+        }
+        return str;
+    }
+
+    /**
+     * Encode the given character sequence into a newly allocated {@code NUL}-terminated native
+     * wide ({@code wchar_t}) string.
+     * If {@code wchar_t} is 16 bits wide on this platform, the characters are copied as-is;
+     * otherwise, they are widened to 32-bit code points, combining surrogate pairs.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param str the character sequence to encode, or {@code null} for none
+     * @return the native wide string, or {@link MemorySegment#NULL} if {@code str} is {@code null} (not {@code null})
+     */
+    public static MemorySegment allocateWide(SegmentAllocator allocator, CharSequence str) {
+        Assert.checkNotNullParam("allocator", allocator);
+        if (str == null) {
+            return MemorySegment.NULL;
+        }
+        int len = str.length();
+        if (Bootstraps.stdc_wchar_is_32bit) {
+            MemorySegment seg = allocator.allocate(ValueLayout.JAVA_INT, len + 1L);
+            return seg.asSlice(0, (storeWide32(str, null, len, seg) + 1L) << 2);
+        }
+        MemorySegment seg = allocator.allocate(ValueLayout.JAVA_CHAR, len + 1L);
+        // copy in blocks through a reusable buffer, so that no copy of the whole string is made
+        char[] chars = wideBuffers.get().chars;
+        for (int i = 0; i < len; i += WIDE_BLOCK) {
+            int n = Math.min(WIDE_BLOCK, len - i);
+            str.getChars(i, i + n, chars, 0);
+            MemorySegment.copy(chars, 0, seg, ValueLayout.JAVA_CHAR, (long) i << 1, n);
+        }
+        seg.setAtIndex(ValueLayout.JAVA_CHAR, len, (char) 0);
+        return seg;
+    }
+
+    /**
+     * Encode the given characters into a newly allocated {@code NUL}-terminated native
+     * wide ({@code wchar_t}) string.
+     *
+     * @param allocator the segment allocator to use (must not be {@code null})
+     * @param chars the characters to encode, or {@code null} for none
+     * @return the native wide string, or {@link MemorySegment#NULL} if {@code chars} is {@code null} (not {@code null})
+     * @see #allocateWide(SegmentAllocator, CharSequence)
+     */
+    public static MemorySegment allocateWide(SegmentAllocator allocator, char[] chars) {
+        Assert.checkNotNullParam("allocator", allocator);
+        if (chars == null) {
+            return MemorySegment.NULL;
+        }
+        int len = chars.length;
+        if (Bootstraps.stdc_wchar_is_32bit) {
+            MemorySegment seg = allocator.allocate(ValueLayout.JAVA_INT, len + 1L);
+            return seg.asSlice(0, (storeWide32(null, chars, len, seg) + 1L) << 2);
+        }
+        MemorySegment seg = allocator.allocate(ValueLayout.JAVA_CHAR, len + 1L);
+        MemorySegment.copy(chars, 0, seg, ValueLayout.JAVA_CHAR, 0, len);
+        seg.setAtIndex(ValueLayout.JAVA_CHAR, len, (char) 0);
+        return seg;
+    }
+
+    /**
+     * Widen the given characters into 32-bit code points in the given segment, followed by a terminator.
+     * The characters are widened one block at a time into a reusable buffer, which is then copied in bulk.
+     *
+     * @param str the characters, or {@code null} to read them from {@code array}
+     * @param array the characters, or {@code null} to read them from {@code str}
+     * @param len the number of characters
+     * @param seg the segment, which must have room for at least one more code point than there are characters
+     * @return the number of code points stored, not including the terminator
+     */
+    private static int storeWide32(CharSequence str, char[] array, int len, MemorySegment seg) {
+        WideBuffers buffers = wideBuffers.get();
+        int[] codePoints = buffers.codePoints;
+        long j = 0;
+        int i = 0;
+        while (i < len) {
+            int n = Math.min(WIDE_BLOCK, len - i);
+            char[] src;
+            int offs;
+            if (array != null) {
+                src = array;
+                offs = i;
+            } else {
+                src = buffers.chars;
+                offs = 0;
+                str.getChars(i, i + n, src, 0);
+            }
+            if (i + n < len && Character.isHighSurrogate(src[offs + n - 1])) {
+                // keep the surrogate pair together in the next block
+                n--;
+            }
+            int cnt = widen(src, offs, n, codePoints);
+            MemorySegment.copy(codePoints, 0, seg, ValueLayout.JAVA_INT, j << 2, cnt);
+            j += cnt;
+            i += n;
+        }
+        seg.setAtIndex(ValueLayout.JAVA_INT, j, 0);
+        return (int) j;
+    }
+
+    /**
+     * Widen a block of characters into 32-bit code points, combining surrogate pairs.
+     *
+     * @param src the source characters (must not be {@code null})
+     * @param offs the offset of the first character
+     * @param cnt the number of characters
+     * @param dst the destination code points, which must have room for {@code cnt} code points (must not be {@code null})
+     * @return the number of code points stored
+     */
+    private static int widen(char[] src, int offs, int cnt, int[] dst) {
+        int i = 0;
+        // fast path: plain widening until the first surrogate
+        while (i < cnt) {
+            char c = src[offs + i];
+            if (Character.isSurrogate(c)) {
+                break;
+            }
+            dst[i++] = c;
+        }
+        int j = i;
+        while (i < cnt) {
+            char c = src[offs + i++];
+            if (Character.isHighSurrogate(c) && i < cnt && Character.isLowSurrogate(src[offs + i])) {
+                dst[j++] = Character.toCodePoint(c, src[offs + i++]);
+            } else {
+                dst[j++] = c;
+            }
+        }
+        return j;
+    }
+
+    /**
+     * Decode the {@code NUL}-terminated native wide ({@code wchar_t}) string at the given address.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @return the decoded string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static String getWideString(MemorySegment ptr) {
+        return getWideString(ptr, Long.MAX_VALUE);
+    }
+
+    /**
+     * Decode the {@code NUL}-terminated native wide ({@code wchar_t}) string at the given address,
+     * up to the given maximum length.
+     * If no terminator is found within the maximum length, then the string is truncated to the maximum length.
+     * Invalid 32-bit code points are decoded as the replacement character {@code U+FFFD}.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param maxLength the maximum length of the string in bytes, excluding the terminator (must not be negative)
+     * @return the decoded string, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static String getWideString(MemorySegment ptr, long maxLength) {
+        Assert.checkNotNullParam("ptr", ptr);
+        Assert.checkMinimumParameter("maxLength", 0, maxLength);
+        if (ptr.address() == 0) {
+            return null;
+        }
+        MemorySegment seg = ptr.reinterpret(maxLength);
+        if (Bootstraps.stdc_wchar_is_32bit) {
+            long len = strlen(seg, 4, maxLength) >> 2;
+            if (len > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Native string is too long");
+            }
+            int cnt = (int) len;
+            char[] chars = new char[cnt];
+            int[] codePoints = wideBuffers.get().codePoints;
+            int j = 0;
+            // copy the code points in bulk one block at a time, and narrow each block
+            for (int i = 0; i < cnt; i += WIDE_BLOCK) {
+                int n = Math.min(WIDE_BLOCK, cnt - i);
+                MemorySegment.copy(seg, ValueLayout.JAVA_INT_UNALIGNED, (long) i << 2, codePoints, 0, n);
+                for (int k = 0; k < n; k++) {
+                    int cp = codePoints[k];
+                    if (Character.isBmpCodePoint(cp)) {
+                        chars[j++] = (char) cp;
+                    } else if (Character.isValidCodePoint(cp)) {
+                        int rem = cnt - i - k - 1;
+                        if (j + 2 + rem > chars.length) {
+                            chars = Arrays.copyOf(chars, j + 2 + rem);
+                        }
+                        j += Character.toChars(cp, chars, j);
+                    } else {
+                        chars[j++] = '\uFFFD';
+                    }
+                }
+            }
+            return new String(chars, 0, j);
+        }
+        long len = strlen(seg, 2, maxLength) >> 1;
+        if (len > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Native string is too long");
+        }
+        char[] chars = new char[(int) len];
+        MemorySegment.copy(seg, ValueLayout.JAVA_CHAR_UNALIGNED, 0, chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    /**
+     * Get a reader which incrementally decodes the {@code NUL}-terminated string at the given address.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the native string (must not be {@code null})
+     * @return the reader, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     * @see #getReader(MemorySegment, Charset, long)
+     */
+    public static Reader getReader(MemorySegment ptr, Charset charset) {
+        return getReader(ptr, charset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get a reader which incrementally decodes the {@code NUL}-terminated string at the given address,
+     * up to the given maximum length.
+     * The string is scanned for its terminator and decoded one chunk at a time as it is read,
+     * so that very large strings may be consumed without decoding them into a single {@code String}.
+     * The native memory of the string must remain valid until the reader is no longer used.
+     *
+     * @param ptr the address of the string, or {@link MemorySegment#NULL} for none (must not be {@code null})
+     * @param charset the character set of the native string (must not be {@code null})
+     * @param maxLength the maximum length of the string in bytes, excluding the terminator (must not be negative)
+     * @return the reader, or {@code null} if {@code ptr} is {@link MemorySegment#NULL}
+     */
+    public static Reader getReader(MemorySegment ptr, Charset charset, long maxLength) {
+        Assert.checkNotNullParam("ptr", ptr);
+        Assert.checkNotNullParam("charset", charset);
+        Assert.checkMinimumParameter("maxLength", 0, maxLength);
+        if (ptr.address() == 0) {
+            return null;
+        }
+        return new NativeStringReader(ptr.reinterpret(maxLength), charset, maxLength);
+    }
+
+    /**
+     * Find the length in bytes of the string in the given segment.
+     * Strings with single-byte terminators are scanned one aligned word at a time.
+     *
+     * @param seg the segment, whose size must be at least {@code max} (must not be {@code null})
+     * @param termSize the size of the terminator ({@code 1}, {@code 2}, or {@code 4})
+     * @param max the maximum length to scan
+     * @return the length of the string in bytes, or {@code max} if no terminator was found
+     */
+    static long strlen(MemorySegment seg, int termSize, long max) {
+        if (termSize == 2) {
+            for (long i = 0; i + 2 <= max; i += 2) {
+                if (seg.get(ValueLayout.JAVA_SHORT_UNALIGNED, i) == 0) {
+                    return i;
+                }
+            }
+            return max & ~1L;
+        } else if (termSize == 4) {
+            for (long i = 0; i + 4 <= max; i += 4) {
+                if (seg.get(ValueLayout.JAVA_INT_UNALIGNED, i) == 0) {
+                    return i;
+                }
+            }
+            return max & ~3L;
+        }
+        long i = 0;
+        // scan bytes up to the first word boundary
+        long lim = Math.min((-seg.address()) & 7, max);
+        for (; i < lim; i++) {
+            if (seg.get(ValueLayout.JAVA_BYTE, i) == 0) {
+                return i;
+            }
+        }
+        // scan aligned words (an aligned read never crosses into another page)
+        while (i + 8 <= max) {
+            long word = seg.get(ValueLayout.JAVA_LONG, i);
+            // the high bit of each byte is set if and only if the byte is zero
+            long zeros = ~(((word & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | word | 0x7F7F7F7F7F7F7F7FL);
+            if (zeros != 0) {
+                return i + ((littleEndian ? Long.numberOfTrailingZeros(zeros) : Long.numberOfLeadingZeros(zeros)) >>> 3);
+            }
+            i += 8;
+        }
+        for (; i < max; i++) {
+            if (seg.get(ValueLayout.JAVA_BYTE, i) == 0) {
+                return i;
+            }
+        }
+        return max;
+    }
+
+    private record InternKey(String str, Charset charset) {
+    }
+
+    /**
+     * Hash the first {@code len} bytes of the given segment, eight bytes at a time.
+     *
+     * @param seg the segment (must not be {@code null})
+     * @param len the number of bytes to hash
+     * @return the hash code
+     */
+    private static int hash(MemorySegment seg, long len) {
+        long hash = len;
+        long i = 0;
+        for (; i + 8 <= len; i += 8) {
+            hash = Long.rotateLeft((hash ^ seg.get(ValueLayout.JAVA_LONG_UNALIGNED, i)) * 0x9E3779B97F4A7C15L, 31);
+        }
+        for (; i < len; i++) {
+            hash = (hash ^ seg.get(ValueLayout.JAVA_BYTE, i)) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    /**
+     * The key of a decoded string.
+     * Keys in the cache are never modified; a per-thread key is reused to probe the cache.
+     */
+    private static final class DecodedKey {
+        private long address;
+        private int hash;
+        private Charset charset;
+
+        DecodedKey set(long address, int hash, Charset charset) {
+            this.address = address;
+            this.hash = hash;
+            this.charset = charset;
+            return this;
+        }
+
+        public int hashCode() {
+            return (Long.hashCode(address) * 31 + hash) * 31 + charset.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof DecodedKey other && address == other.address && hash == other.hash
+                    && charset.equals(other.charset);
+        }
+    }
+
+    private record Decoded(byte[] bytes, String str) {
+    }
+
+    /**
+     * {@return the size in bytes of the {@code NUL} terminator for strings encoded with the given character set}
+     *
+     * @param charset the character set (must not be {@code null})
+     */
+    static int terminatorSize(Charset charset) {
+        return switch (charset.name()) {
+            case "UTF-16", "UTF-16BE", "UTF-16LE" -> 2;
+            case "UTF-32", "UTF-32BE", "UTF-32LE" -> 4;
+            default -> 1;
+        };
+    }
+
+    /**
+     * The per-thread buffers used to convert wide strings in blocks.
+     */
+    private static final class WideBuffers {
+        final char[] chars = new char[WIDE_BLOCK];
+        final int[] codePoints = new int[WIDE_BLOCK];
+    }
+}
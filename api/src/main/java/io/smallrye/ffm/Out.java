@@ -8,8 +8,56 @@ import java.lang.annotation.Target;
 
 /**
  * Restrict the parameter to be output-only.
+ * <h2>Output records</h2>
+ * When given on a native method, the return type of the method must be a record type,
+ * each of whose components is an output value of the native function.
+ * For each record component, a pointer to a native scalar is passed to the native function
+ * after the parameters of the method, in component order, unless the component gives its position
+ * with {@link Before @Before}.
+ * The record is constructed from the values of the scalars after the call.
+ * A record component annotated with {@link Return @Return} receives the return value of the native function
+ * instead; if no component is so annotated, then the return value of the native function is ignored.
+ * Record components may be annotated with {@link As @As} to specify their native type.
+ * For example:
+ *
+ * <pre>{@code
+ * record Frexp(@Return double mantissa, int exponent) {}
+ *
+ * @Link
+ * @Out
+ * static native Frexp frexp(double value);
+ * }</pre>
+ *
+ * The record class must be compiled together with the class containing the native method.
+ * <p>
+ * Output pointers which the native function takes before some of its other parameters are placed by annotating
+ * their components with {@link Before @Before}, giving the index of the method parameter that the pointer
+ * precedes. For example:
+ *
+ * <pre>{@code
+ * record WaitResult(@Return int pid, @Out.Before(1) int status) {}
+ *
+ * // pid_t waitpid(pid_t pid, int *status, int options)
+ * @Link
+ * @Out
+ * static native WaitResult waitpid(int pid, int options);
+ * }</pre>
  */
-@Target(PARAMETER)
+@Target({ PARAMETER, METHOD })
 @Retention(CLASS)
 public @interface Out {
+    /**
+     * Pass the pointer to the native scalar of an output record component before the method parameter
+     * with the given index, instead of after all of the parameters.
+     * Pointers which precede the same parameter are passed in component order.
+     */
+    @Target(PARAMETER)
+    @Retention(CLASS)
+    @interface Before {
+        /**
+         * {@return the index of the method parameter which the pointer precedes}
+         * The index may be equal to the number of parameters, which places the pointer after all of them.
+         */
+        int value();
+    }
 }
@@ -0,0 +1,46 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Indicate that the linked native function is pure, so that its result depends only on its arguments
+ * and calling it has no side effects.
+ * The results of calls are cached, and later calls with equal arguments return the cached result
+ * without calling the native function.
+ * <p>
+ * Every parameter of the method must have a primitive or {@link String} type, and the method must return
+ * a value which is not an array.
+ * The same result object is returned from every call which is satisfied by the cache.
+ * Results are only cached if the call completes normally.
+ * A result may be computed more than once if the same arguments are concurrently given by several threads.
+ * For example:
+ *
+ * <pre>{@code
+ * @Link
+ * @Pure
+ * static native long sysconf(int name);
+ * }</pre>
+ *
+ * The result of a method without parameters which does not give a {@link #ttl()} is computed once,
+ * after which it is treated as a constant by the JIT compiler.
+ */
+@Retention(CLASS)
+@Target(METHOD)
+public @interface Pure {
+    /**
+     * {@return the maximum number of results to cache}
+     * Once the cache is full, the oldest results are evicted.
+     */
+    int maxSize() default 1024;
+
+    /**
+     * {@return the time in milliseconds after which a cached result expires, counted from when the native call
+     * which computed it returned, or {@code 0} if results never expire}
+     * This may be used for functions whose results are effectively constant, but may change occasionally.
+     */
+    long ttl() default 0;
+}
@@ -0,0 +1,100 @@
+package io.smallrye.ffm;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A call to a {@link Pure @Pure} native method, whose results are cached.
+ * Instances are created by {@link Bootstraps#pure}.
+ */
+final class PureCall {
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle FIRST;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            INVOKE = lookup.findVirtual(PureCall.class, "invoke", MethodType.methodType(Object.class, Object[].class));
+            FIRST = lookup.findVirtual(PureCall.class, "first",
+                    MethodType.methodType(Object.class, MutableCallSite.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Bootstraps.toError(e);
+        }
+    }
+
+    private final MethodHandle target;
+    private final BoundedCache<List<Object>, Result> cache;
+    private final long ttlNanos;
+
+    private PureCall(final MethodHandle target, final int maxSize, final long ttlMillis) {
+        int cnt = target.type().parameterCount();
+        this.target = target.asSpreader(Object[].class, cnt).asType(MethodType.methodType(Object.class, Object[].class));
+        cache = new BoundedCache<>(maxSize);
+        ttlNanos = ttlMillis <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * {@return a call site which caches the results of the given target}
+     * The call site of a target without parameters whose results do not expire
+     * is relinked to a constant after the first call.
+     *
+     * @param target the method handle which performs the downcall (must not be {@code null})
+     * @param maxSize the maximum number of results to cache
+     * @param ttlMillis the time in milliseconds after which cached results expire, or {@code 0} for never
+     */
+    static CallSite callSite(final MethodHandle target, final int maxSize, final long ttlMillis) {
+        MethodType type = target.type();
+        PureCall call = new PureCall(target, maxSize, ttlMillis);
+        if (type.parameterCount() == 0 && call.ttlNanos == 0) {
+            MutableCallSite callSite = new MutableCallSite(type);
+            callSite.setTarget(FIRST.bindTo(call).bindTo(callSite).asType(type));
+            return callSite;
+        }
+        return new ConstantCallSite(INVOKE.bindTo(call).asCollector(Object[].class, type.parameterCount()).asType(type));
+    }
+
+    private Object first(final MutableCallSite callSite) throws Throwable {
+        Object value = target.invokeExact(new Object[0]);
+        MethodType type = callSite.type();
+        callSite.setTarget(MethodHandles.constant(type.returnType(), value));
+        MutableCallSite.syncAll(new MutableCallSite[] { callSite });
+        return value;
+    }
+
+    private Object invoke(final Object[] args) throws Throwable {
+        // the argument array is never reused, so it can back the key directly
+        List<Object> key = Arrays.asList(args);
+        Result cached = cache.get(key);
+        if (cached != null && (ttlNanos == 0 || System.nanoTime() - cached.time < ttlNanos)) {
+            return cached.value;
+        }
+        Object value = target.invokeExact(args);
+        // the age of a result starts when it is available, not when the call which computed it began
+        Result result = new Result(value, ttlNanos == 0 ? 0 : System.nanoTime());
+        if (cached == null) {
+            return cache.putIfAbsent(key, result).value;
+        }
+        cache.replace(key, cached, result);
+        return result.value;
+    }
+
+    /**
+     * A cached result.
+     */
+    static final class Result {
+        final Object value;
+        final long time;
+
+        Result(final Object value, final long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
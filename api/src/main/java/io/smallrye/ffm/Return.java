@@ -11,8 +11,22 @@ import java.lang.annotation.Target;
  * as the return value of the method.
  * <p>
  * This is particularly useful in the case where a function returns a structure or a union.
+ * <p>
+ * The annotated parameter must be a {@link java.lang.foreign.MemorySegment MemorySegment}
+ * which is large enough to hold the structure given by {@link #value()}.
+ * The parameter is not passed to the native function.
+ * The method must return {@code void}, or {@code MemorySegment} to return the part of the buffer
+ * which holds the returned structure.
+ * <p>
+ * When given on a component of a record which is returned from a method annotated with {@link Out @Out},
+ * the component receives the return value of the native function.
  */
 @Target(PARAMETER)
 @Retention(CLASS)
 public @interface Return {
+    /**
+     * {@return the record type annotated with {@link Struct @Struct} which gives the layout of the returned structure}
+     * This value is ignored for output record components.
+     */
+    Class<?> value() default void.class;
 }
@@ -0,0 +1,38 @@
+package io.smallrye.ffm;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a record type as a native structure.
+ * <p>
+ * Each component of the record is a member of the structure, in declaration order.
+ * The type of each component must be one of:
+ * <ul>
+ * <li>A primitive type, optionally annotated with {@link As @As} to specify its native type</li>
+ * <li>{@link java.lang.foreign.MemorySegment MemorySegment} (a pointer)</li>
+ * <li>Another record type annotated with {@code @Struct} (a nested structure)</li>
+ * </ul>
+ * The layout of the structure is computed at run time, so that members whose size depends on the platform
+ * (such as {@link AsType#stdc_long}) are laid out correctly.
+ * Members are aligned according to the platform C rules.
+ * <p>
+ * Structure records may be passed by value to, or returned by value from, native methods.
+ * For example:
+ *
+ * <pre>{@code
+ * @Struct
+ * record Timespec(@As(AsType.s64) long seconds, @As(AsType.stdc_long) long nanos) {}
+ * }</pre>
+ *
+ * The record class must be compiled together with the class containing the native method.
+ *
+ * @see Return
+ */
+@Target(TYPE)
+@Retention(CLASS)
+public @interface Struct {
+}
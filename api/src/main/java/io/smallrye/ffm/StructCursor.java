@@ -0,0 +1,149 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Objects;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * A reusable cursor over a native array of structures.
+ * <p>
+ * A cursor is a single object which is positioned over one element of the array at a time,
+ * so that large arrays may be traversed without allocating an object for each element.
+ * Cursor classes extend this class and are annotated with {@link Cursor @Cursor}, which gives the
+ * {@link Struct @Struct} record type of the array elements.
+ * The accessors of the cursor are declared as {@code native} methods, which are implemented at build time
+ * using constant member offsets:
+ * <ul>
+ * <li>A method with no parameters which is named for a record component and returns the type of that component
+ * reads the member of the current element</li>
+ * <li>A method with one parameter of the type of a record component which is named for that component
+ * and returns {@code void} writes the member of the current element</li>
+ * <li>A method which returns {@code void} and accepts a columns record, an {@code int} array index,
+ * and an {@code int} element count transfers that many elements starting at the current element in bulk;
+ * see below</li>
+ * <li>The {@link #stride()} method, which must be declared as {@code native}, returns the size of each element</li>
+ * </ul>
+ * For example:
+ *
+ * <pre>{@code
+ * @Cursor(Timespec.class)
+ * final class TimespecCursor extends StructCursor {
+ *     protected native long stride();
+ *
+ *     native long seconds();
+ *
+ *     native void seconds(long seconds);
+ * }
+ * }</pre>
+ *
+ * <h2>Columns</h2>
+ * A columns record is a record whose components are arrays of the type of the structure member with the same name
+ * (not every member needs a column).
+ * If the columns parameter of a transfer method is annotated with {@link Out @Out}, then the members of each element
+ * are copied out into the column arrays; if it is annotated with {@link In @In}, then the column arrays are copied
+ * into the members of each element.
+ * The elements are transferred in a single pass, filling every column from each element in turn, which is much
+ * faster than reading each element as an object; the elements of a structure with a single member whose native
+ * type is as wide as its Java type are contiguous, and are copied in bulk.
+ * For example:
+ *
+ * <pre>{@code
+ * record TimespecColumns(long[] seconds, long[] nanos) {}
+ *
+ * @Cursor(Timespec.class)
+ * final class TimespecCursor extends StructCursor {
+ *     protected native long stride();
+ *
+ *     native void read(@Out TimespecColumns columns, int index, int count);
+ *
+ *     native void write(@In TimespecColumns columns, int index, int count);
+ * }
+ * }</pre>
+ *
+ * The columns record class must be compiled together with the cursor class.
+ * <p>
+ * Cursors are not thread-safe.
+ */
+public abstract class StructCursor {
+    private MemorySegment segment = MemorySegment.NULL;
+    private long count;
+    private long offset;
+
+    /**
+     * Construct a new instance.
+     * The cursor is initially positioned over an empty array.
+     */
+    protected StructCursor() {
+    }
+
+    /**
+     * {@return the size of each element of the array, in bytes}
+     * This method is implemented at build time, and must be declared as {@code native}.
+     */
+    protected abstract long stride();
+
+    /**
+     * Position this cursor over the first element of the given array.
+     * The number of elements is the size of the segment divided by the {@linkplain #stride() stride}.
+     *
+     * @param segment the segment containing the array (must not be {@code null})
+     */
+    public final void wrap(MemorySegment segment) {
+        Assert.checkNotNullParam("segment", segment);
+        this.segment = segment;
+        count = segment.byteSize() / stride();
+        offset = 0;
+    }
+
+    /**
+     * Position this cursor over the element at the given index.
+     *
+     * @param index the element index
+     * @throws IndexOutOfBoundsException if the index is negative or not less than the {@linkplain #count() count}
+     */
+    public final void position(long index) {
+        offset = Objects.checkIndex(index, count) * stride();
+    }
+
+    /**
+     * {@return the index of the current element}
+     */
+    public final long index() {
+        return offset / stride();
+    }
+
+    /**
+     * {@return the number of elements in the array}
+     */
+    public final long count() {
+        return count;
+    }
+
+    /**
+     * Check that the given number of elements, starting at the current element, are within the array.
+     * This method is called from generated bytecode.
+     *
+     * @param count the number of elements
+     * @return the byte offset of the current element within the segment
+     * @throws IndexOutOfBoundsException if the elements are not within the array
+     */
+    protected final long checkRemaining(int count) {
+        Objects.checkFromIndexSize(index(), count, this.count);
+        return offset;
+    }
+
+    /**
+     * {@return the segment containing the array (not {@code null})}
+     */
+    public final MemorySegment segment() {
+        return segment;
+    }
+
+    /**
+     * {@return the byte offset of the current element within the segment}
+     */
+    public final long offset() {
+        return offset;
+    }
+}
@@ -0,0 +1,141 @@
+package io.smallrye.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of upcall stubs for the callback objects of one {@link Callback @Callback} interface method.
+ * <p>
+ * Each callback object is mapped to a single stub, which is released once neither the object nor the stub
+ * segment is reachable.
+ * Objects are compared by identity.
+ * Instances are created by {@link Bootstraps#upcallStubs}, and are called from generated bytecode.
+ */
+public final class UpcallStubs {
+    private static final MethodHandle REF_GET;
+    private static final ThreadLocal<Probe> probes = ThreadLocal.withInitial(Probe::new);
+
+    static {
+        try {
+            REF_GET = MethodHandles.lookup().findVirtual(Reference.class, "get", MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw Bootstraps.toError(e);
+        }
+    }
+
+    private final MethodHandle handle;
+    private final FunctionDescriptor descriptor;
+    private final ConcurrentHashMap<Object, MemorySegment> stubs = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param handle the method handle which accepts the callback object followed by the native arguments,
+     *        and returns the native return value (must not be {@code null})
+     * @param descriptor the function descriptor of the callback (must not be {@code null})
+     */
+    UpcallStubs(final MethodHandle handle, final FunctionDescriptor descriptor) {
+        this.handle = handle;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Get the upcall stub for the given callback object, creating it if needed.
+     *
+     * @param target the callback object, or {@code null} for none
+     * @return the upcall stub, or {@link MemorySegment#NULL} if {@code target} is {@code null} (not {@code null})
+     */
+    public MemorySegment stubFor(Object target) {
+        if (target == null) {
+            return MemorySegment.NULL;
+        }
+        expunge();
+        // look up with a reusable probe, so that finding an existing stub does not allocate
+        Probe probe = probes.get();
+        MemorySegment stub = stubs.get(probe.set(target));
+        probe.set(null);
+        if (stub == null) {
+            stub = stubs.computeIfAbsent(new Key(target, queue), this::createStub);
+        }
+        return stub;
+    }
+
+    private MemorySegment createStub(final Object key) {
+        // the stub refers to the target weakly, so that the target (and thus the stub) may be released
+        MethodHandle receiver = REF_GET.bindTo(key).asType(MethodType.methodType(handle.type().parameterType(0)));
+        MethodHandle bound = MethodHandles.collectArguments(handle, 0, receiver);
+        // an automatic arena is freed by the garbage collector, without the thread handshake of closing a shared arena
+        return Linker.nativeLinker().upcallStub(bound, descriptor, Arena.ofAuto());
+    }
+
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            // the stub is freed once the segment is no longer reachable
+            stubs.remove(ref);
+        }
+    }
+
+    /**
+     * A weak identity key for a callback object.
+     */
+    static final class Key extends WeakReference<Object> {
+        private final int hashCode;
+
+        Key(final Object target, final ReferenceQueue<Object> queue) {
+            super(target, queue);
+            hashCode = System.identityHashCode(target);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Key other) {
+                Object target = get();
+                return target != null && target == other.get();
+            }
+            if (obj instanceof Probe probe) {
+                Object target = get();
+                return target != null && target == probe.target;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A strong identity key which is only used to look up the stub of a callback object.
+     */
+    static final class Probe {
+        private Object target;
+        private int hashCode;
+
+        Probe set(final Object target) {
+            this.target = target;
+            hashCode = System.identityHashCode(target);
+            return this;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key key && key.equals(this);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.AdaptiveLinkage;
+import io.smallrye.ffm.Critical;
+import io.smallrye.ffm.Link;
+
+/**
+ * Tests for {@linkplain Critical#adaptive() adaptively linked} critical methods.
+ */
+public final class AdaptiveLinkageTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public AdaptiveLinkageTest() {
+    }
+
+    /**
+     * Verify that an adaptively linked method returns correct results throughout the warm-up period
+     * and that a fast function is relinked as a critical call once the warm-up period is complete.
+     */
+    @Test
+    public void testAdaptiveLinkage() {
+        assumeTrue(AdaptiveLinkageTest.class.getModule().isNativeAccessEnabled());
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(i, abs(-i));
+        }
+        List<AdaptiveLinkage> linkages = AdaptiveLinkage.of(AdaptiveLinkageTest.class);
+        assertEquals(1, linkages.size());
+        AdaptiveLinkage linkage = linkages.getFirst();
+        assertSame(AdaptiveLinkageTest.class, linkage.callerClass());
+        assertTrue(linkage.descriptor().startsWith("a"));
+        // the threshold is set high enough by the build that abs is always considered short
+        assertEquals(AdaptiveLinkage.State.CRITICAL, linkage.state(), linkage::toString);
+        assertTrue(linkage.measuredCalls() >= 1_000);
+        assertTrue(linkage.longCalls() <= 10);
+        assertTrue(linkage.maxNanos() >= linkage.meanNanos());
+        assertTrue(AdaptiveLinkage.all().contains(linkage));
+    }
+
+    /**
+     * Verify that a class-level adaptive annotation applies to the methods which do not have their own.
+     */
+    @Test
+    public void testClassAdaptiveLinkage() {
+        assumeTrue(AdaptiveLinkageTest.class.getModule().isNativeAccessEnabled());
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(i, Adaptive.abs(-i));
+            assertEquals(i, Adaptive.llabs(-i));
+        }
+        List<AdaptiveLinkage> linkages = AdaptiveLinkage.of(Adaptive.class);
+        assertEquals(1, linkages.size());
+        assertEquals(AdaptiveLinkage.State.CRITICAL, linkages.getFirst().state(), linkages.getFirst()::toString);
+    }
+
+    /**
+     * Methods which are adaptively linked by default.
+     */
+    @Critical(adaptive = true)
+    static final class Adaptive {
+        private Adaptive() {
+        }
+
+        /**
+         * Compute the absolute value of a long integer.
+         *
+         * @param val the value
+         * @return the absolute value
+         */
+        @Link(name = "llabs")
+        static native long abs(long val);
+
+        /**
+         * Compute the absolute value of a long integer, always linked as critical.
+         *
+         * @param val the value
+         * @return the absolute value
+         */
+        @Link
+        @Critical
+        static native long llabs(long val);
+    }
+
+    /**
+     * Compute the absolute value of an integer.
+     *
+     * @param val the value
+     * @return the absolute value
+     */
+    @Link
+    @Critical(adaptive = true)
+    private static native int abs(int val);
+}
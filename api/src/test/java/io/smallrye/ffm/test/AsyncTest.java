@@ -0,0 +1,118 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Async;
+import io.smallrye.ffm.AsyncCalls;
+import io.smallrye.ffm.Errno;
+import io.smallrye.ffm.ErrnoConsumer;
+import io.smallrye.ffm.Link;
+
+/**
+ * Tests for {@link Async} methods.
+ */
+public final class AsyncTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public AsyncTest() {
+    }
+
+    /**
+     * Verify that the results of calls are delivered.
+     */
+    @Test
+    public void testResults() {
+        assumeTrue(AsyncTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(5L, (long) strlen("hello").join());
+        assertEquals(1234, (int) abs(-1234).join());
+        assertNull(srand(1).join());
+    }
+
+    /**
+     * Verify that {@code errno} is delivered before the future is completed.
+     */
+    @Test
+    public void testErrno() {
+        assumeTrue(AsyncTest.class.getModule().isNativeAccessEnabled());
+        AtomicReference<Errno> errno = new AtomicReference<>();
+        double result = strtod("1.18973e+4932", MemorySegment.NULL, errno::set).join();
+        assertTrue(Double.isInfinite(result));
+        assertEquals(Errno.ERANGE, errno.get());
+    }
+
+    /**
+     * Verify that many concurrent calls complete, and that they are counted.
+     */
+    @Test
+    public void testMetrics() {
+        assumeTrue(AsyncTest.class.getModule().isNativeAccessEnabled());
+        long completed = AsyncCalls.completedCalls();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(abs(-i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) futures.get(i).join());
+        }
+        assertTrue(AsyncCalls.completedCalls() >= completed + 100);
+        assertTrue(AsyncCalls.totalCallNanos() > 0);
+        assertTrue(AsyncCalls.maxCallNanos() <= AsyncCalls.totalCallNanos());
+        assertTrue(AsyncCalls.queueDepth() >= 0);
+    }
+
+    /**
+     * Get the length of a string.
+     *
+     * @param str the string (must not be {@code null})
+     * @return the future string length
+     */
+    @Link
+    @Async
+    @As(size_t)
+    private static native CompletableFuture<Long> strlen(String str);
+
+    /**
+     * Get the absolute value of an integer.
+     *
+     * @param val the integer
+     * @return the future absolute value
+     */
+    @Link
+    @Async
+    private static native CompletableFuture<Integer> abs(int val);
+
+    /**
+     * Seed the pseudo-random number generator.
+     *
+     * @param seed the seed
+     * @return the future completion
+     */
+    @Link
+    @Async
+    private static native CompletableFuture<Void> srand(int seed);
+
+    /**
+     * Parse a floating-point number.
+     *
+     * @param str the string to parse (must not be {@code null})
+     * @param endPtr the end pointer, or {@link MemorySegment#NULL}
+     * @param errnoConsumer the consumer for {@code errno} (must not be {@code null})
+     * @return the future parsed value
+     */
+    @Link
+    @Async
+    private static native CompletableFuture<Double> strtod(String str, MemorySegment endPtr, ErrnoConsumer errnoConsumer);
+}
@@ -0,0 +1,104 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.common.os.OS;
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Batch;
+import io.smallrye.ffm.Errno;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Out;
+
+/**
+ * Tests for {@link Batch} methods.
+ */
+public final class BatchTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public BatchTest() {
+    }
+
+    /**
+     * Verify that results are returned for each element.
+     */
+    @Test
+    public void testReturnedResults() {
+        assumeTrue(BatchTest.class.getModule().isNativeAccessEnabled());
+        int[] values = new int[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 2 == 0 ? -i : i;
+        }
+        int[] results = abs(values);
+        assertEquals(values.length, results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i, results[i]);
+        }
+        assertEquals(0, abs(new int[0]).length);
+    }
+
+    /**
+     * Verify that results are written into an output array, converting each element.
+     */
+    @Test
+    public void testOutResults() {
+        assumeTrue(BatchTest.class.getModule().isNativeAccessEnabled());
+        long[] values = { -1, 2, -3, -0x7fff_ffffL };
+        long[] results = new long[4];
+        labs(values, results);
+        assertArrayEquals(new long[] { 1, 2, 3, 0x7fff_ffffL }, results);
+        assertThrows(IndexOutOfBoundsException.class, () -> labs(values, new long[3]));
+    }
+
+    /**
+     * Verify that {@code errno} is reported for each element.
+     */
+    @Test
+    public void testErrors() {
+        assumeTrue(BatchTest.class.getModule().isNativeAccessEnabled());
+        assumeFalse(OS.current() == OS.WINDOWS);
+        int[] fds = { -1, -2, Integer.MIN_VALUE };
+        Errno[] errors = new Errno[fds.length];
+        int[] results = close(fds, errors);
+        for (int i = 0; i < fds.length; i++) {
+            assertEquals(-1, results[i]);
+            assertEquals(Errno.EBADF, errors[i]);
+        }
+    }
+
+    /**
+     * Compute the absolute value of each integer.
+     *
+     * @param values the integers (must not be {@code null})
+     * @return the absolute values (not {@code null})
+     */
+    @Link
+    @Batch
+    private static native int[] abs(int[] values);
+
+    /**
+     * Compute the absolute value of each native {@code long}.
+     *
+     * @param values the values (must not be {@code null})
+     * @param results the array to receive the absolute values (must not be {@code null})
+     */
+    @Link
+    @Batch
+    private static native void labs(@As(stdc_long) long[] values, @Out @As(stdc_long) long[] results);
+
+    /**
+     * Close each file descriptor.
+     *
+     * @param fds the file descriptors (must not be {@code null})
+     * @param errors the array to receive the error of each call (must not be {@code null})
+     * @return the result of each call (not {@code null})
+     */
+    @Link
+    @Batch
+    private static native int[] close(int[] fds, Errno[] errors);
+}
@@ -0,0 +1,149 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.common.os.OS;
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Blocking;
+import io.smallrye.ffm.Callback;
+import io.smallrye.ffm.Link;
+
+/**
+ * Tests for {@link Blocking} methods.
+ */
+public final class BlockingTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public BlockingTest() {
+    }
+
+    /**
+     * Verify that thousands of virtual threads making blocking calls do not starve the scheduler.
+     * Without compensation, the calls could only run as many at a time as there are carrier threads.
+     */
+    @Test
+    public void testVirtualThreadScaling() throws Exception {
+        assumeTrue(BlockingTest.class.getModule().isNativeAccessEnabled());
+        assumeFalse(OS.current() == OS.WINDOWS);
+        int carriers = Runtime.getRuntime().availableProcessors();
+        assumeTrue(carriers <= 32, "Too many carrier threads to measure compensation");
+        int threads = 2_000;
+        int sleepMillis = 50;
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int i = 0; i < threads; i++) {
+                futures[i] = executor.submit(() -> assertEquals(0, usleep(sleepMillis * 1000)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long uncompensatedMillis = (long) threads * sleepMillis / carriers;
+        assertTrue(elapsedMillis < uncompensatedMillis / 2,
+                "Took " + elapsedMillis + " ms (uncompensated would take at least " + uncompensatedMillis + " ms)");
+    }
+
+    /**
+     * Verify that calls with segments which are confined to the calling thread are made directly,
+     * and that calls with shared segments are made on a pool thread.
+     * The thread which makes each call is recorded by the comparison function which it calls back.
+     */
+    @Test
+    public void testSegmentAccess() throws Exception {
+        assumeTrue(BlockingTest.class.getModule().isNativeAccessEnabled());
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        Comparator comparator = (a, b) -> {
+            threads.add(Thread.currentThread());
+            return Integer.compare(a.reinterpret(4).get(ValueLayout.JAVA_INT, 0),
+                    b.reinterpret(4).get(ValueLayout.JAVA_INT, 0));
+        };
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.submit(() -> {
+                Thread caller = Thread.currentThread();
+                try (Arena arena = Arena.ofConfined()) {
+                    MemorySegment seg = arena.allocateFrom(ValueLayout.JAVA_INT, 3, 1, 2);
+                    qsort(seg, 3, 4, comparator);
+                    assertArrayEquals(new int[] { 1, 2, 3 }, seg.toArray(ValueLayout.JAVA_INT));
+                }
+                assertEquals(Set.of(caller), threads);
+                threads.clear();
+                try (Arena arena = Arena.ofShared()) {
+                    MemorySegment seg = arena.allocateFrom(ValueLayout.JAVA_INT, 3, 1, 2);
+                    qsort(seg, 3, 4, comparator);
+                    assertArrayEquals(new int[] { 1, 2, 3 }, seg.toArray(ValueLayout.JAVA_INT));
+                }
+                assertEquals(1, threads.size());
+                Thread thread = threads.iterator().next();
+                assertFalse(thread.isVirtual());
+                assertTrue(thread.getName().startsWith("smallrye-ffm-blocking-"), thread::getName);
+            }).get();
+        }
+    }
+
+    /**
+     * Verify that blocking calls from a fork/join pool worker thread are made.
+     */
+    @Test
+    public void testForkJoinWorker() {
+        assumeTrue(BlockingTest.class.getModule().isNativeAccessEnabled());
+        assumeFalse(OS.current() == OS.WINDOWS);
+        assertEquals(0, (int) ForkJoinPool.commonPool().submit(() -> usleep(1000)).join());
+    }
+
+    /**
+     * A comparison function.
+     */
+    @Callback
+    interface Comparator {
+        /**
+         * Compare two elements.
+         *
+         * @param a the pointer to the first element (not {@code null})
+         * @param b the pointer to the second element (not {@code null})
+         * @return the comparison result
+         */
+        int compare(MemorySegment a, MemorySegment b);
+    }
+
+    /**
+     * Sleep for a number of microseconds.
+     *
+     * @param micros the number of microseconds
+     * @return {@code 0} on success, or {@code -1} on error
+     */
+    @Link
+    @Blocking
+    private static native int usleep(int micros);
+
+    /**
+     * Sort an array.
+     *
+     * @param base the array (must not be {@code null})
+     * @param count the number of elements
+     * @param size the size of each element
+     * @param comparator the comparison function (must not be {@code null})
+     */
+    @Link
+    @Blocking
+    private static native void qsort(MemorySegment base, @As(size_t) long count, @As(size_t) long size,
+            Comparator comparator);
+}
@@ -0,0 +1,127 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.Advance;
+import io.smallrye.ffm.In;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Out;
+
+/**
+ * Tests for NIO buffer parameters.
+ */
+public final class BufferParamTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public BufferParamTest() {
+    }
+
+    /**
+     * Verify that the remaining bytes of direct buffers are passed to the native call.
+     */
+    @Test
+    public void testDirectBuffers() {
+        assumeTrue(BufferParamTest.class.getModule().isNativeAccessEnabled());
+        ByteBuffer src = ByteBuffer.allocateDirect(16);
+        for (int i = 0; i < 16; i++) {
+            src.put((byte) i);
+        }
+        src.position(4);
+        ByteBuffer dest = ByteBuffer.allocateDirect(16);
+        dest.position(2);
+        copy(dest, src, 8);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i + 4, dest.get(i + 2));
+        }
+        assertEquals(0, dest.get(0));
+        assertEquals(0, dest.get(10));
+    }
+
+    /**
+     * Verify that the remaining bytes of heap buffers are copied in and out of the native call.
+     */
+    @Test
+    public void testHeapBuffers() {
+        assumeTrue(BufferParamTest.class.getModule().isNativeAccessEnabled());
+        ByteBuffer src = ByteBuffer.allocate(16);
+        for (int i = 0; i < 16; i++) {
+            src.put((byte) i);
+        }
+        src.position(4);
+        ByteBuffer dest = ByteBuffer.allocate(16);
+        dest.position(2);
+        copy(dest, src.asReadOnlyBuffer(), 8);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i + 4, dest.get(i + 2));
+        }
+        assertEquals(0, dest.get(0));
+        assertEquals(0, dest.get(10));
+    }
+
+    /**
+     * Verify that typed heap buffers are copied in and out of the native call.
+     */
+    @Test
+    public void testIntBuffers() {
+        assumeTrue(BufferParamTest.class.getModule().isNativeAccessEnabled());
+        IntBuffer src = IntBuffer.wrap(new int[] { 1, 2, 3, 4 });
+        IntBuffer dest = IntBuffer.allocate(4);
+        copyInts(dest, src, 16);
+        assertArrayEquals(src.array(), dest.array());
+    }
+
+    /**
+     * Verify that the buffer position is advanced by the returned value.
+     */
+    @Test
+    public void testAdvance() {
+        assumeTrue(BufferParamTest.class.getModule().isNativeAccessEnabled());
+        ByteBuffer buf = ByteBuffer.allocate(32);
+        buf.put("hello\0world\0".getBytes(StandardCharsets.US_ASCII));
+        buf.flip();
+        assertEquals(5, strnlen(buf, buf.remaining()));
+        assertEquals(5, buf.position());
+        buf.get();
+        assertEquals(5, strnlen(buf, buf.remaining()));
+        assertEquals(11, buf.position());
+    }
+
+    /**
+     * Copy bytes from the source buffer to the destination buffer using {@code memcpy}.
+     *
+     * @param dest the destination buffer (must not be {@code null})
+     * @param src the source buffer (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     */
+    @Link(name = "memcpy")
+    private static native void copy(@Out ByteBuffer dest, @In ByteBuffer src, long size);
+
+    /**
+     * Copy integers from the source buffer to the destination buffer using {@code memcpy}.
+     *
+     * @param dest the destination buffer (must not be {@code null})
+     * @param src the source buffer (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     */
+    @Link(name = "memcpy")
+    private static native void copyInts(@Out IntBuffer dest, @In IntBuffer src, long size);
+
+    /**
+     * Get the length of the string at the position of the buffer, advancing past it.
+     *
+     * @param buf the buffer containing the string (must not be {@code null})
+     * @param max the maximum length
+     * @return the length of the string
+     */
+    @Link
+    private static native long strnlen(@In @Advance ByteBuffer buf, long max);
+}
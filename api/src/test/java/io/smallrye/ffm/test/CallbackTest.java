@@ -0,0 +1,124 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Callback;
+import io.smallrye.ffm.Link;
+
+/**
+ * Tests for {@link Callback} parameters.
+ */
+public final class CallbackTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public CallbackTest() {
+    }
+
+    /**
+     * Verify that a static method reference is called back from native code, repeatedly.
+     */
+    @Test
+    public void testStaticCallback() {
+        assumeTrue(CallbackTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            for (int i = 0; i < 100; i++) {
+                MemorySegment seg = arena.allocateFrom(ValueLayout.JAVA_INT, 5, 3, 9, -1, i);
+                qsort(seg, 5, 4, CallbackTest::compareInts);
+                int[] sorted = seg.toArray(ValueLayout.JAVA_INT);
+                for (int j = 1; j < sorted.length; j++) {
+                    assertTrue(sorted[j - 1] <= sorted[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify that a capturing lambda is called back from native code.
+     */
+    @Test
+    public void testCapturingCallback() {
+        assumeTrue(CallbackTest.class.getModule().isNativeAccessEnabled());
+        AtomicInteger calls = new AtomicInteger();
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocateFrom(ValueLayout.JAVA_INT, 1, 2, 3, 4, 5, 6, 7, 8);
+            qsort(seg, 8, 4, (a, b) -> {
+                calls.incrementAndGet();
+                return -compareInts(a, b);
+            });
+            assertArrayEquals(new int[] { 8, 7, 6, 5, 4, 3, 2, 1 }, seg.toArray(ValueLayout.JAVA_INT));
+            assertTrue(calls.get() > 0);
+        }
+    }
+
+    /**
+     * Verify that repeated calls with the same callback object reuse its cached upcall stub.
+     */
+    @Test
+    public void testStubReuse() {
+        assumeTrue(CallbackTest.class.getModule().isNativeAccessEnabled());
+        Comparator comparator = CallbackTest::compareInts;
+        long address = stubOf(comparator, MemorySegment.NULL, 0).address();
+        assertNotEquals(0, address);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(address, stubOf(comparator, MemorySegment.NULL, 0).address());
+        }
+        Comparator other = (a, b) -> -compareInts(a, b);
+        assertNotEquals(address, stubOf(other, MemorySegment.NULL, 0).address());
+        assertEquals(address, stubOf(comparator, MemorySegment.NULL, 0).address());
+        assertEquals(0, stubOf(null, MemorySegment.NULL, 0).address());
+    }
+
+    private static int compareInts(MemorySegment a, MemorySegment b) {
+        return Integer.compare(a.reinterpret(4).get(ValueLayout.JAVA_INT, 0), b.reinterpret(4).get(ValueLayout.JAVA_INT, 0));
+    }
+
+    /**
+     * A comparison function.
+     */
+    @Callback
+    interface Comparator {
+        /**
+         * Compare two elements.
+         *
+         * @param a the pointer to the first element (not {@code null})
+         * @param b the pointer to the second element (not {@code null})
+         * @return the comparison result
+         */
+        int compare(MemorySegment a, MemorySegment b);
+    }
+
+    /**
+     * Sort an array.
+     *
+     * @param base the array (must not be {@code null})
+     * @param count the number of elements
+     * @param size the size of each element
+     * @param comparator the comparison function (must not be {@code null})
+     */
+    @Link
+    private static native void qsort(MemorySegment base, @As(size_t) long count, @As(size_t) long size,
+            Comparator comparator);
+
+    /**
+     * Call {@code memcpy} to copy nothing, returning the address of the upcall stub of the given callback.
+     *
+     * @param comparator the callback, or {@code null} for none
+     * @param src the source (must not be {@code null})
+     * @param size the number of bytes to copy (must be zero)
+     * @return the upcall stub address
+     */
+    @Link(name = "memcpy")
+    private static native MemorySegment stubOf(Comparator comparator, MemorySegment src, @As(size_t) long size);
+}
@@ -0,0 +1,129 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.common.os.OS;
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Chunked;
+import io.smallrye.ffm.Link;
+
+/**
+ * Tests for {@link Chunked} methods.
+ */
+public final class ChunkedTest {
+    private static final int O_WRONLY = 1;
+
+    /**
+     * Construct a new instance.
+     */
+    public ChunkedTest() {
+    }
+
+    /**
+     * Verify that every chunk of a large segment is processed, using a given pool.
+     */
+    @Test
+    public void testChunks() {
+        assumeTrue(ChunkedTest.class.getModule().isNativeAccessEnabled());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (Arena arena = Arena.ofShared()) {
+            // a size which is not a multiple of the chunk size
+            long size = 1_000_003;
+            MemorySegment seg = arena.allocate(size + 1);
+            fill(seg, 'x', size, pool);
+            assertEquals('x', seg.get(ValueLayout.JAVA_BYTE, 0));
+            assertEquals('x', seg.get(ValueLayout.JAVA_BYTE, size - 1));
+            assertEquals(0, seg.get(ValueLayout.JAVA_BYTE, size));
+            assertEquals(-1, seg.asSlice(0, size).mismatch(arena.allocate(size).fill((byte) 'x')));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Verify that the results of the chunks are combined, and that small inputs are processed inline.
+     */
+    @Test
+    public void testCombiner() {
+        assumeTrue(ChunkedTest.class.getModule().isNativeAccessEnabled());
+        assumeFalse(OS.current() == OS.WINDOWS);
+        int fd = open("/dev/null", O_WRONLY);
+        assertTrue(fd >= 0);
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment seg = arena.allocate(500_003).fill((byte) 'y');
+            // the number of bytes written is the sum of the bytes written for each chunk
+            assertEquals(500_003, write(fd, seg, seg.byteSize()));
+            assertEquals(1000, write(fd, seg, 1000));
+            assertEquals(0, write(fd, seg, 0));
+            // the input must fit in the segment
+            assertThrows(IndexOutOfBoundsException.class, () -> write(fd, seg, seg.byteSize() + 100_000));
+        } finally {
+            close(fd);
+        }
+    }
+
+    /**
+     * Sum two results.
+     *
+     * @param a the first result
+     * @param b the second result
+     * @return the sum
+     */
+    private static long sum(long a, long b) {
+        return a + b;
+    }
+
+    /**
+     * Fill memory with a byte value.
+     *
+     * @param seg the memory to fill (must not be {@code null})
+     * @param value the byte value
+     * @param len the number of bytes to fill
+     * @param pool the pool to run chunks on (must not be {@code null})
+     */
+    @Link(name = "memset")
+    @Chunked(threshold = 4096)
+    private static native void fill(@Chunked.Slice MemorySegment seg, int value, @Chunked.Length @As(size_t) long len,
+            ForkJoinPool pool);
+
+    /**
+     * Open a file.
+     *
+     * @param path the file path (must not be {@code null})
+     * @param flags the open flags
+     * @return the file descriptor, or {@code -1} on error
+     */
+    @Link
+    private static native int open(String path, int flags);
+
+    /**
+     * Write bytes to a file descriptor.
+     *
+     * @param fd the file descriptor
+     * @param buf the bytes to write (must not be {@code null})
+     * @param count the number of bytes to write
+     * @return the number of bytes written, or {@code -1} on error
+     */
+    @Link
+    @Chunked(threshold = 10_000, combiner = "sum")
+    private static native @As(ssize_t) long write(int fd, @Chunked.Slice MemorySegment buf,
+            @Chunked.Length @As(size_t) long count);
+
+    /**
+     * Close a file descriptor.
+     *
+     * @param fd the file descriptor
+     * @return {@code 0} on success or {@code -1} on error
+     */
+    @Link
+    private static native int close(int fd);
+}
@@ -0,0 +1,157 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.BigEndian;
+import io.smallrye.ffm.In;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Out;
+
+/**
+ * Tests for primitive array parameters whose elements are converted to a different native type or byte order.
+ */
+public final class ConvertedArrayTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public ConvertedArrayTest() {
+    }
+
+    /**
+     * Verify that integer elements are narrowed and widened.
+     */
+    @Test
+    public void testIntegerConversion() {
+        assumeTrue(ConvertedArrayTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(64, 8);
+            int[] src = { 1, 0xffff, 0x12345, -1 };
+            copyFromU16(seg, src, 8);
+            assertEquals((short) 1, seg.getAtIndex(ValueLayout.JAVA_SHORT, 0));
+            assertEquals((short) 0xffff, seg.getAtIndex(ValueLayout.JAVA_SHORT, 1));
+            assertEquals((short) 0x2345, seg.getAtIndex(ValueLayout.JAVA_SHORT, 2));
+            assertEquals((short) -1, seg.getAtIndex(ValueLayout.JAVA_SHORT, 3));
+            int[] dest = new int[4];
+            copyToU16(dest, seg, 8);
+            assertArrayEquals(new int[] { 1, 0xffff, 0x2345, 0xffff }, dest);
+            copyToS16(dest, seg, 8);
+            assertArrayEquals(new int[] { 1, -1, 0x2345, -1 }, dest);
+            copyFromS64(seg, src, 32);
+            assertEquals(0x12345L, seg.getAtIndex(ValueLayout.JAVA_LONG, 2));
+            assertEquals(-1L, seg.getAtIndex(ValueLayout.JAVA_LONG, 3));
+        }
+    }
+
+    /**
+     * Verify that floating-point elements are converted.
+     */
+    @Test
+    public void testFloatingPointConversion() {
+        assumeTrue(ConvertedArrayTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(64, 8);
+            copyFromF64(seg, new float[] { 1.5f, -2.25f }, 16);
+            assertEquals(1.5, seg.getAtIndex(ValueLayout.JAVA_DOUBLE, 0));
+            assertEquals(-2.25, seg.getAtIndex(ValueLayout.JAVA_DOUBLE, 1));
+        }
+    }
+
+    /**
+     * Verify that elements are passed in big-endian byte order.
+     */
+    @Test
+    public void testBigEndian() {
+        assumeTrue(ConvertedArrayTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(64, 8);
+            copyFromBigEndian(seg, new int[] { 0x01020304 }, 4);
+            assertEquals(1, seg.get(ValueLayout.JAVA_BYTE, 0));
+            assertEquals(4, seg.get(ValueLayout.JAVA_BYTE, 3));
+            assertEquals(0x01020304, seg.get(ValueLayout.JAVA_INT.withOrder(ByteOrder.BIG_ENDIAN), 0));
+            copyFromBigEndianU16(seg, new int[] { 0x0102 }, 2);
+            assertEquals(1, seg.get(ValueLayout.JAVA_BYTE, 0));
+            assertEquals(2, seg.get(ValueLayout.JAVA_BYTE, 1));
+        }
+    }
+
+    /**
+     * Copy integers into native memory as {@code uint16_t} values using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source array (must not be {@code null})
+     * @param size the number of bytes to copy
+     */
+    @Link(name = "memcpy")
+    private static native void copyFromU16(MemorySegment dest, @In @As(u16) int[] src, long size);
+
+    /**
+     * Copy integers into native memory as {@code int64_t} values using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source array (must not be {@code null})
+     * @param size the number of bytes to copy
+     */
+    @Link(name = "memcpy")
+    private static native void copyFromS64(MemorySegment dest, @In @As(s64) int[] src, long size);
+
+    /**
+     * Copy {@code uint16_t} values from native memory into integers using {@code memcpy}.
+     *
+     * @param dest the destination array (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy
+     */
+    @Link(name = "memcpy")
+    private static native void copyToU16(@Out @As(u16) int[] dest, MemorySegment src, long size);
+
+    /**
+     * Copy {@code int16_t} values from native memory into integers using {@code memcpy}.
+     *
+     * @param dest the destination array (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy
+     */
+    @Link(name = "memcpy")
+    private static native void copyToS16(@Out @As(s16) int[] dest, MemorySegment src, long size);
+
+    /**
+     * Copy floats into native memory as {@code double} values using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source array (must not be {@code null})
+     * @param size the number of bytes to copy
+     */
+    @Link(name = "memcpy")
+    private static native void copyFromF64(MemorySegment dest, @In @As(f64) float[] src, long size);
+
+    /**
+     * Copy integers into native memory in big-endian byte order using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source array (must not be {@code null})
+     * @param size the number of bytes to copy
+     */
+    @Link(name = "memcpy")
+    private static native void copyFromBigEndian(MemorySegment dest, @In @BigEndian int[] src, long size);
+
+    /**
+     * Copy integers into native memory as big-endian {@code uint16_t} values using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source array (must not be {@code null})
+     * @param size the number of bytes to copy
+     */
+    @Link(name = "memcpy")
+    private static native void copyFromBigEndianU16(MemorySegment dest, @In @BigEndian @As(u16) int[] src, long size);
+}
@@ -0,0 +1,120 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.Critical;
+import io.smallrye.ffm.In;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Out;
+
+/**
+ * Tests for {@link Critical#heap() heap-accessing} critical calls with a {@link Critical#heapThreshold() heap threshold}.
+ * Arguments at or below the threshold are passed directly, while larger arguments are copied through native memory.
+ */
+public final class CriticalHeapTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public CriticalHeapTest() {
+    }
+
+    /**
+     * Verify that arrays which fit within the threshold are passed to the native call correctly.
+     */
+    @Test
+    public void testSmallArrays() {
+        assumeTrue(CriticalHeapTest.class.getModule().isNativeAccessEnabled());
+        byte[] src = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        byte[] dest = new byte[src.length];
+        copy(dest, src, src.length);
+        assertArrayEquals(src, dest);
+    }
+
+    /**
+     * Verify that arrays which exceed the threshold are copied in and out of the native call correctly.
+     */
+    @Test
+    public void testLargeArrays() {
+        assumeTrue(CriticalHeapTest.class.getModule().isNativeAccessEnabled());
+        byte[] src = new byte[4096];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) i;
+        }
+        byte[] dest = new byte[src.length];
+        copy(dest, src, src.length);
+        assertArrayEquals(src, dest);
+    }
+
+    /**
+     * Verify that the threshold is computed in bytes rather than in array elements.
+     */
+    @Test
+    public void testLargeIntArrays() {
+        assumeTrue(CriticalHeapTest.class.getModule().isNativeAccessEnabled());
+        // 8 elements is 32 bytes, which exceeds the threshold
+        int[] src = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        int[] dest = new int[src.length];
+        copyInts(dest, src, src.length * 4L);
+        assertArrayEquals(src, dest);
+    }
+
+    /**
+     * Verify that heap and native segments are handled correctly on both sides of the threshold.
+     */
+    @Test
+    public void testSegments() {
+        assumeTrue(CriticalHeapTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            for (int size : new int[] { 8, 1024 }) {
+                MemorySegment src = arena.allocate(size);
+                for (int i = 0; i < size; i++) {
+                    src.set(ValueLayout.JAVA_BYTE, i, (byte) i);
+                }
+                byte[] destArray = new byte[size];
+                copySegments(MemorySegment.ofArray(destArray), src, size);
+                assertEquals(-1, src.mismatch(MemorySegment.ofArray(destArray)));
+            }
+        }
+    }
+
+    /**
+     * Copy the source array to the destination array using {@code memcpy}.
+     *
+     * @param dest the destination array (must not be {@code null})
+     * @param src the source array (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     */
+    @Link(name = "memcpy")
+    @Critical(heap = true, heapThreshold = 16)
+    private static native void copy(@Out byte[] dest, @In byte[] src, long size);
+
+    /**
+     * Copy the source array to the destination array using {@code memcpy}.
+     *
+     * @param dest the destination array (must not be {@code null})
+     * @param src the source array (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     */
+    @Link(name = "memcpy")
+    @Critical(heap = true, heapThreshold = 16)
+    private static native void copyInts(@Out int[] dest, @In int[] src, long size);
+
+    /**
+     * Copy the source segment to the destination segment using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     */
+    @Link(name = "memcpy")
+    @Critical(heap = true, heapThreshold = 16)
+    private static native void copySegments(@Out MemorySegment dest, @In MemorySegment src, long size);
+}
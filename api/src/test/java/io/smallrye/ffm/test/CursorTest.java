@@ -0,0 +1,266 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Cursor;
+import io.smallrye.ffm.In;
+import io.smallrye.ffm.Out;
+import io.smallrye.ffm.Struct;
+import io.smallrye.ffm.StructCursor;
+
+/**
+ * Tests for {@link StructCursor} subclasses.
+ */
+public final class CursorTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public CursorTest() {
+    }
+
+    /**
+     * Verify that the element layout is aligned and that members are read and written at the correct offsets.
+     */
+    @Test
+    public void testAccessors() {
+        EventCursor cursor = new EventCursor();
+        assertEquals(16, cursor.stride());
+        assertEquals(0, cursor.count());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(16 * 100, 8);
+            cursor.wrap(seg);
+            assertEquals(100, cursor.count());
+            for (long i = 0; i < cursor.count(); i++) {
+                cursor.position(i);
+                cursor.events((int) i);
+                cursor.data(i * 1000);
+            }
+            assertEquals(5, seg.get(ValueLayout.JAVA_INT, 16 * 5));
+            assertEquals(5000, seg.get(ValueLayout.JAVA_LONG, 16 * 5 + 8));
+            long sum = 0;
+            for (long i = 0; i < cursor.count(); i++) {
+                cursor.position(i);
+                assertEquals(i, cursor.index());
+                assertEquals(i, cursor.events());
+                sum += cursor.data();
+            }
+            assertEquals(4_950_000, sum);
+            // unsigned values are zero-extended
+            cursor.position(0);
+            seg.set(ValueLayout.JAVA_SHORT, 4, (short) -1);
+            assertEquals(0xffff, cursor.flags());
+        }
+    }
+
+    /**
+     * Verify that the cursor cannot be positioned outside of the array.
+     */
+    @Test
+    public void testBounds() {
+        EventCursor cursor = new EventCursor();
+        try (Arena arena = Arena.ofConfined()) {
+            cursor.wrap(arena.allocate(16 * 3 + 8, 8));
+            assertEquals(3, cursor.count());
+            cursor.position(2);
+            assertThrows(IndexOutOfBoundsException.class, () -> cursor.position(3));
+            assertThrows(IndexOutOfBoundsException.class, () -> cursor.position(-1));
+            assertEquals(2, cursor.index());
+        }
+    }
+
+    /**
+     * Verify that elements are transferred to and from column arrays in bulk.
+     */
+    @Test
+    public void testColumns() {
+        EventCursor cursor = new EventCursor();
+        int cnt = 1000;
+        EventColumns in = new EventColumns(new int[cnt], new long[cnt]);
+        for (int i = 0; i < cnt; i++) {
+            in.events()[i] = i * 3;
+            in.data()[i] = -i * 1_000_000_007L;
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            cursor.wrap(arena.allocate(16L * cnt, 8));
+            cursor.write(in, 0, cnt);
+            cursor.position(10);
+            assertEquals(30, cursor.events());
+            assertEquals(-10_000_000_070L, cursor.data());
+            // partial transfer from the current element into an offset range of the columns
+            EventColumns out = new EventColumns(new int[cnt], new long[cnt]);
+            cursor.read(out, 5, 100);
+            assertEquals(0, out.events()[4]);
+            assertEquals(30, out.events()[5]);
+            assertEquals(in.data()[109], out.data()[104]);
+            assertEquals(0, out.data()[105]);
+            cursor.position(cnt - 10);
+            assertThrows(IndexOutOfBoundsException.class, () -> cursor.read(out, 0, 11));
+            // a short column is rejected before anything is written
+            cursor.position(1);
+            EventColumns shortData = new EventColumns(new int[cnt], new long[10]);
+            assertThrows(IndexOutOfBoundsException.class, () -> cursor.write(shortData, 0, 20));
+            assertEquals(3, cursor.events());
+            cursor.position(0);
+            cursor.read(out, 0, cnt);
+            assertArrayEquals(in.events(), out.events());
+            assertArrayEquals(in.data(), out.data());
+        }
+    }
+
+    /**
+     * Verify that the elements of a structure with a single member are transferred in bulk when they are
+     * contiguous, and converted one by one when they are not.
+     */
+    @Test
+    public void testContiguousColumns() {
+        SampleCursor samples = new SampleCursor();
+        LevelCursor levels = new LevelCursor();
+        assertEquals(8, samples.stride());
+        assertEquals(1, levels.stride());
+        int cnt = 1000;
+        SampleColumns in = new SampleColumns(new double[cnt]);
+        for (int i = 0; i < cnt; i++) {
+            in.value()[i] = i * 0.5;
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(8L * cnt, 8);
+            samples.wrap(seg);
+            samples.position(1);
+            samples.write(in, 10, cnt - 10);
+            assertEquals(0.0, seg.getAtIndex(ValueLayout.JAVA_DOUBLE, 0));
+            assertEquals(5.0, seg.getAtIndex(ValueLayout.JAVA_DOUBLE, 1));
+            assertEquals(in.value()[cnt - 1], seg.getAtIndex(ValueLayout.JAVA_DOUBLE, cnt - 10));
+            SampleColumns out = new SampleColumns(new double[cnt]);
+            samples.read(out, 3, 5);
+            assertArrayEquals(new double[] { 0, 0, 0, 5.0, 5.5, 6.0, 6.5, 7.0, 0 }, Arrays.copyOf(out.value(), 9));
+            assertThrows(IndexOutOfBoundsException.class, () -> samples.read(out, 0, cnt));
+            // narrower native values are converted
+            levels.wrap(seg);
+            LevelColumns levelsIn = new LevelColumns(new int[] { 1, 0xff, 0x1ff });
+            levels.write(levelsIn, 0, 3);
+            assertEquals((byte) 0xff, seg.get(ValueLayout.JAVA_BYTE, 1));
+            LevelColumns levelsOut = new LevelColumns(new int[3]);
+            levels.read(levelsOut, 0, 3);
+            assertArrayEquals(new int[] { 1, 0xff, 0xff }, levelsOut.level());
+        }
+    }
+
+    /**
+     * An event.
+     *
+     * @param events the event bits
+     * @param flags the event flags
+     * @param data the event data
+     */
+    @Struct
+    record Event(@As(u32) int events, @As(u16) int flags, long data) {
+    }
+
+    /**
+     * Columns of event members.
+     *
+     * @param events the event bits of each element
+     * @param data the event data of each element
+     */
+    record EventColumns(int[] events, long[] data) {
+    }
+
+    /**
+     * A cursor over an array of events.
+     */
+    @Cursor(Event.class)
+    static final class EventCursor extends StructCursor {
+        EventCursor() {
+        }
+
+        protected native long stride();
+
+        native int events();
+
+        native void events(int events);
+
+        native int flags();
+
+        native long data();
+
+        native void data(long data);
+
+        native void read(@Out EventColumns columns, int index, int count);
+
+        native void write(@In EventColumns columns, int index, int count);
+    }
+
+    /**
+     * A sample.
+     *
+     * @param value the sample value
+     */
+    @Struct
+    record Sample(double value) {
+    }
+
+    /**
+     * Columns of sample members.
+     *
+     * @param value the value of each sample
+     */
+    record SampleColumns(double[] value) {
+    }
+
+    /**
+     * A cursor over an array of samples, which are contiguous.
+     */
+    @Cursor(Sample.class)
+    static final class SampleCursor extends StructCursor {
+        SampleCursor() {
+        }
+
+        protected native long stride();
+
+        native void read(@Out SampleColumns columns, int index, int count);
+
+        native void write(@In SampleColumns columns, int index, int count);
+    }
+
+    /**
+     * A level, which is narrower in native memory than in Java.
+     *
+     * @param level the level
+     */
+    @Struct
+    record Level(@As(u8) int level) {
+    }
+
+    /**
+     * Columns of level members.
+     *
+     * @param level the level of each element
+     */
+    record LevelColumns(int[] level) {
+    }
+
+    /**
+     * A cursor over an array of levels.
+     */
+    @Cursor(Level.class)
+    static final class LevelCursor extends StructCursor {
+        LevelCursor() {
+        }
+
+        protected native long stride();
+
+        native void read(@Out LevelColumns columns, int index, int count);
+
+        native void write(@In LevelColumns columns, int index, int count);
+    }
+}
@@ -0,0 +1,96 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.Intern;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.NativeStrings;
+
+/**
+ * Tests for {@link Intern @Intern} string parameters and return values.
+ */
+public final class InternTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public InternTest() {
+    }
+
+    /**
+     * Verify that interned strings are cached by content and character set, and are read-only.
+     */
+    @Test
+    public void testInternedSegments() {
+        assumeTrue(InternTest.class.getModule().isNativeAccessEnabled());
+        MemorySegment seg = NativeStrings.intern("interned", StandardCharsets.UTF_8);
+        assertTrue(seg.isReadOnly());
+        assertTrue(seg.isNative());
+        assertEquals("interned", seg.getString(0));
+        assertSame(seg, NativeStrings.intern(new String("interned"), StandardCharsets.UTF_8));
+        assertNotSame(seg, NativeStrings.intern("interned", StandardCharsets.UTF_16LE));
+        assertEquals(MemorySegment.NULL, NativeStrings.intern(null, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Verify that interned string parameters are passed to the native call correctly.
+     */
+    @Test
+    public void testInternedParameter() {
+        assumeTrue(InternTest.class.getModule().isNativeAccessEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, strcmp("key", "key"));
+            assertTrue(strcmp("key" + i, "key") > 0);
+        }
+    }
+
+    /**
+     * Verify that interned string return values are cached by address and content.
+     */
+    @Test
+    public void testInternedReturn() {
+        assumeTrue(InternTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(16);
+            seg.setString(0, "first");
+            String first = stringAt(seg, seg, 0);
+            assertEquals("first", first);
+            assertSame(first, stringAt(seg, seg, 0));
+            seg.setString(0, "second");
+            String second = stringAt(seg, seg, 0);
+            assertEquals("second", second);
+            assertSame(second, stringAt(seg, seg, 0));
+            seg.setString(0, "first");
+            assertEquals("first", stringAt(seg, seg, 0));
+        }
+    }
+
+    /**
+     * Compares two strings lexicographically.
+     *
+     * @param s1 the first string (must not be {@code null})
+     * @param s2 the second string (must not be {@code null})
+     * @return a negative value if {@code s1 < s2}, zero if equal, or a positive value if {@code s1 > s2}
+     */
+    @Link
+    private static native int strcmp(String s1, @Intern String s2);
+
+    /**
+     * Return the destination pointer as an interned string using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the string at {@code dest}
+     */
+    @Link(name = "memcpy")
+    @Intern
+    private static native String stringAt(MemorySegment dest, MemorySegment src, long size);
+}
@@ -0,0 +1,141 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.common.os.OS;
+import io.smallrye.ffm.Advance;
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.AsType;
+import io.smallrye.ffm.In;
+import io.smallrye.ffm.IoVec;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Out;
+
+/**
+ * Tests for {@link IoVec @IoVec} segment and buffer array parameters.
+ */
+public final class IoVecTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public IoVecTest() {
+    }
+
+    /**
+     * Verify that the native {@code iovec} array describes each native segment by address and size.
+     */
+    @Test
+    public void testIoVecLayout() {
+        assumeTrue(IoVecTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg1 = arena.allocate(8);
+            MemorySegment seg2 = arena.allocate(24);
+            MemorySegment[] segments = { seg1, null, seg2 };
+            long size = 6 * ValueLayout.ADDRESS.byteSize();
+            MemorySegment dest = arena.allocate(ValueLayout.ADDRESS, 6);
+            copyIoVec(dest, segments, size);
+            assertEquals(seg1.address(), dest.getAtIndex(ValueLayout.ADDRESS, 0).address());
+            assertEquals(0, dest.getAtIndex(ValueLayout.ADDRESS, 2).address());
+            assertEquals(seg2.address(), dest.getAtIndex(ValueLayout.ADDRESS, 4).address());
+            if (ValueLayout.ADDRESS.byteSize() == 8) {
+                assertEquals(8, dest.getAtIndex(ValueLayout.JAVA_LONG, 1));
+                assertEquals(0, dest.getAtIndex(ValueLayout.JAVA_LONG, 3));
+                assertEquals(24, dest.getAtIndex(ValueLayout.JAVA_LONG, 5));
+            }
+        }
+    }
+
+    /**
+     * Verify vectored writes and reads through a pipe using direct and heap buffers,
+     * with the buffer positions advanced by the transferred byte counts.
+     */
+    @Test
+    public void testWritevReadv() {
+        assumeTrue(IoVecTest.class.getModule().isNativeAccessEnabled());
+        assumeFalse(OS.current() == OS.WINDOWS);
+        int[] fds = new int[2];
+        assertEquals(0, pipe(fds));
+        try {
+            ByteBuffer direct = ByteBuffer.allocateDirect(16);
+            direct.put("hello ".getBytes(StandardCharsets.US_ASCII)).flip();
+            ByteBuffer heap = ByteBuffer.wrap("world".getBytes(StandardCharsets.US_ASCII));
+            ByteBuffer[] out = { direct, heap };
+            assertEquals(11, writev(fds[1], out, out.length));
+            assertFalse(direct.hasRemaining());
+            assertFalse(heap.hasRemaining());
+            ByteBuffer in1 = ByteBuffer.allocate(4);
+            ByteBuffer in2 = ByteBuffer.allocate(16);
+            ByteBuffer[] in = { in1, in2 };
+            assertEquals(11, readv(fds[0], in, in.length));
+            assertEquals(4, in1.position());
+            assertEquals(7, in2.position());
+            assertEquals("hell", new String(in1.array(), 0, 4, StandardCharsets.US_ASCII));
+            assertEquals("o world", new String(in2.array(), 0, 7, StandardCharsets.US_ASCII));
+        } finally {
+            close(fds[0]);
+            close(fds[1]);
+        }
+    }
+
+    /**
+     * Copy the {@code iovec} array for the given segments to the destination using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the segments to describe (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     */
+    @Link(name = "memcpy")
+    private static native void copyIoVec(MemorySegment dest, @In @IoVec MemorySegment[] src, long size);
+
+    /**
+     * Create a pipe.
+     *
+     * @param fds the array to receive the read and write file descriptors (must not be {@code null})
+     * @return {@code 0} on success or {@code -1} on error
+     */
+    @Link
+    private static native int pipe(@Out int[] fds);
+
+    /**
+     * Write from the given buffers to the file descriptor.
+     *
+     * @param fd the file descriptor
+     * @param bufs the buffers to write from (must not be {@code null})
+     * @param cnt the number of buffers
+     * @return the number of bytes written, or {@code -1} on error
+     */
+    @Link
+    @As(AsType.ssize_t)
+    private static native long writev(int fd, @In @IoVec @Advance ByteBuffer[] bufs, int cnt);
+
+    /**
+     * Read from the file descriptor into the given buffers.
+     *
+     * @param fd the file descriptor
+     * @param bufs the buffers to read into (must not be {@code null})
+     * @param cnt the number of buffers
+     * @return the number of bytes read, or {@code -1} on error
+     */
+    @Link
+    @As(AsType.ssize_t)
+    private static native long readv(int fd, @Out @IoVec @Advance ByteBuffer[] bufs, int cnt);
+
+    /**
+     * Close the file descriptor.
+     *
+     * @param fd the file descriptor
+     * @return {@code 0} on success or {@code -1} on error
+     */
+    @Link
+    private static native int close(int fd);
+}
@@ -0,0 +1,139 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.NativeScope;
+
+/**
+ * Tests for {@link NativeScope}.
+ */
+public final class NativeScopeTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public NativeScopeTest() {
+    }
+
+    /**
+     * Verify that a scope is bound only while its task runs.
+     */
+    @Test
+    public void testBinding() {
+        assertNull(NativeScope.current());
+        AtomicReference<NativeScope> outer = new AtomicReference<>();
+        NativeScope.run(() -> {
+            outer.set(NativeScope.current());
+            assertNotNull(outer.get());
+            NativeScope.run(() -> assertNotSame(outer.get(), NativeScope.current()));
+            assertSame(outer.get(), NativeScope.current());
+        });
+        assertNull(NativeScope.current());
+        // the scope has ended
+        assertThrows(IllegalStateException.class, () -> outer.get().allocate(8));
+    }
+
+    /**
+     * Verify that allocations are aligned and zero-filled, including those which do not fit in a block.
+     */
+    @Test
+    public void testAllocate() {
+        long sum = NativeScope.call(() -> {
+            NativeScope scope = NativeScope.current();
+            long total = 0;
+            for (int i = 0; i < 10_000; i++) {
+                MemorySegment seg = scope.allocate(ValueLayout.JAVA_LONG, 3);
+                assertEquals(0, seg.address() % ValueLayout.JAVA_LONG.byteAlignment());
+                total += seg.getAtIndex(ValueLayout.JAVA_LONG, 0) + seg.getAtIndex(ValueLayout.JAVA_LONG, 2);
+                seg.fill((byte) 0xff);
+            }
+            MemorySegment big = scope.allocate(1 << 20, 4096);
+            assertEquals(0, big.address() % 4096);
+            assertEquals(-1, big.mismatch(MemorySegment.ofArray(new byte[1 << 20])));
+            return total;
+        });
+        assertEquals(0, sum);
+        // memory which was dirtied by an earlier scope is zero-filled when it is reused
+        NativeScope.run(() -> {
+            MemorySegment seg = NativeScope.current().allocate(ValueLayout.JAVA_LONG, 3);
+            assertEquals(0, seg.getAtIndex(ValueLayout.JAVA_LONG, 1));
+        });
+    }
+
+    /**
+     * Verify that segments which were allocated from a scope cannot be accessed once it has ended,
+     * even though their memory is reused by later scopes.
+     */
+    @Test
+    public void testTemporalSafety() {
+        MemorySegment small = NativeScope.call(() -> NativeScope.current().allocate(ValueLayout.JAVA_LONG, 1));
+        assertFalse(small.scope().isAlive());
+        assertThrows(IllegalStateException.class, () -> small.get(ValueLayout.JAVA_LONG, 0));
+        MemorySegment big = NativeScope.call(() -> NativeScope.current().allocate(1 << 20));
+        assertThrows(IllegalStateException.class, () -> big.get(ValueLayout.JAVA_BYTE, 0));
+        // the memory of the first segment may now belong to this scope, which it must not be able to alias
+        NativeScope.run(() -> {
+            MemorySegment seg = NativeScope.current().allocate(ValueLayout.JAVA_LONG, 1);
+            assertTrue(seg.scope().isAlive());
+            assertThrows(IllegalStateException.class, () -> small.set(ValueLayout.JAVA_LONG, 0, -1));
+            assertEquals(0, seg.get(ValueLayout.JAVA_LONG, 0));
+        });
+    }
+
+    /**
+     * Verify that only the thread which opened a scope may allocate from it.
+     */
+    @Test
+    public void testOwnership() {
+        NativeScope.run(() -> {
+            NativeScope scope = NativeScope.current();
+            Arena arena = NativeScope.openArena();
+            assertEquals(arena.scope(), scope.allocate(8).scope());
+            AtomicReference<Throwable> thrown = new AtomicReference<>();
+            Thread thread = Thread.ofPlatform().start(() -> {
+                try {
+                    scope.allocate(8);
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            });
+            assertDoesNotThrow(() -> thread.join());
+            assertInstanceOf(WrongThreadException.class, thrown.get());
+        });
+    }
+
+    /**
+     * Verify that linked methods allocate their temporaries from the current scope.
+     */
+    @Test
+    public void testLinkedCalls() {
+        assumeTrue(NativeScopeTest.class.getModule().isNativeAccessEnabled());
+        NativeScope.run(() -> {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, strlen("x".repeat(i)));
+            }
+        });
+        // and from their own arena otherwise
+        assertEquals(5, strlen("hello"));
+    }
+
+    /**
+     * Get the length of a string.
+     *
+     * @param str the string (must not be {@code null})
+     * @return the string length
+     */
+    @Link
+    private static native @As(size_t) long strlen(String str);
+}
@@ -0,0 +1,162 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.AsCharset;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.MaxLength;
+import io.smallrye.ffm.NativeString;
+
+/**
+ * Tests for {@link NativeString} return values.
+ */
+public final class NativeStringTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public NativeStringTest() {
+    }
+
+    /**
+     * Verify that a returned native string can be compared and hashed without decoding.
+     */
+    @Test
+    public void testCompare() {
+        assumeTrue(NativeStringTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg1 = arena.allocateFrom("hello world");
+            MemorySegment seg2 = arena.allocateFrom("hello world");
+            NativeString ns1 = stringAt(seg1, seg1, 0);
+            NativeString ns2 = stringAt(seg2, seg2, 0);
+            assertNotNull(ns1);
+            assertEquals(11, ns1.byteLength());
+            assertEquals(seg1.address(), ns1.segment().address());
+            assertEquals(ns1, ns2);
+            assertEquals(ns1.hashCode(), ns2.hashCode());
+            assertTrue(ns1.contentEquals("hello world"));
+            assertFalse(ns1.contentEquals("hello"));
+            assertTrue(ns1.startsWith("hello"));
+            assertTrue(ns1.startsWith(""));
+            assertFalse(ns1.startsWith("world"));
+            assertFalse(ns1.startsWith("hello world!"));
+            assertEquals("hello world", ns1.toString());
+        }
+    }
+
+    /**
+     * Verify that non-ASCII native strings are decoded correctly.
+     */
+    @Test
+    public void testNonAscii() {
+        assumeTrue(NativeStringTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocateFrom("h€llo");
+            NativeString ns = stringAt(seg, seg, 0);
+            assertEquals(7, ns.byteLength());
+            assertEquals(5, ns.length());
+            assertEquals('€', ns.charAt(1));
+            assertTrue(ns.contentEquals("h€llo"));
+            assertTrue(ns.startsWith("h€"));
+            seg = arena.allocateFrom("héllo", StandardCharsets.ISO_8859_1);
+            ns = latin1StringAt(seg, seg, 0);
+            assertEquals(5, ns.length());
+            assertEquals('é', ns.charAt(1));
+            assertTrue(ns.contentEquals("héllo"));
+            // bytes which are not ASCII are decoded consistently
+            seg = arena.allocateFrom("héllo", StandardCharsets.ISO_8859_1);
+            ns = asciiStringAt(seg, seg, 0);
+            assertEquals("h\ufffdllo", ns.toString());
+            assertEquals(5, ns.length());
+            assertEquals('\ufffd', ns.charAt(1));
+        }
+    }
+
+    /**
+     * Verify that a copied native string outlives the original memory.
+     */
+    @Test
+    public void testCopy() {
+        assumeTrue(NativeStringTest.class.getModule().isNativeAccessEnabled());
+        try (Arena copyArena = Arena.ofConfined()) {
+            NativeString copy;
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment seg = arena.allocateFrom("hello");
+                NativeString ns = stringAt(seg, seg, 0);
+                copy = ns.copy(copyArena);
+                assertEquals(ns, copy);
+            }
+            assertEquals("hello", copy.toString());
+            assertEquals(0, copy.segment().reinterpret(6).get(ValueLayout.JAVA_BYTE, 5));
+        }
+    }
+
+    /**
+     * Verify that the maximum length is honored.
+     */
+    @Test
+    public void testMaxLength() {
+        assumeTrue(NativeStringTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocateFrom("hello world");
+            NativeString ns = stringAtMax5(seg, seg, 0);
+            assertEquals(5, ns.byteLength());
+            assertEquals("hello", ns.toString());
+        }
+    }
+
+    /**
+     * Return the destination pointer as a native string using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the native string at {@code dest}
+     */
+    @Link(name = "memcpy")
+    private static native NativeString stringAt(MemorySegment dest, MemorySegment src, long size);
+
+    /**
+     * Return the destination pointer as a {@code ISO-8859-1} native string using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the native string at {@code dest}
+     */
+    @Link(name = "memcpy")
+    @AsCharset("ISO-8859-1")
+    private static native NativeString latin1StringAt(MemorySegment dest, MemorySegment src, long size);
+
+    /**
+     * Return the destination pointer as a {@code US-ASCII} native string using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the native string at {@code dest}
+     */
+    @Link(name = "memcpy")
+    @AsCharset("US-ASCII")
+    private static native NativeString asciiStringAt(MemorySegment dest, MemorySegment src, long size);
+
+    /**
+     * Return the destination pointer as a native string of at most 5 bytes using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the native string at {@code dest}
+     */
+    @Link(name = "memcpy")
+    @MaxLength(5)
+    private static native NativeString stringAtMax5(MemorySegment dest, MemorySegment src, long size);
+}
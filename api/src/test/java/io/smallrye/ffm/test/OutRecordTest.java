@@ -0,0 +1,209 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.common.os.OS;
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Out;
+import io.smallrye.ffm.Return;
+
+/**
+ * Tests for output record return values.
+ */
+public final class OutRecordTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public OutRecordTest() {
+    }
+
+    /**
+     * Verify that the return value and an output scalar are combined into a record.
+     */
+    @Test
+    public void testReturnAndOut() {
+        assumeTrue(OutRecordTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(new Frexp(0.75, 4), frexp(12.0));
+        assertEquals(new Frexp(-0.5, 0), frexp(-0.5));
+        assertEquals(new Frexp(0.0, 0), frexp(0.0));
+        assertEquals(new Modf(0.25, 3.0), modf(3.25));
+    }
+
+    /**
+     * Verify that output scalars are converted from their native type.
+     */
+    @Test
+    public void testConvertedOut() {
+        assumeTrue(OutRecordTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(new WideFrexp(0.75, 4L), wideFrexp(12.0));
+        assertEquals(new WideFrexp(0.5, -9L), wideFrexp(1.0 / 1024));
+    }
+
+    /**
+     * Verify that the native return value may be ignored.
+     */
+    @Test
+    public void testOutOnly() {
+        assumeTrue(OutRecordTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(new Exponent(11), exponentOf(1024.0));
+    }
+
+    /**
+     * Verify that output pointers are passed in their given position among the parameters.
+     */
+    @Test
+    public void testPositionedOut() {
+        assumeTrue(OutRecordTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment str = arena.allocateFrom("1234xyz");
+            Strtol res = strtol(str, 10);
+            assertEquals(1234L, res.value());
+            assertEquals(4, res.end().address() - str.address());
+            res = strtol(str.asSlice(2), 16);
+            assertEquals(0x34L, res.value());
+            assertEquals(4, res.end().address() - str.address());
+        }
+        // a pointer which precedes the first parameter
+        assumeFalse(OS.current() == OS.WINDOWS);
+        Memalign res = posixMemalign(256, 100);
+        assertEquals(0, res.error());
+        try {
+            assertNotEquals(0, res.memptr().address());
+            assertEquals(0, res.memptr().address() % 256);
+        } finally {
+            free(res.memptr());
+        }
+    }
+
+    /**
+     * The result of {@code frexp}.
+     *
+     * @param mantissa the normalized fraction
+     * @param exponent the exponent
+     */
+    record Frexp(@Return double mantissa, int exponent) {
+    }
+
+    /**
+     * The result of {@code frexp}, with a widened exponent.
+     *
+     * @param mantissa the normalized fraction
+     * @param exponent the exponent
+     */
+    record WideFrexp(@Return double mantissa, @As(stdc_int) long exponent) {
+    }
+
+    /**
+     * The result of {@code modf}.
+     *
+     * @param fraction the fractional part
+     * @param integral the integral part
+     */
+    record Modf(@Return double fraction, double integral) {
+    }
+
+    /**
+     * The exponent of a value.
+     *
+     * @param exponent the exponent
+     */
+    record Exponent(int exponent) {
+    }
+
+    /**
+     * The result of {@code strtol}.
+     *
+     * @param value the parsed value
+     * @param end the pointer to the first character which was not parsed
+     */
+    record Strtol(@Return @As(stdc_long) long value, @Out.Before(1) MemorySegment end) {
+    }
+
+    /**
+     * The result of {@code posix_memalign}.
+     *
+     * @param error the error number, or {@code 0} on success
+     * @param memptr the allocated memory
+     */
+    record Memalign(@Return int error, @Out.Before(0) MemorySegment memptr) {
+    }
+
+    /**
+     * Split a value into a normalized fraction and an exponent.
+     *
+     * @param value the value
+     * @return the normalized fraction and exponent
+     */
+    @Link
+    @Out
+    private static native Frexp frexp(double value);
+
+    /**
+     * Split a value into a normalized fraction and a widened exponent.
+     *
+     * @param value the value
+     * @return the normalized fraction and exponent
+     */
+    @Link(name = "frexp")
+    @Out
+    private static native WideFrexp wideFrexp(double value);
+
+    /**
+     * Split a value into its fractional and integral parts.
+     *
+     * @param value the value
+     * @return the fractional and integral parts
+     */
+    @Link
+    @Out
+    private static native Modf modf(double value);
+
+    /**
+     * Get the exponent of a value.
+     *
+     * @param value the value
+     * @return the exponent
+     */
+    @Link(name = "frexp")
+    @Out
+    private static native Exponent exponentOf(double value);
+
+    /**
+     * Parse a {@code long} integer.
+     *
+     * @param str the string to parse (must not be {@code null})
+     * @param base the radix
+     * @return the parsed value and the end of the parsed characters
+     */
+    @Link
+    @Out
+    private static native Strtol strtol(MemorySegment str, int base);
+
+    /**
+     * Allocate aligned memory.
+     *
+     * @param alignment the alignment in bytes
+     * @param size the size in bytes
+     * @return the error number and the allocated memory
+     */
+    @Link(name = "posix_memalign")
+    @Out
+    private static native Memalign posixMemalign(@As(size_t) long alignment, @As(size_t) long size);
+
+    /**
+     * Free allocated memory.
+     *
+     * @param ptr the memory to free
+     */
+    @Link
+    private static native void free(MemorySegment ptr);
+}
@@ -0,0 +1,165 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Pure;
+
+/**
+ * Tests for {@link Pure} methods.
+ */
+public final class PureTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public PureTest() {
+    }
+
+    /**
+     * Verify that the result of a method without parameters is computed once.
+     */
+    @Test
+    public void testConstant() {
+        assumeTrue(PureTest.class.getModule().isNativeAccessEnabled());
+        int first = stableRand();
+        for (int i = 0; i < 10; i++) {
+            // advance the generator
+            rand();
+            assertEquals(first, stableRand());
+        }
+    }
+
+    /**
+     * Verify that results are returned for the arguments which they were computed from.
+     */
+    @Test
+    public void testArguments() {
+        assumeTrue(PureTest.class.getModule().isNativeAccessEnabled());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1234, atoi("1234"));
+            assertEquals(-5678, atoi("-5678"));
+            assertEquals(0, atoi(""));
+            assertEquals(42, abs(-42));
+            assertEquals(42, abs(42));
+        }
+    }
+
+    /**
+     * Verify that results are cached by argument, and that the oldest result is evicted once the cache is full.
+     * The native calls are counted by following the sequence of the seeded generator.
+     */
+    @Test
+    public void testCaching() {
+        assumeTrue(PureTest.class.getModule().isNativeAccessEnabled());
+        int[] seq = sequence(42, 5);
+        srand(42);
+        // misses
+        assertEquals(seq[0], keyedRand(1));
+        assertEquals(seq[1], keyedRand(2));
+        // hits
+        assertEquals(seq[0], keyedRand(1));
+        assertEquals(seq[1], keyedRand(2));
+        // a miss which evicts the result for 1
+        assertEquals(seq[2], keyedRand(3));
+        assertEquals(seq[1], keyedRand(2));
+        assertEquals(seq[2], keyedRand(3));
+        // a miss because it was evicted
+        assertEquals(seq[3], keyedRand(1));
+        // exactly four native calls were made
+        assertEquals(seq[4], rand());
+    }
+
+    /**
+     * Verify that cached results expire.
+     */
+    @Test
+    public void testExpiry() throws InterruptedException {
+        assumeTrue(PureTest.class.getModule().isNativeAccessEnabled());
+        int[] seq = sequence(7, 3);
+        srand(7);
+        assertEquals(seq[0], expiringRand());
+        assertEquals(seq[0], expiringRand());
+        Thread.sleep(400);
+        assertEquals(seq[1], expiringRand());
+        assertEquals(seq[1], expiringRand());
+        assertEquals(seq[2], rand());
+    }
+
+    private static int[] sequence(int seed, int cnt) {
+        srand(seed);
+        int[] seq = new int[cnt];
+        for (int i = 0; i < cnt; i++) {
+            seq[i] = rand();
+        }
+        return seq;
+    }
+
+    /**
+     * Seed the pseudo-random number generator.
+     *
+     * @param seed the seed
+     */
+    @Link
+    private static native void srand(int seed);
+
+    /**
+     * Get a pseudo-random number.
+     *
+     * @return the number
+     */
+    @Link
+    private static native int rand();
+
+    /**
+     * Get a pseudo-random number once.
+     *
+     * @return the number
+     */
+    @Link(name = "rand")
+    @Pure
+    private static native int stableRand();
+
+    /**
+     * Get a pseudo-random number which changes at most every 200 milliseconds.
+     *
+     * @return the number
+     */
+    @Link(name = "rand")
+    @Pure(ttl = 200)
+    private static native int expiringRand();
+
+    /**
+     * Get a pseudo-random number for each key, retaining at most two.
+     * The key is ignored by {@code rand}, so that each native call is a new result.
+     *
+     * @param key the key
+     * @return the number
+     */
+    @Link(name = "rand")
+    @Pure(maxSize = 2)
+    private static native int keyedRand(int key);
+
+    /**
+     * Parse an integer.
+     *
+     * @param str the string to parse (must not be {@code null})
+     * @return the parsed integer
+     */
+    @Link
+    @Pure(maxSize = 2)
+    private static native int atoi(String str);
+
+    /**
+     * Get the absolute value of an integer.
+     *
+     * @param val the integer
+     * @return the absolute value
+     */
+    @Link
+    @Pure
+    private static native int abs(int val);
+}
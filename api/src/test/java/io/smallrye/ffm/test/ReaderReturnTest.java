@@ -0,0 +1,100 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.MaxLength;
+
+/**
+ * Tests for {@link Reader} return values.
+ */
+public final class ReaderReturnTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public ReaderReturnTest() {
+    }
+
+    /**
+     * Verify that a large string with multibyte characters spanning chunk boundaries is decoded correctly.
+     */
+    @Test
+    public void testLargeString() throws IOException {
+        assumeTrue(ReaderReturnTest.class.getModule().isNativeAccessEnabled());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 100_000; i++) {
+            sb.append("line ").append(i).append(" é€😀\n");
+        }
+        String expected = sb.toString();
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocateFrom(expected);
+            try (Reader reader = readerAt(seg, seg, 0)) {
+                assertEquals(expected, readAll(reader, 1000));
+                assertEquals(-1, reader.read());
+            }
+            try (Reader reader = readerAt(seg, seg, 0)) {
+                assertEquals(expected, readAll(reader, 3));
+            }
+        }
+    }
+
+    /**
+     * Verify that empty strings and maximum lengths are handled.
+     */
+    @Test
+    public void testShortStrings() throws IOException {
+        assumeTrue(ReaderReturnTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocateFrom("");
+            try (Reader reader = readerAt(seg, seg, 0)) {
+                assertEquals(-1, reader.read());
+            }
+            seg = arena.allocateFrom("hello world");
+            try (Reader reader = readerAtMax5(seg, seg, 0)) {
+                assertEquals("hello", readAll(reader, 16));
+            }
+        }
+    }
+
+    private static String readAll(Reader reader, int bufSize) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[bufSize];
+        int res;
+        while ((res = reader.read(buf)) != -1) {
+            sb.append(buf, 0, res);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return a reader for the destination pointer using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the reader for the string at {@code dest}
+     */
+    @Link(name = "memcpy")
+    private static native Reader readerAt(MemorySegment dest, MemorySegment src, long size);
+
+    /**
+     * Return a reader for at most 5 bytes of the destination pointer using {@code memcpy}.
+     *
+     * @param dest the destination segment (must not be {@code null})
+     * @param src the source segment (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the reader for the string at {@code dest}
+     */
+    @Link(name = "memcpy")
+    @MaxLength(5)
+    private static native Reader readerAtMax5(MemorySegment dest, MemorySegment src, long size);
+}
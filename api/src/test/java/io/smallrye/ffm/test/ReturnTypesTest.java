@@ -4,11 +4,15 @@ import static io.smallrye.ffm.AsType.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assumptions.*;
 
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
 import org.junit.jupiter.api.Test;
 
 import io.smallrye.ffm.As;
 import io.smallrye.ffm.Errno;
 import io.smallrye.ffm.Link;
+import io.smallrye.ffm.MaxLength;
 
 public final class ReturnTypesTest {
     public ReturnTypesTest() {
@@ -44,6 +48,34 @@ public final class ReturnTypesTest {
         assertEquals(Errno.EDOM, atoi_as_errno(String.valueOf(Errno.EDOM.nativeValue())));
     }
 
+    @Test
+    public void testLongStringReturn() throws Throwable {
+        assumeTrue(BootstrapsTest.class.getModule().isNativeAccessEnabled());
+        String str = "0123456789abcdef".repeat(512);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocateFrom(str);
+            assertEquals(str, stringAt(seg, seg, 0));
+            assertEquals(str.substring(0, 10), stringAtMax10(seg, seg, 0));
+        }
+    }
+
+    @Test
+    public void testUnalignedStringReturn() throws Throwable {
+        assumeTrue(BootstrapsTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(64, 8);
+            for (int offs = 0; offs < 9; offs++) {
+                for (int len = 0; len < 20; len++) {
+                    String str = "x".repeat(len);
+                    MemorySegment slice = seg.asSlice(offs);
+                    slice.fill((byte) 'y');
+                    slice.setString(0, str);
+                    assertEquals(str, stringAt(slice, slice, 0));
+                }
+            }
+        }
+    }
+
     @Link
     private static native @As(stdc_int) long atoi(String numberString);
 
@@ -55,4 +87,11 @@ public final class ReturnTypesTest {
 
     @Link(name = "atoi")
     private static native Errno atoi_as_errno(String numberString);
+
+    @Link(name = "memcpy")
+    private static native String stringAt(MemorySegment dest, MemorySegment src, long size);
+
+    @Link(name = "memcpy")
+    @MaxLength(10)
+    private static native String stringAtMax10(MemorySegment dest, MemorySegment src, long size);
 }
@@ -0,0 +1,85 @@
+package io.smallrye.ffm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.In;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Out;
+
+/**
+ * Tests for {@code String[]} parameters and return values.
+ */
+public final class StringArrayTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public StringArrayTest() {
+    }
+
+    /**
+     * Verify that a string array is encoded into native memory and that an output string array is
+     * decoded from the pointers which are copied into it.
+     */
+    @Test
+    public void testStringArrayInOut() {
+        assumeTrue(StringArrayTest.class.getModule().isNativeAccessEnabled());
+        String[] src = { "hello", "", null, "w\u00f6rld" };
+        String[] dest = new String[src.length];
+        copyStrings(dest, src, src.length * ValueLayout.ADDRESS.byteSize());
+        assertArrayEquals(src, dest);
+    }
+
+    /**
+     * Verify that a {@code null} output string array is passed as a {@code NULL} pointer.
+     */
+    @Test
+    public void testStringArrayOutNull() {
+        assumeTrue(StringArrayTest.class.getModule().isNativeAccessEnabled());
+        String[] src = { "\u65e5\u672c\u8a9e", "\ud83d\ude00" };
+        copyStrings(null, src, 0);
+    }
+
+    /**
+     * Verify that a {@code NULL}-terminated array of pointers is decoded as a string array return value.
+     */
+    @Test
+    public void testStringArrayReturn() {
+        assumeTrue(StringArrayTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment table = arena.allocate(ValueLayout.ADDRESS, 3);
+            table.setAtIndex(ValueLayout.ADDRESS, 0, arena.allocateFrom("one"));
+            table.setAtIndex(ValueLayout.ADDRESS, 1, arena.allocateFrom("two"));
+            table.setAtIndex(ValueLayout.ADDRESS, 2, MemorySegment.NULL);
+            assertArrayEquals(new String[] { "one", "two" }, identity(table, table, 0));
+        }
+    }
+
+    /**
+     * Copy the string pointers in {@code src} to {@code dest} using {@code memcpy}.
+     *
+     * @param dest the output array (must not be {@code null})
+     * @param src the input array (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     */
+    @Link(name = "memcpy")
+    private static native void copyStrings(@Out String[] dest, @In String[] src, long size);
+
+    /**
+     * Call {@code memcpy} to copy nothing, returning the destination pointer array as a string array.
+     *
+     * @param dest the destination pointer array (must not be {@code null})
+     * @param src the source (must not be {@code null})
+     * @param size the number of bytes to copy (must not be negative)
+     * @return the strings of the destination pointer array
+     */
+    @Link(name = "memcpy")
+    private static native String[] identity(MemorySegment dest, MemorySegment src, long size);
+}
@@ -4,9 +4,11 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assumptions.*;
 
 import java.lang.foreign.MemorySegment;
+import java.nio.CharBuffer;
 
 import org.junit.jupiter.api.Test;
 
+import io.smallrye.ffm.AsCharset;
 import io.smallrye.ffm.Link;
 
 /**
@@ -48,6 +50,61 @@ public final class StringParamTest {
         MemorySegment result = segStringSeg(dest, "hello", src);
     }
 
+    /**
+     * Test that ASCII and non-ASCII strings are encoded correctly in single-byte and multibyte character sets.
+     */
+    @Test
+    public void testStringEncoding() {
+        assumeTrue(StringParamTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(0, strlen(""));
+        assertEquals(5, strlen("hello"));
+        assertEquals(6, strlen("h\u00e9llo"));
+        assertEquals(7, strlen("h\u20acllo"));
+        assertEquals(5, strlenLatin1("hello"));
+        assertEquals(5, strlenLatin1("h\u00e9llo"));
+        assertEquals(5, strlenAscii("hello"));
+    }
+
+    /**
+     * Test that character sequences and character arrays are encoded correctly.
+     */
+    @Test
+    public void testCharSequenceEncoding() {
+        assumeTrue(StringParamTest.class.getModule().isNativeAccessEnabled());
+        StringBuilder sb = new StringBuilder();
+        assertEquals(0, strlenChars(sb));
+        sb.append("hello");
+        assertEquals(5, strlenChars(sb));
+        sb.append(" w\u20acrld");
+        assertEquals(13, strlenChars(sb));
+        assertEquals(6, strlenChars("h\u00e9llo"));
+        CharBuffer cb = CharBuffer.wrap("xxh\u00e9llo");
+        cb.position(2);
+        assertEquals(6, strlenChars(cb));
+        assertEquals(2, cb.position());
+        assertEquals(5, strlenCharArray("hello".toCharArray()));
+        assertEquals(7, strlenCharArray("h\u20acllo".toCharArray()));
+        assertEquals(0, strcmpChars(new StringBuilder("abc"), "abc"));
+        assertTrue(strcmpChars(new StringBuilder("abd"), "abc") > 0);
+    }
+
+    /**
+     * Test that the content of character sequences and character arrays is preserved when the encoder
+     * takes over from the single-byte path partway through the input.
+     */
+    @Test
+    public void testMixedEncoding() {
+        assumeTrue(StringParamTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(0, strcmpChars(new StringBuilder("abc\u00e9\u20acxyz"), "abc\u00e9\u20acxyz"));
+        assertEquals(0, strcmpChars(new StringBuilder("\u20acabc"), "\u20acabc"));
+        assertTrue(strcmpChars(new StringBuilder("abc\u00e9"), "abc\u00e8") > 0);
+        CharBuffer cb = CharBuffer.wrap("--abc\u00e9xyz".toCharArray());
+        cb.position(2);
+        assertEquals(0, strcmpChars(cb, "abc\u00e9xyz"));
+        assertEquals(0, strcmpCharArray("hello w\u20acrld!".toCharArray(), "hello w\u20acrld!"));
+        assertTrue(strcmpCharArray("hello w\u20acrld".toCharArray(), "hello world") > 0);
+    }
+
     /**
      * Compares two strings lexicographically.
      *
@@ -69,4 +126,69 @@ public final class StringParamTest {
      */
     @Link(name = "memcpy")
     private static native MemorySegment segStringSeg(MemorySegment dest, String str, MemorySegment src);
+
+    /**
+     * Get the length of a string encoded in UTF-8.
+     *
+     * @param str the string (must not be {@code null})
+     * @return the encoded length of the string
+     */
+    @Link
+    private static native long strlen(String str);
+
+    /**
+     * Get the length of a string encoded in ISO-8859-1.
+     *
+     * @param str the string (must not be {@code null})
+     * @return the encoded length of the string
+     */
+    @Link(name = "strlen")
+    private static native long strlenLatin1(@AsCharset("ISO-8859-1") String str);
+
+    /**
+     * Get the length of a string encoded in US-ASCII.
+     *
+     * @param str the string (must not be {@code null})
+     * @return the encoded length of the string
+     */
+    @Link(name = "strlen")
+    private static native long strlenAscii(@AsCharset("US-ASCII") String str);
+
+    /**
+     * Get the length of a character sequence encoded in UTF-8.
+     *
+     * @param str the character sequence (must not be {@code null})
+     * @return the encoded length of the character sequence
+     */
+    @Link(name = "strlen")
+    private static native long strlenChars(CharSequence str);
+
+    /**
+     * Get the length of a character array encoded in UTF-8.
+     *
+     * @param chars the characters (must not be {@code null})
+     * @return the encoded length of the characters
+     */
+    @Link(name = "strlen")
+    private static native long strlenCharArray(@AsCharset("UTF-8") char[] chars);
+
+    /**
+     * Compares a character sequence and a string lexicographically.
+     *
+     * @param s1 the character sequence (must not be {@code null})
+     * @param s2 the string (must not be {@code null})
+     * @return a negative value if {@code s1 < s2}, zero if equal, or a positive value if {@code s1 > s2}
+     */
+    @Link(name = "strcmp")
+    private static native int strcmpChars(CharSequence s1, String s2);
+
+    /**
+     * Compares a character array and a string lexicographically.
+     *
+     * @param s1 the characters (must not be {@code null})
+     * @param s2 the string (must not be {@code null})
+     * @return a negative value if {@code s1 < s2}, zero if equal, or a positive value if {@code s1 > s2}
+     */
+    @Link(name = "strcmp")
+    private static native int strcmpCharArray(@AsCharset("UTF-8") char[] s1, String s2);
 }
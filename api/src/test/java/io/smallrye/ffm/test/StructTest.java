@@ -0,0 +1,249 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.common.os.OS;
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Bootstraps;
+import io.smallrye.ffm.Link;
+import io.smallrye.ffm.Return;
+import io.smallrye.ffm.Struct;
+
+/**
+ * Tests for structures passed and returned by value.
+ */
+public final class StructTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public StructTest() {
+    }
+
+    /**
+     * Verify that structures are returned by value.
+     */
+    @Test
+    public void testReturn() {
+        assumeTrue(StructTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(new Div(3, 1), div(7, 2));
+        assertEquals(new Div(-3, -1), div(-7, 2));
+        assertEquals(new LDiv(1_000_000L, 7L), ldiv(10_000_007L, 10L));
+    }
+
+    /**
+     * Verify that nested structures are returned by value.
+     */
+    @Test
+    public void testNestedReturn() {
+        assumeTrue(StructTest.class.getModule().isNativeAccessEnabled());
+        assertEquals(new NestedLLDiv(new Quotient(1L << 40), 3L), lldiv((1L << 41) + 3, 2L));
+    }
+
+    /**
+     * Verify that structures may be returned into a caller-supplied segment.
+     */
+    @Test
+    public void testReturnBuffer() {
+        assumeTrue(StructTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment buf = arena.allocate(64, 8);
+            MemorySegment res = lldivInto(buf, 17L, 5L);
+            assertEquals(buf.address(), res.address());
+            assertEquals(3L, res.get(ValueLayout.JAVA_LONG, 0));
+            assertEquals(2L, res.get(ValueLayout.JAVA_LONG, 8));
+            lldivIntoVoid(buf, 100L, 7L);
+            assertEquals(14L, buf.get(ValueLayout.JAVA_LONG, 0));
+            assertEquals(2L, buf.get(ValueLayout.JAVA_LONG, 8));
+        }
+    }
+
+    /**
+     * Verify that structures and nested structures are passed by value.
+     */
+    @Test
+    public void testArgument() {
+        assumeTrue(StructTest.class.getModule().isNativeAccessEnabled());
+        assumeFalse(OS.current() == OS.WINDOWS);
+        // s_addr is in network byte order
+        int addr = ByteBuffer.wrap(new byte[] { 127, 0, 0, 1 }).order(ByteOrder.nativeOrder()).getInt();
+        assertEquals("127.0.0.1", inetNtoa(new InAddr(addr)));
+        assertEquals("127.0.0.1", inetNtoaNested(new NestedInAddr(new InAddr(addr))));
+    }
+
+    /**
+     * Verify that members of mixed alignment are padded according to the platform C rules,
+     * including the padding after the last member.
+     */
+    @Test
+    public void testMixedAlignment() {
+        Lookup lookup = MethodHandles.lookup();
+        // struct { char c; long long l; }
+        StructLayout charLong = Bootstraps.nativeStructLayout(lookup, "_", StructLayout.class,
+                ValueLayout.JAVA_BYTE.withName("c"), ValueLayout.JAVA_LONG.withName("l"));
+        assertEquals(0, Bootstraps.memberOffset(lookup, "c", long.class, charLong));
+        assertEquals(8, Bootstraps.memberOffset(lookup, "l", long.class, charLong));
+        assertEquals(16, Bootstraps.structSize(lookup, "_", long.class, charLong));
+        assertEquals(8, charLong.byteAlignment());
+        // struct { long long l; int i; } has trailing padding
+        StructLayout longInt = Bootstraps.nativeStructLayout(lookup, "_", StructLayout.class,
+                ValueLayout.JAVA_LONG.withName("l"), ValueLayout.JAVA_INT.withName("i"));
+        assertEquals(8, Bootstraps.memberOffset(lookup, "i", long.class, longInt));
+        assertEquals(16, Bootstraps.structSize(lookup, "_", long.class, longInt));
+        // struct { char a; short s; char b; int i; char c; }
+        StructLayout mixed = Bootstraps.nativeStructLayout(lookup, "_", StructLayout.class,
+                ValueLayout.JAVA_BYTE.withName("a"), ValueLayout.JAVA_SHORT.withName("s"),
+                ValueLayout.JAVA_BYTE.withName("b"), ValueLayout.JAVA_INT.withName("i"),
+                ValueLayout.JAVA_BYTE.withName("c"));
+        assertEquals(2, Bootstraps.memberOffset(lookup, "s", long.class, mixed));
+        assertEquals(4, Bootstraps.memberOffset(lookup, "b", long.class, mixed));
+        assertEquals(8, Bootstraps.memberOffset(lookup, "i", long.class, mixed));
+        assertEquals(12, Bootstraps.memberOffset(lookup, "c", long.class, mixed));
+        assertEquals(16, Bootstraps.structSize(lookup, "_", long.class, mixed));
+        assertEquals(4, mixed.byteAlignment());
+        // a nested structure is aligned to its own alignment
+        StructLayout nested = Bootstraps.nativeStructLayout(lookup, "_", StructLayout.class,
+                ValueLayout.JAVA_BYTE.withName("c"), longInt.withName("n"));
+        assertEquals(8, Bootstraps.memberOffset(lookup, "n", long.class, nested));
+        assertEquals(24, Bootstraps.structSize(lookup, "_", long.class, nested));
+    }
+
+    /**
+     * The result of {@code div}.
+     *
+     * @param quot the quotient
+     * @param rem the remainder
+     */
+    @Struct
+    record Div(int quot, int rem) {
+    }
+
+    /**
+     * The result of {@code ldiv}.
+     *
+     * @param quot the quotient
+     * @param rem the remainder
+     */
+    @Struct
+    record LDiv(@As(stdc_long) long quot, @As(stdc_long) long rem) {
+    }
+
+    /**
+     * A quotient.
+     *
+     * @param value the quotient value
+     */
+    @Struct
+    record Quotient(@As(stdc_long_long) long value) {
+    }
+
+    /**
+     * The result of {@code lldiv}, with a nested quotient.
+     *
+     * @param quot the quotient
+     * @param rem the remainder
+     */
+    @Struct
+    record NestedLLDiv(Quotient quot, @As(stdc_long_long) long rem) {
+    }
+
+    /**
+     * An IPv4 address.
+     *
+     * @param addr the address in network byte order
+     */
+    @Struct
+    record InAddr(@As(u32) int addr) {
+    }
+
+    /**
+     * A structure containing an IPv4 address.
+     *
+     * @param inAddr the address
+     */
+    @Struct
+    record NestedInAddr(InAddr inAddr) {
+    }
+
+    /**
+     * Divide two integers.
+     *
+     * @param num the numerator
+     * @param denom the denominator
+     * @return the quotient and remainder
+     */
+    @Link
+    private static native Div div(int num, int denom);
+
+    /**
+     * Divide two {@code long} integers.
+     *
+     * @param num the numerator
+     * @param denom the denominator
+     * @return the quotient and remainder
+     */
+    @Link
+    private static native LDiv ldiv(@As(stdc_long) long num, @As(stdc_long) long denom);
+
+    /**
+     * Divide two {@code long long} integers.
+     *
+     * @param num the numerator
+     * @param denom the denominator
+     * @return the quotient and remainder
+     */
+    @Link
+    private static native NestedLLDiv lldiv(long num, long denom);
+
+    /**
+     * Divide two {@code long long} integers into a buffer.
+     *
+     * @param buf the buffer to hold the result (must not be {@code null})
+     * @param num the numerator
+     * @param denom the denominator
+     * @return the segment holding the quotient and remainder
+     */
+    @Link(name = "lldiv")
+    private static native MemorySegment lldivInto(@Return(NestedLLDiv.class) MemorySegment buf, long num, long denom);
+
+    /**
+     * Divide two {@code long long} integers into a buffer.
+     *
+     * @param buf the buffer to hold the result (must not be {@code null})
+     * @param num the numerator
+     * @param denom the denominator
+     */
+    @Link(name = "lldiv")
+    private static native void lldivIntoVoid(@Return(NestedLLDiv.class) MemorySegment buf, long num, long denom);
+
+    /**
+     * Format an IPv4 address.
+     *
+     * @param addr the address (must not be {@code null})
+     * @return the formatted address
+     */
+    @Link(name = "inet_ntoa")
+    private static native String inetNtoa(InAddr addr);
+
+    /**
+     * Format an IPv4 address held in a nested structure.
+     *
+     * @param addr the address (must not be {@code null})
+     * @return the formatted address
+     */
+    @Link(name = "inet_ntoa")
+    private static native String inetNtoaNested(NestedInAddr addr);
+}
@@ -0,0 +1,106 @@
+package io.smallrye.ffm.test;
+
+import static io.smallrye.ffm.AsType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+
+import org.junit.jupiter.api.Test;
+
+import io.smallrye.ffm.As;
+import io.smallrye.ffm.Link;
+
+/**
+ * Tests for wide ({@code wchar_t}) string parameters and return values.
+ */
+public final class WideStringTest {
+
+    /**
+     * Construct a new instance.
+     */
+    public WideStringTest() {
+    }
+
+    /**
+     * Verify that wide string parameters are encoded with one element per code point or per UTF-16 unit,
+     * depending on the size of {@code wchar_t}.
+     */
+    @Test
+    public void testWideParameters() {
+        assumeTrue(WideStringTest.class.getModule().isNativeAccessEnabled());
+        boolean wide32 = Linker.nativeLinker().canonicalLayouts().get("wchar_t").byteSize() == 4;
+        assertEquals(0, wcslen(""));
+        assertEquals(5, wcslen("hello"));
+        assertEquals(5, wcslen("héllo"));
+        assertEquals(wide32 ? 5 : 6, wcslen("h😀llo"));
+        assertEquals(5, wcslenChars(new StringBuilder("h€llo")));
+        assertEquals(wide32 ? 3 : 4, wcslenCharArray("a😀b".toCharArray()));
+    }
+
+    /**
+     * Verify that wide strings round-trip through native memory.
+     */
+    @Test
+    public void testWideReturn() {
+        assumeTrue(WideStringTest.class.getModule().isNativeAccessEnabled());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment dest = arena.allocate(256, 4);
+            for (String str : new String[] { "", "hello", "héllo w€rld", "😀 smile 😀" }) {
+                assertEquals(str, wcscpy(dest, str));
+            }
+            assertEquals("h€llo", wcscpyChars(dest, new StringBuilder("h€llo")));
+        }
+    }
+
+    /**
+     * Get the length of a wide string.
+     *
+     * @param str the string (must not be {@code null})
+     * @return the number of wide characters in the string
+     */
+    @Link
+    private static native long wcslen(@As(stdc_wchar_t) String str);
+
+    /**
+     * Get the length of a wide character sequence.
+     *
+     * @param str the character sequence (must not be {@code null})
+     * @return the number of wide characters in the character sequence
+     */
+    @Link(name = "wcslen")
+    private static native long wcslenChars(@As(stdc_wchar_t) CharSequence str);
+
+    /**
+     * Get the length of a wide character array.
+     *
+     * @param chars the characters (must not be {@code null})
+     * @return the number of wide characters in the array
+     */
+    @Link(name = "wcslen")
+    private static native long wcslenCharArray(@As(stdc_wchar_t) char[] chars);
+
+    /**
+     * Copy a wide string.
+     *
+     * @param dest the destination (must not be {@code null})
+     * @param src the source string (must not be {@code null})
+     * @return the copied string
+     */
+    @Link
+    @As(stdc_wchar_t)
+    private static native String wcscpy(MemorySegment dest, @As(stdc_wchar_t) String src);
+
+    /**
+     * Copy a wide character sequence.
+     *
+     * @param dest the destination (must not be {@code null})
+     * @param src the source character sequence (must not be {@code null})
+     * @return the copied string
+     */
+    @Link(name = "wcscpy")
+    @As(stdc_wchar_t)
+    private static native String wcscpyChars(MemorySegment dest, @As(stdc_wchar_t) CharSequence src);
+}
@@ -2,6 +2,8 @@ package io.smallrye.ffm.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.constant.ClassDesc;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -28,7 +30,7 @@ public abstract class AbstractTransformMojo extends AbstractMojo {
     public void execute() throws MojoExecutionException, MojoFailureException {
         Path classes = classesDirectory().toPath();
         getLog().info("Transforming classes in path: " + classes);
-        int cnt = processPath(classes);
+        int cnt = processPath(classes, classes);
         switch (cnt) {
             case 0 -> getLog().info("No classes transformed");
             case 1 -> getLog().info("Transformed 1 class");
@@ -36,12 +38,12 @@ public abstract class AbstractTransformMojo extends AbstractMojo {
         }
     }
 
-    private int processPath(final Path path) throws MojoFailureException {
+    private int processPath(final Path classes, final Path path) throws MojoFailureException {
         int cnt = 0;
         try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
             for (Path file : ds) {
                 if (Files.isDirectory(file)) {
-                    cnt += processPath(file);
+                    cnt += processPath(classes, file);
                 } else if (file.getFileName().toString().endsWith(".class")) {
                     ClassModel cm;
                     try {
@@ -53,7 +55,7 @@ public abstract class AbstractTransformMojo extends AbstractMojo {
                         boolean res;
                     };
                     byte[] result = cf.transformClass(cm, (zb, ce) -> {
-                        if (Generator.processElement(zb, cm, ce)) {
+                        if (Generator.processElement(zb, cm, ce, cd -> resolveClass(classes, cd))) {
                             resHolder.res = true;
                         }
                     });
@@ -73,5 +75,25 @@ public abstract class AbstractTransformMojo extends AbstractMojo {
         return cnt;
     }
 
+    /**
+     * Resolve a class from the classes directory.
+     *
+     * @param classes the classes directory (must not be {@code null})
+     * @param cd the class to resolve (must not be {@code null})
+     * @return the class model, or {@code null} if the class is not in the classes directory
+     */
+    private static ClassModel resolveClass(final Path classes, final ClassDesc cd) {
+        String desc = cd.descriptorString();
+        Path file = classes.resolve(desc.substring(1, desc.length() - 1) + ".class");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return cf.parse(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to parse " + file, e);
+        }
+    }
+
     abstract File classesDirectory();
 }
@@ -3,7 +3,9 @@ package io.smallrye.ffm.maven;
 import static io.smallrye.classfile.ClassFile.*;
 import static java.lang.constant.ConstantDescs.*;
 
+import java.io.Reader;
 import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
 import java.lang.constant.DirectMethodHandleDesc;
 import java.lang.constant.DynamicCallSiteDesc;
 import java.lang.constant.DynamicConstantDesc;
@@ -18,11 +20,16 @@ import java.lang.foreign.StructLayout;
 import java.lang.foreign.SymbolLookup;
 import java.lang.foreign.ValueLayout;
 import java.lang.invoke.VarHandle;
+import java.nio.Buffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import io.smallrye.classfile.AccessFlags;
 import io.smallrye.classfile.Annotation;
@@ -35,6 +42,7 @@ import io.smallrye.classfile.ClassModel;
 import io.smallrye.classfile.CodeBuilder;
 import io.smallrye.classfile.CodeElement;
 import io.smallrye.classfile.CodeModel;
+import io.smallrye.classfile.Label;
 import io.smallrye.classfile.MethodElement;
 import io.smallrye.classfile.MethodModel;
 import io.smallrye.classfile.Opcode;
@@ -42,6 +50,8 @@ import io.smallrye.classfile.PseudoInstruction;
 import io.smallrye.classfile.TypeKind;
 import io.smallrye.classfile.attribute.CodeAttribute;
 import io.smallrye.classfile.attribute.MethodParameterInfo;
+import io.smallrye.classfile.attribute.RecordAttribute;
+import io.smallrye.classfile.attribute.RecordComponentInfo;
 import io.smallrye.classfile.attribute.RuntimeInvisibleAnnotationsAttribute;
 import io.smallrye.classfile.attribute.RuntimeInvisibleParameterAnnotationsAttribute;
 import io.smallrye.classfile.constantpool.LoadableConstantEntry;
@@ -58,6 +68,7 @@ public final class Generator {
 
     /**
      * Process a single element.
+     * Classes other than the one being processed cannot be resolved.
      *
      * @param zb the class builder (must not be {@code null})
      * @param cm the class model (must not be {@code null})
@@ -65,8 +76,24 @@ public final class Generator {
      * @return {@code true} if the class was transformed, or {@code false} if it was not
      */
     public static boolean processElement(final ClassBuilder zb, final ClassModel cm, final ClassElement ce) {
+        return processElement(zb, cm, ce, cd -> null);
+    }
+
+    /**
+     * Process a single element.
+     *
+     * @param zb the class builder (must not be {@code null})
+     * @param cm the class model (must not be {@code null})
+     * @param ce the class element (must not be {@code null})
+     * @param resolver the function used to resolve other classes, which returns {@code null} if the class
+     *        cannot be found (must not be {@code null})
+     * @return {@code true} if the class was transformed, or {@code false} if it was not
+     */
+    public static boolean processElement(final ClassBuilder zb, final ClassModel cm, final ClassElement ce,
+            final Function<ClassDesc, ClassModel> resolver) {
         if (ce instanceof MethodModel mm
-                && (processMethodForConstants(mm, zb) || processNativeMethod(mm, cm, zb))) {
+                && (processMethodForConstants(mm, zb) || processCursorMethod(mm, cm, zb, resolver)
+                        || processNativeMethod(mm, cm, zb, resolver))) {
             return true;
         } else {
             zb.with(ce);
@@ -136,11 +163,364 @@ public final class Generator {
         return found;
     }
 
+    /**
+     * Implement a {@code native} accessor method of a class annotated with {@code @Cursor}.
+     *
+     * @param mm the method model (must not be {@code null})
+     * @param cm the class model (must not be {@code null})
+     * @param zb the class builder (must not be {@code null})
+     * @param resolver the class resolver (must not be {@code null})
+     * @return {@code true} if the method was implemented, or {@code false} if it is not a cursor method
+     */
+    private static boolean processCursorMethod(MethodModel mm, final ClassModel cm, ClassBuilder zb,
+            final Function<ClassDesc, ClassModel> resolver) {
+        if (!mm.flags().has(AccessFlag.NATIVE)) {
+            return false;
+        }
+        ClassDesc structType = null;
+        for (Annotation annotation : cm.findAttribute(Attributes.runtimeInvisibleAnnotations())
+                .map(RuntimeInvisibleAnnotationsAttribute::annotations)
+                .orElse(List.of())) {
+            if (annotation.className().equalsString("Lio/smallrye/ffm/Cursor;")) {
+                for (AnnotationElement element : annotation.elements()) {
+                    AnnotationValue value = element.value();
+                    switch (element.name().stringValue()) {
+                        case "value" -> {
+                            if (value instanceof AnnotationValue.OfClass oc) {
+                                structType = oc.classSymbol();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (structType == null) {
+            return false;
+        }
+        StructInfo struct = readStruct(structType, resolver);
+        if (struct == null) {
+            throw new IllegalArgumentException("Cursor element type " + structType.displayName()
+                    + " is not a record annotated with @Struct");
+        }
+        if (mm.flags().has(AccessFlag.STATIC)) {
+            throw new IllegalArgumentException("Cursor accessor methods must not be static");
+        }
+        String name = mm.methodName().stringValue();
+        MethodTypeDesc mtd = mm.methodTypeSymbol();
+        DynamicConstantDesc<StructLayout> layout = structLayoutDesc(struct, "_");
+        if (name.equals("stride")) {
+            if (!mtd.equals(MethodTypeDesc.of(CD_long))) {
+                throw new IllegalArgumentException("Cursor stride method must have no parameters and return long");
+            }
+            emitCursorMethod(mm, zb, cb -> {
+                cb.loadConstant(DynamicConstantDesc.ofNamed(CD_Bootstraps_structSize, "_", CD_long, layout));
+                cb.lreturn();
+            });
+            return true;
+        }
+        if (mtd.parameterCount() == 3 && mtd.parameterType(0).isClassOrInterface()
+                && mtd.parameterType(1).equals(CD_int) && mtd.parameterType(2).equals(CD_int)
+                && mtd.returnType().equals(CD_void)) {
+            // bulk transfer to or from columns
+            boolean in = false, out = false;
+            List<List<Annotation>> paListList = mm
+                    .findAttribute(Attributes.runtimeInvisibleParameterAnnotations())
+                    .map(RuntimeInvisibleParameterAnnotationsAttribute::parameterAnnotations)
+                    .orElse(List.of());
+            for (Annotation annotation : paListList.size() == 3 ? paListList.getFirst() : List.<Annotation> of()) {
+                switch (annotation.className().stringValue()) {
+                    case "Lio/smallrye/ffm/In;" -> in = true;
+                    case "Lio/smallrye/ffm/Out;" -> out = true;
+                }
+            }
+            if (in == out) {
+                throw new IllegalArgumentException("Cursor column transfer method " + name
+                        + " must have exactly one of @In or @Out on its columns parameter");
+            }
+            List<StructMember> columns = readColumns(mtd.parameterType(0), struct, resolver);
+            boolean write = in;
+            emitCursorMethod(mm, zb, cb -> emitColumnTransfer(cb, layout, struct, mtd.parameterType(0), columns, write));
+            return true;
+        }
+        StructMember member = struct.members().stream()
+                .filter(m -> m.name().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "No member named " + name + " in structure " + struct.type().displayName()));
+        if (member.nested() != null) {
+            throw new IllegalArgumentException("Cursor accessors for nested structure member " + name
+                    + " are not supported");
+        }
+        List<ConstantDesc> offsets = memberOffsets(List.of(), layout, member);
+        String desc = asTypeToDesc(member.asType());
+        if (mtd.equals(MethodTypeDesc.of(member.type()))) {
+            // getter
+            MethodTypeDesc getterType = MethodTypeDesc.of(member.type(), CD_MemorySegment, CD_long);
+            emitCursorMethod(mm, zb, cb -> {
+                cb.loadConstant(DynamicConstantDesc.ofNamed(CD_Bootstraps_outValue, desc, CD_MethodHandle, getterType));
+                loadCursorOffset(cb, offsets);
+                cb.invokevirtual(CD_MethodHandle, "invokeExact", getterType);
+                cb.return_(TypeKind.from(member.type()));
+            });
+        } else if (mtd.equals(MethodTypeDesc.of(CD_void, member.type()))) {
+            // setter
+            MethodTypeDesc setterType = MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_long, member.type());
+            emitCursorMethod(mm, zb, cb -> {
+                cb.loadConstant(DynamicConstantDesc.ofNamed(CD_Bootstraps_inValue, desc, CD_MethodHandle, setterType));
+                loadCursorOffset(cb, offsets);
+                cb.loadLocal(TypeKind.from(member.type()), 1);
+                cb.invokevirtual(CD_MethodHandle, "invokeExact", setterType);
+                cb.return_();
+            });
+        } else {
+            throw new IllegalArgumentException("Invalid type " + mtd.displayDescriptor() + " for cursor accessor " + name);
+        }
+        return true;
+    }
+
+    /**
+     * Read the components of a columns record, each of which is an array holding the values of the structure member
+     * with the same name.
+     *
+     * @param columnsType the columns record type (must not be {@code null})
+     * @param struct the structure (must not be {@code null})
+     * @param resolver the class resolver (must not be {@code null})
+     * @return the structure member of each component, in component order (not {@code null})
+     */
+    private static List<StructMember> readColumns(final ClassDesc columnsType, final StructInfo struct,
+            final Function<ClassDesc, ClassModel> resolver) {
+        ClassModel rm = resolver.apply(columnsType);
+        if (rm == null) {
+            throw new IllegalArgumentException("Cannot find columns record class " + columnsType.displayName()
+                    + " (it must be compiled together with the cursor class)");
+        }
+        List<RecordComponentInfo> components = rm.findAttribute(Attributes.record())
+                .map(RecordAttribute::components)
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Columns type " + columnsType.displayName() + " is not a record"));
+        List<StructMember> list = new ArrayList<>(components.size());
+        for (RecordComponentInfo component : components) {
+            String name = component.name().stringValue();
+            StructMember member = struct.members().stream()
+                    .filter(m -> m.name().equals(name))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException(
+                            "No member named " + name + " in structure " + struct.type().displayName()));
+            if (member.nested() != null || !component.descriptorSymbol().equals(member.type().arrayType())) {
+                throw new IllegalArgumentException("Invalid type " + component.descriptorSymbol().displayName()
+                        + " for column " + name + " (must be an array of the member type)");
+            }
+            list.add(member);
+        }
+        return list;
+    }
+
+    /**
+     * Emit the body of a column transfer method, which copies the given number of elements starting at the current
+     * element of the cursor to or from the column arrays starting at the given index.
+     * The elements are transferred in a single pass, each one to or from every column in turn, using constant
+     * accessors and constant offsets.
+     * If the structure has a single member whose native type has the same width as its Java type, the elements are
+     * contiguous, and they are copied in bulk instead.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param layout the structure layout constant (must not be {@code null})
+     * @param struct the structure (must not be {@code null})
+     * @param columnsType the columns record type (must not be {@code null})
+     * @param columns the structure member of each column (must not be {@code null})
+     * @param write {@code true} to copy from the columns to native memory, or {@code false} to copy the other way
+     */
+    private static void emitColumnTransfer(final CodeBuilder cb, final ConstantDesc layout, final StructInfo struct,
+            final ClassDesc columnsType, final List<StructMember> columns, final boolean write) {
+        // parameter slots
+        int columnsSlot = 1;
+        int indexSlot = 2;
+        int countSlot = 3;
+        ConstantDesc stride = DynamicConstantDesc.ofNamed(CD_Bootstraps_structSize, "_", CD_long, layout);
+        // load and check every column before transferring anything, so that a short column has no partial effect
+        int[] arrays = new int[columns.size()];
+        for (int c = 0; c < arrays.length; c++) {
+            StructMember member = columns.get(c);
+            arrays[c] = cb.allocateLocal(TypeKind.REFERENCE);
+            // Objects.checkFromIndexSize(index, count, (array = columns.member()).length)
+            cb.iload(indexSlot);
+            cb.iload(countSlot);
+            cb.aload(columnsSlot);
+            cb.invokevirtual(columnsType, member.name(), MethodTypeDesc.of(member.type().arrayType()));
+            cb.dup();
+            cb.astore(arrays[c]);
+            cb.arraylength();
+            cb.invokestatic(CD_Objects, "checkFromIndexSize", MethodTypeDesc.of(CD_int, CD_int, CD_int, CD_int));
+            cb.pop();
+        }
+        // base = checkRemaining(count)
+        int base = cb.allocateLocal(TypeKind.LONG);
+        cb.aload(0);
+        cb.iload(countSlot);
+        cb.invokevirtual(CD_StructCursor, "checkRemaining", MethodTypeDesc.of(CD_long, CD_int));
+        cb.lstore(base);
+        int seg = cb.allocateLocal(TypeKind.REFERENCE);
+        cb.aload(0);
+        cb.invokevirtual(CD_StructCursor, "segment", MethodTypeDesc.of(CD_MemorySegment));
+        cb.astore(seg);
+        if (struct.members().size() == 1 && isBulkCopyable(columns.getFirst())) {
+            StructMember member = columns.getFirst();
+            long width = switch (TypeKind.from(member.type())) {
+                case BYTE -> 1;
+                case SHORT -> 2;
+                case INT, FLOAT -> 4;
+                default -> 8;
+            };
+            ConstantDesc memberLayout = DynamicConstantDesc.ofNamed(CD_Bootstraps_memberLayout, member.name(),
+                    CD_ValueLayout, asTypeToDesc(member.asType()));
+            // the stride is a constant, so the JIT compiler folds this test
+            cb.loadConstant(stride);
+            cb.loadConstant(width);
+            cb.lcmp();
+            cb.ifThen(Opcode.IFEQ, b1 -> {
+                if (write) {
+                    // MemorySegment.copy(array, index, seg, memberLayout, base, count)
+                    b1.aload(arrays[0]);
+                    b1.iload(indexSlot);
+                    b1.aload(seg);
+                    b1.loadConstant(memberLayout);
+                    b1.lload(base);
+                    b1.iload(countSlot);
+                    b1.invokestatic(CD_MemorySegment, "copy", MethodTypeDesc.of(CD_void, CD_Object, CD_int,
+                            CD_MemorySegment, CD_ValueLayout, CD_long, CD_int), true);
+                } else {
+                    // MemorySegment.copy(seg, memberLayout, base, array, index, count)
+                    b1.aload(seg);
+                    b1.loadConstant(memberLayout);
+                    b1.lload(base);
+                    b1.aload(arrays[0]);
+                    b1.iload(indexSlot);
+                    b1.iload(countSlot);
+                    b1.invokestatic(CD_MemorySegment, "copy", MethodTypeDesc.of(CD_void, CD_MemorySegment,
+                            CD_ValueLayout, CD_long, CD_Object, CD_int, CD_int), true);
+                }
+                b1.return_();
+            });
+        }
+        // for (i = 0; i < count; i++, offset += stride) { transfer each member of element i }
+        int i = cb.allocateLocal(TypeKind.INT);
+        int offset = cb.allocateLocal(TypeKind.LONG);
+        cb.iconst_0();
+        cb.istore(i);
+        cb.lload(base);
+        cb.lstore(offset);
+        Label top = cb.newBoundLabel();
+        Label end = cb.newLabel();
+        cb.iload(i);
+        cb.iload(countSlot);
+        cb.if_icmpge(end);
+        for (int c = 0; c < arrays.length; c++) {
+            StructMember member = columns.get(c);
+            TypeKind kind = TypeKind.from(member.type());
+            String desc = asTypeToDesc(member.asType());
+            MethodTypeDesc accessorType = write
+                    ? MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_long, member.type())
+                    : MethodTypeDesc.of(member.type(), CD_MemorySegment, CD_long);
+            ConstantDesc accessor = DynamicConstantDesc.ofNamed(
+                    write ? CD_Bootstraps_inValue : CD_Bootstraps_outValue,
+                    desc,
+                    CD_MethodHandle,
+                    accessorType);
+            if (!write) {
+                // array[index + i] = get(seg, offset + memberOffset)
+                cb.aload(arrays[c]);
+                cb.iload(indexSlot);
+                cb.iload(i);
+                cb.iadd();
+            }
+            cb.loadConstant(accessor);
+            cb.aload(seg);
+            cb.lload(offset);
+            loadOffset(cb, memberOffsets(List.of(), layout, member));
+            cb.ladd();
+            if (write) {
+                // set(seg, offset + memberOffset, array[index + i])
+                cb.aload(arrays[c]);
+                cb.iload(indexSlot);
+                cb.iload(i);
+                cb.iadd();
+                cb.arrayLoad(kind);
+                cb.invokevirtual(CD_MethodHandle, "invokeExact", accessorType);
+            } else {
+                cb.invokevirtual(CD_MethodHandle, "invokeExact", accessorType);
+                cb.arrayStore(kind);
+            }
+        }
+        cb.iinc(i, 1);
+        cb.lload(offset);
+        cb.loadConstant(stride);
+        cb.ladd();
+        cb.lstore(offset);
+        cb.goto_(top);
+        cb.labelBinding(end);
+        cb.return_();
+    }
+
+    /**
+     * {@return {@code true} if the values of the given member may be copied in bulk when its native type has the same
+     * width as its Java type}
+     * Boolean, character, pointer, and wide character members always need conversion.
+     *
+     * @param member the structure member (must not be {@code null})
+     */
+    private static boolean isBulkCopyable(final StructMember member) {
+        if (member.nested() != null || member.type().equals(CD_boolean) || member.type().equals(CD_char)) {
+            return false;
+        }
+        return switch (member.asType()) {
+            case "stdc_bool", "ptr", "stdc_wchar_t" -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * Push the segment of the cursor and the offset of a member of its current element on to the stack.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param offsets the offset constants of the member within the element (must not be {@code null})
+     */
+    private static void loadCursorOffset(final CodeBuilder cb, final List<ConstantDesc> offsets) {
+        cb.aload(0);
+        cb.invokevirtual(CD_StructCursor, "segment", MethodTypeDesc.of(CD_MemorySegment));
+        cb.aload(0);
+        cb.invokevirtual(CD_StructCursor, "offset", MethodTypeDesc.of(CD_long));
+        loadOffset(cb, offsets);
+        cb.ladd();
+    }
+
+    /**
+     * Replace a {@code native} method with a method having the given body.
+     *
+     * @param mm the method model (must not be {@code null})
+     * @param zb the class builder (must not be {@code null})
+     * @param body the method body (must not be {@code null})
+     */
+    private static void emitCursorMethod(final MethodModel mm, final ClassBuilder zb, final Consumer<CodeBuilder> body) {
+        zb.withMethod(mm.methodName().stringValue(), mm.methodTypeSymbol(), mm.flags().flagsMask() & ~ACC_NATIVE, mb -> {
+            for (MethodElement me : mm.elementList()) {
+                if (me instanceof AccessFlags || me instanceof CodeElement) {
+                    // skip it
+                } else {
+                    mb.with(me);
+                }
+            }
+            mb.withCode(body);
+        });
+    }
+
     private static final List<String> defaultLibs = List.of("<<LOADER>>", "<<SYSTEM>>");
 
-    private static boolean processNativeMethod(MethodModel mm, final ClassModel cm, ClassBuilder zb) {
+    private static boolean processNativeMethod(MethodModel mm, final ClassModel cm, ClassBuilder zb,
+            final Function<ClassDesc, ClassModel> resolver) {
         // library search order
         List<String> libs = defaultLibs;
+        // whether eligible methods are adaptively linked by default
+        boolean classAdaptive = false;
         // gather the class-level annotations
         Optional<RuntimeInvisibleAnnotationsAttribute> ria = cm.findAttribute(Attributes.runtimeInvisibleAnnotations());
         if (ria.isPresent()) {
@@ -149,6 +529,23 @@ public final class Generator {
                 switch (annotation.className().stringValue()) {
                     case "Lio/smallrye/ffm/Lib$List;" -> libs = readLibListAnnotation(annotation);
                     case "Lio/smallrye/ffm/Lib;" -> libs = readLibAnnotation(annotation);
+                    case "Lio/smallrye/ffm/Critical;" -> {
+                        for (AnnotationElement element : annotation.elements()) {
+                            AnnotationValue value = element.value();
+                            switch (element.name().stringValue()) {
+                                case "adaptive" -> {
+                                    if (value instanceof AnnotationValue.OfBoolean ob) {
+                                        classAdaptive = ob.booleanValue();
+                                    }
+                                }
+                                case "heap", "heapThreshold" ->
+                                    throw new IllegalArgumentException("@Critical on a type cannot access the heap");
+                            }
+                        }
+                        if (!classAdaptive) {
+                            throw new IllegalArgumentException("@Critical on a type must be adaptive");
+                        }
+                    }
                 }
             }
         }
@@ -160,9 +557,25 @@ public final class Generator {
         }
         boolean critical = false;
         boolean heap = false;
+        long heapThreshold = -1;
+        boolean adaptive = false;
         boolean link = false;
         boolean dispatch = false;
         String outputCharset = null;
+        long outputMaxLength = -1;
+        boolean outputIntern = false;
+        boolean outputRecord = false;
+        boolean batch = false;
+        boolean chunked = false;
+        boolean blocking = false;
+        boolean async = false;
+        boolean pure = false;
+        int pureMaxSize = 1024;
+        long pureTtl = 0;
+        long chunkThreshold = 1 << 20;
+        long chunkElementSize = 1;
+        String combiner = "";
+        boolean explicitRetAsType = false;
         String name = mm.methodName().stringValue();
         ClassDesc returnType = mm.methodTypeSymbol().returnType();
         String retAsType = returnType.descriptorString().equals("V") ? "void" : defaultAsType(returnType);
@@ -204,6 +617,16 @@ public final class Generator {
                                         heap = ob.booleanValue();
                                     }
                                 }
+                                case "heapThreshold" -> {
+                                    if (value instanceof AnnotationValue.OfLong ol) {
+                                        heapThreshold = ol.longValue();
+                                    }
+                                }
+                                case "adaptive" -> {
+                                    if (value instanceof AnnotationValue.OfBoolean ob) {
+                                        adaptive = ob.booleanValue();
+                                    }
+                                }
                             }
                         }
                     }
@@ -214,6 +637,7 @@ public final class Generator {
                                 case "value" -> {
                                     if (value instanceof AnnotationValue.OfEnum oe) {
                                         retAsType = oe.constantName().stringValue();
+                                        explicitRetAsType = true;
                                     }
                                 }
                             }
@@ -232,134 +656,68 @@ public final class Generator {
                             }
                         }
                     }
-                }
-            }
-        }
-        if (link && dispatch) {
-            throw new IllegalArgumentException("Cannot provide both @Link and @Dispatch to the same member");
-        }
-        if (!(link || dispatch)) {
-            return false;
-        }
-
-        MethodTypeDesc mtd = mm.methodTypeSymbol();
-        int paramCnt = mtd.parameterCount();
-
-        List<List<Annotation>> paListList = mm
-                .findAttribute(Attributes.runtimeInvisibleParameterAnnotations())
-                .map(RuntimeInvisibleParameterAnnotationsAttribute::parameterAnnotations)
-                .orElse(Collections.nCopies(paramCnt, List.of()));
-
-        int annOffs = paramCnt - paListList.size();
-
-        Compilers compilers = new Compilers();
-        List<Step> steps = new ArrayList<>(paramCnt * 2);
-        int varOffs = mm.flags().has(AccessFlag.STATIC) ? 0 : 1;
-
-        // LV indexes
-        int capture = -1;
-
-        // handle return right away
-        steps.add(new ReturnStep(retAsType));
-        if (link) {
-            // resolve the symbol
-            steps.add(new ResolvedSymbolStep(name, libs));
-        }
-        if (critical || heap) {
-            steps.add(new CriticalStep(heap));
-        }
-        int insertionPoint = steps.size();
-        int slot = varOffs;
-        for (int i = 0; i < paramCnt; i++) {
-            List<Annotation> annotations = i < annOffs ? List.of() : paListList.get(i);
-            boolean in = false, out = false;
-            String charset = null;
-            String asType = defaultAsType(mtd.parameterType(i));
-            // first check annotations
-            for (Annotation annotation : annotations) {
-                switch (annotation.className().stringValue()) {
-                    case "Lio/smallrye/ffm/As;" -> {
-                        if (dispatch && i == 0) {
-                            throw firstDispatchArgViolation();
-                        }
-                        // explicit type
+                    case "Lio/smallrye/ffm/MaxLength;" -> {
                         loop: for (AnnotationElement element : annotation.elements()) {
                             AnnotationValue value = element.value();
                             switch (element.name().stringValue()) {
                                 case "value" -> {
-                                    if (value instanceof AnnotationValue.OfEnum oe) {
-                                        asType = oe.constantName().stringValue();
+                                    if (value instanceof AnnotationValue.OfLong ol) {
+                                        outputMaxLength = ol.longValue();
                                     }
                                     break loop;
                                 }
                             }
                         }
+                        if (outputMaxLength < 0) {
+                            throw new IllegalArgumentException("Invalid maximum length " + outputMaxLength);
+                        }
                     }
-                    case "Lio/smallrye/ffm/AsCharset;" -> {
-                        if (dispatch && i == 0) {
-                            throw firstDispatchArgViolation();
+                    case "Lio/smallrye/ffm/Intern;" -> {
+                        if (!returnType.equals(CD_String)) {
+                            throw new IllegalArgumentException("@Intern is only allowed on methods which return a string");
                         }
-                        loop: for (AnnotationElement element : annotation.elements()) {
+                        outputIntern = true;
+                    }
+                    case "Lio/smallrye/ffm/Out;" -> outputRecord = true;
+                    case "Lio/smallrye/ffm/Batch;" -> batch = true;
+                    case "Lio/smallrye/ffm/Blocking;" -> blocking = true;
+                    case "Lio/smallrye/ffm/Async;" -> async = true;
+                    case "Lio/smallrye/ffm/Pure;" -> {
+                        pure = true;
+                        for (AnnotationElement element : annotation.elements()) {
                             AnnotationValue value = element.value();
                             switch (element.name().stringValue()) {
-                                case "value" -> {
-                                    if (value instanceof AnnotationValue.OfString os) {
-                                        charset = os.stringValue();
+                                case "maxSize" -> {
+                                    if (value instanceof AnnotationValue.OfInt oi) {
+                                        pureMaxSize = oi.intValue();
+                                    }
+                                }
+                                case "ttl" -> {
+                                    if (value instanceof AnnotationValue.OfLong ol) {
+                                        pureTtl = ol.longValue();
                                     }
-                                    break loop;
                                 }
                             }
                         }
                     }
-                    // explicit copy-in policy
-                    case "Lio/smallrye/ffm/In;" -> {
-                        if (dispatch && i == 0) {
-                            throw firstDispatchArgViolation();
-                        }
-                        in = true;
-                    }
-                    // explicit copy-out policy
-                    case "Lio/smallrye/ffm/Out;" -> {
-                        if (dispatch && i == 0) {
-                            throw firstDispatchArgViolation();
-                        }
-                        out = true;
-                    }
-                    case "Lio/smallrye/ffm/Variadic;" -> {
-                        if (dispatch && i == 0) {
-                            throw firstDispatchArgViolation();
-                        }
-                        if (variadic == -1) {
-                            variadic = i;
-                        } else {
-                            throw new IllegalArgumentException("Multiple variadic annotations not allowed");
-                        }
-                    }
-                    case "Lio/smallrye/ffm/Capture;" -> {
-                        if (dispatch && i == 0) {
-                            throw firstDispatchArgViolation();
-                        }
-                        if (capture == -1) {
-                            capture = i;
-                        } else {
-                            throw new IllegalArgumentException("Multiple capture annotations not allowed");
-                        }
+                    case "Lio/smallrye/ffm/Chunked;" -> {
+                        chunked = true;
                         for (AnnotationElement element : annotation.elements()) {
                             AnnotationValue value = element.value();
                             switch (element.name().stringValue()) {
-                                case "errno" -> {
-                                    if (value instanceof AnnotationValue.OfBoolean ob) {
-                                        compilers.errno |= ob.booleanValue();
+                                case "threshold" -> {
+                                    if (value instanceof AnnotationValue.OfLong ol) {
+                                        chunkThreshold = ol.longValue();
                                     }
                                 }
-                                case "lastError" -> {
-                                    if (value instanceof AnnotationValue.OfBoolean ob) {
-                                        compilers.lastError |= ob.booleanValue();
+                                case "elementSize" -> {
+                                    if (value instanceof AnnotationValue.OfLong ol) {
+                                        chunkElementSize = ol.longValue();
                                     }
                                 }
-                                case "wsaLastError" -> {
-                                    if (value instanceof AnnotationValue.OfBoolean ob) {
-                                        compilers.wsaLastError |= ob.booleanValue();
+                                case "combiner" -> {
+                                    if (value instanceof AnnotationValue.OfString os) {
+                                        combiner = os.stringValue();
                                     }
                                 }
                             }
@@ -367,107 +725,207 @@ public final class Generator {
                     }
                 }
             }
-            if (dispatch && i == 0) {
-                if (mtd.parameterType(i).descriptorString().equals("Ljava/lang/foreign/MemorySegment;")) {
-                    steps.add(new UserSymbolStep(i));
-                    slot++;
-                    continue;
-                } else {
-                    throw firstDispatchArgViolation();
+        }
+        if (link && dispatch) {
+            throw new IllegalArgumentException("Cannot provide both @Link and @Dispatch to the same member");
+        }
+        if (!(link || dispatch)) {
+            return false;
+        }
+        if (adaptive && heap) {
+            throw new IllegalArgumentException("Adaptive critical linkage cannot access the heap");
+        }
+        if (chunked && (batch || dispatch || blocking)) {
+            throw new IllegalArgumentException("Chunked methods cannot be combined with @Batch, @Dispatch, or @Blocking");
+        }
+        if (pure) {
+            if (batch || chunked || blocking || async || dispatch) {
+                throw new IllegalArgumentException("Pure methods cannot be combined with @Batch, @Chunked, @Blocking,"
+                        + " @Async, or @Dispatch");
+            }
+            if (returnType.equals(CD_void) || returnType.isArray()) {
+                throw new IllegalArgumentException("Pure methods must return a value which is not an array");
+            }
+            for (ClassDesc paramType : mm.methodTypeSymbol().parameterList()) {
+                if (!paramType.isPrimitive() && !paramType.equals(CD_String)) {
+                    throw new IllegalArgumentException("Parameters of pure methods must be primitive or String");
                 }
             }
-            if (capture == i) {
-                if (mtd.parameterType(i).descriptorString().equals("Ljava/lang/foreign/MemorySegment;")) {
-                    compilers.captureStep = new UserProvidedCaptureStep(compilers, slot++);
-                    continue;
-                } else {
-                    throw new IllegalArgumentException(
-                            "Invalid type for capture parameter (must be interface java.lang.foreign.MemorySegment");
+        }
+        // asynchronous methods return a future of the native result
+        ClassDesc asyncResult = null;
+        if (async) {
+            if (heap || outputRecord || batch || chunked || blocking) {
+                throw new IllegalArgumentException("Asynchronous methods cannot be combined with @Out, @Batch, @Chunked,"
+                        + " @Blocking, or heap access");
+            }
+            if (!returnType.equals(CD_CompletableFuture)) {
+                throw new IllegalArgumentException("Asynchronous methods must return java.util.concurrent.CompletableFuture");
+            }
+            asyncResult = readAsyncResult(mm);
+            if (asyncResult.equals(CD_void)) {
+                if (explicitRetAsType) {
+                    throw new IllegalArgumentException("@As is not allowed on asynchronous methods with a Void result");
                 }
+                retAsType = "void";
+            } else if (!explicitRetAsType) {
+                retAsType = defaultAsType(asyncResult);
             }
-            if (!in && !out) {
-                in = out = true;
+        }
+        if (batch) {
+            if (dispatch || heap || outputRecord) {
+                throw new IllegalArgumentException("Batch methods cannot be combined with @Dispatch, @Out, or heap access");
             }
-            // now examine the parameter itself
-            switch (mtd.parameterType(i).descriptorString()) {
-                case "[B", "[C", "[D", "[F", "[I", "[J", "[S" -> {
-                    if (heap) {
-                        steps.add(new SimpleArgumentStep(mtd.parameterType(i), asType, slot));
-                    } else {
-                        if (compilers.allocatorStep == null) {
-                            compilers.allocatorStep = new OnDemandArenaStep();
-                        }
-                        steps.add(new PrimitiveArrayArgumentCopyStep(compilers, mtd.parameterType(i), slot, in, out));
-                    }
-                }
-                case "Ljava/lang/foreign/MemorySegment;" -> {
-                    if (heap) {
-                        steps.add(new SimpleArgumentStep(mtd.parameterType(i), asType, slot));
-                    } else {
-                        if (compilers.allocatorStep == null) {
-                            compilers.allocatorStep = new OnDemandArenaStep();
-                        }
-                        steps.add(new SegmentArgumentStep(compilers, slot, in, out));
-                    }
-                }
-                case "[Ljava/lang/foreign/MemorySegment;" -> {
-                    if (compilers.allocatorStep == null) {
-                        compilers.allocatorStep = new OnDemandArenaStep();
-                    }
-                    steps.add(new SegmentArrayArgumentCopyStep(compilers, slot, in, out));
+            // the native return type is that of each result element
+            if (returnType.isArray() && !explicitRetAsType) {
+                retAsType = defaultAsType(returnType.componentType());
+            }
+        }
+        // wide strings are returned as pointers
+        boolean outputWide = returnType.equals(CD_String) && retAsType.equals("stdc_wchar_t");
+        if (outputWide) {
+            if (outputCharset != null || outputIntern) {
+                throw new IllegalArgumentException("Wide string return values cannot have @AsCharset or @Intern");
+            }
+            retAsType = "ptr";
+        }
+        // output records are built from native scalars, one of which may be the return value
+        List<OutComponent> outComponents = null;
+        if (outputRecord) {
+            if (explicitRetAsType || outputCharset != null || outputMaxLength != -1) {
+                throw new IllegalArgumentException("Output record return values cannot have @As, @AsCharset, or @MaxLength"
+                        + " (annotate the record components instead)");
+            }
+            outComponents = readOutRecord(returnType, resolver);
+            retAsType = "void";
+            for (OutComponent component : outComponents) {
+                if (component.ret()) {
+                    retAsType = component.asType();
                 }
-                case "Ljava/lang/String;" -> {
-                    if (compilers.allocatorStep == null || compilers.allocatorStep instanceof OnDemandArenaStep) {
-                        compilers.allocatorStep = new AlwaysArenaStep();
-                    }
-                    steps.add(new StringArgumentStep(compilers, slot, charset));
+            }
+        }
+
+        MethodTypeDesc mtd = mm.methodTypeSymbol();
+        int paramCnt = mtd.parameterCount();
+
+        List<List<Annotation>> paListList = mm
+                .findAttribute(Attributes.runtimeInvisibleParameterAnnotations())
+                .map(RuntimeInvisibleParameterAnnotationsAttribute::parameterAnnotations)
+                .orElse(Collections.nCopies(paramCnt, List.of()));
+
+        int varOffs = mm.flags().has(AccessFlag.STATIC) ? 0 : 1;
+
+        // chunked, blocking, and pure methods delegate to a static method which performs the downcall
+        MethodTypeDesc callMtd = mtd;
+        if (chunked || blocking || pure) {
+            varOffs = 0;
+        }
+        ConstantDesc combinerHandle = null;
+        int lengthIdx = -1;
+        long chunkSlices = 0;
+        if (chunked) {
+            int poolIdx = mtd.parameterList().indexOf(CD_ForkJoinPool);
+            if (poolIdx != -1) {
+                mtd = mtd.dropParameterTypes(poolIdx, poolIdx + 1);
+                int poolAnnIdx = poolIdx - (paramCnt - paListList.size());
+                if (poolAnnIdx >= 0) {
+                    paListList = new ArrayList<>(paListList);
+                    paListList.remove(poolAnnIdx);
                 }
-                case "Ljava/lang/foreign/SegmentAllocator;", "Ljava/lang/foreign/Arena;" -> {
-                    if (!(compilers.allocatorStep instanceof UserSuppliedSegmentAllocatorStep)) {
-                        compilers.allocatorStep = new UserSuppliedSegmentAllocatorStep(slot);
+                paramCnt--;
+            }
+            lengthIdx = findChunkLength(mtd, paListList);
+            chunkSlices = findChunkSlices(mtd, paListList);
+            combinerHandle = readCombiner(cm, combiner, returnType);
+        }
+
+        // resolve structure records, including the structures of @Return parameters
+        int annOffs = paramCnt - paListList.size();
+        List<StructInfo> paramStructs = new ArrayList<>(paramCnt);
+        List<ConstantDesc> paramCallbacks = new ArrayList<>(paramCnt);
+        for (int i = 0; i < paramCnt; i++) {
+            paramCallbacks.add(readCallback(mtd.parameterType(i), resolver));
+            StructInfo struct = readStruct(mtd.parameterType(i), resolver);
+            for (Annotation annotation : i < annOffs ? List.<Annotation> of() : paListList.get(i)) {
+                if (annotation.className().equalsString("Lio/smallrye/ffm/Return;")) {
+                    if (retAsType.equals("struct")) {
+                        throw new IllegalArgumentException("Multiple @Return parameters not allowed");
                     }
-                }
-                case "Lio/smallrye/ffm/ErrnoConsumer;" -> {
-                    if (compilers.captureStep == null) {
-                        compilers.captureStep = new AllocatedCaptureStep(compilers);
+                    if (outComponents != null || explicitRetAsType) {
+                        throw new IllegalArgumentException("@Return parameters cannot be combined with @Out or @As");
                     }
-                    compilers.errno = true;
-                    steps.add(new ErrnoConsumerStep(compilers, slot));
-                }
-                case "Lio/smallrye/ffm/LastErrorConsumer;" -> {
-                    if (compilers.captureStep == null) {
-                        compilers.captureStep = new AllocatedCaptureStep(compilers);
+                    struct = null;
+                    for (AnnotationElement element : annotation.elements()) {
+                        AnnotationValue value = element.value();
+                        switch (element.name().stringValue()) {
+                            case "value" -> {
+                                if (value instanceof AnnotationValue.OfClass oc) {
+                                    struct = readStruct(oc.classSymbol(), resolver);
+                                }
+                            }
+                        }
                     }
-                    compilers.lastError = true;
-                    steps.add(new LastErrorConsumerStep(compilers, slot));
-                }
-                case "Lio/smallrye/ffm/WSALastErrorConsumer;" -> {
-                    if (compilers.captureStep == null) {
-                        compilers.captureStep = new AllocatedCaptureStep(compilers);
+                    if (struct == null) {
+                        throw new IllegalArgumentException("@Return parameters must give a structure record type");
                     }
-                    compilers.wsaLastError = true;
-                    steps.add(new WSALastErrorConsumerStep(compilers, slot));
+                    retAsType = "struct";
                 }
-                default -> steps.add(new SimpleArgumentStep(mtd.parameterType(i), asType, slot));
             }
-            slot += TypeKind.from(mtd.parameterType(i)).slotSize();
+            paramStructs.add(struct);
         }
-        if (compilers.captureStep != null) {
-            if (compilers.allocatorStep == null) {
-                compilers.allocatorStep = new AlwaysArenaStep();
-            }
-            steps.add(insertionPoint, compilers.captureStep);
+        // a class-level adaptive annotation applies to methods which may be linked as critical
+        if (classAdaptive && !critical && link && !blocking && !async
+                && paramCallbacks.stream().allMatch(Objects::isNull)) {
+            critical = true;
+            adaptive = true;
         }
-        if (compilers.allocatorStep != null) {
-            steps.add(insertionPoint, compilers.allocatorStep);
+        StructInfo returnStruct = outComponents == null ? readStruct(returnType, resolver) : null;
+        if (returnStruct != null) {
+            if (retAsType.equals("struct") || explicitRetAsType) {
+                throw new IllegalArgumentException("Structure return values cannot be combined with @Return or @As");
+            }
+            retAsType = "struct";
         }
 
-        switch (mtd.returnType().descriptorString()) {
-            case "Ljava/lang/String;" -> steps.add(new StringResultStep(outputCharset));
-            default -> steps.add(new SimpleResultStep(mtd.returnType()));
+        if (async && retAsType.equals("struct")) {
+            throw new IllegalArgumentException("Asynchronous methods cannot return structures");
         }
 
-        steps.addLast(new InvokeStep());
+        LinkSpec spec = new LinkSpec(mtd, paListList, varOffs, link ? name : null, libs, dispatch, variadic, retAsType,
+                outputCharset, outputMaxLength, outputIntern, outputWide, outComponents, paramStructs, returnStruct,
+                paramCallbacks, asyncResult);
+        List<Step> steps = batch
+                ? buildBatchSteps(spec, critical, adaptive)
+                : buildSteps(spec, critical || heap, heap, adaptive);
+        // when a heap threshold is given, large arguments are copied using a regular call instead
+        List<Step> copySteps = heap && heapThreshold >= 0 ? buildSteps(spec, false, false, false) : null;
+        long threshold = heapThreshold;
+
+        DirectMethodHandleDesc delegateBootstrap = chunked ? CD_Bootstraps_chunked
+                : blocking ? CD_Bootstraps_blocking
+                : pure ? CD_Bootstraps_pure
+                : null;
+        List<ConstantDesc> delegateArgs = new ArrayList<>(5);
+        if (delegateBootstrap != null) {
+            String implName = mm.methodName().stringValue() + (chunked ? "$chunk" : blocking ? "$blocking" : "$pure");
+            zb.withMethod(implName, mtd, ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC,
+                    mb -> mb.withCode(cb -> emitCall(cb, spec, steps, copySteps, threshold)));
+            delegateArgs.add(MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, cm.thisClass().asSymbol(),
+                    implName, mtd));
+        }
+        if (chunked) {
+            delegateArgs.add(lengthIdx);
+            delegateArgs.add(chunkSlices);
+            delegateArgs.add(chunkThreshold);
+            delegateArgs.add(chunkElementSize);
+            if (combinerHandle != null) {
+                delegateArgs.add(combinerHandle);
+            }
+        }
+        if (pure) {
+            delegateArgs.add(pureMaxSize);
+            delegateArgs.add(pureTtl);
+        }
 
         zb.withMethod(mm.methodName().stringValue(), mm.methodTypeSymbol(), mm.flags().flagsMask() & ~ACC_NATIVE, mb -> {
             for (MethodElement me : mm.elementList()) {
@@ -488,8 +946,8 @@ public final class Generator {
                         cb.localVariable(0, "this", thisType, cb.startLabel(), cb.endLabel());
                         paramSlot = 1;
                     }
-                    for (int i = 0; i < paramCnt; i++) {
-                        ClassDesc paramType = mtd.parameterType(i);
+                    for (int i = 0; i < callMtd.parameterCount(); i++) {
+                        ClassDesc paramType = callMtd.parameterType(i);
                         final MethodParameterInfo param = parameters.get(i);
                         if (param.name().isPresent()) {
                             cb.localVariable(paramSlot, param.name().get().stringValue(), paramType, cb.startLabel(),
@@ -498,103 +956,1330 @@ public final class Generator {
                         paramSlot += TypeKind.from(paramType).slotSize();
                     }
                 });
-                steps.getFirst().call(cb, steps, 0);
+                if (delegateBootstrap == null) {
+                    emitCall(cb, spec, steps, copySteps, threshold);
+                } else {
+                    int slot = mm.flags().has(AccessFlag.STATIC) ? 0 : 1;
+                    for (ClassDesc paramType : callMtd.parameterList()) {
+                        TypeKind kind = TypeKind.from(paramType);
+                        cb.loadLocal(kind, slot);
+                        slot += kind.slotSize();
+                    }
+                    cb.invokedynamic(DynamicCallSiteDesc.of(
+                            delegateBootstrap,
+                            "_",
+                            callMtd,
+                            delegateArgs.toArray(ConstantDesc[]::new)));
+                    cb.return_(TypeKind.from(callMtd.returnType()));
+                }
             });
         });
         return true;
     }
 
-    private static List<String> readLibAnnotation(final Annotation annotation) {
-        String val = null;
-        for (AnnotationElement element : annotation.elements()) {
-            AnnotationValue value = element.value();
-            switch (element.name().stringValue()) {
-                case "value" -> {
-                    if (value instanceof AnnotationValue.OfString os) {
-                        val = os.stringValue();
-                    }
+    /**
+     * Emit the body of a linked method from its call steps.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param spec the link specification (must not be {@code null})
+     * @param steps the call steps (must not be {@code null})
+     * @param copySteps the call steps to use when the heap threshold is exceeded, or {@code null} for none
+     * @param heapThreshold the heap threshold
+     */
+    private static void emitCall(final CodeBuilder cb, final LinkSpec spec, final List<Step> steps,
+            final List<Step> copySteps, final long heapThreshold) {
+        if (copySteps == null) {
+            steps.getFirst().call(cb, steps, 0);
+        } else {
+            Label copy = cb.newLabel();
+            branchIfHeapThresholdExceeded(cb, spec, heapThreshold, copy);
+            steps.getFirst().call(cb, steps, 0);
+            cb.labelBinding(copy);
+            copySteps.getFirst().call(cb, copySteps, 0);
+        }
+    }
+
+    /**
+     * Read the result type of an asynchronous method from the type argument of its {@code CompletableFuture}
+     * return type.
+     *
+     * @param mm the method (must not be {@code null})
+     * @return the Java type of the native result, which is {@code void} for {@code Void} (not {@code null})
+     */
+    private static ClassDesc readAsyncResult(final MethodModel mm) {
+        String signature = mm.findAttribute(Attributes.signature())
+                .map(sa -> sa.signature().stringValue())
+                .orElse("");
+        String prefix = ")Ljava/util/concurrent/CompletableFuture<";
+        int start = signature.indexOf(prefix);
+        int end = start == -1 ? -1 : signature.indexOf('>', start);
+        String typeArg = end == -1 ? "" : signature.substring(start + prefix.length(), end);
+        return switch (typeArg) {
+            case "Ljava/lang/Void;" -> CD_void;
+            case "Ljava/lang/Boolean;" -> CD_boolean;
+            case "Ljava/lang/Byte;" -> CD_byte;
+            case "Ljava/lang/Short;" -> CD_short;
+            case "Ljava/lang/Character;" -> CD_char;
+            case "Ljava/lang/Integer;" -> CD_int;
+            case "Ljava/lang/Long;" -> CD_long;
+            case "Ljava/lang/Float;" -> CD_float;
+            case "Ljava/lang/Double;" -> CD_double;
+            case "Ljava/lang/foreign/MemorySegment;" -> CD_MemorySegment;
+            default -> throw new IllegalArgumentException("Asynchronous methods must return a CompletableFuture"
+                    + " of Void, a primitive wrapper type, or MemorySegment");
+        };
+    }
+
+    /**
+     * Find the length parameter of a chunked method, which is the {@code int} or {@code long} parameter
+     * annotated with {@code @Chunked.Length}.
+     *
+     * @param mtd the type of the chunk method (must not be {@code null})
+     * @param paListList the parameter annotations of the chunk method (must not be {@code null})
+     * @return the index of the length parameter
+     */
+    private static int findChunkLength(final MethodTypeDesc mtd, final List<List<Annotation>> paListList) {
+        int annOffs = mtd.parameterCount() - paListList.size();
+        int lengthIdx = -1;
+        for (int i = annOffs; i < mtd.parameterCount(); i++) {
+            if (hasAnnotation(paListList.get(i - annOffs), "Lio/smallrye/ffm/Chunked$Length;")) {
+                if (lengthIdx != -1) {
+                    throw new IllegalArgumentException("Multiple @Chunked.Length parameters not allowed");
                 }
+                if (!mtd.parameterType(i).equals(CD_int) && !mtd.parameterType(i).equals(CD_long)) {
+                    throw new IllegalArgumentException("@Chunked.Length parameters must be of type int or long");
+                }
+                lengthIdx = i;
             }
         }
-        return val == null ? List.of() : List.of(val);
+        if (lengthIdx == -1) {
+            throw new IllegalArgumentException("Chunked methods must have a @Chunked.Length parameter");
+        }
+        return lengthIdx;
     }
 
-    private static List<String> readLibListAnnotation(final Annotation annotation) {
-        List<String> libs = List.of();
-        for (AnnotationElement element : annotation.elements()) {
-            AnnotationValue value = element.value();
-            switch (element.name().stringValue()) {
-                case "value" -> {
-                    if (value instanceof AnnotationValue.OfArray oa) {
-                        libs = new ArrayList<>(oa.values().size());
-                        for (AnnotationValue subValue : oa.values()) {
-                            if (subValue instanceof AnnotationValue.OfAnnotation oa2) {
-                                Annotation subAnnotation = oa2.annotation();
-                                switch (subAnnotation.className().stringValue()) {
-                                    case "Lio/smallrye/ffm/Lib;" -> libs.addAll(readLibAnnotation(annotation));
+    /**
+     * Find the segment parameters of a chunked method which are sliced for each chunk, which are those
+     * annotated with {@code @Chunked.Slice}.
+     *
+     * @param mtd the type of the chunk method (must not be {@code null})
+     * @param paListList the parameter annotations of the chunk method (must not be {@code null})
+     * @return the bit set of the indices of the sliced parameters
+     */
+    private static long findChunkSlices(final MethodTypeDesc mtd, final List<List<Annotation>> paListList) {
+        int annOffs = mtd.parameterCount() - paListList.size();
+        long slices = 0;
+        for (int i = annOffs; i < mtd.parameterCount(); i++) {
+            if (hasAnnotation(paListList.get(i - annOffs), "Lio/smallrye/ffm/Chunked$Slice;")) {
+                if (!mtd.parameterType(i).equals(CD_MemorySegment)) {
+                    throw new IllegalArgumentException(
+                            "@Chunked.Slice parameters must be of type java.lang.foreign.MemorySegment");
+                }
+                if (i >= Long.SIZE) {
+                    throw new IllegalArgumentException("Too many parameters for @Chunked.Slice");
+                }
+                slices |= 1L << i;
+            }
+        }
+        if (slices == 0) {
+            throw new IllegalArgumentException("Chunked methods must have at least one @Chunked.Slice parameter");
+        }
+        return slices;
+    }
+
+    private static boolean hasAnnotation(final List<Annotation> annotations, final String descriptor) {
+        for (Annotation annotation : annotations) {
+            if (annotation.className().equalsString(descriptor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the combiner method of a chunked method.
+     *
+     * @param cm the class containing the method (must not be {@code null})
+     * @param combiner the name of the combiner method, or an empty string for none (must not be {@code null})
+     * @param returnType the return type of the chunked method (must not be {@code null})
+     * @return the method handle of the combiner, or {@code null} if there is none
+     */
+    private static ConstantDesc readCombiner(final ClassModel cm, final String combiner, final ClassDesc returnType) {
+        if (returnType.equals(CD_void)) {
+            if (!combiner.isEmpty()) {
+                throw new IllegalArgumentException("Chunked methods which return void cannot have a combiner");
+            }
+            return null;
+        }
+        if (combiner.isEmpty()) {
+            throw new IllegalArgumentException("Chunked methods which return a value must have a combiner");
+        }
+        MethodTypeDesc combinerType = MethodTypeDesc.of(returnType, returnType, returnType);
+        for (MethodModel mm : cm.methods()) {
+            if (mm.methodName().equalsString(combiner) && mm.methodTypeSymbol().equals(combinerType)
+                    && mm.flags().has(AccessFlag.STATIC)) {
+                return MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, cm.thisClass().asSymbol(), combiner,
+                        combinerType);
+            }
+        }
+        throw new IllegalArgumentException("No static combiner method " + combiner + combinerType.descriptorString()
+                + " found in " + cm.thisClass().asSymbol().displayName());
+    }
+
+    /**
+     * The parsed specification of a native method to link, which is used to build the call steps.
+     *
+     * @param mtd the method type (must not be {@code null})
+     * @param paListList the parameter annotations (must not be {@code null})
+     * @param varOffs the slot of the first method parameter
+     * @param name the name of the symbol to link, or {@code null} if the method dispatches on its first argument
+     * @param libs the library search order (must not be {@code null})
+     * @param dispatch {@code true} if the method dispatches on its first argument
+     * @param variadic the method-level variadic indicator
+     * @param retAsType the native return type name (must not be {@code null})
+     * @param outputCharset the character set of the return value, or {@code null} for the default
+     * @param outputMaxLength the maximum length of the returned string, or {@code -1} for no maximum
+     * @param outputIntern {@code true} if the returned string should be interned
+     * @param outputWide {@code true} if the returned string is a wide ({@code wchar_t}) string
+     * @param outComponents the components of the returned output record, or {@code null} if the method does not
+     *        return an output record
+     * @param paramStructs the structure of each parameter (or of its {@code @Return} annotation), or {@code null}
+     *        for parameters which are not structures (must not be {@code null})
+     * @param returnStruct the structure of the return type, or {@code null} if the method does not return a structure
+     * @param paramCallbacks the upcall stub cache constant of each callback parameter, or {@code null}
+     *        for parameters which are not callbacks (must not be {@code null})
+     * @param asyncResult the type of the result of an asynchronous method, or {@code null} if the method
+     *        is not asynchronous
+     */
+    record LinkSpec(MethodTypeDesc mtd, List<List<Annotation>> paListList, int varOffs, String name, List<String> libs,
+            boolean dispatch, int variadic, String retAsType, String outputCharset, long outputMaxLength,
+            boolean outputIntern, boolean outputWide, List<OutComponent> outComponents, List<StructInfo> paramStructs,
+            StructInfo returnStruct, List<ConstantDesc> paramCallbacks, ClassDesc asyncResult) {
+    }
+
+    /**
+     * A component of an output record.
+     *
+     * @param type the component type (must not be {@code null})
+     * @param asType the native type name (must not be {@code null})
+     * @param ret {@code true} if the component receives the return value, or {@code false} if it is
+     *        passed as a pointer to a native scalar
+     * @param before the index of the method parameter which the pointer precedes, or {@code -1} to pass it
+     *        after all of the parameters
+     */
+    record OutComponent(ClassDesc type, String asType, boolean ret, int before) {
+    }
+
+    /**
+     * Read the components of an output record from its canonical constructor.
+     *
+     * @param recordType the record type (must not be {@code null})
+     * @param resolver the class resolver (must not be {@code null})
+     * @return the components of the record (not {@code null})
+     */
+    private static List<OutComponent> readOutRecord(final ClassDesc recordType,
+            final Function<ClassDesc, ClassModel> resolver) {
+        if (!recordType.isClassOrInterface()) {
+            throw new IllegalArgumentException("Methods annotated with @Out must return a record type");
+        }
+        ClassModel rm = resolver.apply(recordType);
+        if (rm == null) {
+            throw new IllegalArgumentException("Cannot find output record class " + recordType.displayName()
+                    + " (it must be compiled together with the native method)");
+        }
+        List<RecordComponentInfo> components = rm.findAttribute(Attributes.record())
+                .map(RecordAttribute::components)
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Return type " + recordType.displayName() + " of method annotated with @Out is not a record"));
+        int cnt = components.size();
+        List<List<Annotation>> annotations = componentAnnotations(rm, recordType, components);
+        List<OutComponent> list = new ArrayList<>(cnt);
+        boolean hasReturn = false;
+        for (int i = 0; i < cnt; i++) {
+            ClassDesc type = components.get(i).descriptorSymbol();
+            if (type.isArray() || type.equals(CD_String)) {
+                throw new IllegalArgumentException("Invalid type " + type.displayName() + " for output record component "
+                        + components.get(i).name().stringValue());
+            }
+            String asType = defaultAsType(type);
+            boolean ret = false;
+            int before = -1;
+            for (Annotation annotation : annotations.get(i)) {
+                switch (annotation.className().stringValue()) {
+                    case "Lio/smallrye/ffm/As;" -> {
+                        loop: for (AnnotationElement element : annotation.elements()) {
+                            AnnotationValue value = element.value();
+                            switch (element.name().stringValue()) {
+                                case "value" -> {
+                                    if (value instanceof AnnotationValue.OfEnum oe) {
+                                        asType = oe.constantName().stringValue();
+                                    }
+                                    break loop;
+                                }
+                            }
+                        }
+                    }
+                    case "Lio/smallrye/ffm/Return;" -> {
+                        if (hasReturn) {
+                            throw new IllegalArgumentException("Multiple @Return components not allowed");
+                        }
+                        hasReturn = ret = true;
+                    }
+                    case "Lio/smallrye/ffm/Out$Before;" -> {
+                        for (AnnotationElement element : annotation.elements()) {
+                            AnnotationValue value = element.value();
+                            switch (element.name().stringValue()) {
+                                case "value" -> {
+                                    if (value instanceof AnnotationValue.OfInt oi) {
+                                        before = oi.intValue();
+                                    }
                                 }
                             }
                         }
+                        if (before < 0) {
+                            throw new IllegalArgumentException("Invalid parameter index " + before
+                                    + " for output record component " + components.get(i).name().stringValue());
+                        }
                     }
                 }
             }
+            if (asType.equals("void_")) {
+                throw new IllegalArgumentException("Invalid native type for output record component "
+                        + components.get(i).name().stringValue());
+            }
+            if (ret && before != -1) {
+                throw new IllegalArgumentException("Output record component " + components.get(i).name().stringValue()
+                        + " cannot have both @Return and @Out.Before");
+            }
+            list.add(new OutComponent(type, asType, ret, before));
         }
-        return List.copyOf(libs);
+        return List.copyOf(list);
     }
 
-    private static IllegalArgumentException firstDispatchArgViolation() {
-        return new IllegalArgumentException("First argument of @Dispatch must be the function pointer with no annotations");
+    /**
+     * Get the annotations of each component of a record.
+     * Component annotations are propagated to the parameters of the canonical constructor, so they are read from there.
+     *
+     * @param rm the record class model (must not be {@code null})
+     * @param recordType the record type (must not be {@code null})
+     * @param components the record components (must not be {@code null})
+     * @return the list of annotations for each component (not {@code null})
+     */
+    private static List<List<Annotation>> componentAnnotations(final ClassModel rm, final ClassDesc recordType,
+            final List<RecordComponentInfo> components) {
+        int cnt = components.size();
+        MethodTypeDesc ctorType = MethodTypeDesc.of(CD_void,
+                components.stream().map(RecordComponentInfo::descriptorSymbol).toArray(ClassDesc[]::new));
+        MethodModel ctor = rm.methods().stream()
+                .filter(m -> m.methodName().equalsString(INIT_NAME) && m.methodTypeSymbol().equals(ctorType))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "No canonical constructor found for record " + recordType.displayName()));
+        List<List<Annotation>> paListList = ctor
+                .findAttribute(Attributes.runtimeInvisibleParameterAnnotations())
+                .map(RuntimeInvisibleParameterAnnotationsAttribute::parameterAnnotations)
+                .orElse(List.of());
+        int annOffs = cnt - paListList.size();
+        List<List<Annotation>> list = new ArrayList<>(cnt);
+        for (int i = 0; i < cnt; i++) {
+            list.add(i < annOffs ? List.of() : paListList.get(i - annOffs));
+        }
+        return list;
     }
 
-    private static String defaultAsType(final ClassDesc classDesc) {
-        return switch (classDesc.descriptorString()) {
-            case "B" -> "s8";
-            case "C" -> "u16";
-            case "D" -> "f64";
-            case "F" -> "f32";
-            case "J" -> "s64";
-            case "S" -> "s16";
-            case "Z" -> "stdc_bool";
-            case "Ljava/lang/foreign/MemorySegment;", "[B", "[C", "[D", "[F", "[I", "[J", "[S", "Ljava/lang/String;" -> "ptr";
-            default -> "s32";
-        };
+    /**
+     * A record type which is mapped to a native structure.
+     *
+     * @param type the record type (must not be {@code null})
+     * @param members the members of the structure, in order (must not be {@code null})
+     */
+    record StructInfo(ClassDesc type, List<StructMember> members) {
     }
 
-    private static final ClassDesc CD_Arena = ClassDesc.of(Arena.class.getName());
-    private static final ClassDesc CD_Bootstraps = ClassDesc.of("io.smallrye.ffm.Bootstraps");
-    private static final ClassDesc CD_Charset = ClassDesc.of(Charset.class.getName());
-    private static final ClassDesc CD_Errno = ClassDesc.of("io.smallrye.ffm.Errno");
-    private static final ClassDesc CD_ErrnoConsumer = ClassDesc.of("io.smallrye.ffm.ErrnoConsumer");
-    private static final ClassDesc CD_LastErrorConsumer = ClassDesc.of("io.smallrye.ffm.LastErrorConsumer");
-    private static final ClassDesc CD_Linker_Option = ClassDesc.of(Linker.Option.class.getName());
-    private static final ClassDesc CD_MemoryLayout = ClassDesc.of(MemoryLayout.class.getName());
-    private static final ClassDesc CD_MemorySegment = ClassDesc.of(MemorySegment.class.getName());
-    private static final ClassDesc CD_SegmentAllocator = ClassDesc.of(SegmentAllocator.class.getName());
-    private static final ClassDesc CD_StructLayout = ClassDesc.of(StructLayout.class.getName());
-    private static final ClassDesc CD_SymbolLookup = ClassDesc.of(SymbolLookup.class.getName());
-    private static final ClassDesc CD_ValueLayout = ClassDesc.of(ValueLayout.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfByte = ClassDesc.of(ValueLayout.OfByte.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfChar = ClassDesc.of(ValueLayout.OfChar.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfDouble = ClassDesc.of(ValueLayout.OfDouble.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfFloat = ClassDesc.of(ValueLayout.OfFloat.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfInt = ClassDesc.of(ValueLayout.OfInt.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfLong = ClassDesc.of(ValueLayout.OfLong.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfShort = ClassDesc.of(ValueLayout.OfShort.class.getName());
-    private static final ClassDesc CD_ValueLayout_OfBoolean = ClassDesc.of(ValueLayout.OfBoolean.class.getName());
-    private static final ClassDesc CD_AddressLayout = ClassDesc.of("java.lang.foreign.AddressLayout");
-    private static final ClassDesc CD_MemorySegmentArray = CD_MemorySegment.arrayType();
-    private static final ClassDesc CD_WSALastErrorConsumer = ClassDesc.of("io.smallrye.ffm.WSALastErrorConsumer");
+    /**
+     * A member of a native structure.
+     *
+     * @param name the name of the record component (must not be {@code null})
+     * @param type the type of the record component (must not be {@code null})
+     * @param asType the native type name, or {@code null} if the member is a nested structure
+     * @param nested the nested structure, or {@code null} if the member is a scalar
+     */
+    record StructMember(String name, ClassDesc type, String asType, StructInfo nested) {
+    }
 
-    private static final DirectMethodHandleDesc CD_Bootstraps_autoArena = ofConstantBootstrap(
-            CD_Bootstraps,
-            "autoArena",
-            CD_Arena);
-    private static final DirectMethodHandleDesc CD_Bootstraps_callStateHandle = ofConstantBootstrap(
-            CD_Bootstraps,
-            "callStateHandle",
-            CD_VarHandle);
-    private static final DirectMethodHandleDesc CD_Bootstraps_charset = ofConstantBootstrap(
-            CD_Bootstraps,
+    /**
+     * Get the upcall stub cache constant for the given type, if it is an interface annotated with {@code @Callback}.
+     *
+     * @param type the type (must not be {@code null})
+     * @param resolver the class resolver (must not be {@code null})
+     * @return the upcall stub cache constant, or {@code null} if the type is not a callback interface
+     */
+    private static ConstantDesc readCallback(final ClassDesc type, final Function<ClassDesc, ClassModel> resolver) {
+        if (!type.isClassOrInterface()) {
+            return null;
+        }
+        String typeDesc = type.descriptorString();
+        if (typeDesc.startsWith("Ljava/") || typeDesc.startsWith("Lio/smallrye/ffm/")) {
+            return null;
+        }
+        ClassModel im = resolver.apply(type);
+        if (im == null || im.findAttribute(Attributes.runtimeInvisibleAnnotations())
+                .map(RuntimeInvisibleAnnotationsAttribute::annotations)
+                .orElse(List.of())
+                .stream()
+                .noneMatch(a -> a.className().equalsString("Lio/smallrye/ffm/Callback;"))) {
+            return null;
+        }
+        if (!im.flags().has(AccessFlag.INTERFACE)) {
+            throw new IllegalArgumentException("Type " + type.displayName() + " annotated with @Callback is not an interface");
+        }
+        List<MethodModel> abstractMethods = im.methods().stream()
+                .filter(m -> m.flags().has(AccessFlag.ABSTRACT))
+                .toList();
+        if (abstractMethods.size() != 1) {
+            throw new IllegalArgumentException("Callback interface " + type.displayName()
+                    + " must have exactly one abstract method");
+        }
+        MethodModel sam = abstractMethods.getFirst();
+        MethodTypeDesc samType = sam.methodTypeSymbol();
+        String samName = sam.methodName().stringValue();
+        List<List<Annotation>> paListList = sam
+                .findAttribute(Attributes.runtimeInvisibleParameterAnnotations())
+                .map(RuntimeInvisibleParameterAnnotationsAttribute::parameterAnnotations)
+                .orElse(List.of());
+        int annOffs = samType.parameterCount() - paListList.size();
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < samType.parameterCount(); i++) {
+            ClassDesc paramType = samType.parameterType(i);
+            if (!paramType.isPrimitive() && !paramType.equals(CD_MemorySegment)) {
+                throw new IllegalArgumentException("Invalid type " + paramType.displayName() + " for parameter " + i
+                        + " of callback " + type.displayName() + "." + samName);
+            }
+            sb.append(asTypeToDesc(readAsType(i < annOffs ? List.of() : paListList.get(i - annOffs),
+                    defaultAsType(paramType))));
+        }
+        sb.append(')');
+        ClassDesc returnType = samType.returnType();
+        if (returnType.equals(CD_void)) {
+            sb.append('V');
+        } else if (returnType.isPrimitive() || returnType.equals(CD_MemorySegment)) {
+            sb.append(asTypeToDesc(readAsType(sam.findAttribute(Attributes.runtimeInvisibleAnnotations())
+                    .map(RuntimeInvisibleAnnotationsAttribute::annotations)
+                    .orElse(List.of()), defaultAsType(returnType))));
+        } else {
+            throw new IllegalArgumentException("Invalid return type " + returnType.displayName() + " for callback "
+                    + type.displayName() + "." + samName);
+        }
+        return DynamicConstantDesc.ofNamed(
+                CD_Bootstraps_upcallStubs,
+                sb.toString(),
+                CD_UpcallStubs,
+                MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL, type, samName, samType));
+    }
+
+    /**
+     * Get the native type given by an {@code @As} annotation in the given list, if any.
+     *
+     * @param annotations the annotations (must not be {@code null})
+     * @param defaultAsType the native type to use if there is no {@code @As} annotation (must not be {@code null})
+     * @return the native type name (not {@code null})
+     */
+    private static String readAsType(final List<Annotation> annotations, final String defaultAsType) {
+        String asType = defaultAsType;
+        for (Annotation annotation : annotations) {
+            switch (annotation.className().stringValue()) {
+                case "Lio/smallrye/ffm/As;" -> {
+                    loop: for (AnnotationElement element : annotation.elements()) {
+                        AnnotationValue value = element.value();
+                        switch (element.name().stringValue()) {
+                            case "value" -> {
+                                if (value instanceof AnnotationValue.OfEnum oe) {
+                                    asType = oe.constantName().stringValue();
+                                }
+                                break loop;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (asType.equals("void_")) {
+            throw new IllegalArgumentException("Invalid native type " + asType);
+        }
+        return asType;
+    }
+
+    /**
+     * Read the structure information of the given type, if it is a record annotated with {@code @Struct}.
+     *
+     * @param type the type (must not be {@code null})
+     * @param resolver the class resolver (must not be {@code null})
+     * @return the structure information, or {@code null} if the type is not a structure record
+     */
+    private static StructInfo readStruct(final ClassDesc type, final Function<ClassDesc, ClassModel> resolver) {
+        if (!type.isClassOrInterface()) {
+            return null;
+        }
+        String desc = type.descriptorString();
+        if (desc.startsWith("Ljava/") || desc.startsWith("Lio/smallrye/ffm/")) {
+            return null;
+        }
+        ClassModel rm = resolver.apply(type);
+        if (rm == null || rm.findAttribute(Attributes.runtimeInvisibleAnnotations())
+                .map(RuntimeInvisibleAnnotationsAttribute::annotations)
+                .orElse(List.of())
+                .stream()
+                .noneMatch(a -> a.className().equalsString("Lio/smallrye/ffm/Struct;"))) {
+            return null;
+        }
+        List<RecordComponentInfo> components = rm.findAttribute(Attributes.record())
+                .map(RecordAttribute::components)
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Type " + type.displayName() + " annotated with @Struct is not a record"));
+        if (components.isEmpty()) {
+            throw new IllegalArgumentException("Structure record " + type.displayName() + " has no components");
+        }
+        List<List<Annotation>> annotations = componentAnnotations(rm, type, components);
+        List<StructMember> members = new ArrayList<>(components.size());
+        for (int i = 0; i < components.size(); i++) {
+            String name = components.get(i).name().stringValue();
+            ClassDesc memberType = components.get(i).descriptorSymbol();
+            StructInfo nested = readStruct(memberType, resolver);
+            if (nested != null) {
+                members.add(new StructMember(name, memberType, null, nested));
+            } else if (memberType.isPrimitive() || memberType.equals(CD_MemorySegment)) {
+                String asType = defaultAsType(memberType);
+                for (Annotation annotation : annotations.get(i)) {
+                    switch (annotation.className().stringValue()) {
+                        case "Lio/smallrye/ffm/As;" -> {
+                            loop: for (AnnotationElement element : annotation.elements()) {
+                                AnnotationValue value = element.value();
+                                switch (element.name().stringValue()) {
+                                    case "value" -> {
+                                        if (value instanceof AnnotationValue.OfEnum oe) {
+                                            asType = oe.constantName().stringValue();
+                                        }
+                                        break loop;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                if (asType.equals("void_")) {
+                    throw new IllegalArgumentException("Invalid native type for structure member " + name);
+                }
+                members.add(new StructMember(name, memberType, asType, null));
+            } else {
+                throw new IllegalArgumentException("Invalid type " + memberType.displayName() + " for structure member "
+                        + name + " of " + type.displayName());
+            }
+        }
+        return new StructInfo(type, List.copyOf(members));
+    }
+
+    private static List<Step> buildSteps(final LinkSpec spec, final boolean critical, final boolean heap,
+            final boolean adaptive) {
+        MethodTypeDesc mtd = spec.mtd();
+        int paramCnt = mtd.parameterCount();
+        List<List<Annotation>> paListList = spec.paListList();
+        int annOffs = paramCnt - paListList.size();
+        boolean dispatch = spec.dispatch();
+        int variadic = spec.variadic();
+        boolean async = spec.asyncResult() != null;
+
+        Compilers compilers = new Compilers();
+        List<Step> steps = new ArrayList<>(paramCnt * 2);
+
+        // LV indexes
+        int capture = -1;
+        int returnSlot = -1;
+        StructInfo returnStruct = spec.returnStruct();
+
+        // handle return right away
+        steps.add(new ReturnStep(spec.retAsType(), mtd.returnType()));
+        if (spec.name() != null) {
+            // resolve the symbol
+            steps.add(new ResolvedSymbolStep(spec.name(), spec.libs()));
+        }
+        if (critical || heap) {
+            steps.add(new CriticalStep(heap, adaptive));
+        }
+        int insertionPoint = steps.size();
+        int slot = spec.varOffs();
+        OutRecordStep outRecordStep = spec.outComponents() == null ? null
+                : new OutRecordStep(compilers, mtd.returnType(), spec.outComponents(), paramCnt);
+        for (int i = 0; i < paramCnt; i++) {
+            if (outRecordStep != null) {
+                // output pointers which precede this parameter
+                if (dispatch && i == 0 && outRecordStep.hasPointersBefore(0)) {
+                    throw firstDispatchArgViolation();
+                }
+                outRecordStep.addPointerSteps(steps, i);
+            }
+            List<Annotation> annotations = i < annOffs ? List.of() : paListList.get(i);
+            boolean in = false, out = false;
+            boolean advance = false, advanceElements = false;
+            boolean ioVec = false;
+            boolean intern = false;
+            boolean bigEndian = false;
+            boolean returnBuffer = false;
+            String charset = null;
+            String asType = defaultAsType(mtd.parameterType(i));
+            // first check annotations
+            for (Annotation annotation : annotations) {
+                switch (annotation.className().stringValue()) {
+                    case "Lio/smallrye/ffm/As;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        // explicit type
+                        loop: for (AnnotationElement element : annotation.elements()) {
+                            AnnotationValue value = element.value();
+                            switch (element.name().stringValue()) {
+                                case "value" -> {
+                                    if (value instanceof AnnotationValue.OfEnum oe) {
+                                        asType = oe.constantName().stringValue();
+                                    }
+                                    break loop;
+                                }
+                            }
+                        }
+                    }
+                    case "Lio/smallrye/ffm/AsCharset;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        loop: for (AnnotationElement element : annotation.elements()) {
+                            AnnotationValue value = element.value();
+                            switch (element.name().stringValue()) {
+                                case "value" -> {
+                                    if (value instanceof AnnotationValue.OfString os) {
+                                        charset = os.stringValue();
+                                    }
+                                    break loop;
+                                }
+                            }
+                        }
+                    }
+                    // explicit copy-in policy
+                    case "Lio/smallrye/ffm/In;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        in = true;
+                    }
+                    // explicit copy-out policy
+                    case "Lio/smallrye/ffm/Out;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        out = true;
+                    }
+                    case "Lio/smallrye/ffm/Intern;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        intern = true;
+                    }
+                    case "Lio/smallrye/ffm/IoVec;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        ioVec = true;
+                    }
+                    case "Lio/smallrye/ffm/BigEndian;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        bigEndian = true;
+                    }
+                    case "Lio/smallrye/ffm/Return;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        returnBuffer = true;
+                    }
+                    case "Lio/smallrye/ffm/Advance;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        advance = true;
+                        for (AnnotationElement element : annotation.elements()) {
+                            AnnotationValue value = element.value();
+                            switch (element.name().stringValue()) {
+                                case "elements" -> {
+                                    if (value instanceof AnnotationValue.OfBoolean ob) {
+                                        advanceElements = ob.booleanValue();
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    case "Lio/smallrye/ffm/Variadic;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        if (variadic == -1) {
+                            variadic = i;
+                        } else {
+                            throw new IllegalArgumentException("Multiple variadic annotations not allowed");
+                        }
+                    }
+                    case "Lio/smallrye/ffm/Capture;" -> {
+                        if (dispatch && i == 0) {
+                            throw firstDispatchArgViolation();
+                        }
+                        if (capture == -1) {
+                            capture = i;
+                        } else {
+                            throw new IllegalArgumentException("Multiple capture annotations not allowed");
+                        }
+                        for (AnnotationElement element : annotation.elements()) {
+                            AnnotationValue value = element.value();
+                            switch (element.name().stringValue()) {
+                                case "errno" -> {
+                                    if (value instanceof AnnotationValue.OfBoolean ob) {
+                                        compilers.errno |= ob.booleanValue();
+                                    }
+                                }
+                                case "lastError" -> {
+                                    if (value instanceof AnnotationValue.OfBoolean ob) {
+                                        compilers.lastError |= ob.booleanValue();
+                                    }
+                                }
+                                case "wsaLastError" -> {
+                                    if (value instanceof AnnotationValue.OfBoolean ob) {
+                                        compilers.wsaLastError |= ob.booleanValue();
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            if (dispatch && i == 0) {
+                if (mtd.parameterType(i).descriptorString().equals("Ljava/lang/foreign/MemorySegment;")) {
+                    steps.add(new UserSymbolStep(i));
+                    slot++;
+                    continue;
+                } else {
+                    throw firstDispatchArgViolation();
+                }
+            }
+            if (capture == i) {
+                if (mtd.parameterType(i).descriptorString().equals("Ljava/lang/foreign/MemorySegment;")) {
+                    compilers.captureStep = new UserProvidedCaptureStep(compilers, slot++);
+                    continue;
+                } else {
+                    throw new IllegalArgumentException(
+                            "Invalid type for capture parameter (must be interface java.lang.foreign.MemorySegment");
+                }
+            }
+            if (returnBuffer) {
+                if (mtd.parameterType(i).equals(CD_MemorySegment)) {
+                    // the buffer is given to the downcall as its allocator instead
+                    returnSlot = slot++;
+                    returnStruct = spec.paramStructs().get(i);
+                    continue;
+                } else {
+                    throw new IllegalArgumentException(
+                            "Invalid type for @Return parameter (must be interface java.lang.foreign.MemorySegment");
+                }
+            }
+            ConstantDesc callback = spec.paramCallbacks().get(i);
+            if (callback != null) {
+                if (async) {
+                    throw new IllegalArgumentException("Asynchronous methods cannot have callback parameters");
+                }
+                steps.add(new CallbackArgumentStep(callback, slot));
+                slot++;
+                continue;
+            }
+            StructInfo struct = spec.paramStructs().get(i);
+            if (struct != null) {
+                if (compilers.allocatorStep == null) {
+                    compilers.allocatorStep = new OnDemandArenaStep();
+                }
+                ConstantDesc layout = structLayoutDesc(struct, "_");
+                compilers.structLayouts.add(layout);
+                steps.add(new StructArgumentStep(compilers, struct, layout, slot));
+                slot++;
+                continue;
+            }
+            // wide strings are passed as pointers
+            boolean wide = asType.equals("stdc_wchar_t") && (mtd.parameterType(i).equals(CD_String)
+                    || mtd.parameterType(i).equals(CD_CharSequence) || mtd.parameterType(i).equals(CD_char.arrayType()));
+            if (wide && (charset != null || intern)) {
+                throw new IllegalArgumentException("Wide string parameters cannot have @AsCharset or @Intern");
+            }
+            // string arrays and encoded character arrays are input-only by default
+            boolean encodedChars = (charset != null || wide) && mtd.parameterType(i).equals(CD_char.arrayType());
+            boolean inOnlyByDefault = encodedChars
+                    || mtd.parameterType(i).descriptorString().equals("[Ljava/lang/String;");
+            // asynchronous calls complete after the method returns, so nothing can be copied back
+            if (async && (out || advance)) {
+                throw new IllegalArgumentException("Parameters of asynchronous methods cannot be @Out or @Advance");
+            }
+            if (!in && !out) {
+                in = true;
+                out = !inOnlyByDefault && !async;
+            }
+            int bufferShift = bufferElementShift(mtd.parameterType(i));
+            boolean bufferArray = mtd.parameterType(i).descriptorString().equals("[Ljava/nio/ByteBuffer;");
+            if (advance && bufferShift == -1 && !(ioVec && bufferArray)) {
+                throw new IllegalArgumentException("@Advance is only allowed on buffer and @IoVec buffer array parameters");
+            }
+            if (ioVec && !bufferArray && !mtd.parameterType(i).equals(CD_MemorySegmentArray)) {
+                throw new IllegalArgumentException("@IoVec is only allowed on segment array and buffer array parameters");
+            }
+            if (intern && !mtd.parameterType(i).equals(CD_String)) {
+                throw new IllegalArgumentException("@Intern is only allowed on string parameters");
+            }
+            if (encodedChars && out) {
+                throw new IllegalArgumentException("Encoded character array parameters cannot be @Out");
+            }
+            // primitive arrays with a different native element type or byte order are converted
+            boolean primArray = mtd.parameterType(i).isArray() && mtd.parameterType(i).componentType().isPrimitive()
+                    && !mtd.parameterType(i).equals(CD_boolean.arrayType());
+            boolean converted = primArray && !encodedChars && (bigEndian || !asType.equals("ptr"));
+            if (bigEndian && !primArray) {
+                throw new IllegalArgumentException("@BigEndian is only allowed on primitive array parameters");
+            }
+            if (converted) {
+                boolean floating = switch (mtd.parameterType(i).componentType().descriptorString()) {
+                    case "F", "D" -> true;
+                    default -> false;
+                };
+                boolean validType = switch (asType) {
+                    case "ptr" -> true;
+                    case "f32", "f64" -> floating;
+                    case "stdc_bool", "void_" -> false;
+                    default -> !floating;
+                };
+                if (!validType) {
+                    throw new IllegalArgumentException("Invalid element type " + asType + " for array parameter of type "
+                            + mtd.parameterType(i).displayName());
+                }
+            }
+            // now examine the parameter itself
+            switch (mtd.parameterType(i).descriptorString()) {
+                case "[B", "[C", "[D", "[F", "[I", "[J", "[S" -> {
+                    if (encodedChars) {
+                        if (compilers.allocatorStep == null || compilers.allocatorStep instanceof OnDemandArenaStep) {
+                            compilers.allocatorStep = new AlwaysArenaStep();
+                        }
+                        steps.add(new StringArgumentStep(compilers, mtd.parameterType(i), slot, charset, wide));
+                    } else if (converted) {
+                        if (compilers.allocatorStep == null) {
+                            compilers.allocatorStep = new OnDemandArenaStep();
+                        }
+                        // with only a byte order, the element type is the Java type
+                        String elementType = asType.equals("ptr")
+                                ? defaultArrayElementType(mtd.parameterType(i).componentType())
+                                : asType;
+                        steps.add(new ConvertingArrayArgumentStep(compilers, mtd.parameterType(i), elementType, bigEndian,
+                                slot, in, out));
+                    } else if (heap) {
+                        steps.add(new SimpleArgumentStep(mtd.parameterType(i), asType, slot));
+                    } else {
+                        if (compilers.allocatorStep == null) {
+                            compilers.allocatorStep = new OnDemandArenaStep();
+                        }
+                        steps.add(new PrimitiveArrayArgumentCopyStep(compilers, mtd.parameterType(i), slot, in, out));
+                    }
+                }
+                case "Ljava/lang/foreign/MemorySegment;" -> {
+                    if (heap) {
+                        steps.add(new SimpleArgumentStep(mtd.parameterType(i), asType, slot));
+                    } else {
+                        if (compilers.allocatorStep == null) {
+                            compilers.allocatorStep = new OnDemandArenaStep();
+                        }
+                        steps.add(new SegmentArgumentStep(compilers, slot, in, out));
+                    }
+                }
+                case "Ljava/nio/ByteBuffer;", "Ljava/nio/CharBuffer;", "Ljava/nio/DoubleBuffer;", "Ljava/nio/FloatBuffer;",
+                        "Ljava/nio/IntBuffer;", "Ljava/nio/LongBuffer;", "Ljava/nio/ShortBuffer;" -> {
+                    int advanceShift = advance ? advanceElements ? 0 : bufferShift : -1;
+                    if (heap) {
+                        steps.add(new HeapBufferArgumentStep(slot, advanceShift));
+                    } else {
+                        if (compilers.allocatorStep == null) {
+                            compilers.allocatorStep = new OnDemandArenaStep();
+                        }
+                        steps.add(new BufferArgumentStep(compilers, slot, in, out, advanceShift));
+                    }
+                }
+                case "[Ljava/lang/foreign/MemorySegment;" -> {
+                    if (compilers.allocatorStep == null) {
+                        compilers.allocatorStep = new OnDemandArenaStep();
+                    }
+                    if (ioVec) {
+                        steps.add(new IoVecArgumentStep(compilers, mtd.parameterType(i), slot, in, out, false));
+                    } else {
+                        steps.add(new SegmentArrayArgumentCopyStep(compilers, slot, in, out));
+                    }
+                }
+                case "[Ljava/nio/ByteBuffer;" -> {
+                    if (!ioVec) {
+                        throw new IllegalArgumentException("Buffer array parameters must be annotated with @IoVec");
+                    }
+                    if (compilers.allocatorStep == null) {
+                        compilers.allocatorStep = new OnDemandArenaStep();
+                    }
+                    steps.add(new IoVecArgumentStep(compilers, mtd.parameterType(i), slot, in, out, advance));
+                }
+                case "Ljava/lang/String;" -> {
+                    if (intern) {
+                        steps.add(new InternedStringArgumentStep(slot, charset));
+                    } else {
+                        if (compilers.allocatorStep == null || compilers.allocatorStep instanceof OnDemandArenaStep) {
+                            compilers.allocatorStep = new AlwaysArenaStep();
+                        }
+                        steps.add(new StringArgumentStep(compilers, CD_String, slot, charset, wide));
+                    }
+                }
+                case "Ljava/lang/CharSequence;" -> {
+                    if (compilers.allocatorStep == null || compilers.allocatorStep instanceof OnDemandArenaStep) {
+                        compilers.allocatorStep = new AlwaysArenaStep();
+                    }
+                    steps.add(new StringArgumentStep(compilers, CD_CharSequence, slot, charset, wide));
+                }
+                case "[Ljava/lang/String;" -> {
+                    if (compilers.allocatorStep == null || compilers.allocatorStep instanceof OnDemandArenaStep) {
+                        compilers.allocatorStep = new AlwaysArenaStep();
+                    }
+                    steps.add(new StringArrayArgumentStep(compilers, slot, charset, in, out));
+                }
+                case "Ljava/lang/foreign/SegmentAllocator;", "Ljava/lang/foreign/Arena;" -> {
+                    if (!(compilers.allocatorStep instanceof UserSuppliedSegmentAllocatorStep)) {
+                        compilers.allocatorStep = new UserSuppliedSegmentAllocatorStep(slot);
+                    }
+                }
+                case "Lio/smallrye/ffm/ErrnoConsumer;" -> {
+                    if (compilers.captureStep == null) {
+                        compilers.captureStep = new AllocatedCaptureStep(compilers);
+                    }
+                    compilers.errno = true;
+                    if (async) {
+                        // the consumer is called when the call completes
+                        compilers.errnoConsumerSlot = slot;
+                    } else {
+                        steps.add(new ErrnoConsumerStep(compilers, slot));
+                    }
+                }
+                case "Lio/smallrye/ffm/LastErrorConsumer;" -> {
+                    if (async) {
+                        throw new IllegalArgumentException("Asynchronous methods cannot have error consumers other than"
+                                + " io.smallrye.ffm.ErrnoConsumer");
+                    }
+                    if (compilers.captureStep == null) {
+                        compilers.captureStep = new AllocatedCaptureStep(compilers);
+                    }
+                    compilers.lastError = true;
+                    steps.add(new LastErrorConsumerStep(compilers, slot));
+                }
+                case "Lio/smallrye/ffm/WSALastErrorConsumer;" -> {
+                    if (async) {
+                        throw new IllegalArgumentException("Asynchronous methods cannot have error consumers other than"
+                                + " io.smallrye.ffm.ErrnoConsumer");
+                    }
+                    if (compilers.captureStep == null) {
+                        compilers.captureStep = new AllocatedCaptureStep(compilers);
+                    }
+                    compilers.wsaLastError = true;
+                    steps.add(new WSALastErrorConsumerStep(compilers, slot));
+                }
+                default -> steps.add(new SimpleArgumentStep(mtd.parameterType(i), asType, slot));
+            }
+            slot += TypeKind.from(mtd.parameterType(i)).slotSize();
+        }
+        // output records need scratch memory for their output scalars, and returned structures need memory too
+        if ((spec.outComponents() != null || spec.returnStruct() != null) && compilers.allocatorStep == null) {
+            compilers.allocatorStep = new OnDemandArenaStep();
+        }
+        if (compilers.captureStep != null) {
+            if (compilers.allocatorStep == null) {
+                compilers.allocatorStep = new AlwaysArenaStep();
+            }
+            steps.add(insertionPoint, compilers.captureStep);
+        }
+        if (async && compilers.allocatorStep instanceof ArenaStep) {
+            // the arena must be usable by the thread which makes the call, which also closes it
+            compilers.allocatorStep = new AsyncArenaStep();
+        }
+        if (compilers.allocatorStep != null) {
+            steps.add(insertionPoint, compilers.allocatorStep);
+        }
+        if (spec.retAsType().equals("struct")) {
+            if (compilers.captureStep != null) {
+                throw new IllegalArgumentException("Structure return values cannot be combined with call state capture");
+            }
+            // the returned structure allocator immediately follows the function pointer
+            int allocatorPoint = insertionPoint + (compilers.allocatorStep != null ? 1 : 0) + (dispatch ? 1 : 0);
+            steps.add(allocatorPoint, new StructReturnAllocatorStep(compilers, returnSlot));
+        }
+
+        if (async) {
+            steps.add(new SimpleResultStep(spec.asyncResult()));
+        } else if (outRecordStep != null) {
+            steps.add(outRecordStep);
+        } else if (returnSlot != -1) {
+            if (!mtd.returnType().equals(CD_void) && !mtd.returnType().equals(CD_MemorySegment)) {
+                throw new IllegalArgumentException(
+                        "Methods with a @Return parameter must return void or java.lang.foreign.MemorySegment");
+            }
+            compilers.structLayouts.add(structLayoutDesc(returnStruct, "_"));
+            steps.add(new ReturnBufferResultStep(mtd.returnType()));
+        } else if (returnStruct != null) {
+            ConstantDesc layout = structLayoutDesc(returnStruct, "_");
+            compilers.structLayouts.add(layout);
+            steps.add(new StructResultStep(returnStruct, layout));
+        } else {
+            switch (mtd.returnType().descriptorString()) {
+                case "Ljava/lang/String;" ->
+                    steps.add(new StringResultStep(spec.outputCharset(), spec.outputMaxLength(), spec.outputIntern(),
+                            spec.outputWide()));
+                case "[Ljava/lang/String;" -> steps.add(new StringArrayResultStep(spec.outputCharset()));
+                case "Lio/smallrye/ffm/NativeString;" ->
+                    steps.add(new NativeStringResultStep(spec.outputCharset(), spec.outputMaxLength()));
+                case "Ljava/io/Reader;" -> steps.add(new ReaderResultStep(spec.outputCharset(), spec.outputMaxLength()));
+                default -> steps.add(new SimpleResultStep(mtd.returnType()));
+            }
+        }
+
+        steps.addLast(async ? new AsyncInvokeStep(compilers) : new InvokeStep(compilers));
+        return steps;
+    }
+
+    /**
+     * Build the call steps of a batch method, which calls the native function once for each element of its
+     * array arguments.
+     *
+     * @param spec the link specification (must not be {@code null})
+     * @param critical {@code true} if the native function is critical
+     * @param adaptive {@code true} if the native function is adaptively linked as critical
+     * @return the call steps (not {@code null})
+     */
+    private static List<Step> buildBatchSteps(final LinkSpec spec, final boolean critical, final boolean adaptive) {
+        MethodTypeDesc mtd = spec.mtd();
+        int paramCnt = mtd.parameterCount();
+        List<List<Annotation>> paListList = spec.paListList();
+        int annOffs = paramCnt - paListList.size();
+
+        Compilers compilers = new Compilers();
+        BatchLoopStep loop = new BatchLoopStep(compilers);
+        List<Step> argSteps = new ArrayList<>(paramCnt);
+        String resultAsType = "void";
+        int errnoSlot = -1;
+        int slot = spec.varOffs();
+        for (int i = 0; i < paramCnt; i++) {
+            List<Annotation> annotations = i < annOffs ? List.of() : paListList.get(i);
+            ClassDesc paramType = mtd.parameterType(i);
+            boolean out = false;
+            for (Annotation annotation : annotations) {
+                if (annotation.className().equalsString("Lio/smallrye/ffm/Out;")) {
+                    out = true;
+                }
+            }
+            if (paramType.equals(CD_Errno.arrayType())) {
+                if (errnoSlot != -1) {
+                    throw new IllegalArgumentException("Multiple errno array parameters not allowed");
+                }
+                errnoSlot = slot;
+                compilers.errno = true;
+                compilers.captureStep = new AllocatedCaptureStep(compilers);
+                argSteps.add(new BatchErrnoStep(compilers, loop, slot));
+            } else if (paramType.isArray() && paramType.componentType().isPrimitive()) {
+                // the native type is that of each argument element
+                String asType = readAsType(annotations, defaultAsType(paramType.componentType()));
+                if (out) {
+                    if (loop.resultsType != null) {
+                        throw new IllegalArgumentException("Multiple @Out result array parameters not allowed");
+                    }
+                    loop.resultsType = paramType;
+                    loop.resultsSlot = slot;
+                    resultAsType = asType;
+                } else {
+                    argSteps.add(new BatchElementArgumentStep(loop, paramType, asType, slot));
+                }
+                loop.arraySlots.add(slot);
+            } else {
+                throw new IllegalArgumentException("Invalid type " + paramType.displayName()
+                        + " for batch parameter (must be a primitive array or io.smallrye.ffm.Errno[])");
+            }
+            slot++;
+        }
+        ClassDesc returnType = mtd.returnType();
+        if (returnType.isArray() && returnType.componentType().isPrimitive()) {
+            if (loop.resultsType != null) {
+                throw new IllegalArgumentException("Batch methods with an @Out result array must return void");
+            }
+            loop.resultsType = returnType;
+            loop.returnResults = true;
+            resultAsType = spec.retAsType();
+        } else if (!returnType.equals(CD_void)) {
+            throw new IllegalArgumentException("Batch methods must return void or a primitive array");
+        }
+        if (loop.arraySlots.isEmpty()) {
+            throw new IllegalArgumentException("Batch methods must have at least one primitive array parameter");
+        }
+        if (errnoSlot != -1) {
+            // checked for length, but never gives the number of calls
+            loop.arraySlots.add(errnoSlot);
+        }
+
+        List<Step> steps = new ArrayList<>(paramCnt + 8);
+        steps.add(new ReturnStep(resultAsType, returnType));
+        // the arena and capture buffer are set up once, outside of the loop
+        if (compilers.captureStep != null) {
+            compilers.allocatorStep = new AlwaysArenaStep();
+            steps.add(compilers.allocatorStep);
+        }
+        steps.add(loop);
+        steps.add(new ResolvedSymbolStep(spec.name(), spec.libs()));
+        if (critical) {
+            steps.add(new CriticalStep(false, adaptive));
+        }
+        if (compilers.captureStep != null) {
+            steps.add(compilers.captureStep);
+        }
+        steps.addAll(argSteps);
+        if (loop.resultsType != null) {
+            steps.add(new BatchResultStep(loop));
+        }
+        steps.addLast(new InvokeStep(compilers));
+        return steps;
+    }
+
+    /**
+     * Emit a branch to the given label if any array or segment argument is larger than the given number of bytes.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param spec the link specification (must not be {@code null})
+     * @param threshold the maximum argument size in bytes
+     * @param target the label to branch to if the threshold is exceeded (must not be {@code null})
+     */
+    private static void branchIfHeapThresholdExceeded(final CodeBuilder cb, final LinkSpec spec, final long threshold,
+            final Label target) {
+        MethodTypeDesc mtd = spec.mtd();
+        int slot = spec.varOffs();
+        for (int i = 0; i < mtd.parameterCount(); i++) {
+            ClassDesc paramType = mtd.parameterType(i);
+            String desc = paramType.descriptorString();
+            // the dispatch function pointer is never copied
+            if (!(spec.dispatch() && i == 0)) {
+                switch (desc) {
+                    case "[B", "[C", "[D", "[F", "[I", "[J", "[S" -> {
+                        int arraySlot = slot;
+                        cb.aload(arraySlot);
+                        cb.ifThen(Opcode.IFNONNULL, b0 -> {
+                            b0.aload(arraySlot);
+                            b0.arraylength();
+                            b0.i2l();
+                            b0.loadConstant(valueLayoutSize(paramType.componentType()));
+                            b0.lmul();
+                            b0.loadConstant(threshold);
+                            b0.lcmp();
+                            b0.ifgt(target);
+                        });
+                    }
+                    case "Ljava/lang/foreign/MemorySegment;" -> {
+                        int segmentSlot = slot;
+                        cb.aload(segmentSlot);
+                        cb.ifThen(Opcode.IFNONNULL, b0 -> {
+                            // native segments are never copied
+                            b0.aload(segmentSlot);
+                            b0.invokeinterface(CD_MemorySegment, "isNative", MethodTypeDesc.of(CD_boolean));
+                            b0.ifThen(Opcode.IFEQ, b1 -> {
+                                b1.aload(segmentSlot);
+                                b1.invokeinterface(CD_MemorySegment, "byteSize", MethodTypeDesc.of(CD_long));
+                                b1.loadConstant(threshold);
+                                b1.lcmp();
+                                b1.ifgt(target);
+                            });
+                        });
+                    }
+                    case "Ljava/nio/ByteBuffer;", "Ljava/nio/CharBuffer;", "Ljava/nio/DoubleBuffer;", "Ljava/nio/FloatBuffer;",
+                            "Ljava/nio/IntBuffer;", "Ljava/nio/LongBuffer;", "Ljava/nio/ShortBuffer;" -> {
+                        int bufferSlot = slot;
+                        cb.aload(bufferSlot);
+                        cb.ifThen(Opcode.IFNONNULL, b0 -> {
+                            // direct buffers are never copied
+                            b0.aload(bufferSlot);
+                            b0.invokevirtual(CD_Buffer, "isDirect", MethodTypeDesc.of(CD_boolean));
+                            b0.ifThen(Opcode.IFEQ, b1 -> {
+                                b1.aload(bufferSlot);
+                                b1.invokevirtual(CD_Buffer, "remaining", MethodTypeDesc.of(CD_int));
+                                b1.i2l();
+                                b1.loadConstant(bufferElementShift(paramType));
+                                b1.lshl();
+                                b1.loadConstant(threshold);
+                                b1.lcmp();
+                                b1.ifgt(target);
+                            });
+                        });
+                    }
+                }
+            }
+            slot += TypeKind.from(paramType).slotSize();
+        }
+    }
+
+    private static List<String> readLibAnnotation(final Annotation annotation) {
+        String val = null;
+        for (AnnotationElement element : annotation.elements()) {
+            AnnotationValue value = element.value();
+            switch (element.name().stringValue()) {
+                case "value" -> {
+                    if (value instanceof AnnotationValue.OfString os) {
+                        val = os.stringValue();
+                    }
+                }
+            }
+        }
+        return val == null ? List.of() : List.of(val);
+    }
+
+    private static List<String> readLibListAnnotation(final Annotation annotation) {
+        List<String> libs = List.of();
+        for (AnnotationElement element : annotation.elements()) {
+            AnnotationValue value = element.value();
+            switch (element.name().stringValue()) {
+                case "value" -> {
+                    if (value instanceof AnnotationValue.OfArray oa) {
+                        libs = new ArrayList<>(oa.values().size());
+                        for (AnnotationValue subValue : oa.values()) {
+                            if (subValue instanceof AnnotationValue.OfAnnotation oa2) {
+                                Annotation subAnnotation = oa2.annotation();
+                                switch (subAnnotation.className().stringValue()) {
+                                    case "Lio/smallrye/ffm/Lib;" -> libs.addAll(readLibAnnotation(annotation));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return List.copyOf(libs);
+    }
+
+    private static IllegalArgumentException firstDispatchArgViolation() {
+        return new IllegalArgumentException("First argument of @Dispatch must be the function pointer with no annotations");
+    }
+
+    private static String defaultAsType(final ClassDesc classDesc) {
+        return switch (classDesc.descriptorString()) {
+            case "B" -> "s8";
+            case "C" -> "u16";
+            case "D" -> "f64";
+            case "F" -> "f32";
+            case "J" -> "s64";
+            case "S" -> "s16";
+            case "Z" -> "stdc_bool";
+            case "Ljava/lang/foreign/MemorySegment;", "[B", "[C", "[D", "[F", "[I", "[J", "[S", "Ljava/lang/String;",
+                    "[Ljava/lang/String;", "Lio/smallrye/ffm/NativeString;", "Ljava/lang/CharSequence;",
+                    "Ljava/io/Reader;" ->
+                "ptr";
+            case "Ljava/nio/ByteBuffer;", "Ljava/nio/CharBuffer;", "Ljava/nio/DoubleBuffer;", "Ljava/nio/FloatBuffer;",
+                    "Ljava/nio/IntBuffer;", "Ljava/nio/LongBuffer;", "Ljava/nio/ShortBuffer;" ->
+                "ptr";
+            default -> "s32";
+        };
+    }
+
+    private static final ClassDesc CD_Arena = ClassDesc.of(Arena.class.getName());
+    private static final ClassDesc CD_Bootstraps = ClassDesc.of("io.smallrye.ffm.Bootstraps");
+    private static final ClassDesc CD_Buffer = ClassDesc.of(Buffer.class.getName());
+    private static final ClassDesc CD_CharSequence = ClassDesc.of(CharSequence.class.getName());
+    private static final ClassDesc CD_Charset = ClassDesc.of(Charset.class.getName());
+    private static final ClassDesc CD_CompletableFuture = ClassDesc.of("java.util.concurrent.CompletableFuture");
+    private static final ClassDesc CD_Errno = ClassDesc.of("io.smallrye.ffm.Errno");
+    private static final ClassDesc CD_ErrnoConsumer = ClassDesc.of("io.smallrye.ffm.ErrnoConsumer");
+    private static final ClassDesc CD_LastErrorConsumer = ClassDesc.of("io.smallrye.ffm.LastErrorConsumer");
+    private static final ClassDesc CD_Linker_Option = ClassDesc.of(Linker.Option.class.getName());
+    private static final ClassDesc CD_MemoryLayout = ClassDesc.of(MemoryLayout.class.getName());
+    private static final ClassDesc CD_MemorySegment = ClassDesc.of(MemorySegment.class.getName());
+    private static final ClassDesc CD_SegmentAllocator = ClassDesc.of(SegmentAllocator.class.getName());
+    private static final ClassDesc CD_StructCursor = ClassDesc.of("io.smallrye.ffm.StructCursor");
+    private static final ClassDesc CD_UpcallStubs = ClassDesc.of("io.smallrye.ffm.UpcallStubs");
+    private static final ClassDesc CD_Reference = ClassDesc.of("java.lang.ref.Reference");
+    private static final ClassDesc CD_Objects = ClassDesc.of("java.util.Objects");
+    private static final ClassDesc CD_ForkJoinPool = ClassDesc.of("java.util.concurrent.ForkJoinPool");
+    private static final ClassDesc CD_StructLayout = ClassDesc.of(StructLayout.class.getName());
+    private static final ClassDesc CD_SymbolLookup = ClassDesc.of(SymbolLookup.class.getName());
+    private static final ClassDesc CD_ValueLayout = ClassDesc.of(ValueLayout.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfByte = ClassDesc.of(ValueLayout.OfByte.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfChar = ClassDesc.of(ValueLayout.OfChar.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfDouble = ClassDesc.of(ValueLayout.OfDouble.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfFloat = ClassDesc.of(ValueLayout.OfFloat.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfInt = ClassDesc.of(ValueLayout.OfInt.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfLong = ClassDesc.of(ValueLayout.OfLong.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfShort = ClassDesc.of(ValueLayout.OfShort.class.getName());
+    private static final ClassDesc CD_ValueLayout_OfBoolean = ClassDesc.of(ValueLayout.OfBoolean.class.getName());
+    private static final ClassDesc CD_AddressLayout = ClassDesc.of("java.lang.foreign.AddressLayout");
+    private static final ClassDesc CD_MemorySegmentArray = CD_MemorySegment.arrayType();
+    private static final ClassDesc CD_AsType = ClassDesc.of("io.smallrye.ffm.AsType");
+    private static final ClassDesc CD_NativeArrays = ClassDesc.of("io.smallrye.ffm.NativeArrays");
+    private static final ClassDesc CD_NativeScope = ClassDesc.of("io.smallrye.ffm.NativeScope");
+    private static final ClassDesc CD_NativeString = ClassDesc.of("io.smallrye.ffm.NativeString");
+    private static final ClassDesc CD_NativeStrings = ClassDesc.of("io.smallrye.ffm.NativeStrings");
+    private static final ClassDesc CD_Reader = ClassDesc.of(Reader.class.getName());
+    private static final ClassDesc CD_StandardCharsets = ClassDesc.of(StandardCharsets.class.getName());
+    private static final ClassDesc CD_StringArray = CD_String.arrayType();
+    private static final ClassDesc CD_WSALastErrorConsumer = ClassDesc.of("io.smallrye.ffm.WSALastErrorConsumer");
+
+    private static final DirectMethodHandleDesc CD_Bootstraps_arrayElementLayout = ofConstantBootstrap(
+            CD_Bootstraps,
+            "arrayElementLayout",
+            CD_ValueLayout,
+            CD_int);
+    private static final DirectMethodHandleDesc CD_Bootstraps_outValue = ofConstantBootstrap(
+            CD_Bootstraps,
+            "outValue",
+            CD_MethodHandle,
+            CD_MethodType);
+    private static final DirectMethodHandleDesc CD_Bootstraps_inValue = ofConstantBootstrap(
+            CD_Bootstraps,
+            "inValue",
+            CD_MethodHandle,
+            CD_MethodType);
+    private static final DirectMethodHandleDesc CD_Bootstraps_memberLayout = ofConstantBootstrap(
+            CD_Bootstraps,
+            "memberLayout",
+            CD_ValueLayout,
+            CD_String);
+    private static final DirectMethodHandleDesc CD_Bootstraps_memberOffset = ofConstantBootstrap(
+            CD_Bootstraps,
+            "memberOffset",
+            CD_long,
+            CD_StructLayout);
+    private static final DirectMethodHandleDesc CD_Bootstraps_nativeStructLayout = ofConstantBootstrap(
+            CD_Bootstraps,
+            "nativeStructLayout",
+            CD_StructLayout,
+            CD_MemoryLayout.arrayType());
+    private static final DirectMethodHandleDesc CD_Bootstraps_structSize = ofConstantBootstrap(
+            CD_Bootstraps,
+            "structSize",
+            CD_long,
+            CD_StructLayout);
+    private static final DirectMethodHandleDesc CD_Bootstraps_upcallStubs = ofConstantBootstrap(
+            CD_Bootstraps,
+            "upcallStubs",
+            CD_UpcallStubs,
+            CD_MethodHandle);
+    private static final DirectMethodHandleDesc CD_Bootstraps_autoArena = ofConstantBootstrap(
+            CD_Bootstraps,
+            "autoArena",
+            CD_Arena);
+    private static final DirectMethodHandleDesc CD_Bootstraps_callStateHandle = ofConstantBootstrap(
+            CD_Bootstraps,
+            "callStateHandle",
+            CD_VarHandle);
+    private static final DirectMethodHandleDesc CD_Bootstraps_charset = ofConstantBootstrap(
+            CD_Bootstraps,
             "charset",
             CD_Charset);
     private static final DirectMethodHandleDesc CD_Bootstraps_defaultLookup = ofConstantBootstrap(
@@ -606,6 +2291,39 @@ public final class Generator {
             CD_Bootstraps,
             "downcall",
             CD_CallSite);
+    private static final DirectMethodHandleDesc CD_Bootstraps_downcallStructs = ofCallsiteBootstrap(
+            CD_Bootstraps,
+            "downcall",
+            CD_CallSite,
+            CD_MemoryLayout.arrayType());
+    private static final DirectMethodHandleDesc CD_Bootstraps_async = ofCallsiteBootstrap(
+            CD_Bootstraps,
+            "async",
+            CD_CallSite,
+            CD_MethodType,
+            CD_MemoryLayout.arrayType());
+    private static final DirectMethodHandleDesc CD_Bootstraps_blocking = ofCallsiteBootstrap(
+            CD_Bootstraps,
+            "blocking",
+            CD_CallSite,
+            CD_MethodHandle);
+    private static final DirectMethodHandleDesc CD_Bootstraps_chunked = ofCallsiteBootstrap(
+            CD_Bootstraps,
+            "chunked",
+            CD_CallSite,
+            CD_MethodHandle,
+            CD_int,
+            CD_long,
+            CD_long,
+            CD_long,
+            CD_MethodHandle.arrayType());
+    private static final DirectMethodHandleDesc CD_Bootstraps_pure = ofCallsiteBootstrap(
+            CD_Bootstraps,
+            "pure",
+            CD_CallSite,
+            CD_MethodHandle,
+            CD_int,
+            CD_long);
     private static final DirectMethodHandleDesc CD_Bootstraps_emptySymbolLookup = ofConstantBootstrap(
             CD_Bootstraps,
             "emptySymbolLookup",
@@ -627,565 +2345,1737 @@ public final class Generator {
             CD_SymbolLookup,
             CD_SymbolLookup);
 
-    private static final DynamicConstantDesc<VarHandle> DCD_errno_VarHandle = DynamicConstantDesc.ofNamed(
-            CD_Bootstraps_callStateHandle,
-            "errno",
-            CD_VarHandle);
-    private static final DynamicConstantDesc<VarHandle> DCD_LastError_VarHandle = DynamicConstantDesc.ofNamed(
-            CD_Bootstraps_callStateHandle,
-            "LastError",
-            CD_VarHandle);
-    private static final DynamicConstantDesc<VarHandle> DCD_WSALastError_VarHandle = DynamicConstantDesc.ofNamed(
-            CD_Bootstraps_callStateHandle,
-            "WSALastError",
-            CD_VarHandle);
-    private static final DynamicConstantDesc<SymbolLookup> DCD_Bootstraps_emptySymbolLookup = DynamicConstantDesc.ofNamed(
-            CD_Bootstraps_emptySymbolLookup,
-            "_",
-            CD_SymbolLookup);
-    private static final DynamicConstantDesc<Arena> DCD_Bootstraps_autoArena = DynamicConstantDesc.ofNamed(
-            CD_Bootstraps_autoArena,
-            "_",
-            CD_Arena);
+    private static final DynamicConstantDesc<VarHandle> DCD_errno_VarHandle = DynamicConstantDesc.ofNamed(
+            CD_Bootstraps_callStateHandle,
+            "errno",
+            CD_VarHandle);
+    private static final DynamicConstantDesc<VarHandle> DCD_LastError_VarHandle = DynamicConstantDesc.ofNamed(
+            CD_Bootstraps_callStateHandle,
+            "LastError",
+            CD_VarHandle);
+    private static final DynamicConstantDesc<VarHandle> DCD_WSALastError_VarHandle = DynamicConstantDesc.ofNamed(
+            CD_Bootstraps_callStateHandle,
+            "WSALastError",
+            CD_VarHandle);
+    private static final DynamicConstantDesc<SymbolLookup> DCD_Bootstraps_emptySymbolLookup = DynamicConstantDesc.ofNamed(
+            CD_Bootstraps_emptySymbolLookup,
+            "_",
+            CD_SymbolLookup);
+    private static final DynamicConstantDesc<Arena> DCD_Bootstraps_autoArena = DynamicConstantDesc.ofNamed(
+            CD_Bootstraps_autoArena,
+            "_",
+            CD_Arena);
+
+    static String valueLayoutName(ClassDesc primType) {
+        return switch (primType.descriptorString().charAt(0)) {
+            case 'B' -> "JAVA_BYTE";
+            case 'C' -> "JAVA_CHAR";
+            case 'D' -> "JAVA_DOUBLE";
+            case 'F' -> "JAVA_FLOAT";
+            case 'I' -> "JAVA_INT";
+            case 'J' -> "JAVA_LONG";
+            case 'S' -> "JAVA_SHORT";
+            case 'Z' -> "JAVA_BOOLEAN";
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    /**
+     * {@return the name of the {@code AsType} constant which matches the given primitive array element type}
+     *
+     * @param primType the primitive type (must not be {@code null})
+     */
+    static String defaultArrayElementType(ClassDesc primType) {
+        return switch (primType.descriptorString().charAt(0)) {
+            case 'B' -> "s8";
+            case 'C' -> "u16";
+            case 'D' -> "f64";
+            case 'F' -> "f32";
+            case 'I' -> "s32";
+            case 'J' -> "s64";
+            case 'S' -> "s16";
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    static long valueLayoutSize(ClassDesc primType) {
+        return switch (primType.descriptorString().charAt(0)) {
+            case 'B', 'Z' -> 1;
+            case 'C', 'S' -> 2;
+            case 'F', 'I' -> 4;
+            case 'D', 'J' -> 8;
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    /**
+     * {@return the base-2 logarithm of the element size of the given buffer type, or {@code -1} if the type is not
+     * a buffer type}
+     *
+     * @param bufferType the type (must not be {@code null})
+     */
+    static int bufferElementShift(ClassDesc bufferType) {
+        return switch (bufferType.descriptorString()) {
+            case "Ljava/nio/ByteBuffer;" -> 0;
+            case "Ljava/nio/CharBuffer;", "Ljava/nio/ShortBuffer;" -> 1;
+            case "Ljava/nio/FloatBuffer;", "Ljava/nio/IntBuffer;" -> 2;
+            case "Ljava/nio/DoubleBuffer;", "Ljava/nio/LongBuffer;" -> 3;
+            default -> -1;
+        };
+    }
+
+    static ClassDesc valueLayoutType(ClassDesc primType) {
+        return switch (primType.descriptorString().charAt(0)) {
+            case 'B' -> CD_ValueLayout_OfByte;
+            case 'C' -> CD_ValueLayout_OfChar;
+            case 'D' -> CD_ValueLayout_OfDouble;
+            case 'F' -> CD_ValueLayout_OfFloat;
+            case 'I' -> CD_ValueLayout_OfInt;
+            case 'J' -> CD_ValueLayout_OfLong;
+            case 'S' -> CD_ValueLayout_OfShort;
+            case 'Z' -> CD_ValueLayout_OfBoolean;
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    /**
+     * Load the given character set on to the stack.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param charset the character set name, or {@code null} for UTF-8
+     */
+    static void loadCharset(final CodeBuilder cb, final String charset) {
+        if (charset == null || charset.equalsIgnoreCase("utf-8") || charset.equalsIgnoreCase("utf_8")) {
+            cb.getstatic(CD_StandardCharsets, "UTF_8", CD_Charset);
+        } else {
+            cb.loadConstant(
+                    DynamicConstantDesc.ofNamed(
+                            CD_Bootstraps_charset,
+                            charset,
+                            CD_Charset));
+        }
+    }
+
+    static final class Compilers {
+        AllocatorStep allocatorStep;
+        CaptureStep captureStep;
+        boolean errno = false;
+        boolean lastError = false;
+        boolean wsaLastError = false;
+        /**
+         * The layouts of the structures in the downcall descriptor, in order.
+         */
+        final List<ConstantDesc> structLayouts = new ArrayList<>();
+        /**
+         * The slot of the {@code ErrnoConsumer} parameter of an asynchronous method, or {@code -1} for none.
+         */
+        int errnoConsumerSlot = -1;
+    }
+
+    abstract static class Step {
+        Step() {
+        }
+
+        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            int next = index + 1;
+            steps.get(next).setUpDesc(steps, next, sb);
+        }
+
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            int next = index + 1;
+            steps.get(next).addParamDesc(steps, next, sb);
+        }
+
+        void setReturnDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            int next = index + 1;
+            steps.get(next).setReturnDesc(steps, next, sb);
+        }
+
+        /**
+         * {@return the return type of the downcall method}
+         */
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            int next = index + 1;
+            return steps.get(next).getReturnType(steps, next);
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            int next = index + 1;
+            steps.get(next).addDowncallArgsDescs(steps, next, descs);
+        }
+
+        void call(CodeBuilder cb, final List<Step> steps, final int index) {
+            int next = index + 1;
+            steps.get(next).call(cb, steps, next);
+        }
+    }
+
+    static final class ResolvedSymbolStep extends Step {
+        private final String name;
+        private final List<String> libs;
+
+        ResolvedSymbolStep(final String name, final List<String> libs) {
+            this.name = name;
+            this.libs = libs;
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            // the function pointer
+            descs.add(CD_MemorySegment);
+            // remaining arguments
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
+
+        /**
+         * Recursively build up the symbol lookup to use for this method.
+         * Note that if two methods use the same symbol lookup sequence, they should end up collapsing to a single constant.
+         *
+         * @param index the list index (0 <= n <= libs.size())
+         * @return the outermost constant
+         */
+        DynamicConstantDesc<SymbolLookup> buildSymbolLookup(int index) {
+            if (index == libs.size()) {
+                // no more lib specs, next is "empty"
+                return DCD_Bootstraps_emptySymbolLookup;
+            }
+            // else recurse first, then wrap
+            DynamicConstantDesc<SymbolLookup> next = buildSymbolLookup(index + 1);
+            String val = libs.get(index);
+            return switch (val) {
+                case "<<SYSTEM>>" -> DynamicConstantDesc.ofNamed(
+                        CD_Bootstraps_defaultLookup,
+                        "_",
+                        CD_SymbolLookup,
+                        next);
+                case "<<LOADER>>" -> DynamicConstantDesc.ofNamed(
+                        CD_Bootstraps_loaderLookup,
+                        "_",
+                        CD_SymbolLookup,
+                        next);
+                default -> DynamicConstantDesc.ofNamed(
+                        CD_Bootstraps_libraryLookup,
+                        val,
+                        CD_SymbolLookup,
+                        DCD_Bootstraps_autoArena,
+                        next);
+            };
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            // get the resolved symbol before anything else (throws an exception if unresolved)
+            cb.invokedynamic(DynamicCallSiteDesc.of(
+                    CD_Bootstraps_linkSymbol,
+                    name,
+                    MethodTypeDesc.of(CD_MemorySegment),
+                    buildSymbolLookup(0)));
+            super.call(cb, steps, index);
+        }
+    }
+
+    static final class UserSymbolStep extends Step {
+        private final int slot;
+
+        UserSymbolStep(final int slot) {
+            this.slot = slot;
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            // the function pointer
+            descs.add(CD_MemorySegment);
+            // remaining arguments
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            cb.aload(slot);
+            super.call(cb, steps, index);
+        }
+    }
+
+    static final class ReturnStep extends Step {
+        private final String asType;
+        private final ClassDesc returnType;
+
+        ReturnStep(final String asType, final ClassDesc returnType) {
+            this.asType = asType;
+            this.returnType = returnType;
+        }
+
+        void setReturnDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            String asType = this.asType;
+            sb.append(switch (asType) {
+                case "void" -> "V";
+                case "struct" -> "$";
+                default -> asTypeToDesc(asType);
+            });
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            super.call(cb, steps, index);
+            // return the result
+            cb.return_(TypeKind.from(returnType));
+        }
+    }
+
+    private static String asTypeToDesc(final String asType) {
+        return switch (asType) {
+            case "stdc_char" -> "c";
+            case "stdc_signed_char" -> "sc";
+            case "stdc_unsigned_char" -> "uc";
+            case "stdc_short" -> "ss";
+            case "stdc_unsigned_short" -> "us";
+            case "stdc_int" -> "si";
+            case "stdc_unsigned_int" -> "ui";
+            case "stdc_long" -> "sl";
+            case "stdc_unsigned_long" -> "ul";
+            case "stdc_long_long", "s64", "off_t" -> "sJ";
+            case "stdc_unsigned_long_long", "u64" -> "uJ";
+            case "stdc_bool" -> "Z";
+            case "stdc_wchar_t" -> "w";
+            case "s8" -> "sB";
+            case "s16" -> "sS";
+            case "s32" -> "sI";
+            case "u8" -> "uB";
+            case "u16" -> "uS";
+            case "u32" -> "uI";
+            case "f32" -> "F";
+            case "f64" -> "D";
+            case "intptr", "ssize_t" -> "s*";
+            case "uintptr", "size_t" -> "u*";
+            case "ptr" -> "*";
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    static final class CriticalStep extends Step {
+        private final boolean heap;
+        private final boolean adaptive;
+
+        CriticalStep(final boolean heap, final boolean adaptive) {
+            this.heap = heap;
+            this.adaptive = adaptive;
+        }
+
+        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append(heap ? 'R' : adaptive ? 'a' : 'r');
+            super.setUpDesc(steps, index, sb);
+        }
+    }
+
+    static class InvokeStep extends Step {
+        final Compilers compilers;
+
+        InvokeStep(final Compilers compilers) {
+            this.compilers = compilers;
+        }
+
+        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('(');
+            steps.getFirst().addParamDesc(steps, 0, sb);
+        }
+
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append(')');
+            steps.getFirst().setReturnDesc(steps, 0, sb);
+        }
+
+        void setReturnDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('V');
+        }
+
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return CD_void;
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            // no operation
+        }
+
+        public void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            // get the downcall descriptor
+            List<ClassDesc> downcallDescs = new ArrayList<>(steps.size());
+            steps.getFirst().addDowncallArgsDescs(steps, 0, downcallDescs);
+            StringBuilder descBuilder = new StringBuilder(64);
+            steps.getFirst().setUpDesc(steps, 0, descBuilder);
+            ClassDesc returnType = steps.getFirst().getReturnType(steps, 0);
+            MethodTypeDesc downcallDesc = MethodTypeDesc.of(returnType, downcallDescs);
+            // do not call super (we are the end)
+            invoke(b0, descBuilder.toString(), downcallDesc);
+        }
+
+        /**
+         * Write the actual call.
+         *
+         * @param cb the code builder (must not be {@code null})
+         * @param desc the native descriptor string (must not be {@code null})
+         * @param downcallDesc the type of the downcall (must not be {@code null})
+         */
+        void invoke(final CodeBuilder cb, final String desc, final MethodTypeDesc downcallDesc) {
+            if (compilers.structLayouts.isEmpty()) {
+                cb.invokedynamic(DynamicCallSiteDesc.of(
+                        CD_Bootstraps_downcall,
+                        desc,
+                        downcallDesc));
+            } else {
+                cb.invokedynamic(DynamicCallSiteDesc.of(
+                        CD_Bootstraps_downcallStructs,
+                        desc,
+                        downcallDesc,
+                        compilers.structLayouts.toArray(ConstantDesc[]::new)));
+            }
+        }
+    }
+
+    static final class AsyncInvokeStep extends InvokeStep {
+        AsyncInvokeStep(final Compilers compilers) {
+            super(compilers);
+        }
+
+        void invoke(final CodeBuilder cb, final String desc, final MethodTypeDesc downcallDesc) {
+            // the arena, call state, and errno consumer go along with the call, which completes later
+            if (compilers.allocatorStep instanceof AsyncArenaStep arenaStep) {
+                cb.aload(arenaStep.slot);
+            } else {
+                cb.aconst_null();
+            }
+            if (compilers.captureStep != null) {
+                cb.aload(compilers.captureStep.captureSlot());
+            } else {
+                cb.aconst_null();
+            }
+            if (compilers.errnoConsumerSlot != -1) {
+                cb.aload(compilers.errnoConsumerSlot);
+            } else {
+                cb.aconst_null();
+            }
+            MethodTypeDesc callDesc = downcallDesc.changeReturnType(CD_CompletableFuture)
+                    .insertParameterTypes(downcallDesc.parameterCount(), CD_Arena, CD_MemorySegment, CD_ErrnoConsumer);
+            List<ConstantDesc> args = new ArrayList<>(compilers.structLayouts.size() + 1);
+            args.add(downcallDesc);
+            args.addAll(compilers.structLayouts);
+            cb.invokedynamic(DynamicCallSiteDesc.of(
+                    CD_Bootstraps_async,
+                    desc,
+                    callDesc,
+                    args.toArray(ConstantDesc[]::new)));
+        }
+    }
+
+    static abstract class AllocatorStep extends Step {
+        AllocatorStep() {
+        }
+
+        abstract void loadAllocator(CodeBuilder cb);
+    }
+
+    static abstract class ArenaStep extends AllocatorStep {
+        int slot = -1;
+
+        ArenaStep() {
+        }
+
+        /**
+         * Set up the arena.
+         * The arena should be pushed on to the stack.
+         * The arena allocates from the current native scope, if there is one.
+         *
+         * @param cb the code builder (must not be {@code null})
+         */
+        void setupArena(final CodeBuilder cb) {
+            cb.invokestatic(CD_NativeScope, "openArena", MethodTypeDesc.of(CD_Arena));
+        }
+
+        /**
+         * Release the arena.
+         *
+         * @param cb the code builder (must not be {@code null})
+         */
+        void releaseArena(final CodeBuilder cb) {
+            // free our arena
+            cb.aload(slot);
+            cb.invokeinterface(CD_Arena, "close", MethodTypeDesc.of(CD_void));
+        }
+
+        void loadAllocator(final CodeBuilder cb) {
+            cb.aload(slot);
+        }
+
+        public void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            slot = b0.allocateLocal(TypeKind.REFERENCE);
+            b0.localVariable(slot, "arena", CD_Arena, b0.newBoundLabel(), b0.endLabel());
+            setupArena(b0);
+            b0.astore(slot);
+            b0.trying(b1 -> super.call(b1, steps, index), c1 -> c1.catchingAll(b2 -> {
+                int ex = b2.allocateLocal(TypeKind.REFERENCE);
+                b2.localVariable(ex, "ex" + slot, CD_MemorySegment, b2.newBoundLabel(), b2.endLabel());
+                b2.astore(ex);
+                b2.trying(this::releaseArena, c3 -> c3.catchingAll(b4 -> {
+                    b4.aload(ex);
+                    b4.swap();
+                    b4.invokevirtual(CD_Throwable, "addSuppressed", MethodTypeDesc.of(CD_void, CD_Throwable));
+                }));
+                b2.aload(ex);
+                b2.athrow();
+            }));
+            releaseArenaOnReturn(b0);
+        }
+
+        /**
+         * Release the arena once the call has returned normally.
+         *
+         * @param cb the code builder (must not be {@code null})
+         */
+        void releaseArenaOnReturn(final CodeBuilder cb) {
+            releaseArena(cb);
+        }
+    }
+
+    static final class OnDemandArenaStep extends ArenaStep {
+        OnDemandArenaStep() {
+        }
+
+        void setupArena(final CodeBuilder b0) {
+            b0.aconst_null();
+        }
+
+        void releaseArena(final CodeBuilder b0) {
+            b0.aload(slot);
+            b0.ifThen(Opcode.IFNONNULL, super::releaseArena);
+        }
+
+        void loadAllocator(final CodeBuilder b0) {
+            b0.aload(slot);
+            b0.dup();
+            b0.ifThen(Opcode.IFNULL, b1 -> {
+                b1.pop();
+                super.setupArena(b1);
+                b1.astore(slot);
+                b1.aload(slot);
+            });
+        }
+    }
+
+    static final class AlwaysArenaStep extends ArenaStep {
+        AlwaysArenaStep() {
+        }
+    }
+
+    /**
+     * An arena for the arguments of an asynchronous call, which is created on demand and is shared so that the
+     * pool thread can use it.
+     * Once the call is submitted, the arena is closed by the pool thread instead.
+     */
+    static final class AsyncArenaStep extends ArenaStep {
+        AsyncArenaStep() {
+        }
+
+        void setupArena(final CodeBuilder b0) {
+            b0.aconst_null();
+        }
+
+        void releaseArena(final CodeBuilder b0) {
+            b0.aload(slot);
+            b0.ifThen(Opcode.IFNONNULL, super::releaseArena);
+        }
+
+        void releaseArenaOnReturn(final CodeBuilder b0) {
+            // no operation
+        }
+
+        void loadAllocator(final CodeBuilder b0) {
+            b0.aload(slot);
+            b0.dup();
+            b0.ifThen(Opcode.IFNULL, b1 -> {
+                b1.pop();
+                b1.invokestatic(CD_Arena, "ofShared", MethodTypeDesc.of(CD_Arena), true);
+                b1.astore(slot);
+                b1.aload(slot);
+            });
+        }
+    }
+
+    static final class UserSuppliedSegmentAllocatorStep extends AllocatorStep {
+        private final int slot;
+
+        UserSuppliedSegmentAllocatorStep(final int slot) {
+            this.slot = slot;
+        }
+
+        void loadAllocator(final CodeBuilder cb) {
+            cb.aload(slot);
+        }
+    }
+
+    static abstract class CaptureStep extends Step {
+        final Compilers compilers;
+
+        CaptureStep(final Compilers compilers) {
+            this.compilers = compilers;
+        }
+
+        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            if (compilers.errno) {
+                sb.append('e');
+            }
+            if (compilers.lastError) {
+                sb.append('E');
+            }
+            if (compilers.wsaLastError) {
+                sb.append('W');
+            }
+            super.setUpDesc(steps, index, sb);
+        }
+
+        abstract int captureSlot();
+    }
+
+    static final class UserProvidedCaptureStep extends CaptureStep {
+        private final int slot;
+
+        UserProvidedCaptureStep(final Compilers compilers, final int slot) {
+            super(compilers);
+            this.slot = slot;
+        }
+
+        int captureSlot() {
+            return slot;
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            cb.aload(slot);
+            super.call(cb, steps, index);
+        }
+    }
+
+    static final class AllocatedCaptureStep extends CaptureStep {
+        private int slot = -1;
+
+        AllocatedCaptureStep(final Compilers compilers) {
+            super(compilers);
+        }
+
+        int captureSlot() {
+            return slot;
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
+
+        /**
+         * Allocate the capture buffer.
+         * This is done on the first call, unless it was done beforehand.
+         *
+         * @param cb the code builder (must not be {@code null})
+         */
+        void allocate(final CodeBuilder cb) {
+            slot = cb.allocateLocal(TypeKind.REFERENCE);
+            cb.localVariable(slot, "capture", CD_MemorySegment, cb.newBoundLabel(), cb.endLabel());
+            compilers.allocatorStep.loadAllocator(cb);
+            cb.invokestatic(CD_Linker_Option, "captureStateLayout", MethodTypeDesc.of(CD_StructLayout), true);
+            cb.invokeinterface(CD_SegmentAllocator, "allocate", MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout));
+            cb.astore(slot);
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            if (slot == -1) {
+                allocate(cb);
+            }
+            cb.aload(slot);
+            super.call(cb, steps, index);
+        }
+    }
+
+    static final class ErrnoConsumerStep extends Step {
+        private final Compilers compilers;
+        private final int slot;
+
+        ErrnoConsumerStep(final Compilers compilers, final int slot) {
+            this.compilers = compilers;
+            this.slot = slot;
+        }
 
-    static String valueLayoutName(ClassDesc primType) {
-        return switch (primType.descriptorString().charAt(0)) {
-            case 'B' -> "JAVA_BYTE";
-            case 'C' -> "JAVA_CHAR";
-            case 'D' -> "JAVA_DOUBLE";
-            case 'F' -> "JAVA_FLOAT";
-            case 'I' -> "JAVA_INT";
-            case 'J' -> "JAVA_LONG";
-            case 'S' -> "JAVA_SHORT";
-            case 'Z' -> "JAVA_BOOLEAN";
-            default -> throw new IllegalStateException();
-        };
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            super.call(cb, steps, index);
+            cb.aload(slot);
+            cb.loadConstant(DCD_errno_VarHandle);
+            cb.aload(compilers.captureStep.captureSlot());
+            cb.lconst_0();
+            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(CD_int, CD_MemorySegment, CD_long));
+            cb.invokestatic(CD_Errno, "ofNativeValue", MethodTypeDesc.of(CD_Errno, CD_int));
+            cb.invokeinterface(CD_ErrnoConsumer, "accept", MethodTypeDesc.of(CD_void, CD_Errno));
+        }
     }
 
-    static ClassDesc valueLayoutType(ClassDesc primType) {
-        return switch (primType.descriptorString().charAt(0)) {
-            case 'B' -> CD_ValueLayout_OfByte;
-            case 'C' -> CD_ValueLayout_OfChar;
-            case 'D' -> CD_ValueLayout_OfDouble;
-            case 'F' -> CD_ValueLayout_OfFloat;
-            case 'I' -> CD_ValueLayout_OfInt;
-            case 'J' -> CD_ValueLayout_OfLong;
-            case 'S' -> CD_ValueLayout_OfShort;
-            case 'Z' -> CD_ValueLayout_OfBoolean;
-            default -> throw new IllegalStateException();
-        };
+    static final class LastErrorConsumerStep extends Step {
+        private final Compilers compilers;
+        private final int slot;
+
+        LastErrorConsumerStep(final Compilers compilers, final int slot) {
+            this.compilers = compilers;
+            this.slot = slot;
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            super.call(cb, steps, index);
+            cb.aload(slot);
+            cb.loadConstant(DCD_LastError_VarHandle);
+            cb.aload(compilers.captureStep.captureSlot());
+            cb.lconst_0();
+            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(CD_int, CD_MemorySegment, CD_long));
+            cb.invokeinterface(CD_LastErrorConsumer, "accept", MethodTypeDesc.of(CD_void, CD_int));
+        }
     }
 
-    static final class Compilers {
-        AllocatorStep allocatorStep;
-        CaptureStep captureStep;
-        boolean errno = false;
-        boolean lastError = false;
-        boolean wsaLastError = false;
+    static final class WSALastErrorConsumerStep extends Step {
+        private final Compilers compilers;
+        private final int slot;
+
+        WSALastErrorConsumerStep(final Compilers compilers, final int slot) {
+            this.compilers = compilers;
+            this.slot = slot;
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            super.call(cb, steps, index);
+            cb.aload(slot);
+            cb.loadConstant(DCD_WSALastError_VarHandle);
+            cb.aload(compilers.captureStep.captureSlot());
+            cb.lconst_0();
+            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(CD_int, CD_MemorySegment, CD_long));
+            cb.invokeinterface(CD_WSALastErrorConsumer, "accept", MethodTypeDesc.of(CD_void, CD_int));
+        }
     }
 
-    abstract static class Step {
-        Step() {
+    static final class SimpleArgumentStep extends Step {
+        private final ClassDesc paramDesc;
+        private final String asType;
+        private final int slot;
+
+        SimpleArgumentStep(final ClassDesc paramDesc, final String asType, final int slot) {
+            this.paramDesc = paramDesc;
+            this.asType = asType;
+            this.slot = slot;
         }
 
-        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            int next = index + 1;
-            steps.get(next).setUpDesc(steps, next, sb);
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append(asTypeToDesc(asType));
+            super.addParamDesc(steps, index, sb);
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(paramDesc);
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
+
+        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            b0.loadLocal(TypeKind.from(paramDesc), slot);
+            super.call(b0, steps, index);
+        }
+    }
+
+    static final class SegmentArgumentStep extends Step {
+        private final Compilers compilers;
+        private final int slot;
+        private final boolean in, out;
+
+        SegmentArgumentStep(final Compilers compilers, final int slot, final boolean in, final boolean out) {
+            this.compilers = compilers;
+            this.slot = slot;
+            this.in = in;
+            this.out = out;
         }
 
         void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            int next = index + 1;
-            steps.get(next).addParamDesc(steps, next, sb);
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
 
-        void setReturnDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            int next = index + 1;
-            steps.get(next).setReturnDesc(steps, next, sb);
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        /**
-         * {@return the return type of the downcall method}
-         */
-        ClassDesc getReturnType(final List<Step> steps, final int index) {
-            int next = index + 1;
-            return steps.get(next).getReturnType(steps, next);
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            cb.block(b0 -> {
+                int isNative = -1;
+                int temp = b0.allocateLocal(TypeKind.REFERENCE);
+                b0.aconst_null();
+                b0.localVariable(temp, "temp" + slot, CD_MemorySegment, b0.newBoundLabel(), b0.endLabel());
+                b0.astore(temp);
+                b0.lconst_0();
+                int size = b0.allocateLocal(TypeKind.LONG);
+                b0.localVariable(size, "size" + slot, CD_long, b0.newBoundLabel(), b0.endLabel());
+                b0.lstore(size);
+                b0.aload(slot);
+                b0.invokeinterface(CD_MemorySegment, "isNative", MethodTypeDesc.of(CD_boolean));
+                if (out) {
+                    // save for later
+                    isNative = b0.allocateLocal(TypeKind.BOOLEAN);
+                    b0.dup();
+                    b0.localVariable(isNative, "isNative" + slot, CD_boolean, b0.newBoundLabel(), b0.endLabel());
+                    b0.istore(isNative);
+                }
+                b0.ifThenElse(b1 -> {
+                    // buffer is native or null; just load it
+                    b1.aload(slot);
+                }, b1 -> {
+                    // buffer is heap; allocate temp buf and copy to it
+                    compilers.allocatorStep.loadAllocator(b1);
+                    b1.aload(slot);
+                    b1.invokeinterface(CD_MemorySegment, "byteSize", MethodTypeDesc.of(CD_long));
+                    b1.dup2();
+                    b1.lstore(size);
+                    b1.invokeinterface(CD_SegmentAllocator, "allocate", MethodTypeDesc.of(CD_MemorySegment, CD_long));
+                    b1.astore(temp);
+                    if (in) {
+                        // copy the data into the temporary segment
+                        b1.aload(slot);
+                        b1.lconst_0();
+                        b1.aload(temp);
+                        b1.lconst_0();
+                        b1.lload(size);
+                        b1.invokestatic(CD_MemorySegment, "copy", MethodTypeDesc.of(
+                                CD_void,
+                                CD_MemorySegment,
+                                CD_long,
+                                CD_MemorySegment,
+                                CD_long,
+                                CD_long), true);
+                    }
+                    b1.aload(temp);
+                });
+                super.call(b0, steps, index);
+                if (out) {
+                    b0.iload(isNative);
+                    b0.ifThen(Opcode.IFEQ, b1 -> {
+                        // copy the data out of the temporary segment
+                        b1.aload(temp);
+                        b1.lconst_0();
+                        b1.aload(slot);
+                        b1.lconst_0();
+                        b1.lload(size);
+                        b1.invokestatic(CD_MemorySegment, "copy", MethodTypeDesc.of(
+                                CD_void,
+                                CD_MemorySegment,
+                                CD_long,
+                                CD_MemorySegment,
+                                CD_long,
+                                CD_long), true);
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Step that passes a buffer parameter to a heap-accessing critical call as a pointer to its remaining elements.
+     */
+    static final class HeapBufferArgumentStep extends Step {
+        private final int slot;
+        private final int advanceShift;
+
+        HeapBufferArgumentStep(final int slot, final int advanceShift) {
+            this.slot = slot;
+            this.advanceShift = advanceShift;
+        }
+
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
 
         void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            int next = index + 1;
-            steps.get(next).addDowncallArgsDescs(steps, next, descs);
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            cb.aload(slot);
+            cb.invokestatic(CD_Bootstraps, "bufferSegment", MethodTypeDesc.of(CD_MemorySegment, CD_Buffer));
+            super.call(cb, steps, index);
+            if (advanceShift != -1) {
+                advanceBuffer(cb, super.getReturnType(steps, index), slot, advanceShift);
+            }
         }
+    }
+
+    /**
+     * Step that passes a buffer parameter as a pointer to its remaining elements.
+     * Direct buffers are passed without copying, while the remaining elements of heap buffers
+     * are copied through a temporary native segment.
+     */
+    static final class BufferArgumentStep extends Step {
+        private final Compilers compilers;
+        private final int bufferSlot;
+        private final boolean in, out;
+        private final int advanceShift;
 
-        void call(CodeBuilder cb, final List<Step> steps, final int index) {
-            int next = index + 1;
-            steps.get(next).call(cb, steps, next);
+        BufferArgumentStep(final Compilers compilers, final int bufferSlot, final boolean in, final boolean out,
+                final int advanceShift) {
+            this.compilers = compilers;
+            this.bufferSlot = bufferSlot;
+            this.in = in;
+            this.out = out;
+            this.advanceShift = advanceShift;
         }
-    }
-
-    static final class ResolvedSymbolStep extends Step {
-        private final String name;
-        private final List<String> libs;
 
-        ResolvedSymbolStep(final String name, final List<String> libs) {
-            this.name = name;
-            this.libs = libs;
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
 
         void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            // the function pointer
             descs.add(CD_MemorySegment);
-            // remaining arguments
             super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        /**
-         * Recursively build up the symbol lookup to use for this method.
-         * Note that if two methods use the same symbol lookup sequence, they should end up collapsing to a single constant.
-         *
-         * @param index the list index (0 <= n <= libs.size())
-         * @return the outermost constant
-         */
-        DynamicConstantDesc<SymbolLookup> buildSymbolLookup(int index) {
-            if (index == libs.size()) {
-                // no more lib specs, next is "empty"
-                return DCD_Bootstraps_emptySymbolLookup;
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            int slot = cb.allocateLocal(TypeKind.REFERENCE);
+            cb.localVariable(slot, "segment" + bufferSlot, CD_MemorySegment, cb.newBoundLabel(), cb.endLabel());
+            cb.aload(bufferSlot);
+            cb.invokestatic(CD_Bootstraps, "bufferSegment", MethodTypeDesc.of(CD_MemorySegment, CD_Buffer));
+            cb.astore(slot);
+            // the remaining elements are passed like any other segment
+            new SegmentArgumentStep(compilers, slot, in, out).call(cb, steps, index);
+            if (advanceShift != -1) {
+                advanceBuffer(cb, super.getReturnType(steps, index), bufferSlot, advanceShift);
             }
-            // else recurse first, then wrap
-            DynamicConstantDesc<SymbolLookup> next = buildSymbolLookup(index + 1);
-            String val = libs.get(index);
-            return switch (val) {
-                case "<<SYSTEM>>" -> DynamicConstantDesc.ofNamed(
-                        CD_Bootstraps_defaultLookup,
-                        "_",
-                        CD_SymbolLookup,
-                        next);
-                case "<<LOADER>>" -> DynamicConstantDesc.ofNamed(
-                        CD_Bootstraps_loaderLookup,
-                        "_",
-                        CD_SymbolLookup,
-                        next);
-                default -> DynamicConstantDesc.ofNamed(
-                        CD_Bootstraps_libraryLookup,
-                        val,
-                        CD_SymbolLookup,
-                        DCD_Bootstraps_autoArena,
-                        next);
-            };
         }
+    }
 
-        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
-            // get the resolved symbol before anything else (throws an exception if unresolved)
-            cb.invokedynamic(DynamicCallSiteDesc.of(
-                    CD_Bootstraps_linkSymbol,
-                    name,
-                    MethodTypeDesc.of(CD_MemorySegment),
-                    buildSymbolLookup(0)));
-            super.call(cb, steps, index);
+    /**
+     * Emit a call to advance the position of a buffer by the call result, which is on the top of the stack.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param returnType the type of the call result (must not be {@code null})
+     * @param bufferSlot the local variable slot of the buffer
+     * @param shift the number of bits to shift the call result right by to get a count of buffer elements
+     */
+    static void advanceBuffer(final CodeBuilder cb, final ClassDesc returnType, final int bufferSlot, final int shift) {
+        switch (returnType.descriptorString()) {
+            case "J" -> cb.dup2();
+            case "B", "I", "S" -> {
+                cb.dup();
+                cb.i2l();
+            }
+            default -> throw new IllegalArgumentException("@Advance requires a method with an integer return type");
         }
+        cb.aload(bufferSlot);
+        cb.loadConstant(shift);
+        cb.invokestatic(CD_Bootstraps, "advanceBuffer", MethodTypeDesc.of(CD_void, CD_long, CD_Buffer, CD_int));
     }
 
-    static final class UserSymbolStep extends Step {
+    static final class StringArgumentStep extends Step {
+
+        private final Compilers compilers;
+        private final ClassDesc paramType;
         private final int slot;
+        private final String charset;
+        private final boolean wide;
 
-        UserSymbolStep(final int slot) {
+        StringArgumentStep(final Compilers compilers, final ClassDesc paramType, final int slot, final String charset,
+                final boolean wide) {
+            this.compilers = compilers;
+            this.paramType = paramType;
             this.slot = slot;
+            this.charset = charset;
+            this.wide = wide;
+        }
+
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
 
         void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            // the function pointer
             descs.add(CD_MemorySegment);
-            // remaining arguments
             super.addDowncallArgsDescs(steps, index, descs);
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            this.compilers.allocatorStep.loadAllocator(cb);
             cb.aload(slot);
+            if (wide) {
+                // NativeStrings.allocateWide(allocator, str)
+                cb.invokestatic(CD_NativeStrings, "allocateWide",
+                        MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, paramType));
+            } else {
+                // NativeStrings.allocateFrom(allocator, str, charset)
+                loadCharset(cb, charset);
+                cb.invokestatic(CD_NativeStrings, "allocateFrom",
+                        MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, paramType, CD_Charset));
+            }
+            int strBuf = cb.allocateLocal(TypeKind.REFERENCE);
+            cb.astore(strBuf);
+            cb.localVariable(strBuf, "strBuf" + slot, CD_MemorySegment, cb.newBoundLabel(), cb.endLabel());
+            cb.aload(strBuf);
             super.call(cb, steps, index);
         }
     }
 
-    static final class ReturnStep extends Step {
-        private final String asType;
+    /**
+     * Step that passes a {@code String} parameter as an interned native string, which requires no allocation.
+     */
+    static final class InternedStringArgumentStep extends Step {
+        private final int slot;
+        private final String charset;
 
-        ReturnStep(final String asType) {
-            this.asType = asType;
+        InternedStringArgumentStep(final int slot, final String charset) {
+            this.slot = slot;
+            this.charset = charset;
         }
 
-        void setReturnDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            String asType = this.asType;
-            sb.append(switch (asType) {
-                case "void" -> "V";
-                default -> asTypeToDesc(asType);
-            });
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            // NativeStrings.intern(str, charset)
+            cb.aload(slot);
+            loadCharset(cb, charset);
+            cb.invokestatic(CD_NativeStrings, "intern", MethodTypeDesc.of(CD_MemorySegment, CD_String, CD_Charset));
             super.call(cb, steps, index);
-            // return the result
-            cb.return_(TypeKind.from(super.getReturnType(steps, index)));
         }
     }
 
-    private static String asTypeToDesc(final String asType) {
-        return switch (asType) {
-            case "stdc_char" -> "c";
-            case "stdc_signed_char" -> "sc";
-            case "stdc_unsigned_char" -> "uc";
-            case "stdc_short" -> "ss";
-            case "stdc_unsigned_short" -> "us";
-            case "stdc_int" -> "si";
-            case "stdc_unsigned_int" -> "ui";
-            case "stdc_long" -> "sl";
-            case "stdc_unsigned_long" -> "ul";
-            case "stdc_long_long", "s64", "off_t" -> "sJ";
-            case "stdc_unsigned_long_long", "u64" -> "uJ";
-            case "stdc_bool" -> "Z";
-            case "stdc_wchar_t" -> "w";
-            case "s8" -> "sB";
-            case "s16" -> "sS";
-            case "s32" -> "sI";
-            case "u8" -> "uB";
-            case "u16" -> "uS";
-            case "u32" -> "uI";
-            case "f32" -> "F";
-            case "f64" -> "D";
-            case "intptr", "ssize_t" -> "s*";
-            case "uintptr", "size_t" -> "u*";
-            case "ptr" -> "*";
-            default -> throw new IllegalStateException();
-        };
-    }
-
-    static final class CriticalStep extends Step {
-        private final boolean heap;
+    /**
+     * Step that marshals a {@code String[]} parameter as a {@code NULL}-terminated native array of pointers
+     * to strings, which is allocated along with the strings as a single block.
+     * Depending on the {@code @In}/{@code @Out} annotations, the strings are encoded before the call
+     * and/or the strings pointed to by the array are decoded back into the Java array after the call.
+     */
+    static class StringArrayArgumentStep extends Step {
+        private final Compilers compilers;
+        private final int arraySlot;
+        private final String charset;
+        private final boolean in;
+        private final boolean out;
+        private int segmentSlot;
 
-        CriticalStep(final boolean heap) {
-            this.heap = heap;
+        private StringArrayArgumentStep(final Compilers compilers, final int arraySlot, final String charset,
+                final boolean in, final boolean out) {
+            this.compilers = compilers;
+            this.arraySlot = arraySlot;
+            this.charset = charset;
+            this.in = in;
+            this.out = out;
         }
 
-        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            sb.append(heap ? 'R' : 'r');
-            super.setUpDesc(steps, index, sb);
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
-    }
 
-    static final class InvokeStep extends Step {
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
 
-        InvokeStep() {
+        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            b0.block(b1 -> {
+                compilers.allocatorStep.loadAllocator(b1);
+                b1.aload(arraySlot);
+                if (in) {
+                    // NativeStrings.allocateFrom(allocator, array, charset)
+                    loadCharset(b1, charset);
+                    b1.invokestatic(CD_NativeStrings, "allocateFrom",
+                            MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, CD_StringArray, CD_Charset));
+                } else {
+                    // out-only: array == null ? MemorySegment.NULL : NativeStrings.allocatePointers(allocator, array.length)
+                    b1.ifThenElse(Opcode.IFNULL, b2 -> {
+                        b2.pop();
+                        b2.getstatic(CD_MemorySegment, "NULL", CD_MemorySegment);
+                    }, b2 -> {
+                        b2.aload(arraySlot);
+                        b2.arraylength();
+                        b2.invokestatic(CD_NativeStrings, "allocatePointers",
+                                MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, CD_int));
+                    });
+                }
+                segmentSlot = b1.allocateLocal(TypeKind.REFERENCE);
+                b1.localVariable(segmentSlot, "segment" + arraySlot, CD_MemorySegment, b1.newBoundLabel(), b1.endLabel());
+                b1.dup();
+                b1.astore(segmentSlot);
+                // make the call
+                super.call(b1, steps, index);
+                // decode the strings back if needed
+                if (out) {
+                    // if (array != null) NativeStrings.copyFromNative(segment, array, charset)
+                    b1.aload(arraySlot);
+                    b1.ifThen(Opcode.IFNONNULL, b2 -> {
+                        b2.aload(segmentSlot);
+                        b2.aload(arraySlot);
+                        loadCharset(b2, charset);
+                        b2.invokestatic(CD_NativeStrings, "copyFromNative",
+                                MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_StringArray, CD_Charset));
+                    });
+                }
+            });
         }
+    }
 
-        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            sb.append('(');
-            steps.getFirst().addParamDesc(steps, 0, sb);
+    static class PrimitiveArrayArgumentCopyStep extends Step {
+        private final Compilers compilers;
+        private final ClassDesc arrayType;
+        private final int arraySlot;
+        private final boolean in;
+        private final boolean out;
+        private int segmentSlot;
+
+        private PrimitiveArrayArgumentCopyStep(final Compilers compilers, final ClassDesc arrayType, final int arraySlot,
+                final boolean in, final boolean out) {
+            this.compilers = compilers;
+            this.arrayType = arrayType;
+            this.arraySlot = arraySlot;
+            this.in = in;
+            this.out = out;
         }
 
         void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            sb.append(')');
-            steps.getFirst().setReturnDesc(steps, 0, sb);
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
 
-        void setReturnDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            sb.append('V');
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        ClassDesc getReturnType(final List<Step> steps, final int index) {
-            return CD_void;
+        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            b0.block(b1 -> {
+                compilers.allocatorStep.loadAllocator(b1);
+                String layoutName = valueLayoutName(arrayType.componentType());
+                ClassDesc layoutType = valueLayoutType(arrayType.componentType());
+                b1.getstatic(CD_ValueLayout, layoutName, layoutType);
+                if (in) {
+                    // copy into temp buffer
+                    b1.aload(arraySlot);
+                    //    default MemorySegment allocateFrom(ValueLayout.Of<Type> elementLayout, <type>... elements) {
+                    b1.invokeinterface(CD_SegmentAllocator, "allocateFrom",
+                            MethodTypeDesc.of(CD_MemorySegment, layoutType, arrayType));
+                } else {
+                    // out-only
+                    b1.aload(arraySlot);
+                    b1.arraylength();
+                    b1.i2l();
+                    //    default MemorySegment allocate(MemoryLayout elementLayout, long count) {
+                    b1.invokeinterface(CD_SegmentAllocator, "allocate",
+                            MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout, CD_long));
+                }
+                segmentSlot = b1.allocateLocal(TypeKind.REFERENCE);
+                b1.localVariable(segmentSlot, "segment" + arraySlot, CD_MemorySegment, b1.newBoundLabel(), b1.endLabel());
+                b1.dup();
+                b1.astore(segmentSlot);
+                // make the call
+                super.call(b1, steps, index);
+                // copy back to the array if needed
+                if (out) {
+                    // copy from temp buffer
+                    //    static void copy(MemorySegment srcSegment, ValueLayout srcLayout, long srcOffset,
+                    //                     Object dstArray, int dstIndex,
+                    //                     int elementCount) {
+                    b1.aload(segmentSlot); // srcSegment
+                    b1.getstatic(CD_ValueLayout, layoutName, layoutType); // srcLayout
+                    b1.lconst_0(); // srcOffset
+                    b1.aload(arraySlot); // dstArray
+                    b1.iconst_0(); // dstIndex
+                    b1.aload(arraySlot);
+                    b1.arraylength(); // elementCount
+                    b1.invokestatic(CD_MemorySegment, "copy",
+                            MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_ValueLayout, CD_long, CD_Object, CD_int, CD_int),
+                            true);
+                }
+            });
         }
+    }
 
-        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            // no operation
-        }
+    /**
+     * Step that marshals a primitive array parameter as a native array with a different element type
+     * and/or byte order, converting the elements in and/or out using {@code NativeArrays}.
+     */
+    static class ConvertingArrayArgumentStep extends Step {
+        private final Compilers compilers;
+        private final ClassDesc arrayType;
+        private final String elementType;
+        private final boolean bigEndian;
+        private final int arraySlot;
+        private final boolean in;
+        private final boolean out;
+        private int segmentSlot;
 
-        public void call(final CodeBuilder b0, final List<Step> steps, final int index) {
-            // get the downcall descriptor
-            List<ClassDesc> downcallDescs = new ArrayList<>(steps.size());
-            steps.getFirst().addDowncallArgsDescs(steps, 0, downcallDescs);
-            StringBuilder descBuilder = new StringBuilder(64);
-            steps.getFirst().setUpDesc(steps, 0, descBuilder);
-            ClassDesc returnType = steps.getFirst().getReturnType(steps, 0);
-            MethodTypeDesc downcallDesc = MethodTypeDesc.of(returnType, downcallDescs);
-            // do not call super (we are the end)
-            // write the actual call
-            b0.invokedynamic(DynamicCallSiteDesc.of(
-                    CD_Bootstraps_downcall,
-                    descBuilder.toString(),
-                    downcallDesc));
+        private ConvertingArrayArgumentStep(final Compilers compilers, final ClassDesc arrayType, final String elementType,
+                final boolean bigEndian, final int arraySlot, final boolean in, final boolean out) {
+            this.compilers = compilers;
+            this.arrayType = arrayType;
+            this.elementType = elementType;
+            this.bigEndian = bigEndian;
+            this.arraySlot = arraySlot;
+            this.in = in;
+            this.out = out;
         }
-    }
 
-    static abstract class AllocatorStep extends Step {
-        AllocatorStep() {
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
 
-        abstract void loadAllocator(CodeBuilder cb);
-    }
-
-    static abstract class ArenaStep extends AllocatorStep {
-        int slot = -1;
-
-        ArenaStep() {
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        /**
-         * Set up the arena.
-         * The arena should be pushed on to the stack.
-         *
-         * @param cb the code builder (must not be {@code null})
-         */
-        void setupArena(final CodeBuilder cb) {
-            cb.invokestatic(CD_Arena, "ofConfined", MethodTypeDesc.of(CD_Arena), true);
+        private void loadLayout(final CodeBuilder cb) {
+            cb.loadConstant(DynamicConstantDesc.ofNamed(
+                    CD_Bootstraps_arrayElementLayout,
+                    elementType,
+                    CD_ValueLayout,
+                    bigEndian ? 1 : 0));
         }
 
-        /**
-         * Release the arena.
-         *
-         * @param cb the code builder (must not be {@code null})
-         */
-        void releaseArena(final CodeBuilder cb) {
-            // free our arena
-            cb.aload(slot);
-            cb.invokeinterface(CD_Arena, "close", MethodTypeDesc.of(CD_void));
+        private boolean isFloating() {
+            return elementType.equals("f32") || elementType.equals("f64");
         }
 
-        void loadAllocator(final CodeBuilder cb) {
-            cb.aload(slot);
+        private void loadSigned(final CodeBuilder cb) {
+            // signedness of some types is platform-specific
+            cb.getstatic(CD_AsType, elementType, CD_AsType);
+            cb.invokevirtual(CD_AsType, "isSigned", MethodTypeDesc.of(CD_boolean));
         }
 
-        public void call(final CodeBuilder b0, final List<Step> steps, final int index) {
-            slot = b0.allocateLocal(TypeKind.REFERENCE);
-            b0.localVariable(slot, "arena", CD_Arena, b0.newBoundLabel(), b0.endLabel());
-            setupArena(b0);
-            b0.astore(slot);
-            b0.trying(b1 -> super.call(b1, steps, index), c1 -> c1.catchingAll(b2 -> {
-                int ex = b2.allocateLocal(TypeKind.REFERENCE);
-                b2.localVariable(ex, "ex" + slot, CD_MemorySegment, b2.newBoundLabel(), b2.endLabel());
-                b2.astore(ex);
-                b2.trying(this::releaseArena, c3 -> c3.catchingAll(b4 -> {
-                    b4.aload(ex);
-                    b4.swap();
-                    b4.invokevirtual(CD_Throwable, "addSuppressed", MethodTypeDesc.of(CD_void, CD_Throwable));
-                }));
-                b2.aload(ex);
-                b2.athrow();
-            }));
-            releaseArena(b0);
+        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            b0.block(b1 -> {
+                compilers.allocatorStep.loadAllocator(b1);
+                loadLayout(b1);
+                if (in) {
+                    // NativeArrays.allocateFrom(allocator, layout, [signed,] array)
+                    if (isFloating()) {
+                        b1.aload(arraySlot);
+                        b1.invokestatic(CD_NativeArrays, "allocateFrom",
+                                MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, CD_ValueLayout, arrayType));
+                    } else {
+                        loadSigned(b1);
+                        b1.aload(arraySlot);
+                        b1.invokestatic(CD_NativeArrays, "allocateFrom",
+                                MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, CD_ValueLayout, CD_boolean,
+                                        arrayType));
+                    }
+                } else {
+                    // out-only: allocator.allocate(layout, array.length)
+                    b1.aload(arraySlot);
+                    b1.arraylength();
+                    b1.i2l();
+                    b1.invokeinterface(CD_SegmentAllocator, "allocate",
+                            MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout, CD_long));
+                }
+                segmentSlot = b1.allocateLocal(TypeKind.REFERENCE);
+                b1.localVariable(segmentSlot, "segment" + arraySlot, CD_MemorySegment, b1.newBoundLabel(), b1.endLabel());
+                b1.dup();
+                b1.astore(segmentSlot);
+                // make the call
+                super.call(b1, steps, index);
+                // convert back to the array if needed
+                if (out) {
+                    // NativeArrays.copyToArray(segment, layout, [signed,] array)
+                    b1.aload(segmentSlot);
+                    loadLayout(b1);
+                    if (isFloating()) {
+                        b1.aload(arraySlot);
+                        b1.invokestatic(CD_NativeArrays, "copyToArray",
+                                MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_ValueLayout, arrayType));
+                    } else {
+                        loadSigned(b1);
+                        b1.aload(arraySlot);
+                        b1.invokestatic(CD_NativeArrays, "copyToArray",
+                                MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_ValueLayout, CD_boolean, arrayType));
+                    }
+                }
+            });
         }
     }
 
-    static final class OnDemandArenaStep extends ArenaStep {
-        OnDemandArenaStep() {
-        }
+    /**
+     * Step that marshals a {@code MemorySegment[]} parameter as a native array of pointers.
+     * Allocates a contiguous native segment of {@code ADDRESS}-sized slots and, depending on
+     * the {@code @In}/{@code @Out} annotations, copies addresses in before the call
+     * and/or reads them back after.
+     */
+    static class SegmentArrayArgumentCopyStep extends Step {
+        private final Compilers compilers;
+        private final int arraySlot;
+        private final boolean in;
+        private final boolean out;
+        private int segmentSlot;
 
-        void setupArena(final CodeBuilder b0) {
-            b0.aconst_null();
+        private SegmentArrayArgumentCopyStep(final Compilers compilers, final int arraySlot,
+                final boolean in, final boolean out) {
+            this.compilers = compilers;
+            this.arraySlot = arraySlot;
+            this.in = in;
+            this.out = out;
         }
 
-        void releaseArena(final CodeBuilder b0) {
-            b0.aload(slot);
-            b0.ifThen(Opcode.IFNONNULL, super::releaseArena);
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
 
-        void loadAllocator(final CodeBuilder b0) {
-            b0.aload(slot);
-            b0.dup();
-            b0.ifThen(Opcode.IFNULL, b1 -> {
-                b1.pop();
-                super.setupArena(b1);
-                b1.astore(slot);
-                b1.aload(slot);
-            });
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
         }
-    }
 
-    static final class AlwaysArenaStep extends ArenaStep {
-        AlwaysArenaStep() {
+        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            b0.block(b1 -> {
+                compilers.allocatorStep.loadAllocator(b1);
+                if (in) {
+                    // Bootstraps.copySegmentArrayToNative(allocator, array)
+                    b1.aload(arraySlot);
+                    b1.invokestatic(CD_Bootstraps, "copySegmentArrayToNative",
+                            MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, CD_MemorySegmentArray));
+                } else {
+                    // out-only: allocator.allocate(ADDRESS, array.length)
+                    b1.getstatic(CD_ValueLayout, "ADDRESS", CD_AddressLayout);
+                    b1.aload(arraySlot);
+                    b1.arraylength();
+                    b1.i2l();
+                    b1.invokeinterface(CD_SegmentAllocator, "allocate",
+                            MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout, CD_long));
+                }
+                segmentSlot = b1.allocateLocal(TypeKind.REFERENCE);
+                b1.localVariable(segmentSlot, "segment" + arraySlot, CD_MemorySegment, b1.newBoundLabel(), b1.endLabel());
+                b1.dup();
+                b1.astore(segmentSlot);
+                // make the call
+                super.call(b1, steps, index);
+                // copy addresses back if needed
+                if (out) {
+                    // Bootstraps.copySegmentArrayFromNative(segment, array)
+                    b1.aload(segmentSlot);
+                    b1.aload(arraySlot);
+                    b1.invokestatic(CD_Bootstraps, "copySegmentArrayFromNative",
+                            MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_MemorySegmentArray));
+                }
+            });
         }
     }
 
-    static final class UserSuppliedSegmentAllocatorStep extends AllocatorStep {
-        private final int slot;
+    /**
+     * Step that marshals a {@code MemorySegment[]} or {@code ByteBuffer[]} parameter as a native array of
+     * {@code struct iovec}.
+     * Heap segments and buffers are copied in before the call and/or out after the call, depending on
+     * the {@code @In}/{@code @Out} annotations.
+     */
+    static class IoVecArgumentStep extends Step {
+        private final Compilers compilers;
+        private final ClassDesc arrayType;
+        private final int arraySlot;
+        private final boolean in;
+        private final boolean out;
+        private final boolean advance;
+        private int segmentSlot;
 
-        UserSuppliedSegmentAllocatorStep(final int slot) {
-            this.slot = slot;
+        private IoVecArgumentStep(final Compilers compilers, final ClassDesc arrayType, final int arraySlot,
+                final boolean in, final boolean out, final boolean advance) {
+            this.compilers = compilers;
+            this.arrayType = arrayType;
+            this.arraySlot = arraySlot;
+            this.in = in;
+            this.out = out;
+            this.advance = advance;
         }
 
-        void loadAllocator(final CodeBuilder cb) {
-            cb.aload(slot);
+        void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
+            sb.append('*');
+            super.addParamDesc(steps, index, sb);
         }
-    }
 
-    static abstract class CaptureStep extends Step {
-        final Compilers compilers;
-
-        CaptureStep(final Compilers compilers) {
-            this.compilers = compilers;
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_MemorySegment);
+            super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        void setUpDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            if (compilers.errno) {
-                sb.append('e');
-            }
-            if (compilers.lastError) {
-                sb.append('E');
-            }
-            if (compilers.wsaLastError) {
-                sb.append('W');
-            }
-            super.setUpDesc(steps, index, sb);
+        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
+            b0.block(b1 -> {
+                // Bootstraps.copyIoVecToNative(allocator, array, in)
+                compilers.allocatorStep.loadAllocator(b1);
+                b1.aload(arraySlot);
+                b1.loadConstant(in ? 1 : 0);
+                b1.invokestatic(CD_Bootstraps, "copyIoVecToNative",
+                        MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, arrayType, CD_boolean));
+                segmentSlot = b1.allocateLocal(TypeKind.REFERENCE);
+                b1.localVariable(segmentSlot, "iov" + arraySlot, CD_MemorySegment, b1.newBoundLabel(), b1.endLabel());
+                b1.dup();
+                b1.astore(segmentSlot);
+                // make the call
+                super.call(b1, steps, index);
+                // copy heap content back if needed
+                if (out) {
+                    // Bootstraps.copyIoVecFromNative(iov, array)
+                    b1.aload(segmentSlot);
+                    b1.aload(arraySlot);
+                    b1.invokestatic(CD_Bootstraps, "copyIoVecFromNative",
+                            MethodTypeDesc.of(CD_void, CD_MemorySegment, arrayType));
+                }
+                if (advance) {
+                    switch (super.getReturnType(steps, index).descriptorString()) {
+                        case "J" -> b1.dup2();
+                        case "B", "I", "S" -> {
+                            b1.dup();
+                            b1.i2l();
+                        }
+                        default -> throw new IllegalArgumentException(
+                                "@Advance requires a method with an integer return type");
+                    }
+                    b1.aload(arraySlot);
+                    b1.invokestatic(CD_Bootstraps, "advanceBuffers", MethodTypeDesc.of(CD_void, CD_long, arrayType));
+                }
+            });
         }
-
-        abstract int captureSlot();
     }
 
-    static final class UserProvidedCaptureStep extends CaptureStep {
-        private final int slot;
+    static class SimpleResultStep extends Step {
+        private final ClassDesc returnType;
 
-        UserProvidedCaptureStep(final Compilers compilers, final int slot) {
-            super(compilers);
-            this.slot = slot;
+        SimpleResultStep(final ClassDesc returnType) {
+            this.returnType = returnType;
+        }
+
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return returnType;
         }
+    }
 
-        int captureSlot() {
-            return slot;
+    static class StringResultStep extends Step {
+        private final String charset;
+        private final long maxLength;
+        private final boolean intern;
+        private final boolean wide;
+
+        StringResultStep(final String charset, final long maxLength, final boolean intern, final boolean wide) {
+            this.charset = charset;
+            this.maxLength = maxLength;
+            this.intern = intern;
+            this.wide = wide;
         }
 
-        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            descs.add(CD_MemorySegment);
-            super.addDowncallArgsDescs(steps, index, descs);
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return CD_MemorySegment;
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
-            cb.aload(slot);
             super.call(cb, steps, index);
+            if (wide) {
+                // NativeStrings.getWideString(ptr[, maxLength])
+                if (maxLength == -1) {
+                    cb.invokestatic(CD_NativeStrings, "getWideString", MethodTypeDesc.of(CD_String, CD_MemorySegment));
+                } else {
+                    cb.loadConstant(maxLength);
+                    cb.invokestatic(CD_NativeStrings, "getWideString",
+                            MethodTypeDesc.of(CD_String, CD_MemorySegment, CD_long));
+                }
+            } else {
+                // NativeStrings.getString(ptr, charset[, maxLength]) or NativeStrings.getInternedString(...)
+                String methodName = intern ? "getInternedString" : "getString";
+                loadCharset(cb, charset);
+                if (maxLength == -1) {
+                    cb.invokestatic(CD_NativeStrings, methodName,
+                            MethodTypeDesc.of(CD_String, CD_MemorySegment, CD_Charset));
+                } else {
+                    cb.loadConstant(maxLength);
+                    cb.invokestatic(CD_NativeStrings, methodName,
+                            MethodTypeDesc.of(CD_String, CD_MemorySegment, CD_Charset, CD_long));
+                }
+            }
         }
     }
 
-    static final class AllocatedCaptureStep extends CaptureStep {
-        private int slot = -1;
-
-        AllocatedCaptureStep(final Compilers compilers) {
-            super(compilers);
-        }
+    static class NativeStringResultStep extends Step {
+        private final String charset;
+        private final long maxLength;
 
-        int captureSlot() {
-            return slot;
+        NativeStringResultStep(final String charset, final long maxLength) {
+            this.charset = charset;
+            this.maxLength = maxLength;
         }
 
-        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            descs.add(CD_MemorySegment);
-            super.addDowncallArgsDescs(steps, index, descs);
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return CD_MemorySegment;
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
-            slot = cb.allocateLocal(TypeKind.REFERENCE);
-            cb.localVariable(slot, "capture", CD_MemorySegment, cb.newBoundLabel(), cb.endLabel());
-            compilers.allocatorStep.loadAllocator(cb);
-            cb.invokestatic(CD_Linker_Option, "captureStateLayout", MethodTypeDesc.of(CD_StructLayout), true);
-            cb.invokeinterface(CD_SegmentAllocator, "allocate", MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout));
-            cb.dup();
-            cb.astore(slot);
             super.call(cb, steps, index);
+            // NativeString.of(ptr, charset[, maxLength])
+            loadCharset(cb, charset);
+            if (maxLength == -1) {
+                cb.invokestatic(CD_NativeString, "of", MethodTypeDesc.of(CD_NativeString, CD_MemorySegment, CD_Charset));
+            } else {
+                cb.loadConstant(maxLength);
+                cb.invokestatic(CD_NativeString, "of",
+                        MethodTypeDesc.of(CD_NativeString, CD_MemorySegment, CD_Charset, CD_long));
+            }
         }
     }
 
-    static final class ErrnoConsumerStep extends Step {
-        private final Compilers compilers;
-        private final int slot;
+    static class ReaderResultStep extends Step {
+        private final String charset;
+        private final long maxLength;
 
-        ErrnoConsumerStep(final Compilers compilers, final int slot) {
-            this.compilers = compilers;
-            this.slot = slot;
+        ReaderResultStep(final String charset, final long maxLength) {
+            this.charset = charset;
+            this.maxLength = maxLength;
+        }
+
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return CD_MemorySegment;
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
             super.call(cb, steps, index);
-            cb.aload(slot);
-            cb.loadConstant(DCD_errno_VarHandle);
-            cb.aload(compilers.captureStep.captureSlot());
-            cb.lconst_0();
-            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(CD_int, CD_MemorySegment, CD_long));
-            cb.invokestatic(CD_Errno, "ofNativeValue", MethodTypeDesc.of(CD_Errno, CD_int));
-            cb.invokeinterface(CD_ErrnoConsumer, "accept", MethodTypeDesc.of(CD_void, CD_Errno));
+            // NativeStrings.getReader(ptr, charset[, maxLength])
+            loadCharset(cb, charset);
+            if (maxLength == -1) {
+                cb.invokestatic(CD_NativeStrings, "getReader", MethodTypeDesc.of(CD_Reader, CD_MemorySegment, CD_Charset));
+            } else {
+                cb.loadConstant(maxLength);
+                cb.invokestatic(CD_NativeStrings, "getReader",
+                        MethodTypeDesc.of(CD_Reader, CD_MemorySegment, CD_Charset, CD_long));
+            }
         }
     }
 
-    static final class LastErrorConsumerStep extends Step {
-        private final Compilers compilers;
-        private final int slot;
+    static class StringArrayResultStep extends Step {
+        private final String charset;
 
-        LastErrorConsumerStep(final Compilers compilers, final int slot) {
-            this.compilers = compilers;
-            this.slot = slot;
+        StringArrayResultStep(final String charset) {
+            this.charset = charset;
+        }
+
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return CD_MemorySegment;
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
             super.call(cb, steps, index);
-            cb.aload(slot);
-            cb.loadConstant(DCD_LastError_VarHandle);
-            cb.aload(compilers.captureStep.captureSlot());
-            cb.lconst_0();
-            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(CD_int, CD_MemorySegment, CD_long));
-            cb.invokeinterface(CD_LastErrorConsumer, "accept", MethodTypeDesc.of(CD_void, CD_int));
+            // decode the NULL-terminated array
+            loadCharset(cb, charset);
+            cb.invokestatic(CD_NativeStrings, "getStringArray",
+                    MethodTypeDesc.of(CD_StringArray, CD_MemorySegment, CD_Charset));
         }
     }
 
-    static final class WSALastErrorConsumerStep extends Step {
-        private final Compilers compilers;
-        private final int slot;
+    /**
+     * Step that passes a pointer to a native scalar for each output component of an output record,
+     * and constructs the record from the return value and the scalars after the call.
+     * The scalars are allocated together in a single scratch segment, with one 8-byte slot each.
+     * The pointers of components which precede a parameter are passed by {@link OutPointerStep}s
+     * among the parameter steps, and the rest are passed by this step after all of the parameters.
+     */
+    static class OutRecordStep extends Step {
+        private static final long SLOT_SIZE = 8;
 
-        WSALastErrorConsumerStep(final Compilers compilers, final int slot) {
+        private final Compilers compilers;
+        private final ClassDesc recordType;
+        private final List<OutComponent> components;
+        private final int paramCnt;
+        private final long[] offsets;
+        private final long outCnt;
+        private boolean scratchEarly;
+        int scratch = -1;
+
+        OutRecordStep(final Compilers compilers, final ClassDesc recordType, final List<OutComponent> components,
+                final int paramCnt) {
             this.compilers = compilers;
-            this.slot = slot;
+            this.recordType = recordType;
+            this.components = components;
+            this.paramCnt = paramCnt;
+            offsets = new long[components.size()];
+            long offset = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                OutComponent component = components.get(i);
+                if (!component.ret()) {
+                    if (component.before() > paramCnt) {
+                        throw new IllegalArgumentException("Invalid parameter index " + component.before()
+                                + " for output record component " + i + " (the method has " + paramCnt + " parameters)");
+                    }
+                    offsets[i] = offset;
+                    offset += SLOT_SIZE;
+                }
+            }
+            outCnt = offset / SLOT_SIZE;
         }
 
-        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
-            super.call(cb, steps, index);
-            cb.aload(slot);
-            cb.loadConstant(DCD_WSALastError_VarHandle);
-            cb.aload(compilers.captureStep.captureSlot());
-            cb.lconst_0();
-            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(CD_int, CD_MemorySegment, CD_long));
-            cb.invokeinterface(CD_WSALastErrorConsumer, "accept", MethodTypeDesc.of(CD_void, CD_int));
+        /**
+         * {@return {@code true} if the pointer of some component precedes the given parameter}
+         *
+         * @param param the parameter index
+         */
+        boolean hasPointersBefore(final int param) {
+            return components.stream().anyMatch(c -> !c.ret() && c.before() == param);
         }
-    }
 
-    static final class SimpleArgumentStep extends Step {
-        private final ClassDesc paramDesc;
-        private final String asType;
-        private final int slot;
+        /**
+         * Add the steps which pass the pointers of the components which precede the given parameter.
+         * The scratch segment is allocated before the first such pointer.
+         *
+         * @param steps the list of steps (must not be {@code null})
+         * @param param the index of the parameter whose step is added next
+         */
+        void addPointerSteps(final List<Step> steps, final int param) {
+            for (int i = 0; i < components.size(); i++) {
+                OutComponent component = components.get(i);
+                if (!component.ret() && component.before() == param) {
+                    if (!scratchEarly) {
+                        steps.add(new OutScratchStep(this));
+                        scratchEarly = true;
+                    }
+                    steps.add(new OutPointerStep(this, offsets[i]));
+                }
+            }
+        }
 
-        SimpleArgumentStep(final ClassDesc paramDesc, final String asType, final int slot) {
-            this.paramDesc = paramDesc;
-            this.asType = asType;
-            this.slot = slot;
+        private boolean isTrailing(final OutComponent component) {
+            return !component.ret() && (component.before() == -1 || component.before() == paramCnt);
         }
 
         void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            sb.append(asTypeToDesc(asType));
+            for (OutComponent component : components) {
+                if (isTrailing(component)) {
+                    sb.append('*');
+                }
+            }
             super.addParamDesc(steps, index, sb);
         }
 
         void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            descs.add(paramDesc);
+            for (OutComponent component : components) {
+                if (isTrailing(component)) {
+                    descs.add(CD_MemorySegment);
+                }
+            }
             super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
-            b0.loadLocal(TypeKind.from(paramDesc), slot);
-            super.call(b0, steps, index);
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            for (OutComponent component : components) {
+                if (component.ret()) {
+                    return component.type();
+                }
+            }
+            return CD_void;
+        }
+
+        /**
+         * Allocate the scratch segment for the output scalars.
+         *
+         * @param cb the code builder (must not be {@code null})
+         */
+        void allocateScratch(final CodeBuilder cb) {
+            // allocator.allocate(outCnt * SLOT_SIZE, SLOT_SIZE)
+            scratch = cb.allocateLocal(TypeKind.REFERENCE);
+            compilers.allocatorStep.loadAllocator(cb);
+            cb.loadConstant(outCnt * SLOT_SIZE);
+            cb.loadConstant(SLOT_SIZE);
+            cb.invokeinterface(CD_SegmentAllocator, "allocate",
+                    MethodTypeDesc.of(CD_MemorySegment, CD_long, CD_long));
+            cb.astore(scratch);
+            cb.localVariable(scratch, "scratch", CD_MemorySegment, cb.newBoundLabel(), cb.endLabel());
+        }
+
+        /**
+         * Push a pointer to the scratch slot at the given offset.
+         *
+         * @param cb the code builder (must not be {@code null})
+         * @param offset the offset of the slot
+         */
+        void loadPointer(final CodeBuilder cb, final long offset) {
+            cb.aload(scratch);
+            cb.loadConstant(offset);
+            cb.loadConstant(SLOT_SIZE);
+            cb.invokeinterface(CD_MemorySegment, "asSlice", MethodTypeDesc.of(CD_MemorySegment, CD_long, CD_long));
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            if (outCnt > 0 && !scratchEarly) {
+                allocateScratch(cb);
+            }
+            // pass a pointer to the slot of each trailing component
+            for (int i = 0; i < offsets.length; i++) {
+                if (isTrailing(components.get(i))) {
+                    loadPointer(cb, offsets[i]);
+                }
+            }
+            super.call(cb, steps, index);
+            ClassDesc returnType = getReturnType(steps, index);
+            int result = -1;
+            if (!returnType.equals(CD_void)) {
+                result = cb.allocateLocal(TypeKind.from(returnType));
+                cb.storeLocal(TypeKind.from(returnType), result);
+            }
+            // construct the record from the return value and the scalars
+            cb.new_(recordType);
+            cb.dup();
+            ClassDesc[] types = new ClassDesc[components.size()];
+            for (int i = 0; i < types.length; i++) {
+                OutComponent component = components.get(i);
+                types[i] = component.type();
+                if (component.ret()) {
+                    cb.loadLocal(TypeKind.from(returnType), result);
+                } else {
+                    MethodTypeDesc getterType = MethodTypeDesc.of(component.type(), CD_MemorySegment, CD_long);
+                    cb.loadConstant(DynamicConstantDesc.ofNamed(
+                            CD_Bootstraps_outValue,
+                            asTypeToDesc(component.asType()),
+                            CD_MethodHandle,
+                            getterType));
+                    cb.aload(scratch);
+                    cb.loadConstant(offsets[i]);
+                    cb.invokevirtual(CD_MethodHandle, "invokeExact", getterType);
+                }
+            }
+            cb.invokespecial(recordType, INIT_NAME, MethodTypeDesc.of(CD_void, types));
         }
     }
 
-    static final class SegmentArgumentStep extends Step {
-        private final Compilers compilers;
-        private final int slot;
-        private final boolean in, out;
+    /**
+     * Step that allocates the scratch segment of an output record before the first pointer which precedes
+     * a parameter.
+     */
+    static class OutScratchStep extends Step {
+        private final OutRecordStep record;
 
-        SegmentArgumentStep(final Compilers compilers, final int slot, final boolean in, final boolean out) {
-            this.compilers = compilers;
-            this.slot = slot;
-            this.in = in;
-            this.out = out;
+        OutScratchStep(final OutRecordStep record) {
+            this.record = record;
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            record.allocateScratch(cb);
+            super.call(cb, steps, index);
+        }
+    }
+
+    /**
+     * Step that passes the pointer to the native scalar of an output record component which precedes a parameter.
+     */
+    static class OutPointerStep extends Step {
+        private final OutRecordStep record;
+        private final long offset;
+
+        OutPointerStep(final OutRecordStep record, final long offset) {
+            this.record = record;
+            this.offset = offset;
         }
 
         void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
@@ -1199,91 +4089,157 @@ public final class Generator {
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
-            cb.block(b0 -> {
-                int isNative = -1;
-                int temp = b0.allocateLocal(TypeKind.REFERENCE);
-                b0.aconst_null();
-                b0.localVariable(temp, "temp" + slot, CD_MemorySegment, b0.newBoundLabel(), b0.endLabel());
-                b0.astore(temp);
-                b0.lconst_0();
-                int size = b0.allocateLocal(TypeKind.LONG);
-                b0.localVariable(size, "size" + slot, CD_long, b0.newBoundLabel(), b0.endLabel());
-                b0.lstore(size);
-                b0.aload(slot);
-                b0.invokeinterface(CD_MemorySegment, "isNative", MethodTypeDesc.of(CD_boolean));
-                if (out) {
-                    // save for later
-                    isNative = b0.allocateLocal(TypeKind.BOOLEAN);
-                    b0.dup();
-                    b0.localVariable(isNative, "isNative" + slot, CD_boolean, b0.newBoundLabel(), b0.endLabel());
-                    b0.istore(isNative);
-                }
-                b0.ifThenElse(b1 -> {
-                    // buffer is native or null; just load it
-                    b1.aload(slot);
-                }, b1 -> {
-                    // buffer is heap; allocate temp buf and copy to it
-                    compilers.allocatorStep.loadAllocator(b1);
-                    b1.aload(slot);
-                    b1.invokeinterface(CD_MemorySegment, "byteSize", MethodTypeDesc.of(CD_long));
-                    b1.dup2();
-                    b1.lstore(size);
-                    b1.invokeinterface(CD_SegmentAllocator, "allocate", MethodTypeDesc.of(CD_MemorySegment, CD_long));
-                    b1.astore(temp);
-                    if (in) {
-                        // copy the data into the temporary segment
-                        b1.aload(slot);
-                        b1.lconst_0();
-                        b1.aload(temp);
-                        b1.lconst_0();
-                        b1.lload(size);
-                        b1.invokestatic(CD_MemorySegment, "copy", MethodTypeDesc.of(
-                                CD_void,
-                                CD_MemorySegment,
-                                CD_long,
-                                CD_MemorySegment,
-                                CD_long,
-                                CD_long), true);
-                    }
-                    b1.aload(temp);
-                });
-                super.call(b0, steps, index);
-                if (out) {
-                    b0.iload(isNative);
-                    b0.ifThen(Opcode.IFEQ, b1 -> {
-                        // copy the data out of the temporary segment
-                        b1.aload(temp);
-                        b1.lconst_0();
-                        b1.aload(slot);
-                        b1.lconst_0();
-                        b1.lload(size);
-                        b1.invokestatic(CD_MemorySegment, "copy", MethodTypeDesc.of(
-                                CD_void,
-                                CD_MemorySegment,
-                                CD_long,
-                                CD_MemorySegment,
-                                CD_long,
-                                CD_long), true);
-                    });
-                }
-            });
+            record.loadPointer(cb, offset);
+            super.call(cb, steps, index);
+        }
+    }
+
+    /**
+     * Get the constant for the layout of the given structure.
+     *
+     * @param struct the structure (must not be {@code null})
+     * @param name the layout name, or {@code _} for an unnamed layout (must not be {@code null})
+     * @return the layout constant (not {@code null})
+     */
+    static DynamicConstantDesc<StructLayout> structLayoutDesc(final StructInfo struct, final String name) {
+        List<StructMember> members = struct.members();
+        ConstantDesc[] layouts = new ConstantDesc[members.size()];
+        for (int i = 0; i < layouts.length; i++) {
+            StructMember member = members.get(i);
+            layouts[i] = member.nested() != null
+                    ? structLayoutDesc(member.nested(), member.name())
+                    : DynamicConstantDesc.ofNamed(
+                            CD_Bootstraps_memberLayout,
+                            member.name(),
+                            CD_ValueLayout,
+                            asTypeToDesc(member.asType()));
         }
+        return DynamicConstantDesc.ofNamed(CD_Bootstraps_nativeStructLayout, name, CD_StructLayout, layouts);
     }
 
-    static final class StringArgumentStep extends Step {
+    /**
+     * Load the sum of the given offset constants on to the stack as a {@code long}.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param offsets the offset constants (must not be {@code null})
+     */
+    static void loadOffset(final CodeBuilder cb, final List<ConstantDesc> offsets) {
+        if (offsets.isEmpty()) {
+            cb.lconst_0();
+            return;
+        }
+        cb.loadConstant(offsets.getFirst());
+        for (int i = 1; i < offsets.size(); i++) {
+            cb.loadConstant(offsets.get(i));
+            cb.ladd();
+        }
+    }
+
+    /**
+     * Get the offset constants of a member of a structure.
+     *
+     * @param offsets the offset constants of the structure itself (must not be {@code null})
+     * @param layout the structure layout constant (must not be {@code null})
+     * @param member the member (must not be {@code null})
+     * @return the offset constants of the member (not {@code null})
+     */
+    static List<ConstantDesc> memberOffsets(final List<ConstantDesc> offsets, final ConstantDesc layout,
+            final StructMember member) {
+        List<ConstantDesc> list = new ArrayList<>(offsets.size() + 1);
+        list.addAll(offsets);
+        list.add(DynamicConstantDesc.ofNamed(CD_Bootstraps_memberOffset, member.name(), CD_long, layout));
+        return list;
+    }
+
+    /**
+     * Emit code to construct a structure record from native memory, leaving it on the stack.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param struct the structure (must not be {@code null})
+     * @param layout the structure layout constant (must not be {@code null})
+     * @param segSlot the local variable holding the segment to read from
+     * @param offsets the offset constants of the structure within the segment (must not be {@code null})
+     */
+    static void emitReadStruct(final CodeBuilder cb, final StructInfo struct, final ConstantDesc layout, final int segSlot,
+            final List<ConstantDesc> offsets) {
+        List<StructMember> members = struct.members();
+        cb.new_(struct.type());
+        cb.dup();
+        ClassDesc[] types = new ClassDesc[members.size()];
+        for (int i = 0; i < types.length; i++) {
+            StructMember member = members.get(i);
+            types[i] = member.type();
+            List<ConstantDesc> memberOffsets = memberOffsets(offsets, layout, member);
+            if (member.nested() != null) {
+                emitReadStruct(cb, member.nested(), structLayoutDesc(member.nested(), member.name()), segSlot,
+                        memberOffsets);
+            } else {
+                MethodTypeDesc getterType = MethodTypeDesc.of(member.type(), CD_MemorySegment, CD_long);
+                cb.loadConstant(DynamicConstantDesc.ofNamed(
+                        CD_Bootstraps_outValue,
+                        asTypeToDesc(member.asType()),
+                        CD_MethodHandle,
+                        getterType));
+                cb.aload(segSlot);
+                loadOffset(cb, memberOffsets);
+                cb.invokevirtual(CD_MethodHandle, "invokeExact", getterType);
+            }
+        }
+        cb.invokespecial(struct.type(), INIT_NAME, MethodTypeDesc.of(CD_void, types));
+    }
+
+    /**
+     * Emit code to write a structure record to native memory.
+     *
+     * @param cb the code builder (must not be {@code null})
+     * @param struct the structure (must not be {@code null})
+     * @param layout the structure layout constant (must not be {@code null})
+     * @param segSlot the local variable holding the segment to write to
+     * @param recSlot the local variable holding the record to write
+     * @param offsets the offset constants of the structure within the segment (must not be {@code null})
+     */
+    static void emitWriteStruct(final CodeBuilder cb, final StructInfo struct, final ConstantDesc layout,
+            final int segSlot, final int recSlot, final List<ConstantDesc> offsets) {
+        for (StructMember member : struct.members()) {
+            List<ConstantDesc> memberOffsets = memberOffsets(offsets, layout, member);
+            if (member.nested() != null) {
+                int nested = cb.allocateLocal(TypeKind.REFERENCE);
+                cb.aload(recSlot);
+                cb.invokevirtual(struct.type(), member.name(), MethodTypeDesc.of(member.type()));
+                cb.astore(nested);
+                emitWriteStruct(cb, member.nested(), structLayoutDesc(member.nested(), member.name()), segSlot, nested,
+                        memberOffsets);
+            } else {
+                MethodTypeDesc setterType = MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_long, member.type());
+                cb.loadConstant(DynamicConstantDesc.ofNamed(
+                        CD_Bootstraps_inValue,
+                        asTypeToDesc(member.asType()),
+                        CD_MethodHandle,
+                        setterType));
+                cb.aload(segSlot);
+                loadOffset(cb, memberOffsets);
+                cb.aload(recSlot);
+                cb.invokevirtual(struct.type(), member.name(), MethodTypeDesc.of(member.type()));
+                cb.invokevirtual(CD_MethodHandle, "invokeExact", setterType);
+            }
+        }
+    }
 
+    static final class StructArgumentStep extends Step {
         private final Compilers compilers;
+        private final StructInfo struct;
+        private final ConstantDesc layout;
         private final int slot;
-        private final String charset;
 
-        StringArgumentStep(final Compilers compilers, final int slot, final String charset) {
+        StructArgumentStep(final Compilers compilers, final StructInfo struct, final ConstantDesc layout, final int slot) {
             this.compilers = compilers;
+            this.struct = struct;
+            this.layout = layout;
             this.slot = slot;
-            this.charset = charset;
         }
 
         void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            sb.append('*');
+            sb.append('$');
             super.addParamDesc(steps, index, sb);
         }
 
@@ -1293,44 +4249,92 @@ public final class Generator {
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
-            this.compilers.allocatorStep.loadAllocator(cb);
-            cb.aload(slot);
-            //    default MemorySegment allocateFrom(String str) {
-            //    default MemorySegment allocateFrom(String str, Charset charset) {
-            if (charset == null || charset.equalsIgnoreCase("utf-8") || charset.equalsIgnoreCase("utf_8")) {
-                cb.invokeinterface(CD_SegmentAllocator, "allocateFrom", MethodTypeDesc.of(CD_MemorySegment, CD_String));
-            } else {
-                cb.loadConstant(
-                        DynamicConstantDesc.ofNamed(
-                                CD_Bootstraps_charset,
-                                charset,
-                                CD_Charset));
-                cb.invokeinterface(CD_SegmentAllocator, "allocateFrom",
-                        MethodTypeDesc.of(CD_MemorySegment, CD_String, CD_Charset));
-            }
-            int strBuf = cb.allocateLocal(TypeKind.REFERENCE);
-            cb.astore(strBuf);
-            cb.localVariable(strBuf, "strBuf" + slot, CD_MemorySegment, cb.newBoundLabel(), cb.endLabel());
-            cb.aload(strBuf);
+            // allocator.allocate(layout)
+            int seg = cb.allocateLocal(TypeKind.REFERENCE);
+            compilers.allocatorStep.loadAllocator(cb);
+            cb.loadConstant(layout);
+            cb.invokeinterface(CD_SegmentAllocator, "allocate", MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout));
+            cb.astore(seg);
+            emitWriteStruct(cb, struct, layout, seg, slot, List.of());
+            cb.aload(seg);
             super.call(cb, steps, index);
         }
     }
 
-    static class PrimitiveArrayArgumentCopyStep extends Step {
+    static final class StructReturnAllocatorStep extends Step {
         private final Compilers compilers;
-        private final ClassDesc arrayType;
-        private final int arraySlot;
-        private final boolean in;
-        private final boolean out;
-        private int segmentSlot;
+        private final int slot;
 
-        private PrimitiveArrayArgumentCopyStep(final Compilers compilers, final ClassDesc arrayType, final int arraySlot,
-                final boolean in, final boolean out) {
+        StructReturnAllocatorStep(final Compilers compilers, final int slot) {
             this.compilers = compilers;
-            this.arrayType = arrayType;
-            this.arraySlot = arraySlot;
-            this.in = in;
-            this.out = out;
+            this.slot = slot;
+        }
+
+        void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
+            descs.add(CD_SegmentAllocator);
+            super.addDowncallArgsDescs(steps, index, descs);
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            if (slot == -1) {
+                compilers.allocatorStep.loadAllocator(cb);
+            } else {
+                // SegmentAllocator.prefixAllocator(buffer)
+                cb.aload(slot);
+                cb.invokestatic(CD_SegmentAllocator, "prefixAllocator",
+                        MethodTypeDesc.of(CD_SegmentAllocator, CD_MemorySegment), true);
+            }
+            super.call(cb, steps, index);
+        }
+    }
+
+    static final class StructResultStep extends Step {
+        private final StructInfo struct;
+        private final ConstantDesc layout;
+
+        StructResultStep(final StructInfo struct, final ConstantDesc layout) {
+            this.struct = struct;
+            this.layout = layout;
+        }
+
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return CD_MemorySegment;
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            super.call(cb, steps, index);
+            int seg = cb.allocateLocal(TypeKind.REFERENCE);
+            cb.astore(seg);
+            emitReadStruct(cb, struct, layout, seg, List.of());
+        }
+    }
+
+    static final class ReturnBufferResultStep extends Step {
+        private final ClassDesc returnType;
+
+        ReturnBufferResultStep(final ClassDesc returnType) {
+            this.returnType = returnType;
+        }
+
+        ClassDesc getReturnType(final List<Step> steps, final int index) {
+            return CD_MemorySegment;
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            super.call(cb, steps, index);
+            if (returnType.equals(CD_void)) {
+                cb.pop();
+            }
+        }
+    }
+
+    static final class CallbackArgumentStep extends Step {
+        private final ConstantDesc stubs;
+        private final int slot;
+
+        CallbackArgumentStep(final ConstantDesc stubs, final int slot) {
+            this.stubs = stubs;
+            this.slot = slot;
         }
 
         void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
@@ -1343,159 +4347,169 @@ public final class Generator {
             super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
-            b0.block(b1 -> {
-                compilers.allocatorStep.loadAllocator(b1);
-                String layoutName = valueLayoutName(arrayType.componentType());
-                ClassDesc layoutType = valueLayoutType(arrayType.componentType());
-                b1.getstatic(CD_ValueLayout, layoutName, layoutType);
-                if (in) {
-                    // copy into temp buffer
-                    b1.aload(arraySlot);
-                    //    default MemorySegment allocateFrom(ValueLayout.Of<Type> elementLayout, <type>... elements) {
-                    b1.invokeinterface(CD_SegmentAllocator, "allocateFrom",
-                            MethodTypeDesc.of(CD_MemorySegment, layoutType, arrayType));
-                } else {
-                    // out-only
-                    b1.aload(arraySlot);
-                    b1.arraylength();
-                    b1.i2l();
-                    //    default MemorySegment allocate(MemoryLayout elementLayout, long count) {
-                    b1.invokeinterface(CD_SegmentAllocator, "allocate",
-                            MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout, CD_long));
-                }
-                segmentSlot = b1.allocateLocal(TypeKind.REFERENCE);
-                b1.localVariable(segmentSlot, "segment" + arraySlot, CD_MemorySegment, b1.newBoundLabel(), b1.endLabel());
-                b1.dup();
-                b1.astore(segmentSlot);
-                // make the call
-                super.call(b1, steps, index);
-                // copy back to the array if needed
-                if (out) {
-                    // copy from temp buffer
-                    //    static void copy(MemorySegment srcSegment, ValueLayout srcLayout, long srcOffset,
-                    //                     Object dstArray, int dstIndex,
-                    //                     int elementCount) {
-                    b1.aload(segmentSlot); // srcSegment
-                    b1.getstatic(CD_ValueLayout, layoutName, layoutType); // srcLayout
-                    b1.lconst_0(); // srcOffset
-                    b1.aload(arraySlot); // dstArray
-                    b1.iconst_0(); // dstIndex
-                    b1.aload(arraySlot);
-                    b1.arraylength(); // elementCount
-                    b1.invokestatic(CD_MemorySegment, "copy",
-                            MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_ValueLayout, CD_long, CD_Object, CD_int, CD_int),
-                            true);
-                }
-            });
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            // stubs.stubFor(callback)
+            cb.loadConstant(stubs);
+            cb.aload(slot);
+            cb.invokevirtual(CD_UpcallStubs, "stubFor", MethodTypeDesc.of(CD_MemorySegment, CD_Object));
+            super.call(cb, steps, index);
+            // keep the callback (and thus its stub) alive until the call is complete
+            cb.aload(slot);
+            cb.invokestatic(CD_Reference, "reachabilityFence", MethodTypeDesc.of(CD_void, CD_Object));
         }
     }
 
-    /**
-     * Step that marshals a {@code MemorySegment[]} parameter as a native array of pointers.
-     * Allocates a contiguous native segment of {@code ADDRESS}-sized slots and, depending on
-     * the {@code @In}/{@code @Out} annotations, copies addresses in before the call
-     * and/or reads them back after.
-     */
-    static class SegmentArrayArgumentCopyStep extends Step {
+    static final class BatchLoopStep extends Step {
         private final Compilers compilers;
-        private final int arraySlot;
-        private final boolean in;
-        private final boolean out;
-        private int segmentSlot;
+        /**
+         * The slots of the array parameters, the first of which gives the number of calls.
+         */
+        final List<Integer> arraySlots = new ArrayList<>();
+        /**
+         * The type of the result array, or {@code null} if the results are discarded.
+         */
+        ClassDesc resultsType;
+        /**
+         * The slot of the result array.
+         */
+        int resultsSlot = -1;
+        /**
+         * {@code true} if the result array is allocated and returned by the method.
+         */
+        boolean returnResults;
+        private int indexSlot = -1;
 
-        private SegmentArrayArgumentCopyStep(final Compilers compilers, final int arraySlot,
-                final boolean in, final boolean out) {
+        BatchLoopStep(final Compilers compilers) {
             this.compilers = compilers;
-            this.arraySlot = arraySlot;
-            this.in = in;
-            this.out = out;
+        }
+
+        int indexSlot() {
+            return indexSlot;
+        }
+
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            // the capture buffer is shared by all calls
+            if (compilers.captureStep instanceof AllocatedCaptureStep acs) {
+                acs.allocate(cb);
+            }
+            int count = cb.allocateLocal(TypeKind.INT);
+            cb.localVariable(count, "count", CD_int, cb.newBoundLabel(), cb.endLabel());
+            cb.aload(arraySlots.getFirst());
+            cb.arraylength();
+            cb.istore(count);
+            // fail before the first call if any array is too short
+            for (int arraySlot : arraySlots.subList(1, arraySlots.size())) {
+                cb.iconst_0();
+                cb.iload(count);
+                cb.aload(arraySlot);
+                cb.arraylength();
+                cb.invokestatic(CD_Objects, "checkFromIndexSize", MethodTypeDesc.of(CD_int, CD_int, CD_int, CD_int));
+                cb.pop();
+            }
+            if (returnResults) {
+                resultsSlot = cb.allocateLocal(TypeKind.REFERENCE);
+                cb.localVariable(resultsSlot, "results", resultsType, cb.newBoundLabel(), cb.endLabel());
+                cb.iload(count);
+                cb.newarray(TypeKind.from(resultsType.componentType()));
+                cb.astore(resultsSlot);
+            }
+            indexSlot = cb.allocateLocal(TypeKind.INT);
+            cb.localVariable(indexSlot, "i", CD_int, cb.newBoundLabel(), cb.endLabel());
+            cb.iconst_0();
+            cb.istore(indexSlot);
+            Label top = cb.newBoundLabel();
+            Label end = cb.newLabel();
+            cb.iload(indexSlot);
+            cb.iload(count);
+            cb.if_icmpge(end);
+            super.call(cb, steps, index);
+            cb.iinc(indexSlot, 1);
+            cb.goto_(top);
+            cb.labelBinding(end);
+            if (returnResults) {
+                cb.aload(resultsSlot);
+            }
+        }
+    }
+
+    static final class BatchElementArgumentStep extends Step {
+        private final BatchLoopStep loop;
+        private final ClassDesc arrayType;
+        private final String asType;
+        private final int slot;
+
+        BatchElementArgumentStep(final BatchLoopStep loop, final ClassDesc arrayType, final String asType, final int slot) {
+            this.loop = loop;
+            this.arrayType = arrayType;
+            this.asType = asType;
+            this.slot = slot;
         }
 
         void addParamDesc(final List<Step> steps, final int index, final StringBuilder sb) {
-            sb.append('*');
+            sb.append(asTypeToDesc(asType));
             super.addParamDesc(steps, index, sb);
         }
 
         void addDowncallArgsDescs(final List<Step> steps, final int index, final List<ClassDesc> descs) {
-            descs.add(CD_MemorySegment);
+            descs.add(arrayType.componentType());
             super.addDowncallArgsDescs(steps, index, descs);
         }
 
-        void call(final CodeBuilder b0, final List<Step> steps, final int index) {
-            b0.block(b1 -> {
-                compilers.allocatorStep.loadAllocator(b1);
-                if (in) {
-                    // Bootstraps.copySegmentArrayToNative(allocator, array)
-                    b1.aload(arraySlot);
-                    b1.invokestatic(CD_Bootstraps, "copySegmentArrayToNative",
-                            MethodTypeDesc.of(CD_MemorySegment, CD_SegmentAllocator, CD_MemorySegmentArray));
-                } else {
-                    // out-only: allocator.allocate(ADDRESS, array.length)
-                    b1.getstatic(CD_ValueLayout, "ADDRESS", CD_AddressLayout);
-                    b1.aload(arraySlot);
-                    b1.arraylength();
-                    b1.i2l();
-                    b1.invokeinterface(CD_SegmentAllocator, "allocate",
-                            MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout, CD_long));
-                }
-                segmentSlot = b1.allocateLocal(TypeKind.REFERENCE);
-                b1.localVariable(segmentSlot, "segment" + arraySlot, CD_MemorySegment, b1.newBoundLabel(), b1.endLabel());
-                b1.dup();
-                b1.astore(segmentSlot);
-                // make the call
-                super.call(b1, steps, index);
-                // copy addresses back if needed
-                if (out) {
-                    // Bootstraps.copySegmentArrayFromNative(segment, array)
-                    b1.aload(segmentSlot);
-                    b1.aload(arraySlot);
-                    b1.invokestatic(CD_Bootstraps, "copySegmentArrayFromNative",
-                            MethodTypeDesc.of(CD_void, CD_MemorySegment, CD_MemorySegmentArray));
-                }
-            });
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            // array[i]
+            cb.aload(slot);
+            cb.iload(loop.indexSlot());
+            cb.arrayLoad(TypeKind.from(arrayType.componentType()));
+            super.call(cb, steps, index);
         }
     }
 
-    static class SimpleResultStep extends Step {
-        private final ClassDesc returnType;
+    static final class BatchErrnoStep extends Step {
+        private final Compilers compilers;
+        private final BatchLoopStep loop;
+        private final int slot;
 
-        SimpleResultStep(final ClassDesc returnType) {
-            this.returnType = returnType;
+        BatchErrnoStep(final Compilers compilers, final BatchLoopStep loop, final int slot) {
+            this.compilers = compilers;
+            this.loop = loop;
+            this.slot = slot;
         }
 
-        ClassDesc getReturnType(final List<Step> steps, final int index) {
-            return returnType;
+        void call(final CodeBuilder cb, final List<Step> steps, final int index) {
+            super.call(cb, steps, index);
+            // errnos[i] = Errno.ofNativeValue(errno)
+            cb.aload(slot);
+            cb.iload(loop.indexSlot());
+            cb.loadConstant(DCD_errno_VarHandle);
+            cb.aload(compilers.captureStep.captureSlot());
+            cb.lconst_0();
+            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(CD_int, CD_MemorySegment, CD_long));
+            cb.invokestatic(CD_Errno, "ofNativeValue", MethodTypeDesc.of(CD_Errno, CD_int));
+            cb.aastore();
         }
     }
 
-    static class StringResultStep extends Step {
-        private final String charset;
+    static final class BatchResultStep extends Step {
+        private final BatchLoopStep loop;
 
-        StringResultStep(final String charset) {
-            this.charset = charset;
+        BatchResultStep(final BatchLoopStep loop) {
+            this.loop = loop;
         }
 
         ClassDesc getReturnType(final List<Step> steps, final int index) {
-            return CD_MemorySegment;
+            return loop.resultsType.componentType();
         }
 
         void call(final CodeBuilder cb, final List<Step> steps, final int index) {
             super.call(cb, steps, index);
-            // assume a max byte length of 1024
-            cb.loadConstant(1024L);
-            cb.invokeinterface(CD_MemorySegment, "reinterpret", MethodTypeDesc.of(CD_MemorySegment, CD_long));
-            cb.lconst_0();
-            if (charset == null) {
-                cb.invokeinterface(CD_MemorySegment, "getString", MethodTypeDesc.of(CD_String, CD_long));
-            } else {
-                cb.loadConstant(
-                        DynamicConstantDesc.ofNamed(
-                                CD_Bootstraps_charset,
-                                charset,
-                                CD_Charset));
-                cb.invokeinterface(CD_MemorySegment, "getString", MethodTypeDesc.of(CD_String, CD_long, CD_Charset));
-            }
+            // results[i] = result
+            TypeKind kind = TypeKind.from(loop.resultsType.componentType());
+            int result = cb.allocateLocal(kind);
+            cb.storeLocal(kind, result);
+            cb.aload(loop.resultsSlot);
+            cb.iload(loop.indexSlot());
+            cb.loadLocal(kind, result);
+            cb.arrayStore(kind);
         }
     }
 }